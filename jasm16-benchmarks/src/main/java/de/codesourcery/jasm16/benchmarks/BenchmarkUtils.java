@@ -0,0 +1,122 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+
+import de.codesourcery.jasm16.compiler.CompilationListener;
+import de.codesourcery.jasm16.compiler.CompilationUnit;
+import de.codesourcery.jasm16.compiler.ICompilationUnit;
+import de.codesourcery.jasm16.compiler.ICompiler;
+import de.codesourcery.jasm16.compiler.ICompiler.CompilerOption;
+import de.codesourcery.jasm16.compiler.io.ByteArrayObjectCodeWriterFactory;
+
+/**
+ * Helper methods shared by all benchmarks.
+ * 
+ * <p>Sample programs are loaded from the directory given by the <code>jasm16.samples</code> system
+ * property , defaulting to the <code>samples</code> directory of the jASM_16 source tree.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class BenchmarkUtils 
+{
+	public static final String SAMPLES_DIR_PROPERTY = "jasm16.samples";
+
+	private BenchmarkUtils() {
+	}
+
+	public static File getSamplesDir() 
+	{
+		final String dir = System.getProperty( SAMPLES_DIR_PROPERTY );
+		if ( dir != null ) {
+			return new File( dir );
+		}
+		// benchmarks are usually run from either the source tree's root or the benchmarks directory
+		final File parent = new File("../samples");
+		return parent.isDirectory() ? parent : new File("samples");
+	}
+
+	public static String loadSample(String fileName) throws IOException 
+	{
+		final File file = new File( getSamplesDir() , fileName );
+		if ( ! file.isFile() ) {
+			throw new IOException("Sample "+file.getAbsolutePath()+" not found, set -D"+SAMPLES_DIR_PROPERTY+"=<directory>");
+		}
+		return FileUtils.readFileToString( file );
+	}
+
+	public static ICompiler createCompiler() 
+	{
+		final ICompiler compiler = new de.codesourcery.jasm16.compiler.Compiler();
+		compiler.setCompilerOption( CompilerOption.RELAXED_PARSING , true );
+		return compiler;
+	}
+
+	/**
+	 * Compiles a single source file.
+	 * 
+	 * @param name
+	 * @param source
+	 * @return the generated object code
+	 * @throws IllegalStateException if compilation failed
+	 */
+	public static byte[] compile(String name,String source) 
+	{
+		final ICompiler compiler = createCompiler();
+		final ByteArrayObjectCodeWriterFactory factory = new ByteArrayObjectCodeWriterFactory();
+		compiler.setObjectCodeWriterFactory( factory );
+
+		final ICompilationUnit unit = CompilationUnit.createInstance( name , source );
+		compiler.compile( Collections.singletonList( unit ) , new CompilationListener() );
+		if ( unit.hasErrors() ) {
+			throw new IllegalStateException("Failed to compile "+name);
+		}
+		return factory.getBytes();
+	}
+
+	/**
+	 * Generates a syntactically and semantically valid source file.
+	 * 
+	 * <p>The source mixes instructions with different addressing modes , labels , expressions , 
+	 * comments and data so that all parts of the lexer/parser get exercised.</p>
+	 * 
+	 * @param blocks number of blocks to generate , each block is 10 lines long
+	 * @return
+	 */
+	public static String generateSource(int blocks) 
+	{
+		final StringBuilder result = new StringBuilder( blocks * 200 );
+		for ( int i = 0 ; i < blocks ; i++ ) 
+		{
+			result.append("; block ").append( i ).append("\n");
+			result.append("label").append( i ).append(":\n");
+			result.append("    SET A , 0x").append( Integer.toHexString( i & 0xffff ) ).append("\n");
+			result.append("    ADD [data").append( i ).append("] , (A+2)*3\n");
+			result.append("    SET PUSH , [B+").append( i & 0xff ).append("]\n");
+			result.append("    IFE A , ").append( i & 0x1f ).append(" ; short literal\n");
+			result.append("    JSR label").append( i ).append("\n");
+			result.append("    SET X , POP\n");
+			result.append("data").append( i ).append(": dat 0x1234 , ").append( i & 0xffff ).append("\n");
+			result.append("    .byte 1,2,3,4\n");
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.jasm16.compiler.CompilationListener;
+import de.codesourcery.jasm16.compiler.CompilationUnit;
+import de.codesourcery.jasm16.compiler.DebugInfo;
+import de.codesourcery.jasm16.compiler.ICompilationUnit;
+import de.codesourcery.jasm16.compiler.ICompiler;
+import de.codesourcery.jasm16.compiler.ICompilerPhase;
+import de.codesourcery.jasm16.compiler.io.NullObjectCodeWriterFactory;
+
+/**
+ * Measures the full {@link ICompiler#compile(List, de.codesourcery.jasm16.compiler.ICompilationListener)} pipeline.
+ * 
+ * <p>Each run executes all compiler phases up to and including <code>lastPhase</code> , the time spent in
+ * an individual phase is the difference between the results for this phase and its predecessor.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark 
+{
+	@Param({"emulatortest.dasm16"})
+	public String program;
+
+	@Param({ ICompilerPhase.PHASE_PARSE,
+		ICompilerPhase.PHASE_EXPAND_MACROS,
+		ICompilerPhase.PHASE_VALIDATE_AST1,
+		ICompilerPhase.PHASE_RESOLVE_ADDRESSES,
+		ICompilerPhase.PHASE_VALIDATE_AST2,
+		ICompilerPhase.PHASE_GENERATE_CODE })
+	public String lastPhase;
+
+	private String source;
+
+	@Setup
+	public void setup() throws IOException 
+	{
+		source = BenchmarkUtils.loadSample( program );
+		final ICompilationUnit unit = CompilationUnit.createInstance( program , source );
+		createCompiler().compile( Collections.singletonList( unit ) , new CompilationListener() );
+		if ( unit.hasErrors() ) {
+			throw new IllegalStateException("Failed to compile "+program);
+		}
+	}
+
+	private ICompiler createCompiler() 
+	{
+		final ICompiler compiler = BenchmarkUtils.createCompiler();
+		compiler.setObjectCodeWriterFactory( new NullObjectCodeWriterFactory() );
+
+		boolean remove = false;
+		for ( ICompilerPhase phase : new ArrayList<ICompilerPhase>( compiler.getCompilerPhases() ) ) 
+		{
+			if ( remove ) {
+				compiler.removeCompilerPhase( phase.getName() );
+			}
+			remove |= phase.getName().equals( lastPhase );
+		}
+		return compiler;
+	}
+
+	@Benchmark
+	public DebugInfo compile() 
+	{
+		final ICompilationUnit unit = CompilationUnit.createInstance( program , source );
+		return createCompiler().compile( Collections.singletonList( unit ) , new CompilationListener() );
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.jasm16.disassembler.DisassembledLine;
+import de.codesourcery.jasm16.disassembler.Disassembler;
+
+/**
+ * Measures disassembling the whole 64K words address space.
+ * 
+ * <p>Memory is filled with repeated copies of a compiled sample program.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisassemblerBenchmark 
+{
+	@Param({"emulatortest.dasm16"})
+	public String program;
+
+	@Param({"false","true"})
+	public boolean printHexDump;
+
+	private final Disassembler disassembler = new Disassembler();
+	private byte[] data;
+
+	@Setup
+	public void setup() throws IOException 
+	{
+		final byte[] code = BenchmarkUtils.compile( program , BenchmarkUtils.loadSample( program ) );
+		data = new byte[ 65536 * 2 ];
+		for ( int offset = 0 ; offset < data.length ; offset += code.length ) {
+			System.arraycopy( code , 0 , data , offset , Math.min( code.length , data.length - offset ) );
+		}
+	}
+
+	@Benchmark
+	public List<DisassembledLine> disassemble() {
+		return disassembler.disassemble( data , printHexDump );
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.emulator.Emulator;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultClock;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultScreen;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+
+/**
+ * Measures emulated DCPU-16 instructions per second for some of the sample programs.
+ * 
+ * <p>The emulator runs without a clock thread at max. speed , the programs
+ * get a clock and a screen attached but no keyboard.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmulatorBenchmark 
+{
+	private static final int INSTRUCTIONS_PER_INVOCATION = 100000;
+
+	@Param({"loop.dasm16","matrix.dasm16","scroller.dasm16"})
+	public String program;
+
+	private MemoryImage image;
+	private Emulator emulator;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException 
+	{
+		image = MemoryImage.create( Address.wordAddress( 0 ) , BenchmarkUtils.compile( program , BenchmarkUtils.loadSample( program ) ) );
+		emulator = new Emulator( false );
+		emulator.addDevice( new DefaultClock() );
+		emulator.addDevice( new DefaultScreen( true , true ) );
+	}
+
+	@Setup(Level.Iteration)
+	public void restart() 
+	{
+		emulator.stop();
+		emulator.reset( true );
+		emulator.loadMemory( image );
+		emulator.start();
+	}
+
+	@TearDown(Level.Iteration)
+	public void checkStillRunning() 
+	{
+		// executeTimeSlice() returns immediately once the emulation stopped , which would inflate the results
+		if ( ! emulator.isRunning() ) {
+			throw new IllegalStateException("Emulation of "+program+" stopped unexpectedly",emulator.getLastEmulationError());
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void dispose() {
+		emulator.dispose();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(INSTRUCTIONS_PER_INVOCATION)
+	public int executeInstructions() {
+		return emulator.executeTimeSlice( INSTRUCTIONS_PER_INVOCATION );
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.jasm16.ast.AST;
+import de.codesourcery.jasm16.compiler.CompilationUnit;
+import de.codesourcery.jasm16.compiler.ICompilationUnit;
+import de.codesourcery.jasm16.compiler.ICompilationUnitResolver;
+import de.codesourcery.jasm16.compiler.SymbolTable;
+import de.codesourcery.jasm16.compiler.io.AbstractResourceResolver;
+import de.codesourcery.jasm16.compiler.io.IResource;
+import de.codesourcery.jasm16.compiler.io.IResourceResolver;
+import de.codesourcery.jasm16.exceptions.ResourceNotFoundException;
+import de.codesourcery.jasm16.lexer.Lexer;
+import de.codesourcery.jasm16.parser.IParser.ParserOption;
+import de.codesourcery.jasm16.parser.Parser;
+import de.codesourcery.jasm16.scanner.Scanner;
+
+/**
+ * Measures {@link Lexer} and {@link Parser} throughput on large source files.
+ * 
+ * <p>The <code>generated</code> source consists of 20000 lines generated by {@link BenchmarkUtils#generateSource(int)} , 
+ * all other sources are loaded from the <code>samples</code> directory.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerParserBenchmark 
+{
+	private static final String GENERATED = "generated";
+
+	private static final IResourceResolver RESOURCE_RESOLVER = new AbstractResourceResolver() {
+
+		@Override
+		public IResource resolve(String identifier) throws ResourceNotFoundException {
+			throw new UnsupportedOperationException("Includes are not supported");
+		}
+
+		@Override
+		public IResource resolveRelative(String identifier, IResource parent) throws ResourceNotFoundException {
+			throw new UnsupportedOperationException("Includes are not supported");
+		}
+	};
+
+	private static final ICompilationUnitResolver UNIT_RESOLVER = new ICompilationUnitResolver() {
+
+		@Override
+		public ICompilationUnit getOrCreateCompilationUnit(IResource resource) throws IOException {
+			throw new UnsupportedOperationException("Includes are not supported");
+		}
+
+		@Override
+		public ICompilationUnit getCompilationUnit(IResource resource) throws IOException {
+			throw new UnsupportedOperationException("Includes are not supported");
+		}
+	};
+
+	@Param({GENERATED,"emulatortest.dasm16"})
+	public String sourceName;
+
+	private String source;
+
+	@Setup
+	public void setup() throws IOException 
+	{
+		source = GENERATED.equals( sourceName ) ? BenchmarkUtils.generateSource( 2000 ) : BenchmarkUtils.loadSample( sourceName );
+		final AST ast = parse();
+		if ( ast.hasErrors() ) {
+			throw new IllegalStateException("Source "+sourceName+" has syntax errors");
+		}
+	}
+
+	@Benchmark
+	public int lex() 
+	{
+		final Lexer lexer = new Lexer( new Scanner( source ) );
+		int tokens = 0;
+		while ( ! lexer.eof() ) {
+			lexer.read();
+			tokens++;
+		}
+		return tokens;
+	}
+
+	@Benchmark
+	public AST parse() 
+	{
+		final Parser parser = new Parser( UNIT_RESOLVER );
+		parser.setParserOption( ParserOption.RELAXED_PARSING , true );
+		final ICompilationUnit unit = CompilationUnit.createInstance( sourceName , source );
+		return parser.parse( unit , new SymbolTable( sourceName ) , source , RESOURCE_RESOLVER , null );
+	}
+}
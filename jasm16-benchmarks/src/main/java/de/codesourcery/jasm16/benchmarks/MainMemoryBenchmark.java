@@ -0,0 +1,95 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.memory.IMemoryTypes;
+import de.codesourcery.jasm16.emulator.memory.MainMemory;
+import de.codesourcery.jasm16.emulator.memory.MemoryRegion;
+
+/**
+ * Measures {@link MainMemory#read(int)} and {@link MainMemory#write(int, int)} with
+ * a varying number of mapped memory regions.
+ * 
+ * <p>Additional regions are spread evenly across the address space and deliberately do not start
+ * or end at page boundaries , so pages containing region boundaries need per-word lookups.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MainMemoryBenchmark 
+{
+	private static final int WORDS = 65536;
+
+	@Param({"1","4","16","64"})
+	public int regionCount;
+
+	private MainMemory memory;
+
+	@Setup
+	public void setup() 
+	{
+		memory = new MainMemory( WORDS );
+		final int spacing = WORDS / regionCount;
+		for ( int i = 1 ; i < regionCount ; i++ ) 
+		{
+			final AddressRange range = new AddressRange( Address.wordAddress( i * spacing + 17 ) , Size.words( spacing / 2 ) );
+			memory.mapRegion( new MemoryRegion( "region #"+i , IMemoryTypes.TYPE_RAM , range ) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public int read() 
+	{
+		int sum = 0;
+		for ( int address = 0 ; address < WORDS ; address++ ) {
+			sum += memory.read( address );
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void write() 
+	{
+		for ( int address = 0 ; address < WORDS ; address++ ) {
+			memory.write( address , address );
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JPanel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.jasm16.emulator.Emulator;
+import de.codesourcery.jasm16.emulator.ICPU;
+import de.codesourcery.jasm16.emulator.IEmulator;
+import de.codesourcery.jasm16.emulator.IEmulatorInvoker;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultScreen;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+
+/**
+ * Measures rendering a {@link DefaultScreen} frame after some video RAM cells changed.
+ * 
+ * <p>Runs headless , the screen is attached to a component that is never displayed.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ScreenBenchmark 
+{
+	private static final int VIDEO_RAM_START = 0x8000;
+	private static final int CELLS = DefaultScreen.STANDARD_SCREEN_COLUMNS * DefaultScreen.STANDARD_SCREEN_ROWS;
+
+	@Param({"1","32",""+CELLS})
+	public int changedCells;
+
+	private Emulator emulator;
+	private DefaultScreen screen;
+	private int frame;
+
+	private final IEmulatorInvoker<Void> changeCells = new IEmulatorInvoker<Void>() {
+
+		@Override
+		public Void doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory) 
+		{
+			// white-on-blue characters , the blink bit stays cleared
+			final int value = 0xf100 | ( frame & 0x7f );
+			for ( int i = 0 ; i < changedCells ; i++ ) {
+				memory.write( VIDEO_RAM_START + ( ( frame + i ) % CELLS ) , value );
+			}
+			return null;
+		}
+	};
+
+	@Setup
+	public void setup() 
+	{
+		emulator = new Emulator( false );
+		screen = new DefaultScreen( true , true );
+		emulator.addDevice( screen );
+		screen.attach( new JPanel() );
+	}
+
+	@TearDown
+	public void dispose() {
+		emulator.dispose();
+	}
+
+	@Benchmark
+	public void render() 
+	{
+		frame++;
+		emulator.doWithEmulator( changeCells );
+		screen.renderScreen();
+	}
+}
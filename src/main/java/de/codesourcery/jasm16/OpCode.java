@@ -276,35 +276,35 @@ public enum OpCode
     // conditions
     IFB("ifb",2,0x10) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     },  
     IFC("ifc",2,0x11) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     },       
     IFE("ife",2,0x12) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     },
     IFN("ifn",2,0x13) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     },	
     IFG("ifg",2,0x14) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     },
     IFA("ifa",2,0x15) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     }, 
     IFL("ifl",2,0x16) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     },
     IFU("ifu",2,0x17) {
         @Override
-        protected boolean isConditionalBranchOpCode() { return true; }
+        public boolean isConditionalBranchOpCode() { return true; }
     },     
     // bit-shifting
     SHR("shr",2,0x0d),    
@@ -772,7 +772,7 @@ public enum OpCode
                 "reached (addressing mode: "+addressingMode+")");
     }    
     
-    protected boolean isConditionalBranchOpCode() {
+    public boolean isConditionalBranchOpCode() {
         return false;
     }
     
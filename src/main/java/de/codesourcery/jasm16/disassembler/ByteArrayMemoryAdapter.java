@@ -75,6 +75,18 @@ public final class ByteArrayMemoryAdapter implements IMemory {
         return read( Address.wordAddress( wordAddress ) );
     }
 
+    @Override
+    public void snapshot(int wordAddress, int[] target) 
+    {
+        final int sizeInWords = ( getSizeInBytes() + 1 ) / 2;
+        int current = wordAddress % sizeInWords;
+        for ( int i = 0 ; i < target.length ; i++ ) 
+        {
+            target[i] = read( Address.wordAddress( current ) );
+            current = ( current + 1 ) % sizeInWords;
+        }
+    }
+
 	@Override
 	public void clear() 
 	{
@@ -101,4 +113,16 @@ public final class ByteArrayMemoryAdapter implements IMemory {
 	public void write(Address address, int value) {
 		write( address.getWordAddressValue() , value );
 	}   
+
+	@Override
+	public void bulkWrite(int wordAddress, int[] source, int sourceOffset, int count) 
+	{
+        final int sizeInWords = ( getSizeInBytes() + 1 ) / 2;
+        int current = wordAddress % sizeInWords;
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            write( current , source[ sourceOffset + i ] );
+            current = ( current + 1 ) % sizeInWords;
+        }
+	}
 }
\ No newline at end of file
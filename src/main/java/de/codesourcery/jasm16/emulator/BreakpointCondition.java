@@ -0,0 +1,434 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.emulator.memory.IReadOnlyMemory;
+import de.codesourcery.jasm16.exceptions.ParseException;
+import de.codesourcery.jasm16.parser.Operator;
+
+/**
+ * A breakpoint condition that has been compiled into a tree of evaluators.
+ *
+ * <p>The condition is parsed only once (when calling {@link #compile(String)}) , evaluating
+ * it just reads the referenced registers / memory locations and does the arithmetic.</p>
+ *
+ * <p>Supported syntax:
+ * <ul>
+ *   <li>decimal and hexadecimal (<code>0x1234</code>) number literals</li>
+ *   <li>registers <code>A,B,C,X,Y,Z,I,J,PC,SP,EX</code> (case-insensitive)</li>
+ *   <li>memory references <code>[ expression ]</code> , for example <code>[a]</code> or <code>[0x4000]</code></li>
+ *   <li>parens, unary minus and all infix operators from {@link Operator} plus {@link Operator#BITWISE_NOT}</li>
+ * </ul>
+ * </p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see Breakpoint#setCondition(String)
+ */
+public final class BreakpointCondition
+{
+	private final String condition;
+	private final Node root;
+
+	/**
+	 * Provides the CPU and memory a condition gets evaluated against.
+	 *
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	protected interface IEvaluationContext
+	{
+		public IReadOnlyCPU getCPU();
+
+		public IReadOnlyMemory getMemory();
+	}
+
+	private BreakpointCondition(String condition,Node root)
+	{
+		this.condition = condition;
+		this.root = root;
+	}
+
+	/**
+	 * Compiles a condition.
+	 *
+	 * @param condition
+	 * @return
+	 * @throws ParseException if the condition is syntactically invalid
+	 */
+	public static BreakpointCondition compile(String condition) throws ParseException
+	{
+		if (condition == null) {
+			throw new IllegalArgumentException("condition must not be NULL");
+		}
+		final Parser parser = new Parser( condition );
+		return new BreakpointCondition( condition , parser.parse() );
+	}
+
+	/**
+	 * Evaluates this condition against an emulator.
+	 *
+	 * <p>Note that {@link IEmulator#getCPU()} and {@link IEmulator#getMemory()} get
+	 * invoked for every register/memory reference , use {@link #evaluate(IReadOnlyCPU, IReadOnlyMemory)}
+	 * when having direct access to the CPU.</p>
+	 *
+	 * @param emulator
+	 * @return
+	 */
+	public long evaluate(final IEmulator emulator)
+	{
+		return root.evaluate( new IEvaluationContext() {
+
+			@Override
+			public IReadOnlyCPU getCPU() {
+				return emulator.getCPU();
+			}
+
+			@Override
+			public IReadOnlyMemory getMemory() {
+				return emulator.getMemory();
+			}
+		});
+	}
+
+	/**
+	 * Evaluates this condition.
+	 *
+	 * @param cpu
+	 * @param memory
+	 * @return
+	 */
+	public long evaluate(final IReadOnlyCPU cpu,final IReadOnlyMemory memory)
+	{
+		return root.evaluate( new IEvaluationContext() {
+
+			@Override
+			public IReadOnlyCPU getCPU() {
+				return cpu;
+			}
+
+			@Override
+			public IReadOnlyMemory getMemory() {
+				return memory;
+			}
+		});
+	}
+
+	public String getCondition() {
+		return condition;
+	}
+
+	@Override
+	public String toString() {
+		return condition;
+	}
+
+	// ============ evaluators ============
+
+	protected static abstract class Node
+	{
+		public abstract long evaluate(IEvaluationContext context);
+	}
+
+	protected static final class Constant extends Node
+	{
+		private final long value;
+
+		public Constant(long value) {
+			this.value = value;
+		}
+
+		@Override
+		public long evaluate(IEvaluationContext context) {
+			return value;
+		}
+	}
+
+	protected static final class RegisterValue extends Node
+	{
+		private final Register register;
+
+		public RegisterValue(Register register) {
+			this.register = register;
+		}
+
+		@Override
+		public long evaluate(IEvaluationContext context) {
+			return context.getCPU().getRegisterValue( register );
+		}
+	}
+
+	protected static final class MemoryValue extends Node
+	{
+		private final Node address;
+
+		public MemoryValue(Node address) {
+			this.address = address;
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public long evaluate(IEvaluationContext context)
+		{
+			final int wordAddress = (int) ( address.evaluate( context ) & 0xffff );
+			return context.getMemory().read( wordAddress );
+		}
+	}
+
+	protected static final class Negate extends Node
+	{
+		private final Node term;
+
+		public Negate(Node term) {
+			this.term = term;
+		}
+
+		@Override
+		public long evaluate(IEvaluationContext context) {
+			return - term.evaluate( context );
+		}
+	}
+
+	protected static final class BitwiseNot extends Node
+	{
+		private final Node term;
+
+		public BitwiseNot(Node term) {
+			this.term = term;
+		}
+
+		@Override
+		public long evaluate(IEvaluationContext context) {
+			return ~ term.evaluate( context );
+		}
+	}
+
+	protected static final class BinaryOperation extends Node
+	{
+		private final Operator operator;
+		private final Node left;
+		private final Node right;
+
+		public BinaryOperation(Operator operator, Node left, Node right)
+		{
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public long evaluate(IEvaluationContext context)
+		{
+			final long n1 = left.evaluate( context );
+			final long n2 = right.evaluate( context );
+			switch( operator )
+			{
+				case BITWISE_OR:       return n1 | n2;
+				case BITWISE_XOR:      return n1 ^ n2;
+				case BITWISE_AND:      return n1 & n2;
+				case EQUAL:            return n1 == n2 ? 1 : 0;
+				case NOT_EQUAL:        return n1 != n2 ? 1 : 0;
+				case GREATER_OR_EQUAL: return n1 >= n2 ? 1 : 0;
+				case LESS_OR_EQUAL:    return n1 <= n2 ? 1 : 0;
+				case GREATER_THAN:     return n1 > n2 ? 1 : 0;
+				case LESS_THAN:        return n1 < n2 ? 1 : 0;
+				case LEFT_SHIFT:       return n1 << n2;
+				case RIGHT_SHIFT:      return n1 >> n2;
+				case PLUS:             return n1 + n2;
+				case MINUS:            return n1 - n2;
+				case MODULO:           return n2 != 0 ? n1 % n2 : 0;
+				case TIMES:            return n1 * n2;
+				case DIVIDE:           return n2 != 0 ? n1 / n2 : 0;
+				default:
+					throw new RuntimeException("Internal error, unhandled operator "+operator);
+			}
+		}
+	}
+
+	// ============ parser ============
+
+	/**
+	 * Simple precedence-climbing parser that turns a condition into
+	 * a tree of {@link Node}s.
+	 */
+	private static final class Parser
+	{
+		private final String input;
+		private int index = 0;
+
+		public Parser(String input) {
+			this.input = input;
+		}
+
+		public Node parse() throws ParseException
+		{
+			final Node result = parseExpression( 0 );
+			skipWhitespace();
+			if ( ! eof() ) {
+				throw error("Unexpected character '"+peek()+"'");
+			}
+			return result;
+		}
+
+		private Node parseExpression(int minPrecedence) throws ParseException
+		{
+			Node left = parseUnary();
+			while ( true )
+			{
+				final int start = index;
+				final Operator op = parseInfixOperator();
+				if ( op == null || op.getPrecedence() < minPrecedence ) {
+					index = start;
+					return left;
+				}
+				// all infix operators are left-associative
+				final Node right = parseExpression( op.getPrecedence() + 1 );
+				left = new BinaryOperation( op , left , right );
+			}
+		}
+
+		private Node parseUnary() throws ParseException
+		{
+			skipWhitespace();
+			if ( eof() ) {
+				throw error("Incomplete or empty expression");
+			}
+			final char c = peek();
+			if ( c == '-' ) {
+				index++;
+				return new Negate( parseUnary() );
+			}
+			if ( c == '~' ) {
+				index++;
+				return new BitwiseNot( parseUnary() );
+			}
+			if ( c == '(' )
+			{
+				index++;
+				final Node result = parseExpression( 0 );
+				expect( ')' );
+				return result;
+			}
+			if ( c == '[' )
+			{
+				index++;
+				final Node result = new MemoryValue( parseExpression( 0 ) );
+				expect( ']' );
+				return result;
+			}
+			if ( Character.isDigit( c ) ) {
+				return new Constant( parseNumber() );
+			}
+			if ( Character.isLetter( c ) )
+			{
+				final int start = index;
+				while ( ! eof() && Character.isLetterOrDigit( peek() ) ) {
+					index++;
+				}
+				final String identifier = input.substring( start , index );
+				final Register register = Register.fromString( identifier.toLowerCase() );
+				if ( register == null ) {
+					throw new ParseException("Unknown register '"+identifier+"'",start,identifier.length());
+				}
+				return new RegisterValue( register );
+			}
+			throw error("Unexpected character '"+c+"'");
+		}
+
+		private long parseNumber() throws ParseException
+		{
+			final int start = index;
+			int radix = 10;
+			if ( input.startsWith( "0x" , index ) || input.startsWith( "0X" , index ) ) {
+				index += 2;
+				radix = 16;
+			}
+			final int digitsStart = index;
+			while ( ! eof() && Character.digit( peek() , radix ) != -1 ) {
+				index++;
+			}
+			if ( digitsStart == index ) {
+				throw new ParseException("Invalid number literal",start,index-start);
+			}
+			try {
+				return Long.parseLong( input.substring( digitsStart , index ) , radix );
+			}
+			catch(NumberFormatException e) {
+				throw new ParseException("Invalid number literal",start,index-start,e);
+			}
+		}
+
+		private Operator parseInfixOperator()
+		{
+			skipWhitespace();
+			if ( eof() ) {
+				return null;
+			}
+			// try two-character operators first
+			if ( index+1 < input.length() )
+			{
+				final Operator op = toInfixOperator( input.substring( index , index+2 ) );
+				if ( op != null ) {
+					index += 2;
+					return op;
+				}
+			}
+			final Operator op = toInfixOperator( input.substring( index , index+1 ) );
+			if ( op != null ) {
+				index++;
+			}
+			return op;
+		}
+
+		private static Operator toInfixOperator(String literal)
+		{
+			if ( ! Operator.isValidOperator( literal ) ) {
+				return null;
+			}
+			final Operator op = Operator.fromString( literal );
+			return op.isInfixOperator() ? op : null;
+		}
+
+		private void expect(char expected) throws ParseException
+		{
+			skipWhitespace();
+			if ( eof() || peek() != expected ) {
+				throw error("Missing '"+expected+"'");
+			}
+			index++;
+		}
+
+		private void skipWhitespace()
+		{
+			while ( ! eof() && Character.isWhitespace( peek() ) ) {
+				index++;
+			}
+		}
+
+		private boolean eof() {
+			return index >= input.length();
+		}
+
+		private char peek() {
+			return input.charAt( index );
+		}
+
+		private ParseException error(String message) {
+			return new ParseException( message+" in condition '"+input+"'" , index , 0 );
+		}
+	}
+}
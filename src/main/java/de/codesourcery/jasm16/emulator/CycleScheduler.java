@@ -0,0 +1,208 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+
+/**
+ * Fires {@link IScheduledEvent}s after a given number of emulated CPU cycles.
+ *
+ * <p>Time is measured in CPU cycles executed since this scheduler has been created , so
+ * device timing is independent of the host's speed/load and the emulation speed. Events that
+ * are due at the same cycle fire in the order they were scheduled.</p>
+ *
+ * <p>Events that get scheduled while another event is firing are scheduled relative to the cycle
+ * the firing event was due at (and not relative to the current cycle) so that periodic events don't drift.
+ * If the firing event was overdue , events scheduled by it may already be due as well and fire during
+ * the same {@link #fireDueEvents(IEmulator, ICPU, IMemory)} invocation , a periodic event that fell behind
+ * fires once for each period that has passed (catch-up).</p>
+ *
+ * <p>This class is NOT thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CycleScheduler
+{
+	private final PriorityQueue<ScheduledEntry> queue = new PriorityQueue<ScheduledEntry>();
+
+	private long currentCycle;
+	private long nextDueCycle = Long.MAX_VALUE;
+	private long sequenceNumber;
+	// due cycle of the event currently being fired or -1
+	private long firingDueCycle = -1;
+
+	protected static final class ScheduledEntry implements Comparable<ScheduledEntry>
+	{
+		public final long dueCycle;
+		public final long sequenceNumber;
+		public final IScheduledEvent event;
+
+		public ScheduledEntry(long dueCycle, long sequenceNumber, IScheduledEvent event)
+		{
+			this.dueCycle = dueCycle;
+			this.sequenceNumber = sequenceNumber;
+			this.event = event;
+		}
+
+		@Override
+		public int compareTo(ScheduledEntry o)
+		{
+			if ( this.dueCycle != o.dueCycle ) {
+				return this.dueCycle < o.dueCycle ? -1 : 1;
+			}
+			if ( this.sequenceNumber != o.sequenceNumber ) {
+				return this.sequenceNumber < o.sequenceNumber ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Schedules an event.
+	 *
+	 * @param delayInCycles number of cycles relative to the current cycle or , when invoked 
+	 * by an event that is currently firing , relative to the cycle that event was due at. Events
+	 * that are due right away fire during the next (or current) invocation of {@link #fireDueEvents(IEmulator, ICPU, IMemory)}
+	 * @param event
+	 */
+	public void schedule(int delayInCycles,IScheduledEvent event)
+	{
+		if ( event == null ) {
+			throw new IllegalArgumentException("event must not be NULL");
+		}
+		if ( delayInCycles < 0 ) {
+			throw new IllegalArgumentException("delay must not be negative");
+		}
+		final long base = firingDueCycle != -1 ? firingDueCycle : currentCycle;
+		final ScheduledEntry entry = new ScheduledEntry( base + delayInCycles , sequenceNumber++ , event );
+		queue.add( entry );
+		if ( entry.dueCycle < nextDueCycle ) {
+			nextDueCycle = entry.dueCycle;
+		}
+	}
+
+	/**
+	 * Removes all pending occurrences of an event.
+	 *
+	 * @param event
+	 * @return <code>true</code> if the event was pending
+	 */
+	public boolean cancel(IScheduledEvent event)
+	{
+		boolean removed = false;
+		for ( Iterator<ScheduledEntry> it = queue.iterator() ; it.hasNext() ; )
+		{
+			if ( it.next().event == event ) {
+				it.remove();
+				removed = true;
+			}
+		}
+		updateNextDueCycle();
+		return removed;
+	}
+
+	/**
+	 * Returns the number of cycles until the next pending occurrence of an event fires.
+	 *
+	 * @param event
+	 * @return number of cycles or -1 if the event is not pending
+	 */
+	public int getCyclesUntil(IScheduledEvent event)
+	{
+		long dueCycle = Long.MAX_VALUE;
+		for ( ScheduledEntry entry : queue )
+		{
+			if ( entry.event == event && entry.dueCycle < dueCycle ) {
+				dueCycle = entry.dueCycle;
+			}
+		}
+		if ( dueCycle == Long.MAX_VALUE ) {
+			return -1;
+		}
+		return (int) Math.max( 0 , dueCycle - currentCycle );
+	}
+
+	/**
+	 * Removes all pending events.
+	 */
+	public void clear() {
+		queue.clear();
+		updateNextDueCycle();
+	}
+
+	private void updateNextDueCycle() {
+		final ScheduledEntry head = queue.peek();
+		nextDueCycle = head != null ? head.dueCycle : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Advances time.
+	 *
+	 * @param cycles
+	 * @return <code>true</code> if at least one event is due now
+	 */
+	public boolean advance(int cycles) {
+		currentCycle += cycles;
+		return currentCycle >= nextDueCycle;
+	}
+
+	/**
+	 * Returns whether at least one event is due.
+	 *
+	 * @return
+	 */
+	public boolean hasDueEvents() {
+		return currentCycle >= nextDueCycle;
+	}
+
+	/**
+	 * Fires all events that are due.
+	 *
+	 * <p>Events scheduled by the events being fired also fire during this invocation 
+	 * if they are due already , that is if their delay is less than or equal to the number of
+	 * cycles the firing event was overdue (see {@link #schedule(int, IScheduledEvent)}).</p>
+	 *
+	 * @param emulator
+	 * @param cpu
+	 * @param memory
+	 */
+	public void fireDueEvents(IEmulator emulator,ICPU cpu,IMemory memory)
+	{
+		while ( currentCycle >= nextDueCycle )
+		{
+			final ScheduledEntry entry = queue.poll();
+			updateNextDueCycle();
+			firingDueCycle = entry.dueCycle;
+			try {
+				entry.event.fire( emulator , cpu , memory );
+			} finally {
+				firingDueCycle = -1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of CPU cycles executed since this scheduler was created.
+	 *
+	 * @return
+	 */
+	public long getCurrentCycle() {
+		return currentCycle;
+	}
+}
@@ -86,6 +86,11 @@ public class EmulationListener implements IEmulationListener {
 	{
 	}
 
+	@Override
+	public void onWatchpoint(IEmulator emulator, Watchpoint watchpoint, Address pc, Address address, int oldValue, int newValue) 
+	{
+	}
+
 	@Override
 	public void beforeCommandExecution(IEmulator emulator) 
 	{
@@ -122,6 +127,11 @@ public class EmulationListener implements IEmulationListener {
 	public boolean isInvokeAfterAndBeforeCommandExecutionInContinuousMode() {
 		return false;
 	}
+	
+	@Override
+	public InvocationInterval getContinuousModeInvocationInterval() {
+		return null;
+	}
 
     @Override
     public void beforeEmulatorIsDisposed(IEmulator emulator)
@@ -353,7 +353,19 @@ public final class EmulationOptions {
 
     public Emulator createEmulator() 
     {
-        final Emulator result = new Emulator();
+        return createEmulator( true );
+    }
+    
+    /**
+     * Creates a new emulator with all default devices.
+     * 
+     * @param useClockThread whether the emulator should use its own thread to run the emulation , 
+     * see {@link Emulator#Emulator(boolean)}
+     * @return
+     */
+    public Emulator createEmulator(boolean useClockThread) 
+    {
+        final Emulator result = new Emulator( useClockThread );
 
         result.addDevice( new DefaultClock() );
         result.addDevice( new DefaultKeyboard( useLegacyKeyboardBuffer ) );
@@ -15,10 +15,16 @@
  */
 package de.codesourcery.jasm16.emulator;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -36,20 +42,30 @@ import de.codesourcery.jasm16.WordAddress;
 import de.codesourcery.jasm16.ast.OperandNode.OperandPosition;
 import de.codesourcery.jasm16.disassembler.DisassembledLine;
 import de.codesourcery.jasm16.disassembler.Disassembler;
+import de.codesourcery.jasm16.emulator.EmulatorSnapshot.DeviceState;
+import de.codesourcery.jasm16.emulator.IEmulationListener.InvocationInterval;
 import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
+import de.codesourcery.jasm16.emulator.devices.HardwareInterrupt;
 import de.codesourcery.jasm16.emulator.devices.IDevice;
 import de.codesourcery.jasm16.emulator.devices.IInterrupt;
-import de.codesourcery.jasm16.emulator.devices.SoftwareInterrupt;
+import de.codesourcery.jasm16.emulator.devices.IStatefulDevice;
 import de.codesourcery.jasm16.emulator.exceptions.DeviceErrorException;
 import de.codesourcery.jasm16.emulator.exceptions.EmulationErrorException;
 import de.codesourcery.jasm16.emulator.exceptions.InterruptQueueFullException;
 import de.codesourcery.jasm16.emulator.exceptions.InvalidDeviceSlotNumberException;
 import de.codesourcery.jasm16.emulator.exceptions.InvalidTargetOperandException;
 import de.codesourcery.jasm16.emulator.exceptions.UnknownOpcodeException;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
 import de.codesourcery.jasm16.emulator.memory.IMemoryRegion;
+import de.codesourcery.jasm16.emulator.memory.IMemoryWatchListener;
+import de.codesourcery.jasm16.emulator.memory.IMemoryWriteListener;
 import de.codesourcery.jasm16.emulator.memory.IReadOnlyMemory;
 import de.codesourcery.jasm16.emulator.memory.MainMemory;
 import de.codesourcery.jasm16.emulator.memory.MemUtils;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+import de.codesourcery.jasm16.emulator.coverage.CoverageData;
+import de.codesourcery.jasm16.emulator.profiler.CycleProfiler;
+import de.codesourcery.jasm16.emulator.trace.TraceWriter;
 import de.codesourcery.jasm16.utils.Misc;
 
 /**
@@ -66,13 +82,23 @@ public final class Emulator implements IEmulator
 	/**
 	 * Maximum number of interrupts the emulator's interrupt queue may hold.
 	 */
-	public static final int INTERRUPT_QUEUE_SIZE = 256;
+	public static final int INTERRUPT_QUEUE_SIZE = InterruptQueue.CAPACITY;
 
 	private static final boolean DEBUG_LISTENER_PERFORMANCE = false;
 
+	/**
+	 * Max. number of instructions the clock thread executes in one go
+	 * (without releasing the CPU lock or checking for commands) when running 
+	 * at {@link EmulationSpeed#MAX_SPEED}.
+	 */
+	public static final int MAX_SPEED_BATCH_SIZE = 10000;
+
 	private final IdentityHashMap<IEmulationListener,Long> listenerPerformance =  new IdentityHashMap<IEmulationListener,Long>();
 
 	private final ClockThread clockThread;
+	
+	// whether the clock thread is actually running , see Emulator(boolean)
+	private final boolean useClockThread;
 
 	private final ListenerHelper listenerHelper = new ListenerHelper();
 
@@ -171,30 +197,33 @@ public final class Emulator implements IEmulator
 	}
 
 	/**
-	 * Helper to manage IEmulationListeners. 
-	 * This class manages multiple internal lists , each for a specific listener type.
-	 * That way we avoid having to look-up listeners with a specific type each
-	 * time a notification needs to be send.
+	 * Keeps track of registered emulation listeners.
+	 * 
+	 * <p>Listeners are held in immutable arrays that get replaced whenever a listener is added or removed , so 
+	 * invoking listeners (which happens around every executed instruction) requires neither locking nor 
+	 * copying.</p>
 	 * 
 	 * @author tobias.gierke@code-sourcery.de
 	 */
 	protected final class ListenerHelper {
 
-		// @GuardedBy( emuListeners )
-		private final List<IEmulationListener> emuListeners = new ArrayList<IEmulationListener>();
+		private final Object LISTENER_LOCK = new Object();
+		
+		private volatile IEmulationListener[] emuListeners = NO_LISTENERS;
 
-		// @GuardedBy( emuListeners )
-		private final List<IEmulationListener> beforeCommandExecListeners = new ArrayList<IEmulationListener>();
+		private volatile IEmulationListener[] beforeCommandExecListeners = NO_LISTENERS;
 
-		// @GuardedBy( emuListeners )
-		private final List<IEmulationListener> continuousModeBeforeCommandExecListeners = new ArrayList<IEmulationListener>();
+		private volatile IEmulationListener[] continuousModeBeforeCommandExecListeners = NO_LISTENERS;
 
+		private volatile IEmulationListener[] afterCommandExecListeners = NO_LISTENERS;
 
-		// @GuardedBy( emuListeners )
-		private final List<IEmulationListener> afterCommandExecListeners = new ArrayList<IEmulationListener>();    
+		private volatile IEmulationListener[] continuousModeAfterCommandExecListeners = NO_LISTENERS;
+		
+		// listeners invoked in continuous mode at a coarser granularity than every instruction
+		private volatile IntervalListener[] intervalListeners = NO_INTERVAL_LISTENERS;
 
-		// @GuardedBy( emuListeners )
-		private final List<IEmulationListener> continuousModeAfterCommandExecListeners = new ArrayList<IEmulationListener>();    
+		// whether any listener needs to be invoked before/after each instruction in continuous mode
+		private volatile boolean hasContinuousModeCommandListeners = false;
 
 		private final IEmulationListenerInvoker BEFORE_COMMAND_INVOKER = new IEmulationListenerInvoker() {
 
@@ -210,44 +239,84 @@ public final class Emulator implements IEmulator
 			if (listener == null) {
 				throw new IllegalArgumentException("listener must not be NULL.");
 			}
-			synchronized (emuListeners) 
+			synchronized (LISTENER_LOCK) 
 			{
-				emuListeners.add( listener );
+				emuListeners = add( emuListeners , listener );
 				if ( listener.isInvokeBeforeCommandExecution() ) {
-					beforeCommandExecListeners.add( listener );
+					beforeCommandExecListeners = add( beforeCommandExecListeners , listener );
 					if ( listener.isInvokeAfterAndBeforeCommandExecutionInContinuousMode() ) {
-						continuousModeBeforeCommandExecListeners.add( listener );
+						continuousModeBeforeCommandExecListeners = add( continuousModeBeforeCommandExecListeners , listener );
 					}
 				}
 				if ( listener.isInvokeAfterCommandExecution() ) 
 				{
-					afterCommandExecListeners.add( listener );
+					afterCommandExecListeners = add( afterCommandExecListeners , listener );
 					if ( listener.isInvokeAfterAndBeforeCommandExecutionInContinuousMode() ) {
-						continuousModeAfterCommandExecListeners.add( listener );
+						continuousModeAfterCommandExecListeners = add( continuousModeAfterCommandExecListeners , listener );
+					} 
+					else 
+					{
+						final InvocationInterval interval = listener.getContinuousModeInvocationInterval();
+						if ( interval != null ) 
+						{
+							final IntervalListener[] tmp = Arrays.copyOf( intervalListeners , intervalListeners.length+1 );
+							tmp[ tmp.length - 1 ] = new IntervalListener( listener , interval );
+							intervalListeners = tmp;
+						}
 					}
 				}
+				updateContinuousModeFlag();
 			}
 		}        
 
+		// @GuardedBy( LISTENER_LOCK )
+		private void updateContinuousModeFlag() 
+		{
+			hasContinuousModeCommandListeners = continuousModeBeforeCommandExecListeners.length != 0 || 
+					                            continuousModeAfterCommandExecListeners.length != 0;
+		}
+
+		/**
+		 * Check whether any listener wants to be invoked before/after each
+		 * instruction while the emulation is running continuously.
+		 * 
+		 * @return
+		 * @see IEmulationListener#isInvokeAfterAndBeforeCommandExecutionInContinuousMode()
+		 */
+		public boolean hasContinuousModeCommandListeners() {
+			return hasContinuousModeCommandListeners;
+		}
+
 		public void removeAllEmulationListeners() 
 		{
-			synchronized (emuListeners) 
+			synchronized (LISTENER_LOCK) 
 			{
-				removeAllNonHardwareListeners( emuListeners );
-				removeAllNonHardwareListeners( beforeCommandExecListeners );
-				removeAllNonHardwareListeners( continuousModeBeforeCommandExecListeners );
-				removeAllNonHardwareListeners( continuousModeAfterCommandExecListeners );
-				removeAllNonHardwareListeners( afterCommandExecListeners );
+				emuListeners = removeAllNonHardwareListeners( emuListeners );
+				beforeCommandExecListeners = removeAllNonHardwareListeners( beforeCommandExecListeners );
+				continuousModeBeforeCommandExecListeners = removeAllNonHardwareListeners( continuousModeBeforeCommandExecListeners );
+				continuousModeAfterCommandExecListeners = removeAllNonHardwareListeners( continuousModeAfterCommandExecListeners );
+				afterCommandExecListeners = removeAllNonHardwareListeners( afterCommandExecListeners );
+				
+				final List<IntervalListener> remaining = new ArrayList<IntervalListener>();
+				for ( IntervalListener l : intervalListeners ) {
+					if ( l.listener.belongsToHardwareDevice() ) {
+						remaining.add( l );
+					}
+				}
+				intervalListeners = remaining.toArray( NO_INTERVAL_LISTENERS );
+				updateContinuousModeFlag();
 			} 		    
 		}
 
-		private void removeAllNonHardwareListeners(List<IEmulationListener> list) {
-
-			for ( Iterator<IEmulationListener> it = list.iterator() ; it.hasNext() ; ) {
-				if ( ! it.next().belongsToHardwareDevice() ) {
-					it.remove();
+		private IEmulationListener[] removeAllNonHardwareListeners(IEmulationListener[] array) 
+		{
+			final List<IEmulationListener> remaining = new ArrayList<IEmulationListener>();
+			for ( IEmulationListener l : array ) {
+				if ( l.belongsToHardwareDevice() ) {
+					remaining.add( l );
 				}
 			}
+			return remaining.toArray( NO_LISTENERS );
 		}
 
 		public void removeEmulationListener(IEmulationListener listener)
@@ -255,12 +324,27 @@ public final class Emulator implements IEmulator
 			if (listener == null) {
 				throw new IllegalArgumentException("listener must not be NULL.");
 			}
-			synchronized (emuListeners) {
-				emuListeners.remove( listener );
-				beforeCommandExecListeners.remove( listener );
-				continuousModeBeforeCommandExecListeners.remove( listener );
-				continuousModeAfterCommandExecListeners.remove( listener );
-				afterCommandExecListeners.remove( listener );
+			synchronized (LISTENER_LOCK) 
+			{
+				emuListeners = remove( emuListeners , listener );
+				beforeCommandExecListeners = remove( beforeCommandExecListeners , listener );
+				continuousModeBeforeCommandExecListeners = remove( continuousModeBeforeCommandExecListeners , listener );
+				continuousModeAfterCommandExecListeners = remove( continuousModeAfterCommandExecListeners , listener );
+				afterCommandExecListeners = remove( afterCommandExecListeners , listener );
+				
+				final IntervalListener[] current = intervalListeners;
+				for ( int i = 0 ; i < current.length ; i++ ) 
+				{
+					if ( current[i].listener.equals( listener ) ) 
+					{
+						final IntervalListener[] tmp = new IntervalListener[ current.length - 1 ];
+						System.arraycopy( current , 0 , tmp , 0 , i );
+						System.arraycopy( current , i+1 , tmp , i , current.length - i - 1 );
+						intervalListeners = tmp;
+						break;
+					}
+				}
+				updateContinuousModeFlag();
 			}        
 		}
 
@@ -271,19 +355,33 @@ public final class Emulator implements IEmulator
 
 		public void invokeAfterCommandExecutionListeners(boolean continousMode,final int executedCommandDuration) 
 		{
-			final IEmulationListenerInvoker invoker = new IEmulationListenerInvoker() {
+			final IEmulationListener[] listeners = continousMode ? continuousModeAfterCommandExecListeners : afterCommandExecListeners;
+			if ( listeners.length == 0 ) {
+				return;
+			}
+			
+			if ( DEBUG_LISTENER_PERFORMANCE ) 
+			{
+				notifyListeners( new IEmulationListenerInvoker() {
 
-				@Override
-				public void invoke(IEmulator emulator, IEmulationListener listener)
-				{
-					listener.afterCommandExecution( emulator , executedCommandDuration );
+					@Override
+					public void invoke(IEmulator emulator, IEmulationListener listener)
+					{
+						listener.afterCommandExecution( emulator , executedCommandDuration );
+					}
+				} , listeners );
+				return;
+			}
+			
+			final int len = listeners.length;
+			for ( int i = 0 ; i < len ; i++ ) 
+			{
+				try {
+					listeners[i].afterCommandExecution( Emulator.this , executedCommandDuration );
+				}
+				catch(Exception e) {
+					LOG.error("invokeAfterCommandExecutionListeners(): Listener "+listeners[i]+" failed",e);
 				}
-			};
-
-			if ( continousMode ) {
-				notifyListeners( invoker , continuousModeAfterCommandExecListeners );
-			} else {
-				notifyListeners( invoker , afterCommandExecListeners );
 			}
 		}
 
@@ -294,21 +392,50 @@ public final class Emulator implements IEmulator
 			} else {        	
 				notifyListeners( BEFORE_COMMAND_INVOKER , beforeCommandExecListeners );
 			}
-		}        
-
-		public void notifyListeners(IEmulationListenerInvoker invoker,List<IEmulationListener> listeners) 
+		}
+		
+		/**
+		 * Invokes listeners that requested to be notified at a coarser granularity
+		 * than every instruction while running in continuous mode.
+		 * 
+		 * <p>Must only be called by the thread running the emulation.</p>
+		 * 
+		 * @param executedInstructions number of instructions executed since the last call
+		 * @param executedCycles number of cycles executed since the last call
+		 * @see IEmulationListener#getContinuousModeInvocationInterval()
+		 */
+		public void invokeIntervalListeners(int executedInstructions,int executedCycles) 
 		{
-			final List<IEmulationListener> copy;
-			synchronized( emuListeners ) 
+			final IntervalListener[] listeners = intervalListeners;
+			final int len = listeners.length;
+			for ( int i = 0 ; i < len ; i++ ) 
 			{
-				if ( listeners.isEmpty() ) {
-					return;
+				final IntervalListener l = listeners[i];
+				l.cyclesSinceLastInvocation += executedCycles;
+				l.remaining -= l.inCycles ? executedCycles : executedInstructions;
+				if ( l.remaining <= 0 ) 
+				{
+					final int cycles = l.cyclesSinceLastInvocation;
+					l.remaining = l.interval;
+					l.cyclesSinceLastInvocation = 0;
+					try {
+						l.listener.afterCommandExecution( Emulator.this , cycles );
+					}
+					catch(Exception e) {
+						LOG.error("invokeIntervalListeners(): Listener "+l.listener+" failed",e);
+					}
 				}
-				copy = new ArrayList<IEmulationListener>( listeners );
-			}    	
+			}
+		}
+
+		public void notifyListeners(IEmulationListenerInvoker invoker,IEmulationListener[] listeners) 
+		{
+			if ( listeners.length == 0 ) {
+				return;
+			}
 			if ( DEBUG_LISTENER_PERFORMANCE ) 
 			{
-				for ( IEmulationListener l : copy) 
+				for ( IEmulationListener l : listeners ) 
 				{
 					long execTime = -System.currentTimeMillis();
 					try {
@@ -329,10 +456,10 @@ public final class Emulator implements IEmulator
 			} 
 			else 
 			{
-				final int len = copy.size(); 
+				final int len = listeners.length; 
 				for ( int i = 0 ; i < len ; i++) 
 				{
-					final IEmulationListener l = copy.get(i);
+					final IEmulationListener l = listeners[i];
 					try {
 						invoker.invoke( Emulator.this , l );
 					}
@@ -354,16 +481,60 @@ public final class Emulator implements IEmulator
 				}
 			}); 
 
-			final List<IEmulationListener> copy;
-			synchronized( emuListeners ) 
-			{
-				copy = new ArrayList<IEmulationListener>( emuListeners );
-			}              
-			for ( IEmulationListener l : copy ) {
+			for ( IEmulationListener l : emuListeners ) {
 				removeEmulationListener( l );
 			}
 		}
 	}
+	
+	private static final IEmulationListener[] NO_LISTENERS = new IEmulationListener[0];
+	
+	private static final IntervalListener[] NO_INTERVAL_LISTENERS = new IntervalListener[0];
+	
+	private static IEmulationListener[] add(IEmulationListener[] array,IEmulationListener listener) 
+	{
+		final IEmulationListener[] result = Arrays.copyOf( array , array.length + 1 );
+		result[ array.length ] = listener;
+		return result;
+	}
+	
+	private static IEmulationListener[] remove(IEmulationListener[] array,IEmulationListener listener) 
+	{
+		for ( int i = 0 ; i < array.length ; i++ ) 
+		{
+			if ( array[i].equals( listener ) ) 
+			{
+				final IEmulationListener[] result = new IEmulationListener[ array.length - 1 ];
+				System.arraycopy( array , 0 , result , 0 , i );
+				System.arraycopy( array , i+1 , result , i , array.length - i - 1 );
+				return result;
+			}
+		}
+		return array;
+	}
+	
+	/**
+	 * A listener that gets invoked in continuous mode at a given interval.
+	 * 
+	 * <p>The counters are only accessed by the thread running the emulation.</p>
+	 */
+	private static final class IntervalListener 
+	{
+		public final IEmulationListener listener;
+		public final int interval;
+		public final boolean inCycles;
+		
+		public int remaining;
+		public int cyclesSinceLastInvocation;
+		
+		public IntervalListener(IEmulationListener listener,InvocationInterval interval) 
+		{
+			this.listener = listener;
+			this.interval = interval.getInterval();
+			this.inCycles = interval.isInCycles();
+			this.remaining = this.interval;
+		}
+	}
 
 	private volatile boolean ignoreAccessToUnknownDevices=false;    
 	private volatile boolean checkMemoryWrites = false;
@@ -377,11 +548,131 @@ public final class Emulator implements IEmulator
 	// @GuardedBy( breakpoints )
 	private final Map<Address,List<Breakpoint>> breakpoints = new HashMap<Address,List<Breakpoint>>(); 
 
+	/*
+	 * Copy-on-write index of all breakpoints by word address , gets
+	 * re-published whenever a breakpoint is added, deleted or changed so that
+	 * the emulation can check for breakpoints without any locking.
+	 * 
+	 * Slot ( 2 * address ) holds the regular breakpoint at a given address , 
+	 * slot ( 2 * address + 1 ) the internal one-shot breakpoint used by stepReturn().
+	 * 
+	 * NULL if there are no breakpoints at all.
+	 */
+	private volatile Breakpoint[] breakpointIndex = null;
+
+	// ============ WatchPoints =======
+
+	// @GuardedBy( watchpoints )
+	private final List<Watchpoint> watchpoints = new ArrayList<Watchpoint>();
+	
+	// copy-on-write array of all watchpoints , re-published whenever a watchpoint is added or deleted
+	private volatile Watchpoint[] watchpointIndex = new Watchpoint[0];
+	
+	/*
+	 * Thread currently executing instructions or NULL , only memory accesses done 
+	 * by this thread may trigger watchpoints.
+	 * 
+	 * Only written while holding CPU_LOCK.
+	 */
+	private Thread executingThread;
+	
+	// first watchpoint triggered by the current instruction , only accessed by the executing thread
+	private WatchpointHit watchpointHit;
+	
+	private static final class WatchpointHit 
+	{
+		public final Watchpoint watchpoint;
+		public final int pc;
+		public final int address;
+		public final int oldValue;
+		public final int newValue;
+		
+		public WatchpointHit(Watchpoint watchpoint, int pc, int address, int oldValue, int newValue) 
+		{
+			this.watchpoint = watchpoint;
+			this.pc = pc;
+			this.address = address;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+	}
+	
+	// does nothing , just makes the batch execution leave the current basic block
+	private final IScheduledEvent watchpointEvent = new IScheduledEvent() {
+
+		@Override
+		public void fire(IEmulator emulator, ICPU cpu, IMemory memory) {
+		}
+	};
+	
+	private final IMemoryWatchListener memoryWatchListener = new IMemoryWatchListener() {
+
+		@Override
+		public void wordRead(int wordAddress, int value) 
+		{
+			// instruction fetches do not count as reads
+			if ( Thread.currentThread() == executingThread && watchpointHit == null && ! instructionCache.isDecoding() ) 
+			{
+				for ( Watchpoint wp : watchpointIndex ) 
+				{
+					if ( wp.matchesRead( wordAddress ) ) {
+						watchpointTriggered( wp , wordAddress , value , value );
+						return;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void wordWritten(int wordAddress, int oldValue, int newValue) 
+		{
+			if ( Thread.currentThread() == executingThread && watchpointHit == null ) 
+			{
+				for ( Watchpoint wp : watchpointIndex ) 
+				{
+					if ( wp.matchesWrite( wordAddress , oldValue , newValue ) ) {
+						watchpointTriggered( wp , wordAddress , oldValue , newValue );
+						return;
+					}
+				}
+			}
+		}
+	};
+
 	// ============ Memory ============
 
+	// decoded instructions , only accessed by the emulation thread
+	private final InstructionCache instructionCache = new InstructionCache();
+	
+	// trace writer or NULL if tracing is disabled, only modified while holding CPU_LOCK 
+	private volatile TraceWriter traceWriter = null;
+	
+	private final IMemoryWriteListener memoryWriteListener = new IMemoryWriteListener() {
+
+		@Override
+		public void wordWritten(int wordAddress) 
+		{
+			instructionCache.wordWritten( wordAddress );
+			final TraceWriter trace = traceWriter;
+			if ( trace != null ) {
+				trace.wordWritten( wordAddress );
+			}
+		}
+
+		@Override
+		public void rangeChanged(AddressRange range) 
+		{
+			instructionCache.rangeChanged( range );
+			final TraceWriter trace = traceWriter;
+			if ( trace != null ) {
+				trace.rangeChanged( range );
+			}
+		}
+	};
+	
 	// memory needs to be thread-safe since the emulation runs in a separate thread
 	// and UI threads may access the registers concurrently    
-	private final MainMemory memory = new MainMemory( 65536 , checkMemoryWrites );
+	private final MainMemory memory = new MainMemory( 65536 , checkMemoryWrites , memoryWriteListener );
 
 	// ========= devices ===========
 
@@ -392,13 +683,36 @@ public final class Emulator implements IEmulator
 
 	private final Object CPU_LOCK = new Object();
 
-	private Address lastValidInstruction = null;
+	// @GuardedBy( CPU_LOCK )
+	private final CycleScheduler scheduler = new CycleScheduler();
+	
+	// word address of the last successfully executed instruction or -1
+	private int lastValidInstruction = -1;
+	
+	// devices post to this queue without locking , shared by all CPU instances
+	private final InterruptQueue interrupts = new InterruptQueue();
+
+	// @GuardedBy( CPU_LOCK )
+	private final CPU cpu = new CPU(memory,interrupts);
 	
 	// @GuardedBy( CPU_LOCK )
-	private final CPU cpu = new CPU(memory);
+	private final CPU visibleCPU = new CPU(memory,interrupts);    
+
+	// CPU register state before the instruction currently being executed in batch mode
+	// (or after the last instruction of a block while firing events / processing interrupts),
+	// used to roll back the CPU when the instruction failed
+	// @GuardedBy( CPU_LOCK )
+	private final int[] rollbackState = new int[ CPU.STATE_SIZE ];
+
+	// execution history or NULL if recording is disabled, only modified while holding CPU_LOCK 
+	private volatile ExecutionHistory executionHistory = null;
+	
+	// profiler or NULL if profiling is disabled, only modified while holding CPU_LOCK 
+	private volatile CycleProfiler profiler = null;
 	
+	// CPU register state passed to the trace writer
 	// @GuardedBy( CPU_LOCK )
-	private final CPU visibleCPU = new CPU(memory);    
+	private final int[] traceState = new int[ CPU.STATE_SIZE ];
 
 	// a,b,c,x,y,z,i,j
 	// all CPU registers needs to be thread-safe since the emulation runs in a separate thread
@@ -474,12 +788,19 @@ public final class Emulator implements IEmulator
 		// the reset state
 		resetMemory(clearMemory);		
 
+		synchronized( CPU_LOCK ) {
+			scheduler.clear();
+			scheduleProfilerSampling();
+		}
+		
 		resetDevices();
 
 		synchronized( CPU_LOCK ) {
 		    cpu.reset();
 			visibleCPU.reset();
 		}
+		
+		restartExecutionHistory();
 
 		// notify listeners
 		listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
@@ -532,7 +853,7 @@ public final class Emulator implements IEmulator
 				{
 					final Address pc;
 					synchronized( CPU_LOCK ) {
-						pc = visibleCPU.pc;
+						pc = Address.wordAddress( visibleCPU.pc );
 					}
 					listener.onStop( emulator , pc , cause );
 				}
@@ -571,8 +892,24 @@ public final class Emulator implements IEmulator
 	}
 
 	public Emulator() {
+		this(true);
+	}
+	
+	/**
+	 * Create instance.
+	 * 
+	 * @param useClockThread whether instructions get executed by this emulator's own thread. If
+	 * <code>false</code> , the emulation needs to be driven by calling {@link #executeTimeSlice(int)} 
+	 * (see {@link EmulatorFarm}).
+	 */
+	public Emulator(boolean useClockThread) 
+	{
+		this.useClockThread = useClockThread;
 		clockThread = new ClockThread();
-		clockThread.start();
+		memory.setWatchListener( memoryWatchListener );
+		if ( useClockThread ) {
+			clockThread.start();
+		}
 	}
 
 	/**
@@ -594,6 +931,9 @@ public final class Emulator implements IEmulator
 		private int cycleCountAtLastStop=0;
 		
 		private final AtomicBoolean isRunnable = new AtomicBoolean(false);
+		
+		// only accessed by the clock thread itself
+		private boolean stoppedByClockThread = false;
 
 		private final BlockingQueue<Command> cmdQueue = new ArrayBlockingQueue<Command>(1);
 		private final BlockingQueue<Long> ackQueue = new ArrayBlockingQueue<Long>(300);
@@ -634,7 +974,7 @@ public final class Emulator implements IEmulator
 
 			while ( true ) 
 			{
-				if ( isRunnable.get() == false ) 
+				if ( stoppedByClockThread || isRunnable.get() == false ) 
 				{
 				    //  halt execution
 					lastStop = System.currentTimeMillis();
@@ -651,13 +991,20 @@ public final class Emulator implements IEmulator
 					out.info("Executed cycles: "+(cycleCountAtLastStop-cycleCountAtLastStart) +" ( in "+getRuntimeInSeconds()+" seconds )");
 					out.info("Estimated clock rate: "+getEstimatedClockSpeed() );
 
-					cmd = waitForStopCommand();
-					
-					if ( cmd.isTerminateCommand() ) {
-						acknowledgeCommand( cmd );                        
-						break;
+					if ( stoppedByClockThread ) {
+						// there's no STOP command to wait for , see stopSimulation()
+						stoppedByClockThread = false;
+					} 
+					else 
+					{
+						cmd = waitForStopCommand();
+						
+						if ( cmd.isTerminateCommand() ) {
+							acknowledgeCommand( cmd );                        
+							break;
+						}
+						acknowledgeCommand( cmd );
 					}
-					acknowledgeCommand( cmd );
 
 					cmd = waitForStartCommand();
 					
@@ -673,6 +1020,16 @@ public final class Emulator implements IEmulator
 					acknowledgeCommand(cmd);
 				}
 
+				if ( currentSpeed == EmulationSpeed.MAX_SPEED && isBatchExecutionPossible() ) 
+				{
+					/* ================
+					 * Execute a batch of instructions
+					 * ================
+					 */
+					internalExecuteBatch( MAX_SPEED_BATCH_SIZE );
+					continue;
+				}
+
 				/* ================
 				 * Execute ONE instruction
 				 * ================
@@ -707,6 +1064,13 @@ public final class Emulator implements IEmulator
 		{
 			if ( isRunnable.compareAndSet( false , true ) ) 
 			{
+				if ( ! useClockThread ) 
+				{
+					// the emulation runs on the caller's thread , see executeTimeSlice(int)
+					lastEmulationError = null;
+					lastStart = System.currentTimeMillis();
+					cycleCountAtLastStart = cpu.currentCycle;
+				}
 				sendToClockThread( Command.startCommand() );
 			}
 		}		
@@ -721,7 +1085,9 @@ public final class Emulator implements IEmulator
 			if ( isRunnable.compareAndSet(true,false) )
 			{               
 				if ( Thread.currentThread() == clockThread ) { 
-					sendToClockThread( Command.stopCommandWithoutACK() ); // no point in sending an ACK since the clock thread itself triggered the stop()
+					// do not use the command queue here , the clock thread would block forever
+					// if another thread already put a START command into it
+					stoppedByClockThread = true;
 				} else {
 					sendToClockThread( Command.stopCommand() );
 				}
@@ -738,6 +1104,14 @@ public final class Emulator implements IEmulator
 
 		private void sendToClockThread(Command cmd) 
 		{
+			if ( ! useClockThread ) // there's nobody listening on the command queue
+			{
+				if ( cmd.hasType( CommandType.SPEED_CHANGE ) ) {
+					currentSpeed = (EmulationSpeed) cmd.getPayload();
+				}
+				return;
+			}
+			
 			if ( cmd.hasType(CommandType.TERMINATE ) ) 
 			{
 				if ( ! terminateCommandReceived.compareAndSet( false , true ) ) {
@@ -932,6 +1306,15 @@ public final class Emulator implements IEmulator
 			boolean success = false;
 			synchronized( CPU_LOCK ) 
 			{
+				final TraceWriter trace = traceWriter;
+				if ( trace != null ) {
+					trace.beforeInstruction( cpu.pc , memory );
+				}
+				
+				final int pcBefore = cpu.pc;
+				boolean interruptTaken = false;
+				executingThread = Thread.currentThread();
+				watchpointHit = null;
 				try 
 				{
 					execDurationInCycles = cpu.executeInstruction();
@@ -942,38 +1325,62 @@ public final class Emulator implements IEmulator
 						// note-to-self: I cannot simply do ( currentPC - previousPC ) here because 
 						// the instruction might've been a JSR or ADD PC, X / SUB PC,Y or
 						// a jump into an interrupt handler that skipped over non-instruction memory
-						final int sizeInWords = calculateInstructionSizeInWords( visibleCPU.pc.getWordAddressValue() , memory );
-						memory.writeProtect( new AddressRange( visibleCPU.pc , Size.words( sizeInWords )) );
+						final int sizeInWords = calculateInstructionSizeInWords( visibleCPU.pc , memory );
+						memory.writeProtect( new AddressRange( Address.wordAddress( visibleCPU.pc ) , Size.words( sizeInWords )) );
 					}
 					
 					cpu.currentCycle+=execDurationInCycles;
-					cpu.pc = Address.wordAddress( cpu.currentInstructionPtr );
+					cpu.pc = cpu.currentInstructionPtr;
 					
-					cpu.maybeProcessOneInterrupt();  // might push A on stack and set PC to IA 
+					// the instruction is complete , failing events or interrupt handling 
+					// must not roll back its register changes
+					visibleCPU.populateFrom( cpu );
+					
+					if ( scheduler.advance( execDurationInCycles ) ) {
+						scheduler.fireDueEvents( this , cpu , memory );
+					}
+					
+					interruptTaken = cpu.maybeProcessOneInterrupt();  // might push A on stack and set PC to IA 
 					
 					success = true;
 				} 
 				finally 
 				{
+					executingThread = null;
 					if ( success ) {
 						visibleCPU.populateFrom( cpu );
+						memory.publishWrites();
 					} else {
 					    // restore CPU register state on error
 					    cpu.populateFrom(visibleCPU);
+					    watchpointHit = null;
 					}
 				}
+				
+				final ExecutionHistory history = executionHistory;
+				if ( history != null ) {
+					history.instructionExecuted( cpu.pc );
+				}
+				if ( trace != null ) {
+					cpu.saveState( traceState );
+					trace.afterInstruction( traceState );
+				}
+				final CycleProfiler currentProfiler = profiler;
+				if ( currentProfiler != null && currentProfiler.getMode() == CycleProfiler.Mode.EXACT ) {
+					currentProfiler.instructionExecuted( pcBefore , execDurationInCycles , cpu.pc , cpu.sp , interruptTaken , memory );
+				}
 			}
 		} 
 		catch(EmulationErrorException e) {
 			stop( e );
 			LOG.error( "internalExecuteOneInstruction(): Emulation error - "+e.getMessage()); 
-			out.warn("Simulation stopped due to a program error ( at address ."+visibleCPU.pc+")",e);
+			out.warn("Simulation stopped due to a program error ( at address 0x"+Misc.toHexString( visibleCPU.pc )+")",e);
 			return 0;		    
 		}
 		catch(Exception e) {
 			stop( e );
 			LOG.error( "internalExecuteOneInstruction(): Internal error - "+e.getMessage(),e); 
-			out.error("Simulation stopped due to an internal error ( at address ."+visibleCPU.pc+")");
+			out.error("Simulation stopped due to an internal error ( at address 0x"+Misc.toHexString( visibleCPU.pc )+")");
 			return 0;
 		} 
 		finally 
@@ -983,76 +1390,272 @@ public final class Emulator implements IEmulator
 		return execDurationInCycles;
 	}
 
-	@Override
-	public void executeOneInstruction() 
-	{
-		stop(null);
-	    internalExecuteOneInstruction();
-	}   
-
-	protected void beforeCommandExecution() 
-	{
-		listenerHelper.invokeBeforeCommandExecutionListeners( this.clockThread.isRunnable.get() );
-	}
-
 	/**
+	 * Check whether the clock thread may execute instructions in batches.
 	 * 
-	 * @param executedCommandDuration duration (in cycles) of last command or -1 if execution failed with an internal emulator error
+	 * <p>Batch execution is only possible if no listener needs to be notified
+	 * about each instruction , memory protection is disabled , neither execution
+	 * history nor a trace is being recorded and no exact profiling is being done.</p>
+	 * 
+	 * @return
+	 * @see #internalExecuteBatch(int)
 	 */
-	protected void afterCommandExecution(final int executedCommandDuration,CPU hiddenCPU) 
+	private boolean isBatchExecutionPossible() 
 	{
-		// invoke listeners
-		listenerHelper.invokeAfterCommandExecutionListeners( clockThread.isRunnable.get() , executedCommandDuration );
-
-		// check whether we reached a breakpoint
-		maybeHandleBreakpoint(hiddenCPU);
+		final CycleProfiler currentProfiler = profiler;
+		return ! checkMemoryWrites && executionHistory == null && traceWriter == null && 
+				( currentProfiler == null || currentProfiler.getMode() == CycleProfiler.Mode.SAMPLING ) &&
+				! listenerHelper.hasContinuousModeCommandListeners();
 	}
 
-	private void maybeHandleBreakpoint(CPU hiddenCPU) 
+	/**
+	 * Executes up to a given number of instructions while holding the CPU lock.
+	 * 
+	 * <p>Unlike {@link #internalExecuteOneInstruction()} , this method does not invoke
+	 * any emulation listeners except for listeners with a continuous mode invocation interval (see 
+	 * {@link IEmulationListener#getContinuousModeInvocationInterval()}) , which get invoked 
+	 * after the batch is done. It only publishes the CPU state to the visible CPU when 
+	 * the batch is finished , a breakpoint is reached or an error occurs. Threads 
+	 * calling {@link #getCPU()} while a batch is running will block until the batch
+	 * is done and then see the published state.</p>
+	 * 
+	 * <p>Execution stops early at the first address that has a breakpoint.</p>
+	 * 
+	 * <p>Instructions are executed one basic block (see {@link InstructionCache#getBlockLength(int, MainMemory)}) at a time , 
+	 * pending interrupts only need to be checked after the last instruction of a block since no other
+	 * instruction inside a block can trigger or enable interrupts (and other threads cannot trigger 
+	 * interrupts while we're holding the CPU lock). Blocks are left early when a scheduled event 
+	 * (see {@link #scheduleEvent(int, IScheduledEvent)}) is due , so events fire after exactly the same 
+	 * instruction as when executing instructions one by one. The batch ends right after an event stopped the emulation.</p>
+	 * 
+	 * @param maxInstructions
+	 * @return number of DCPU-16 cycles executed
+	 */
+	protected int internalExecuteBatch(int maxInstructions) 
 	{
-		/*
-		 * We can have at most 2 breakpoints at any address,
-		 * one regular (user-defined) breakpoint and
-		 * one internal breakpoint used by stepReturn() 
-		 */
-		Breakpoint regularBP = null;
-		Breakpoint oneShotBP = null;
-		
-		synchronized( breakpoints ) 
+		int executedCycles = 0;
+		int executedInstructions = 0;
+		boolean breakpointReached = false;
+		try 
 		{
-			final List<Breakpoint> candidates = breakpoints.get( hiddenCPU.pc ); 
-
-			if ( candidates == null || candidates.isEmpty() ) 
-			{
-				return;
-			}		
-
-			for ( Breakpoint bp : candidates ) 
+			synchronized( CPU_LOCK ) 
 			{
-				if ( bp.matches( this ) ) 
+				boolean success = false;
+				executingThread = Thread.currentThread();
+				watchpointHit = null;
+				try 
 				{
-					if ( bp.isOneShotBreakpoint() ) {
-						if ( oneShotBP == null ) {
-							oneShotBP = bp;
-						} else {
-							throw new RuntimeException("Internal error, more than one internal breakpoint at "+bp.getAddress());
-						}
-					} else {
-						if ( regularBP == null ) {
-							regularBP = bp;
-						} else {
-							throw new RuntimeException("Internal error, more than one regular breakpoint at "+bp.getAddress());
+					// scheduled events may stop the emulation
+					while ( executedInstructions < maxInstructions && ! breakpointReached && watchpointHit == null && clockThread.isRunnable.get() ) 
+					{
+						final int blockStart = cpu.pc;
+						final int blockLength = instructionCache.getBlockLength( blockStart , memory );
+						final boolean checkBreakpoints = breakpointIndex != null;
+						
+						for ( int i = 0 ; i < blockLength ; i++ ) 
+						{
+							// only the last instruction of a block may fail , the state
+							// at the start of the block is kept in case of internal errors
+							if ( i == 0 || i == blockLength-1 ) { 
+								cpu.saveState( rollbackState );
+							}
+							
+							final int pc = cpu.pc;
+							final int durationInCycles = cpu.executeInstruction();
+							lastValidInstruction = pc;
+							
+							cpu.currentCycle += durationInCycles;
+							cpu.pc = cpu.currentInstructionPtr;
+							
+							executedCycles += durationInCycles;
+							executedInstructions++;
+							
+							final boolean eventsDue = scheduler.advance( durationInCycles );
+							
+							if ( i < blockLength-1 ) 
+							{
+								if ( eventsDue || // events may trigger interrupts
+									 ( checkBreakpoints && hasBreakpoint( cpu.pc ) ) || 
+									 ! instructionCache.isBlockValid( blockStart ) ) // self-modifying code 
+								{
+									break;
+								}
+							}
 						}
+
+						// all instructions of the block are complete , failing events or interrupt 
+						// handling must not roll back their register changes
+						cpu.saveState( rollbackState );
+						scheduler.fireDueEvents( this , cpu , memory );
+						cpu.maybeProcessOneInterrupt();  // might push A on stack and set PC to IA
+						breakpointReached = hasBreakpoint( cpu.pc );
+					}
+					success = true;
+				} 
+				finally 
+				{
+					executingThread = null;
+					if ( ! success ) {
+						// restore CPU register state on error
+						cpu.restoreState( rollbackState );
+						watchpointHit = null;
 					}
+					visibleCPU.populateFrom( cpu );
+					memory.publishWrites();
 				}
 			}
+		} 
+		catch(EmulationErrorException e) {
+			stop( e );
+			LOG.error( "internalExecuteBatch(): Emulation error - "+e.getMessage()); 
+			out.warn("Simulation stopped due to a program error ( at address 0x"+Misc.toHexString( visibleCPU.pc )+")",e);
+			return executedCycles;		    
 		}
+		catch(Exception e) {
+			stop( e );
+			LOG.error( "internalExecuteBatch(): Internal error - "+e.getMessage(),e); 
+			out.error("Simulation stopped due to an internal error ( at address 0x"+Misc.toHexString( visibleCPU.pc )+")");
+			return executedCycles;
+		} 
+		
+		listenerHelper.invokeIntervalListeners( executedInstructions , executedCycles );
+		
+		if ( ! maybeHandleWatchpoint() && breakpointReached ) {
+			maybeHandleBreakpoint( cpu );
+		}
+		return executedCycles;
+	}
+
+	/**
+	 * Executes up to a given number of instructions on the calling thread.
+	 * 
+	 * <p>Only to be used with emulators that have been created without a clock thread (see {@link #Emulator(boolean)}), the 
+	 * emulation needs to be started (see {@link #start()}) before. Instructions are always executed 
+	 * at {@link EmulationSpeed#MAX_SPEED}.</p>
+	 * 
+	 * @param maxInstructions
+	 * @return number of DCPU-16 cycles executed
+	 * @see #isRunning()
+	 */
+	public int executeTimeSlice(int maxInstructions) 
+	{
+		if ( useClockThread ) {
+			throw new IllegalStateException("Emulator uses its own clock thread");
+		}
+		
+		if ( isBatchExecutionPossible() ) {
+			return clockThread.isRunnable.get() ? internalExecuteBatch( maxInstructions ) : 0;
+		}
+		
+		int executedCycles = 0;
+		for ( int i = 0 ; i < maxInstructions && clockThread.isRunnable.get() ; i++ ) {
+			executedCycles += internalExecuteOneInstruction();
+		}
+		return executedCycles;
+	}
+	
+	/**
+	 * Returns whether the emulation is currently running.
+	 * 
+	 * @return
+	 */
+	public boolean isRunning() {
+		return clockThread.isRunnable.get();
+	}
+
+	@Override
+	public void executeOneInstruction() 
+	{
+		stop(null);
+	    internalExecuteOneInstruction();
+	}   
+
+	protected void beforeCommandExecution() 
+	{
+		listenerHelper.invokeBeforeCommandExecutionListeners( this.clockThread.isRunnable.get() );
+	}
+
+	/**
+	 * 
+	 * @param executedCommandDuration duration (in cycles) of last command or -1 if execution failed with an internal emulator error
+	 */
+	protected void afterCommandExecution(final int executedCommandDuration,CPU hiddenCPU) 
+	{
+		// invoke listeners
+		final boolean continuousMode = clockThread.isRunnable.get();
+		listenerHelper.invokeAfterCommandExecutionListeners( continuousMode , executedCommandDuration );
+		if ( continuousMode && executedCommandDuration >= 0 ) {
+			listenerHelper.invokeIntervalListeners( 1 , executedCommandDuration );
+		}
+
+		// check whether we triggered a watchpoint or reached a breakpoint
+		if ( ! maybeHandleWatchpoint() ) {
+			maybeHandleBreakpoint(hiddenCPU);
+		}
+	}
+
+	// invoked by the executing thread while holding CPU_LOCK
+	private void watchpointTriggered(Watchpoint wp,int address,int oldValue,int newValue) 
+	{
+		// the PC only gets advanced after the instruction has been executed completely
+		watchpointHit = new WatchpointHit( wp , cpu.pc , address , oldValue , newValue );
+		scheduler.schedule( 0 , watchpointEvent );
+	}
+	
+	private boolean maybeHandleWatchpoint() 
+	{
+		final WatchpointHit hit = watchpointHit;
+		if ( hit == null ) {
+			return false;
+		}
+		watchpointHit = null;
+		
+		stop(null);
+		
+		listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
+
+			@Override
+			public void invoke(IEmulator emulator, IEmulationListener listener)
+			{
+				listener.onWatchpoint( emulator , hit.watchpoint , Address.wordAddress( hit.pc ) , 
+						Address.wordAddress( hit.address ) , hit.oldValue , hit.newValue );
+			}
+		});
+		return true;
+	}
+
+	private void maybeHandleBreakpoint(CPU hiddenCPU) 
+	{
+		/*
+		 * We can have at most 2 breakpoints at any address,
+		 * one regular (user-defined) breakpoint and
+		 * one internal breakpoint used by stepReturn() 
+		 */
+		final Breakpoint[] index = breakpointIndex;
+		if ( index == null ) {
+			return;
+		}
+		
+		final int slot = hiddenCPU.pc << 1;
+		Breakpoint regularBP = index[ slot ];
+		Breakpoint oneShotBP = index[ slot+1 ];
+		
+		if ( regularBP == null && oneShotBP == null ) {
+			return;
+		}
+		
+		if ( regularBP != null && ! regularBP.matches( hiddenCPU , memory ) ) {
+			regularBP = null;
+		}
+		if ( oneShotBP != null && ! oneShotBP.matches( hiddenCPU , memory ) ) {
+			oneShotBP = null;
+		}
+
+		if ( regularBP != null || oneShotBP != null ) 
+		{
+			// stop() will also remove ANY one-shot breakpoints from the list
+			stop(null);
 
-		if ( regularBP != null || oneShotBP != null ) 
-		{
-			// stop() will also remove ANY one-shot breakpoints from the list
-			stop(null);
-
 			if ( regularBP != null ) // only notify client code about the regular BP, internal BP is invisible to the user
 			{
 				final Breakpoint finalRegularBP = regularBP; // Closures can only access stuff declared final...
@@ -1068,10 +1671,38 @@ public final class Emulator implements IEmulator
 		}
 	}
 
-	private boolean isConditionalInstruction(int instructionWord) {
+	private boolean hasBreakpoint(int wordAddress) 
+	{
+		final Breakpoint[] index = breakpointIndex;
+		if ( index == null ) {
+			return false;
+		}
+		final int slot = wordAddress << 1;
+		return index[ slot ] != null || index[ slot+1 ] != null;
+	}
 
-		final int opCode = (instructionWord & 0x1f);
-		return ( opCode >= 0x10 && opCode <= 0x17);
+	// @GuardedBy( breakpoints )
+	private void publishBreakpointIndex() 
+	{
+		if ( breakpoints.isEmpty() ) {
+			breakpointIndex = null;
+			return;
+		}
+		
+		final Breakpoint[] index = new Breakpoint[ 2 * 65536 ];
+		for ( Map.Entry<Address,List<Breakpoint>> entry : breakpoints.entrySet() ) 
+		{
+			final int slot = entry.getKey().getWordAddressValue() << 1;
+			for ( Breakpoint bp : entry.getValue() ) 
+			{
+				if ( bp.isOneShotBreakpoint() ) {
+					index[ slot+1 ] = bp;
+				} else {
+					index[ slot ] = bp;
+				}
+			}
+		}
+		breakpointIndex = index;
 	}
 
    @Override
@@ -1079,11 +1710,12 @@ public final class Emulator implements IEmulator
     {
        synchronized(CPU_LOCK) 
        {
-           int adr = cpu.pc.getWordAddressValue();
+           int adr = cpu.pc;
            adr += calculateInstructionSizeInWords( adr , memory );
-           cpu.pc = Address.wordAddress( adr );
+           cpu.pc = adr & 0xffff;
            visibleCPU.populateFrom( cpu );
        }
+       restartExecutionHistory();
        afterCommandExecution( 0 , visibleCPU );
     }
    
@@ -1231,7 +1863,9 @@ public final class Emulator implements IEmulator
 
 	@Override
 	public boolean canStepReturn() {
-		return isJSR( memory.read( cpu.pc ) );
+		@SuppressWarnings("deprecation")
+		final int instructionWord = memory.read( cpu.pc );
+		return isJSR( instructionWord );
 	}
 
 	@Override
@@ -1241,8 +1875,8 @@ public final class Emulator implements IEmulator
 			throw new IllegalStateException("PC is not at a JSR instruction, cannot skip return");
 		}
 
-		final int currentInstructionSizeInWords = calculateInstructionSizeInWords( cpu.pc.getWordAddressValue() , memory );
-		final Address nextInstruction = cpu.pc.plus( Size.words( currentInstructionSizeInWords ) , true );
+		final int currentInstructionSizeInWords = calculateInstructionSizeInWords( cpu.pc , memory );
+		final Address nextInstruction = Address.wordAddress( ( cpu.pc + currentInstructionSizeInWords ) & 0xffff );
 		addBreakpoint( new OneShotBreakpoint( nextInstruction ) );
 		start();
 	}
@@ -1304,6 +1938,7 @@ public final class Emulator implements IEmulator
 		}
 		memory.clear();
 		MemUtils.bulkLoad( memory , startingOffset , data );
+		restartExecutionHistory();
 
 		// notify listeners
 		listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
@@ -1316,6 +1951,28 @@ public final class Emulator implements IEmulator
 		});
 	}
 
+	@Override
+	public void loadMemory(final MemoryImage image) 
+	{
+		stop(null);
+
+		if ( clockThread.isRunnable.get() ) {
+			throw new IllegalStateException("Emulation not stopped?");
+		}
+		memory.loadImage( image );
+		restartExecutionHistory();
+
+		// notify listeners
+		listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
+
+			@Override
+			public void invoke(IEmulator emulator, IEmulationListener listener)
+			{
+				listener.afterMemoryLoad( emulator , image.getStartAddress() , image.getLengthInBytes() );                
+			}
+		});
+	}
+
 	protected interface IEmulationListenerInvoker {
 		public void invoke(IEmulator emulator, IEmulationListener listener);
 	}
@@ -1384,7 +2041,7 @@ public final class Emulator implements IEmulator
 	{
 		synchronized( CPU_LOCK ) 
 		{
-			final CPU result = new CPU(this.memory);
+			final CPU result = new CPU(this.memory,this.interrupts);
 			result.populateFrom( this.visibleCPU );
 			return result;
 		}
@@ -1413,15 +2070,20 @@ public final class Emulator implements IEmulator
 	}
 
 	private Breakpoint extractRegularBreakpoint(List<Breakpoint> bps) 
+	{
+		return extractBreakpoint( bps , false );
+	}	
+
+	private Breakpoint extractBreakpoint(List<Breakpoint> bps,boolean oneShotBreakpoint) 
 	{
 		Breakpoint result = null;
 		for ( Breakpoint bp : bps ) 
 		{
-			if ( ! bp.isOneShotBreakpoint() ) 
+			if ( bp.isOneShotBreakpoint() == oneShotBreakpoint ) 
 			{
 				if ( result != null ) {
 					throw new IllegalStateException("More than one " +
-							" regular breakpoint at address "+bp.getAddress());
+							( oneShotBreakpoint ? "internal" : "regular" )+" breakpoint at address "+bp.getAddress());
 				}
 				result = bp;
 			}
@@ -1444,11 +2106,13 @@ public final class Emulator implements IEmulator
 				list = new ArrayList<Breakpoint>();
 				breakpoints.put( bp.getAddress() , list );
 			} 
-			replacedBreakpoint = extractRegularBreakpoint( list );
+			// there may be at most one regular and one internal breakpoint per address
+			replacedBreakpoint = extractBreakpoint( list , bp.isOneShotBreakpoint() );
 			if ( replacedBreakpoint != null ) {
 				list.remove( replacedBreakpoint );
 			}
 			list.add( bp );
+			publishBreakpointIndex();
 		}  
 
 		// notify listeners
@@ -1487,6 +2151,9 @@ public final class Emulator implements IEmulator
 			} else {
 				existing = null;
 			}
+			if ( existing != null ) {
+				publishBreakpointIndex();
+			}
 		}     	
 
 		if ( existing == null ) {
@@ -1499,143 +2166,608 @@ public final class Emulator implements IEmulator
 			@Override
 			public void invoke(IEmulator emulator, IEmulationListener listener)
 			{
-				listener.breakpointChanged( emulator , bp );
+				listener.breakpointChanged( emulator , bp );
+			}
+		});         
+	}
+	
+	@Override
+	public void deleteAllBreakpoints() 
+	{
+		final List<Breakpoint> copy=new ArrayList<>();
+		synchronized( breakpoints ) 
+		{
+			for ( List<Breakpoint> bp : breakpoints.values() ) {
+				copy.addAll( bp );
+			}
+		}
+		for ( Breakpoint bp : copy ) 
+		{
+			deleteBreakpoint( bp , false );
+		}
+		
+		listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
+
+			@Override
+			public void invoke(IEmulator emulator, IEmulationListener listener)
+			{
+				listener.allBreakpointsDeleted( emulator );
+			}
+		});  		
+	}
+
+	@Override
+	public void deleteBreakpoint(final Breakpoint bp)
+	{
+		deleteBreakpoint(bp,true);
+	}
+	
+	private void deleteBreakpoint(final Breakpoint bp,boolean notifyListeners)
+	{
+		if (bp == null) {
+			throw new IllegalArgumentException("breakpoint must not be NULL.");
+		}
+		Breakpoint existing;
+		synchronized( breakpoints ) 
+		{
+			final List<Breakpoint> list = breakpoints.get( bp.getAddress() );
+			if ( list != null ) 
+			{
+				final int idx = list.indexOf( bp );
+				if ( idx != -1 ) {
+					existing = list.remove( idx );
+				} else {
+					existing = null;
+				}
+				if ( list.isEmpty() ) {
+					breakpoints.remove( bp.getAddress() );
+				} 
+			} else {
+				existing = null;
+			}
+			if ( existing != null ) {
+				publishBreakpointIndex();
+			}
+		}      
+		// notify listeners
+		if ( notifyListeners && existing != null && ! existing.isOneShotBreakpoint() ) 
+		{
+			listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
+
+				@Override
+				public void invoke(IEmulator emulator, IEmulationListener listener)
+				{
+					listener.breakpointDeleted( emulator , bp );
+				}
+			});         
+		}
+	}
+
+	@Override
+	public void addWatchpoint(Watchpoint watchpoint) 
+	{
+		if (watchpoint == null) {
+			throw new IllegalArgumentException("watchpoint must not be NULL.");
+		}
+		synchronized( CPU_LOCK ) 
+		{
+			synchronized( watchpoints ) 
+			{
+				if ( ! watchpoints.contains( watchpoint ) ) {
+					watchpoints.add( watchpoint );
+					publishWatchpointIndex();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void deleteWatchpoint(Watchpoint watchpoint) 
+	{
+		if (watchpoint == null) {
+			throw new IllegalArgumentException("watchpoint must not be NULL.");
+		}
+		synchronized( CPU_LOCK ) 
+		{
+			synchronized( watchpoints ) 
+			{
+				if ( watchpoints.remove( watchpoint ) ) {
+					publishWatchpointIndex();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public List<Watchpoint> getWatchpoints() 
+	{
+		synchronized( watchpoints ) {
+			return new ArrayList<Watchpoint>( watchpoints );
+		}
+	}
+	
+	// caller needs to hold CPU_LOCK and the watchpoints lock
+	private void publishWatchpointIndex() 
+	{
+		memory.clearWatchedPages();
+		for ( Watchpoint wp : watchpoints ) 
+		{
+			final AddressRange range = wp.getAddressRange();
+			final int start = range.getStartAddress().getWordAddressValue();
+			final int end = range.getEndAddress().getWordAddressValue();
+			for ( int address = start ; address < end ; address++ ) {
+				memory.setPageWatched( address , true );
+			}
+		}
+		watchpointIndex = watchpoints.toArray( new Watchpoint[ watchpoints.size() ] );
+	}
+
+	@Override
+	public List<Breakpoint> getBreakPoints()
+	{
+		final List<Breakpoint> result = new ArrayList<Breakpoint>();
+		synchronized( breakpoints ) {
+			for ( List<Breakpoint> subList : breakpoints.values() ) {
+				for ( Breakpoint bp : subList ) {
+					if ( ! bp.isOneShotBreakpoint() ) {
+						result.add( bp );
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Breakpoint getBreakPoint(Address address)
+	{
+		if (address == null) {
+			throw new IllegalArgumentException("address must not be NULL.");
+		}
+		synchronized( breakpoints ) {
+			final List<Breakpoint>  list = breakpoints.get( address );
+			if ( list == null ) {
+				return null;
+			}			
+			return extractRegularBreakpoint( list );
+		}
+	}
+
+	@Override
+	public void unmapRegion(IMemoryRegion region) 
+	{
+	    synchronized( CPU_LOCK ) 
+	    {
+    		this.memory.unmapRegion( region );
+    		if ( out.isDebugEnabled() ) {
+    			out.debug("Unmapped memory region "+region);
+    			this.memory.dumpMemoryLayout(out);
+    		}
+	    }
+	}
+
+	@Override
+	public void mapRegion(IMemoryRegion region) 
+	{
+	    synchronized( CPU_LOCK ) 
+	    {
+	        this.memory.mapRegion( region );
+	        if ( out.isDebugEnabled() ) {
+	            out.debug("Mapped memory region "+region);
+	            this.memory.dumpMemoryLayout( out );
+	        }
+	    }
+	}
+
+	@Override
+	public boolean triggerInterrupt(IInterrupt interrupt) 
+	{
+		final IDevice source = interrupt.isHardwareInterrupt() ? ((HardwareInterrupt) interrupt).getDevice() : null;
+		return triggerInterrupt( source , interrupt.getMessage() );
+	}
+
+	@Override
+	public boolean triggerInterrupt(IDevice source,int message) 
+	{
+		return cpu.triggerInterrupt( source , message );
+	}
+	
+	@Override
+	public void scheduleEvent(int delayInCycles, IScheduledEvent event) 
+	{
+		synchronized( CPU_LOCK ) {
+			scheduler.schedule( delayInCycles , event );
+		}
+	}
+	
+	@Override
+	public boolean cancelEvent(IScheduledEvent event) 
+	{
+		synchronized( CPU_LOCK ) {
+			return scheduler.cancel( event );
+		}
+	}
+
+	@Override
+	public int getCyclesUntilEvent(IScheduledEvent event)
+	{
+		synchronized( CPU_LOCK ) {
+			return scheduler.getCyclesUntil( event );
+		}
+	}
+
+	@Override
+	public EmulatorSnapshot saveSnapshot()
+	{
+		final List<IDevice> devices = getDevices();
+		synchronized( CPU_LOCK )
+		{
+			// receive pending interrupts first , this may turn on interrupt queueing
+			cpu.receiveInterrupts();
+
+			final int[] cpuState = new int[ CPU.STATE_SIZE ];
+			cpu.saveState( cpuState );
+
+			final boolean hasCurrentInterrupt = this.interrupts.hasCurrentInterrupt();
+			final int[] interrupts = new int[ this.interrupts.size()*2 ];
+			for ( int i = 0 , j = 0 ; j < interrupts.length ; i++ )
+			{
+				final IDevice source = this.interrupts.getSource( i );
+				interrupts[j++] = source != null ? devices.indexOf( source ) : -1;
+				interrupts[j++] = this.interrupts.getMessage( i );
+			}
+
+			final int[] words = new int[ 65536 ];
+			memory.snapshot( 0 , words );
+
+			final DeviceState[] deviceStates = new DeviceState[ devices.size() ];
+			for ( int i = 0 ; i < deviceStates.length ; i++ )
+			{
+				final IDevice device = devices.get(i);
+				final ByteArrayOutputStream state = new ByteArrayOutputStream();
+				if ( device instanceof IStatefulDevice )
+				{
+					try {
+						((IStatefulDevice) device).saveState( this , new DataOutputStream( state ) );
+					} catch (IOException e) {
+						throw new RuntimeException("Device "+device+" failed to save its state",e);
+					}
+				}
+				deviceStates[i] = new DeviceState( device.getDeviceDescriptor() , state.toByteArray() );
+			}
+			return new EmulatorSnapshot( cpuState , hasCurrentInterrupt , interrupts , MemoryImage.create( words ) , deviceStates );
+		}
+	}
+
+	@Override
+	public void restoreSnapshot(EmulatorSnapshot snapshot) throws IllegalArgumentException
+	{
+		restoreSnapshot( snapshot , true );
+	}
+
+	/**
+	 * 
+	 * @param snapshot
+	 * @param notifyListeners whether this is a regular restore that stops the emulation , restarts the execution history and 
+	 * notifies listeners. If <code>false</code> , the caller must've stopped the emulation and must be holding the CPU lock.
+	 * @throws IllegalArgumentException
+	 */
+	private void restoreSnapshot(EmulatorSnapshot snapshot,boolean notifyListeners) throws IllegalArgumentException
+	{
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot must not be null");
+		}
+
+		final List<IDevice> devices = getDevices();
+		final DeviceState[] deviceStates = snapshot.getDeviceStates();
+		if ( deviceStates.length != devices.size() ) {
+			throw new IllegalArgumentException("Snapshot has "+deviceStates.length+" devices but emulator has "+devices.size());
+		}
+		for ( int i = 0 ; i < deviceStates.length ; i++ )
+		{
+			if ( ! deviceStates[i].matches( devices.get(i).getDeviceDescriptor() ) ) {
+				throw new IllegalArgumentException("Device in slot "+i+" does not match snapshot: "+devices.get(i));
+			}
+		}
+
+		if ( notifyListeners ) {
+			stop(null);
+		}
+
+		synchronized( CPU_LOCK )
+		{
+			scheduler.clear();
+			scheduleProfilerSampling();
+
+			cpu.reset();
+			cpu.restoreState( snapshot.getCPUState() );
+
+			final int[] interrupts = snapshot.getInterrupts();
+			final IDevice[] sources = new IDevice[ interrupts.length / 2 ];
+			final int[] messages = new int[ interrupts.length / 2 ];
+			for ( int i = 0 ; i < interrupts.length ; i+=2 )
+			{
+				sources[i/2] = interrupts[i] == -1 ? null : devices.get( interrupts[i] );
+				messages[i/2] = interrupts[i+1];
+			}
+			this.interrupts.restore( sources , messages , snapshot.hasCurrentInterrupt() );
+
+			for ( int i = 0 ; i < deviceStates.length ; i++ )
+			{
+				final IDevice device = devices.get(i);
+				if ( device instanceof IStatefulDevice )
+				{
+					try {
+						((IStatefulDevice) device).restoreState( this , new DataInputStream( new ByteArrayInputStream( deviceStates[i].state ) ) );
+					} catch (IOException e) {
+						throw new RuntimeException("Device "+device+" failed to restore its state",e);
+					}
+				} else {
+					device.reset();
+				}
+			}
+
+			// restore memory AFTER devices have mapped their memory regions
+			memory.resetWriteProtection();
+			memory.loadImage( snapshot.getMemory() );
+
+			visibleCPU.populateFrom( cpu );
+			lastEmulationError = null;
+		}
+
+		if ( ! notifyListeners ) {
+			return;
+		}
+
+		restartExecutionHistory();
+
+		listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
+
+			@Override
+			public void invoke(IEmulator emulator, IEmulationListener listener)
+			{
+				listener.afterMemoryLoad( emulator , WordAddress.ZERO , 65536*2 );
 			}
-		});         
+		});
 	}
-	
-	@Override
-	public void deleteAllBreakpoints() 
+
+	/**
+	 * Restores a snapshot without notifying any listeners and silently re-executes
+	 * a given number of instructions.
+	 * 
+	 * <p>Used by {@link ExecutionHistory} to go back in time. Instructions are
+	 * executed exactly like {@link #internalExecuteOneInstruction()} does but without 
+	 * invoking listeners , checking breakpoints or recording history.</p>
+	 * 
+	 * @param snapshot
+	 * @param instructions
+	 */
+	protected void restoreAndReplay(EmulatorSnapshot snapshot,int instructions) 
 	{
-		final List<Breakpoint> copy=new ArrayList<>();
-		synchronized( breakpoints ) 
+		restoreSnapshot( snapshot , false );
+		
+		synchronized( CPU_LOCK ) 
 		{
-			for ( List<Breakpoint> bp : breakpoints.values() ) {
-				copy.addAll( bp );
+			try 
+			{
+				for ( int i = 0 ; i < instructions ; i++ ) 
+				{
+					final int pc = cpu.pc;
+					final int durationInCycles = cpu.executeInstruction();
+					lastValidInstruction = pc;
+					
+					cpu.currentCycle += durationInCycles;
+					cpu.pc = cpu.currentInstructionPtr;
+					
+					if ( scheduler.advance( durationInCycles ) ) {
+						scheduler.fireDueEvents( this , cpu , memory );
+					}
+					cpu.maybeProcessOneInterrupt();  // might push A on stack and set PC to IA
+				}
+			} 
+			finally 
+			{
+				visibleCPU.populateFrom( cpu );
+				memory.publishWrites();
 			}
 		}
-		for ( Breakpoint bp : copy ) 
+	}
+	
+	private void restartExecutionHistory() 
+	{
+		synchronized( CPU_LOCK ) 
 		{
-			deleteBreakpoint( bp , false );
+			final ExecutionHistory history = executionHistory;
+			if ( history != null ) {
+				history.restart( cpu.pc );
+			}
 		}
-		
-		listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
-
-			@Override
-			public void invoke(IEmulator emulator, IEmulationListener listener)
-			{
-				listener.allBreakpointsDeleted( emulator );
+	}
+	
+	@Override
+	public void setRecordExecutionHistory(boolean record) 
+	{
+		synchronized( CPU_LOCK ) 
+		{
+			if ( record == ( executionHistory != null ) ) {
+				return;
 			}
-		});  		
+			if ( record ) {
+				final ExecutionHistory history = new ExecutionHistory( this );
+				history.restart( cpu.pc );
+				executionHistory = history;
+			} else {
+				executionHistory = null;
+			}
+		}
 	}
-
+	
 	@Override
-	public void deleteBreakpoint(final Breakpoint bp)
+	public boolean isRecordExecutionHistory() {
+		return executionHistory != null;
+	}
+	
+	@Override
+	public boolean canStepBack() 
 	{
-		deleteBreakpoint(bp,true);
+		synchronized( CPU_LOCK ) 
+		{
+			final ExecutionHistory history = executionHistory;
+			return history != null && history.canStepBack();
+		}
 	}
 	
-	private void deleteBreakpoint(final Breakpoint bp,boolean notifyListeners)
+	@Override
+	public boolean stepBack() throws IllegalStateException 
 	{
-		if (bp == null) {
-			throw new IllegalArgumentException("breakpoint must not be NULL.");
+		stop(null);
+		
+		final boolean success;
+		synchronized( CPU_LOCK ) {
+			success = getExecutionHistory().stepBack();
 		}
-		Breakpoint existing;
-		synchronized( breakpoints ) 
-		{
-			final List<Breakpoint> list = breakpoints.get( bp.getAddress() );
-			if ( list != null ) 
-			{
-				final int idx = list.indexOf( bp );
-				if ( idx != -1 ) {
-					existing = list.remove( idx );
-				} else {
-					existing = null;
-				}
-				if ( list.isEmpty() ) {
-					breakpoints.remove( bp.getAddress() );
-				} 
-			} else {
-				existing = null;
+		if ( success ) {
+			afterCommandExecution( 0 , visibleCPU );
+		}
+		return success;
+	}
+	
+	@Override
+	public boolean runBackwards() throws IllegalStateException 
+	{
+		stop(null);
+		
+		final boolean[] breakpointAddresses = new boolean[ 65536 ];
+		for ( Breakpoint bp : getBreakPoints() ) {
+			if ( bp.isEnabled() ) {
+				breakpointAddresses[ bp.getAddress().getWordAddressValue() ] = true;
 			}
-		}      
-		// notify listeners
-		if ( notifyListeners && existing != null && ! existing.isOneShotBreakpoint() ) 
+		}
+		
+		final boolean breakpointReached;
+		final boolean canStepBack;
+		synchronized( CPU_LOCK ) 
 		{
-			listenerHelper.notifyListeners( new IEmulationListenerInvoker() {
-
-				@Override
-				public void invoke(IEmulator emulator, IEmulationListener listener)
-				{
-					listener.breakpointDeleted( emulator , bp );
-				}
-			});         
+			final ExecutionHistory history = getExecutionHistory();
+			canStepBack = history.canStepBack();
+			breakpointReached = history.runBackwards( breakpointAddresses );
+		}
+		if ( canStepBack ) {
+			afterCommandExecution( 0 , visibleCPU );
+		}
+		return breakpointReached;
+	}
+	
+	private ExecutionHistory getExecutionHistory() throws IllegalStateException 
+	{
+		final ExecutionHistory history = executionHistory;
+		if ( history == null ) {
+			throw new IllegalStateException("Execution history is not being recorded");
 		}
+		return history;
 	}
 
-	@Override
-	public List<Breakpoint> getBreakPoints()
+	/**
+	 * Starts writing a binary trace of all executed instructions to a file.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 * @see #startTrace(TraceWriter)
+	 */
+	public void startTrace(File file) throws IOException {
+		startTrace( new TraceWriter( file ) );
+	}
+	
+	/**
+	 * Starts writing a binary trace of all executed instructions.
+	 * 
+	 * <p>Tracing bypasses all emulation listeners and is much faster than tracing with
+	 * an {@link IEmulationListener} , instructions are still executed one by one 
+	 * while tracing. Only one trace can be written at a time.</p>
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 * @throws IllegalStateException if a trace is already being written
+	 * @see #stopTrace()
+	 * @see de.codesourcery.jasm16.emulator.trace.TraceReader
+	 */
+	public void startTrace(TraceWriter writer) throws IOException,IllegalStateException 
 	{
-		final List<Breakpoint> result = new ArrayList<Breakpoint>();
-		synchronized( breakpoints ) {
-			for ( List<Breakpoint> subList : breakpoints.values() ) {
-				for ( Breakpoint bp : subList ) {
-					if ( ! bp.isOneShotBreakpoint() ) {
-						result.add( bp );
-					}
-				}
+		if (writer == null) {
+			throw new IllegalArgumentException("writer must not be null");
+		}
+		synchronized( CPU_LOCK ) 
+		{
+			if ( traceWriter != null ) {
+				throw new IllegalStateException("Already tracing");
 			}
+			cpu.saveState( traceState );
+			writer.begin( traceState );
+			traceWriter = writer;
 		}
-		return result;
 	}
-
-	@Override
-	public Breakpoint getBreakPoint(Address address)
+	
+	/**
+	 * Stops tracing and closes the trace writer.
+	 * 
+	 * <p>Does nothing if no trace is being written.</p>
+	 * 
+	 * @throws IOException
+	 */
+	public void stopTrace() throws IOException 
 	{
-		if (address == null) {
-			throw new IllegalArgumentException("address must not be NULL.");
+		final TraceWriter writer;
+		synchronized( CPU_LOCK ) 
+		{
+			writer = traceWriter;
+			traceWriter = null;
 		}
-		synchronized( breakpoints ) {
-			final List<Breakpoint>  list = breakpoints.get( address );
-			if ( list == null ) {
-				return null;
-			}			
-			return extractRegularBreakpoint( list );
+		if ( writer != null ) {
+			writer.close();
 		}
 	}
 
 	@Override
-	public void unmapRegion(IMemoryRegion region) 
+	public void setProfiler(CycleProfiler newProfiler) 
 	{
-	    synchronized( CPU_LOCK ) 
-	    {
-    		this.memory.unmapRegion( region );
-    		if ( out.isDebugEnabled() ) {
-    			out.debug("Unmapped memory region "+region);
-    			this.memory.dumpMemoryLayout(out);
-    		}
-	    }
+		synchronized( CPU_LOCK ) 
+		{
+			if ( profiler != null ) {
+				scheduler.cancel( profiler.getSampler() );
+			}
+			profiler = newProfiler;
+			scheduleProfilerSampling();
+		}
 	}
-
+	
 	@Override
-	public void mapRegion(IMemoryRegion region) 
+	public CycleProfiler getProfiler() {
+		return profiler;
+	}
+	
+	@Override
+	public void setCoverageData(CoverageData data) 
 	{
-	    synchronized( CPU_LOCK ) 
-	    {
-	        this.memory.mapRegion( region );
-	        if ( out.isDebugEnabled() ) {
-	            out.debug("Mapped memory region "+region);
-	            this.memory.dumpMemoryLayout( out );
-	        }
-	    }
+		synchronized( CPU_LOCK ) {
+			cpu.coverage = data;
+		}
 	}
-
+	
 	@Override
-	public boolean triggerInterrupt(IInterrupt interrupt) 
+	public CoverageData getCoverageData() 
 	{
-	    synchronized( CPU_LOCK ) {
-	        return cpu.triggerInterrupt( interrupt );
-	    }
+		synchronized( CPU_LOCK ) {
+			return cpu.coverage;
+		}
+	}
+	
+	// @GuardedBy( CPU_LOCK )
+	private void scheduleProfilerSampling() 
+	{
+		final CycleProfiler currentProfiler = profiler;
+		if ( currentProfiler != null && currentProfiler.getMode() == CycleProfiler.Mode.SAMPLING ) {
+			scheduler.schedule( currentProfiler.getSamplingInterval() , currentProfiler.getSampler() );
+		}
 	}
 
 	public int addOrReplaceDevice(IDevice device) throws DeviceErrorException 
@@ -1896,7 +3028,15 @@ public final class Emulator implements IEmulator
 		stop();
 
 		// terminate clock thread
-		clockThread.sendToClockThread( Command.terminateClockThread() );
+		if ( useClockThread ) {
+			clockThread.sendToClockThread( Command.terminateClockThread() );
+		}
+
+		try {
+			stopTrace();
+		} catch (IOException e) {
+			LOG.error("dispose(): Failed to close trace",e);
+		}
 
 		// notify listeners and remove them afterwards
 		listenerHelper.emulatorDisposed();
@@ -1953,6 +3093,9 @@ public final class Emulator implements IEmulator
         // transient, only used inside of executeOneInstruction() code path
         public int currentInstructionPtr;
         
+        // transient, index of the next instruction word to read from InstructionCache#getWord(int)
+        private int nextInstructionWord;
+        
         public final MainMemory memory;
         
         /* Register A = Index 0
@@ -1968,21 +3111,68 @@ public final class Emulator implements IEmulator
 
         public int ex;
 
-        public Address pc;
-        public Address sp;
-        public Address interruptAddress;
+        // PC , SP and IA are kept as plain word addresses so that the
+        // instruction execution code path does not need to allocate Address instances
+        public int pc;
+        public int sp;
+        // volatile because devices read it when posting interrupts from other threads 
+        // (see triggerInterrupt(IDevice,int)) , only written by the thread holding CPU_LOCK
+        public volatile int interruptAddress;
 
         public boolean queueInterrupts;
 
-        public IInterrupt currentInterrupt;
-        public final List<IInterrupt> interruptQueue= new ArrayList<IInterrupt>();
+        // shared by all CPU instances of an emulator
+        public final InterruptQueue interrupts;
 
         public int currentCycle;
 
-        public CPU(MainMemory memory) 
+        // coverage data or NULL if coverage is not being collected
+        public CoverageData coverage;
+
+        public CPU(MainMemory memory,InterruptQueue interrupts) 
         {
-            pc = sp = interruptAddress = WordAddress.ZERO;
             this.memory = memory;
+            this.interrupts = interrupts;
+        }
+
+        /**
+         * Number of <code>int</code>s required to store the CPU's
+         * register state using {@link #saveState(int[])}.
+         */
+        public static final int STATE_SIZE = 14;
+
+        /**
+         * Saves all registers (but not the interrupt queue) to an <code>int</code> array.
+         * 
+         * @param state array with at least {@link #STATE_SIZE} elements
+         * @see #restoreState(int[])
+         */
+        public void saveState(int[] state) 
+        {
+            System.arraycopy( commonRegisters , 0 , state , 0 , 8 );
+            state[8] = ex;
+            state[9] = pc;
+            state[10] = sp;
+            state[11] = interruptAddress;
+            state[12] = queueInterrupts ? 1 : 0;
+            state[13] = currentCycle;
+        }
+
+        /**
+         * Restores registers from an <code>int</code> array.
+         * 
+         * @param state
+         * @see #saveState(int[])
+         */
+        public void restoreState(int[] state) 
+        {
+            System.arraycopy( state , 0 , commonRegisters , 0 , 8 );
+            ex = state[8];
+            pc = state[9];
+            sp = state[10];
+            interruptAddress = state[11];
+            queueInterrupts = state[12] != 0;
+            currentCycle = state[13];
         }
 
         public void populateFrom(CPU other) 
@@ -1993,68 +3183,47 @@ public final class Emulator implements IEmulator
             this.sp = other.sp;
             this.interruptAddress = other.interruptAddress;
             this.queueInterrupts = other.queueInterrupts;
-            this.currentInterrupt = other.currentInterrupt;
-            this.interruptQueue.clear();
-            this.interruptQueue.addAll(other.interruptQueue);
             this.currentCycle = other.currentCycle;
         }           
 
-        public boolean triggerInterrupt(IInterrupt interrupt) 
+        /**
+         * Posts an interrupt , may be called by any thread.
+         * 
+         * @param source device that triggered the interrupt or <code>null</code> for software interrupts
+         * @param message
+         * @return <code>false</code> if interrupts are disabled
+         * @throws InterruptQueueFullException
+         */
+        public boolean triggerInterrupt(IDevice source,int message) throws InterruptQueueFullException
         {
+            // IA may get cleared right after this check , interrupts that reach
+            // the CPU while IA is 0 get discarded by maybeProcessOneInterrupt()
             if ( ! interruptsEnabled() ) {
                 return false;
             }
-
-            synchronized ( interruptQueue ) 
-            {
-                if ( currentInterrupt == null && ! isQueueInterrupts() ) {
-                    currentInterrupt  = interrupt;
-                } 
-                else 
-                { // there's either already an IRQ waiting to be processed or the CPU is currently told to queue interrupts
-                    if ( interruptQueue.size() >= INTERRUPT_QUEUE_SIZE ) 
-                    {
-                        throw new InterruptQueueFullException("Interrupt queue full ("+interruptQueue.size()+" entries already) , can't store "+interrupt);
-                    }
-                    setQueueInterrupts( true );
-                    interruptQueue.add( interrupt );
-                } 
+            if ( ! interrupts.offer( source , message ) ) {
+                throw new InterruptQueueFullException("Interrupt queue full ("+InterruptQueue.CAPACITY+" entries already) , can't store interrupt "+message);
             }
             return true;
         }        
 
-        public IInterrupt getNextProcessableInterrupt(boolean removeFromQueue) 
+        /**
+         * Receives interrupts posted since the last invocation , turns on 
+         * interrupt queueing if necessary.
+         */
+        public void receiveInterrupts() 
         {
-            synchronized( interruptQueue ) 
-            {
-                if ( currentInterrupt != null ) 
-                {
-                    if ( ! removeFromQueue ) {
-                        return currentInterrupt;
-                    }
-
-                    final IInterrupt irq = currentInterrupt;
-                    currentInterrupt = null;
-                    return irq;
-                } 
-
-                if ( ! interruptQueue.isEmpty() && ! isQueueInterrupts() ) 
-                {
-                    if ( removeFromQueue ) {
-                        return interruptQueue.remove(0);
-                    } 
-                    return interruptQueue.get(0);
-                }
+            if ( interrupts.receive( queueInterrupts ) ) {
+                queueInterrupts = true;
             }
-            return null;
-        }        
+        }
 
         public void reset()
         {
             currentCycle = 0;
             queueInterrupts = false;
-            interruptQueue.clear();
-            sp = pc = interruptAddress = WordAddress.ZERO;
+            interrupts.clear();
+            sp = pc = interruptAddress = 0;
             ex = 0;
             for ( int i = 0 ; i < commonRegisters.length ; i++ ) {
                 commonRegisters[i]=0;
@@ -2063,12 +3232,12 @@ public final class Emulator implements IEmulator
 
         @Override
         public Address getPC() {
-            return pc;
+            return Address.wordAddress( pc );
         }
 
         @Override
         public Address getSP() {
-            return sp;
+            return Address.wordAddress( sp );
         }
 
         @Override
@@ -2078,7 +3247,7 @@ public final class Emulator implements IEmulator
 
         @Override
         public Address getInterruptAddress() {
-            return interruptAddress;
+            return Address.wordAddress( interruptAddress );
         }
 
         @Override
@@ -2110,10 +3279,10 @@ public final class Emulator implements IEmulator
                     commonRegisters[7] = value & 0xffff;
                     break;
                 case PC:
-                    pc = Address.wordAddress( value & 0xffff );
+                    pc = value & 0xffff;
                     break;
                 case SP:
-                    sp = Address.wordAddress( value & 0xffff );
+                    sp = value & 0xffff;
                     break;
                 case X:
                     commonRegisters[3] = value & 0xffff;
@@ -2146,9 +3315,9 @@ public final class Emulator implements IEmulator
                 case J:
                     return commonRegisters[7];
                 case PC:
-                    return pc.getWordAddressValue();
+                    return pc;
                 case SP:
-                    return sp.getWordAddressValue();
+                    return sp;
                 case X:
                     return commonRegisters[3];
                 case Y:
@@ -2172,19 +3341,25 @@ public final class Emulator implements IEmulator
 
         @Override
         public boolean interruptsEnabled() {
-            return interruptAddress != null && interruptAddress.getValue() != 0;
+            return interruptAddress != 0;
         }
 
         @Override
         public List<IInterrupt> getInterruptQueue() {
-            return interruptQueue;
+            return interrupts.toList();
         }
 
         // ==============
         
         public int executeInstruction() 
         {
-            currentInstructionPtr = pc.getValue();
+            currentInstructionPtr = pc;
+            nextInstructionWord = instructionCache.lookup( pc , memory ) + 1;
+            
+            final CoverageData coverageData = coverage;
+            if ( coverageData != null ) {
+                coverageData.instructionExecuted( pc );
+            }
             
             final int instructionWord = readNextWordAndAdvance();
             
@@ -2379,14 +3554,14 @@ public final class Emulator implements IEmulator
             final Disassembler dis = new Disassembler();
 
             // assume worst-case , each instruction only is one word
-            final int instructionCount = Address.calcDistanceInBytes( Address.wordAddress( 0 ) , pc ).toSizeInWords().getValue();
+            final int instructionCount = pc;
             List<DisassembledLine> lines = dis.disassemble( memory , Address.wordAddress( 0 ) , instructionCount , true );
             for (DisassembledLine line : lines) {
                 out.info( Misc.toHexString( line.getAddress() )+": "+line.getContents());
             }
             
-            Address lastValid = lastValidInstruction;
-            if ( lastValid == null ) {
+            int lastValid = lastValidInstruction;
+            if ( lastValid == -1 ) {
                 lastValid = pc;
             }
             final String msg = "Unknown opcode 0x"+Misc.toHexString( instructionWord )+
@@ -2401,26 +3576,32 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );      
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty = 0;
-            if ( signed( target.value ) >= signed( source.value ) ) 
-            {
-                penalty = handleConditionFailure();
+            final int penalty = handleCondition( signed( target.value ) < signed( source.value ) );
+            return 2+target.cycleCount+source.cycleCount+penalty;           
+        }
 
+        private int handleCondition(boolean satisfied) 
+        {
+            final CoverageData coverageData = coverage;
+            if ( coverageData != null ) {
+                coverageData.conditionEvaluated( pc , satisfied );
             }
-            return 2+target.cycleCount+source.cycleCount+penalty;           
+            return satisfied ? 0 : handleConditionFailure();
         }
 
         private int handleConditionFailure() 
         {
-    		boolean skippedInstructionIsConditional = isConditionalInstruction( memory.read( currentInstructionPtr ) );
+    		int entry = instructionCache.lookup( currentInstructionPtr , memory );
+    		boolean skippedInstructionIsConditional = instructionCache.isConditional( entry );
     		
-    		currentInstructionPtr += calculateInstructionSizeInWords( currentInstructionPtr , memory );
+    		currentInstructionPtr = ( currentInstructionPtr + instructionCache.getSizeInWords( entry ) ) & 0xffff;
     		
     		if ( skippedInstructionIsConditional ) 
     		{
     			do {
-    				skippedInstructionIsConditional = isConditionalInstruction( memory.read( currentInstructionPtr ) );
-            		currentInstructionPtr += calculateInstructionSizeInWords( currentInstructionPtr , memory );
+    				entry = instructionCache.lookup( currentInstructionPtr , memory );
+    				skippedInstructionIsConditional = instructionCache.isConditional( entry );
+    				currentInstructionPtr = ( currentInstructionPtr + instructionCache.getSizeInWords( entry ) ) & 0xffff;
     			} while ( skippedInstructionIsConditional );
     			return 2;
     		}
@@ -2432,10 +3613,7 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );      
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty = 0;
-            if ( target.value >= source.value ) {
-                penalty = handleConditionFailure();
-            }
+            final int penalty = handleCondition( target.value < source.value );
             return 2+target.cycleCount+source.cycleCount+penalty;       
         }
 
@@ -2444,10 +3622,7 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );      
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty = 0;
-            if ( signed( target.value ) <= signed( source.value ) ) {
-                penalty = handleConditionFailure();
-            }
+            final int penalty = handleCondition( signed( target.value ) > signed( source.value ) );
             return 2+target.cycleCount+source.cycleCount+penalty;       
         }
 
@@ -2456,10 +3631,7 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );      
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty=0;
-            if ( target.value <= source.value ) {
-                penalty = handleConditionFailure();
-            }
+            final int penalty = handleCondition( target.value > source.value );
             return 2+target.cycleCount+source.cycleCount+penalty;           
         }
 
@@ -2468,10 +3640,7 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty = 0;
-            if ( target.value == source.value ) {
-                penalty = handleConditionFailure();
-            }
+            final int penalty = handleCondition( target.value != source.value );
             return 2+target.cycleCount+source.cycleCount+penalty;           
         }
 
@@ -2480,10 +3649,7 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty=0;
-            if ( target.value != source.value ) {
-                penalty = handleConditionFailure();
-            }
+            final int penalty = handleCondition( target.value == source.value );
             return 2+target.cycleCount+source.cycleCount+penalty;       
         }
 
@@ -2492,10 +3658,7 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );      
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty = 0;
-            if ( (target.value & source.value) != 0 ) {
-                penalty = handleConditionFailure();
-            }
+            final int penalty = handleCondition( (target.value & source.value) == 0 );
             return 2+target.cycleCount+source.cycleCount+penalty;
         }
 
@@ -2504,10 +3667,7 @@ public final class Emulator implements IEmulator
             OperandDesc source = loadSourceOperand( instructionWord );      
             OperandDesc target = loadTargetOperand( instructionWord , false , true );
 
-            int penalty=0;
-            if ( (target.value & source.value) == 0 ) {
-                penalty = handleConditionFailure();
-            }
+            final int penalty = handleCondition( (target.value & source.value) != 0 );
             return 2+target.cycleCount+source.cycleCount+penalty;
         }
 
@@ -2960,11 +4120,10 @@ public final class Emulator implements IEmulator
                     return 0;
                 case 0x1a:
                     int nextWord = readNextWordAndAdvance();
-                    Address dst = sp.plus( Address.wordAddress( nextWord ) , true);
-                    memory.write( dst , value );
+                    memory.write( ( sp + nextWord ) & 0xffff , value );
                     return 1;
                 case 0x1b:
-                    sp = Address.wordAddress( value & 0xffff );
+                    sp = value & 0xffff;
                     return 0;
                 case 0x1c: // PC
                     currentInstructionPtr = value & 0xffff;
@@ -2991,10 +4150,14 @@ public final class Emulator implements IEmulator
         }
         
         private int readNextWordAndAdvance() {
-            final int word = memory.read( currentInstructionPtr );
+            final int word = instructionCache.getWord( nextInstructionWord++ );
             currentInstructionPtr = (currentInstructionPtr+1) & 0xffff;
             return word;
         }        
+        
+        private int peekNextWord() {
+            return instructionCache.getWord( nextInstructionWord );
+        }
 
         private OperandDesc loadSourceOperand(int instructionWord) {
 
@@ -3024,16 +4187,15 @@ public final class Emulator implements IEmulator
             switch( operandBits ) {
                 case 0x18: // (PUSH / [--SP]) if in b, or (POP / [SP++]) if in a
                     final OperandDesc tmp = operandDesc( memory.read( sp ) );
-                    sp = sp.incrementByOne(true);                
+                    sp = ( sp + 1 ) & 0xffff;
                     return tmp;
                 case 0x19:
                     return operandDesc( memory.read( sp ) , 1 );
                 case 0x1a:
                     int nextWord = readNextWordAndAdvance();
-                    final Address dst = sp.plus( Address.wordAddress( nextWord ) , true );
-                    return operandDesc( memory.read( dst ) , 1 );
+                    return operandDesc( memory.read( ( sp + nextWord ) & 0xffff ) , 1 );
                 case 0x1b:
-                    return operandDesc( sp.getValue() );
+                    return operandDesc( sp );
                 case 0x1c:
                     return operandDesc( currentInstructionPtr );
                 case 0x1d:
@@ -3118,14 +4280,14 @@ public final class Emulator implements IEmulator
                 if ( performIncrementDecrement ) {
                     nextWord = readNextWordAndAdvance();
                 } else {
-                    nextWord = memory.read( currentInstructionPtr );                
+                    nextWord = peekNextWord();                
                 }
                 return operandDesc( readMemoryWithOffsetAndWrapAround(  commonRegisters[ operandBits - 0x10 ] , nextWord ) ,1 );
             }
 
             switch( operandBits ) {
                 case 0x18: // (PUSH / [--SP++]) if in b
-                    return operandDesc( memory.read( sp.decrementByOne() ) , 1 );
+                    return operandDesc( memory.read( ( sp - 1 ) & 0xffff ) , 1 );
                 case 0x19:
                     return operandDesc( memory.read( sp ) , 1 );
                 case 0x1a:
@@ -3133,12 +4295,11 @@ public final class Emulator implements IEmulator
                     if ( performIncrementDecrement ) {
                         nextWord = readNextWordAndAdvance();
                     } else {
-                        nextWord = memory.read( currentInstructionPtr );                    
+                        nextWord = peekNextWord();                    
                     }
-                    final Address dst = sp.plus( Address.wordAddress( nextWord ) , true );
-                    return operandDesc( memory.read( dst ) , 1 );
+                    return operandDesc( memory.read( ( sp + nextWord ) & 0xffff ) , 1 );
                 case 0x1b:
-                    return operandDesc( sp.getValue() );
+                    return operandDesc( sp );
                 case 0x1c:
                     return operandDesc( currentInstructionPtr );
                 case 0x1d:
@@ -3147,14 +4308,14 @@ public final class Emulator implements IEmulator
                     if ( performIncrementDecrement ) {
                         nextWord = readNextWordAndAdvance();
                     } else {
-                        nextWord = memory.read( currentInstructionPtr );
+                        nextWord = peekNextWord();
                     }
                     return operandDesc( memory.read( nextWord ) ,1 );
                 case 0x1f:
                     if ( performIncrementDecrement ) {
                         nextWord = readNextWordAndAdvance();
                     } else {
-                        nextWord = memory.read( currentInstructionPtr );                    
+                        nextWord = peekNextWord();                    
                     }
                     return operandDesc( nextWord , 1 );
             }
@@ -3251,19 +4412,19 @@ public final class Emulator implements IEmulator
         {
             // IAS a => sets IA to a
             final OperandDesc operand = loadSourceOperand( instructionWord );
-            interruptAddress = Address.wordAddress( operand.value );
+            interruptAddress = operand.value;
             return 1+operand.cycleCount;
         }
 
         private int handleIAG(int instructionWord) {
             // IAG a => sets A to IA
-            return 1+storeTargetOperand( instructionWord , interruptAddress.getValue() , true );
+            return 1+storeTargetOperand( instructionWord , interruptAddress , true );
         }
 
         private int handleINT(int instructionWord) 
         {
             final OperandDesc operand = loadSourceOperand( instructionWord );
-            triggerInterrupt(new SoftwareInterrupt( operand.value ));
+            triggerInterrupt( null , operand.value );
             return 4+operand.cycleCount;
         }
 
@@ -3280,37 +4441,44 @@ public final class Emulator implements IEmulator
         {
             // SET a, [SP++]
             final int result = memory.read( sp );
-            sp= sp.incrementByOne(true);
+            sp = ( sp + 1 ) & 0xffff;
             return result;
         }
 
         private void push(int value) 
         {
             // SET [--SP] , blubb
-            sp = sp.decrementByOne();
+            sp = ( sp - 1 ) & 0xffff;
             memory.write( sp , value );
         }           
         
         public boolean maybeProcessOneInterrupt() 
         {
-            if ( interruptsEnabled() ) 
-            { 
-                final IInterrupt irq = getNextProcessableInterrupt( true );
-                if ( irq != null ) 
-                {
-                    // push PC to stack
-					// SET [ --SP ] , PC
-					push( pc.getValue() );
-					
-					// push A to stack
-					push( commonRegisters[0] );
-					
-					pc = interruptAddress;
-					commonRegisters[0] = irq.getMessage() & 0xffff;
-                    return true;
+            final int ia = interruptAddress;
+            if ( ia == 0 ) 
+            {
+                // interrupts do nothing while IA is 0 , this also drops interrupts that were 
+                // posted by other threads while IA was being cleared
+                if ( ! queueInterrupts ) {
+                    interrupts.clear();
                 }
+                return false;
+            }
+            receiveInterrupts();
+            final int message = interrupts.poll( queueInterrupts );
+            if ( message == -1 ) {
+                return false;
             }
-            return false;
+            // push PC to stack
+            // SET [ --SP ] , PC
+            push( pc );
+
+            // push A to stack
+            push( commonRegisters[0] );
+
+            pc = ia;
+            commonRegisters[0] = message;
+            return true;
         }        
     } // end of class: CPU	
 
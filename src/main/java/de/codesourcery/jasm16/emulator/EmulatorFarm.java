@@ -0,0 +1,337 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.jasm16.emulator.HeadlessRunner.Result;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.Session;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+
+/**
+ * Runs many headless emulator instances on a fixed pool of worker threads.
+ *
+ * <p>Instead of using one clock thread per emulator , each instance executes a time-slice
+ * of {@link #getInstructionsPerSlice()} instructions and then goes to the back of the worker
+ * pool's queue , so any number of instances get executed round-robin by a few threads.</p>
+ *
+ * <p>Instances are created from a {@link MemoryImage} or an {@link EmulatorSnapshot} so all instances 
+ * running the same program share its memory pages until they write to them.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see HeadlessRunner
+ * @see Emulator#executeTimeSlice(int)
+ */
+public final class EmulatorFarm
+{
+	private static final Logger LOG = Logger.getLogger(EmulatorFarm.class);
+
+	public static final int DEFAULT_INSTRUCTIONS_PER_SLICE = 10000;
+
+	private final ExecutorService workers;
+	private final int instructionsPerSlice;
+
+	private final long creationTime = System.currentTimeMillis();
+	private final AtomicLong executedCycles = new AtomicLong();
+	private final AtomicInteger runningInstances = new AtomicInteger();
+	private final AtomicInteger completedInstances = new AtomicInteger();
+
+	/**
+	 * A single emulator instance.
+	 *
+	 * <p>The future is completed by the worker thread executing the last time-slice.</p>
+	 */
+	private final class Instance implements Future<Result>
+	{
+		private static final int RUNNING = 0;
+		private static final int COMPLETED = 1;
+		private static final int CANCELLED = 2;
+
+		private final HeadlessRunner runner;
+		private final Session session;
+
+		private final AtomicInteger state = new AtomicInteger( RUNNING );
+		private final CountDownLatch completion = new CountDownLatch(1);
+		private volatile Result result;
+		private volatile Throwable error;
+
+		private final Runnable timeSlice = new Runnable() {
+
+			@Override
+			public void run() {
+				runTimeSlice();
+			}
+		};
+
+		public Instance(HeadlessRunner runner,Session session)
+		{
+			this.runner = runner;
+			this.session = session;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			// the worker disposes the emulator when it notices the cancellation
+			if ( state.compareAndSet( RUNNING , CANCELLED ) ) {
+				completion.countDown();
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return state.get() != RUNNING;
+		}
+
+		@Override
+		public Result get() throws InterruptedException, ExecutionException
+		{
+			completion.await();
+			return getResult();
+		}
+
+		@Override
+		public Result get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			if ( ! completion.await( timeout , unit ) ) {
+				throw new TimeoutException();
+			}
+			return getResult();
+		}
+
+		private Result getResult() throws ExecutionException
+		{
+			if ( isCancelled() ) {
+				throw new CancellationException();
+			}
+			if ( error != null ) {
+				throw new ExecutionException( error );
+			}
+			return result;
+		}
+
+		private void complete(Result result,Throwable error)
+		{
+			this.result = result;
+			this.error = error;
+			if ( state.compareAndSet( RUNNING , COMPLETED ) ) {
+				completion.countDown();
+			}
+		}
+
+		protected void schedule() {
+			workers.execute( timeSlice );
+		}
+
+		private void runTimeSlice()
+		{
+			final Emulator emulator = session.emulator;
+			Result result = null;
+			Throwable error = null;
+			try
+			{
+				if ( ! isCancelled() )
+				{
+					executedCycles.addAndGet( emulator.executeTimeSlice( instructionsPerSlice ) );
+					if ( emulator.isRunning() ) {
+						schedule();
+						return;
+					}
+					result = runner.createResult( session );
+				}
+			}
+			catch(Throwable t) {
+				error = t;
+			}
+
+			try {
+				emulator.dispose();
+			} catch(Exception e) {
+				LOG.error("runTimeSlice(): Failed to dispose emulator",e);
+			}
+			runningInstances.decrementAndGet();
+			completedInstances.incrementAndGet();
+
+			// complete the future last so that callers see up-to-date metrics
+			complete( result , error );
+		}
+	}
+
+	public EmulatorFarm() {
+		this( Runtime.getRuntime().availableProcessors() , DEFAULT_INSTRUCTIONS_PER_SLICE );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param workerCount number of worker threads
+	 * @param instructionsPerSlice number of instructions an emulator executes before the next emulator gets a turn
+	 */
+	public EmulatorFarm(int workerCount,int instructionsPerSlice)
+	{
+		if ( workerCount < 1 ) {
+			throw new IllegalArgumentException("workerCount must be >= 1");
+		}
+		if ( instructionsPerSlice < 1 ) {
+			throw new IllegalArgumentException("instructionsPerSlice must be >= 1");
+		}
+		this.instructionsPerSlice = instructionsPerSlice;
+		this.workers = Executors.newFixedThreadPool( workerCount , new ThreadFactory() {
+
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				final Thread result = new Thread( r , "emulator-farm-worker-"+threadCount.incrementAndGet() );
+				result.setDaemon( true );
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Starts a new emulator instance.
+	 *
+	 * <p>Cancelling the returned future stops the instance.</p>
+	 *
+	 * @param runner runner providing the emulation options and halt conditions , must not be
+	 * re-configured while any of the instances it was used for is running
+	 * @param image program to run
+	 * @return result of the run
+	 */
+	public Future<Result> submit(HeadlessRunner runner,MemoryImage image)
+	{
+		if (runner == null) {
+			throw new IllegalArgumentException("runner must not be null");
+		}
+		if (image == null) {
+			throw new IllegalArgumentException("image must not be null");
+		}
+		return submit( runner , image , null );
+	}
+
+	/**
+	 * Starts a new emulator instance from a snapshot.
+	 *
+	 * <p>Instances share the snapshot's memory until they write to it , so many instances can 
+	 * cheaply be started from the same snapshot.</p>
+	 *
+	 * @param runner runner providing the emulation options and halt conditions , must not be
+	 * re-configured while any of the instances it was used for is running
+	 * @param snapshot snapshot taken from an emulator with the same devices as the ones created by the runner's options
+	 * @return result of the run
+	 * @throws IllegalArgumentException if the snapshot's devices do not match the runner's emulator
+	 * @see HeadlessRunner#run(EmulatorSnapshot)
+	 */
+	public Future<Result> submit(HeadlessRunner runner,EmulatorSnapshot snapshot) throws IllegalArgumentException
+	{
+		if (runner == null) {
+			throw new IllegalArgumentException("runner must not be null");
+		}
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot must not be null");
+		}
+		return submit( runner , null , snapshot );
+	}
+
+	private Future<Result> submit(HeadlessRunner runner,MemoryImage image,EmulatorSnapshot snapshot)
+	{
+		final Emulator emulator = runner.createEmulator( false );
+		runningInstances.incrementAndGet();
+		try
+		{
+			// restoring a snapshot would cancel the events scheduled by prepare()
+			if ( snapshot != null ) {
+				emulator.restoreSnapshot( snapshot );
+			} else {
+				emulator.loadMemory( image );
+			}
+			final Instance instance = new Instance( runner , runner.prepare( emulator ) );
+			emulator.start();
+			instance.schedule();
+			return instance;
+		}
+		catch(RuntimeException e)
+		{
+			runningInstances.decrementAndGet();
+			emulator.dispose();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops accepting new instances.
+	 *
+	 * <p>Instances that are still running complete with an exception
+	 * the next time they try to schedule a time-slice.</p>
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	public int getInstructionsPerSlice() {
+		return instructionsPerSlice;
+	}
+
+	/**
+	 * Returns the number of DCPU-16 cycles executed by all instances so far.
+	 *
+	 * @return
+	 */
+	public long getExecutedCycles() {
+		return executedCycles.get();
+	}
+
+	public int getRunningInstanceCount() {
+		return runningInstances.get();
+	}
+
+	public int getCompletedInstanceCount() {
+		return completedInstances.get();
+	}
+
+	/**
+	 * Returns the average number of DCPU-16 cycles executed per second
+	 * by all instances since this farm was created.
+	 *
+	 * @return
+	 */
+	public double getCyclesPerSecond()
+	{
+		final long elapsedMillis = Math.max( 1 , System.currentTimeMillis() - creationTime );
+		return executedCycles.get() / ( elapsedMillis / 1000.0d );
+	}
+}
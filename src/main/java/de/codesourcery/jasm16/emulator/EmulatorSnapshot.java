@@ -0,0 +1,290 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+
+/**
+ * Immutable snapshot of an emulator's state.
+ *
+ * <p>Snapshots can be restored any number of times and into any number of emulators
+ * (see {@link IEmulator#restoreSnapshot(EmulatorSnapshot)}). The memory contents are kept as a
+ * {@link MemoryImage} , so all emulators restored from the same snapshot share memory pages
+ * until they write to them.</p>
+ *
+ * <p>Binary format (all values big-endian):
+ * <pre>
+ * int     magic ( 'DSNP' )
+ * short   format version
+ * boolean body is GZIP compressed
+ * --- body ---
+ * short[12] registers ( A,B,C,X,Y,Z,I,J,EX,PC,SP,IA )
+ * boolean   queue interrupts
+ * int       current cycle
+ * boolean   first interrupt is the interrupt currently being processed
+ * short     number of interrupts , followed by ( short device slot or -1 for software interrupts , short message ) for each interrupt
+ * short     number of non-zero memory pages , followed by ( unsigned byte page number , short[256] contents ) for each page
+ * short     number of devices , followed by ( int hardware ID , short version , int state length , byte[] state ) for each device
+ * </pre>
+ * </p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class EmulatorSnapshot
+{
+	private static final int MAGIC = 0x44534e50; // 'DSNP'
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int REGISTER_COUNT = 12;
+
+	private final int[] cpuState;
+	private final boolean hasCurrentInterrupt;
+	private final int[] interrupts;
+	private final MemoryImage memory;
+	private final DeviceState[] devices;
+
+	protected static final class DeviceState
+	{
+		public final int hardwareId;
+		public final int version;
+		public final byte[] state;
+
+		public DeviceState(DeviceDescriptor desc, byte[] state) {
+			this( (int) desc.getID() , desc.getVersion() , state );
+		}
+
+		public DeviceState(int hardwareId, int version, byte[] state)
+		{
+			this.hardwareId = hardwareId;
+			this.version = version;
+			this.state = state;
+		}
+
+		public boolean matches(DeviceDescriptor desc) {
+			return (int) desc.getID() == hardwareId && desc.getVersion() == version;
+		}
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param cpuState register state as written by the emulator's CPU
+	 * @param hasCurrentInterrupt whether the first interrupt is the one currently being processed
+	 * @param interrupts ( device slot , message ) pairs , device slot is -1 for software interrupts
+	 * @param memory
+	 * @param devices
+	 */
+	protected EmulatorSnapshot(int[] cpuState,boolean hasCurrentInterrupt,int[] interrupts,MemoryImage memory,DeviceState[] devices)
+	{
+		this.cpuState = cpuState;
+		this.hasCurrentInterrupt = hasCurrentInterrupt;
+		this.interrupts = interrupts;
+		this.memory = memory;
+		this.devices = devices;
+	}
+
+	protected int[] getCPUState() {
+		return cpuState;
+	}
+
+	protected boolean hasCurrentInterrupt() {
+		return hasCurrentInterrupt;
+	}
+
+	protected int[] getInterrupts() {
+		return interrupts;
+	}
+
+	protected DeviceState[] getDeviceStates() {
+		return devices;
+	}
+
+	public MemoryImage getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Returns the number of CPU cycles the emulator had
+	 * executed when this snapshot was taken.
+	 *
+	 * @return
+	 */
+	public int getCurrentCycleCount() {
+		return cpuState[ cpuState.length - 1 ];
+	}
+
+	/**
+	 * Serializes this snapshot.
+	 *
+	 * @param compress whether to GZIP the snapshot's contents
+	 * @return
+	 */
+	public byte[] toByteArray(boolean compress)
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writeTo( out , compress );
+		} catch (IOException e) {
+			throw new RuntimeException("Internal error, writing to byte array failed",e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Serializes this snapshot.
+	 *
+	 * @param out stream to write to , not closed by this method
+	 * @param compress whether to GZIP the snapshot's contents
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out,boolean compress) throws IOException
+	{
+		final DataOutputStream header = new DataOutputStream( out );
+		header.writeInt( MAGIC );
+		header.writeShort( FORMAT_VERSION );
+		header.writeBoolean( compress );
+		header.flush();
+
+		final GZIPOutputStream zipOut = compress ? new GZIPOutputStream( out ) : null;
+		final DataOutputStream body = new DataOutputStream( compress ? zipOut : out );
+
+		for ( int i = 0 ; i < REGISTER_COUNT ; i++ ) {
+			body.writeShort( cpuState[i] );
+		}
+		body.writeBoolean( cpuState[ REGISTER_COUNT ] != 0 );
+		body.writeInt( cpuState[ REGISTER_COUNT+1 ] );
+
+		body.writeBoolean( hasCurrentInterrupt );
+		body.writeShort( interrupts.length / 2 );
+		for ( int i = 0 ; i < interrupts.length ; i++ ) {
+			body.writeShort( interrupts[i] );
+		}
+
+		int pageCount = 0;
+		for ( int page = 0 ; page < MemoryImage.PAGE_COUNT ; page++ ) {
+			if ( ! memory.isZeroPage( page ) ) {
+				pageCount++;
+			}
+		}
+		body.writeShort( pageCount );
+		for ( int page = 0 ; page < MemoryImage.PAGE_COUNT ; page++ )
+		{
+			if ( ! memory.isZeroPage( page ) )
+			{
+				body.writeByte( page );
+				final int start = page << MemoryImage.PAGE_SHIFT;
+				for ( int i = 0 ; i < MemoryImage.PAGE_SIZE_IN_WORDS ; i++ ) {
+					body.writeShort( memory.read( start + i ) );
+				}
+			}
+		}
+
+		body.writeShort( devices.length );
+		for ( DeviceState device : devices )
+		{
+			body.writeInt( device.hardwareId );
+			body.writeShort( device.version );
+			body.writeInt( device.state.length );
+			body.write( device.state );
+		}
+
+		if ( compress ) {
+			body.flush();
+			zipOut.finish();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Deserializes a snapshot.
+	 *
+	 * @param data
+	 * @return
+	 * @throws IOException if the data is no valid snapshot
+	 * @see #toByteArray(boolean)
+	 */
+	public static EmulatorSnapshot fromByteArray(byte[] data) throws IOException {
+		return readFrom( new ByteArrayInputStream( data ) );
+	}
+
+	/**
+	 * Deserializes a snapshot.
+	 *
+	 * @param in stream to read from , not closed by this method
+	 * @return
+	 * @throws IOException if the data is no valid snapshot
+	 * @see #writeTo(OutputStream, boolean)
+	 */
+	public static EmulatorSnapshot readFrom(InputStream in) throws IOException
+	{
+		final DataInputStream header = new DataInputStream( in );
+		if ( header.readInt() != MAGIC ) {
+			throw new IOException("Not an emulator snapshot");
+		}
+		final int version = header.readUnsignedShort();
+		if ( version != FORMAT_VERSION ) {
+			throw new IOException("Unsupported snapshot format version "+version);
+		}
+		final boolean compressed = header.readBoolean();
+		final DataInputStream body = compressed ? new DataInputStream( new GZIPInputStream( in ) ) : header;
+
+		final int[] cpuState = new int[ REGISTER_COUNT+2 ];
+		for ( int i = 0 ; i < REGISTER_COUNT ; i++ ) {
+			cpuState[i] = body.readUnsignedShort();
+		}
+		cpuState[ REGISTER_COUNT ] = body.readBoolean() ? 1 : 0;
+		cpuState[ REGISTER_COUNT+1 ] = body.readInt();
+
+		final boolean hasCurrentInterrupt = body.readBoolean();
+		final int[] interrupts = new int[ body.readUnsignedShort() * 2 ];
+		for ( int i = 0 ; i < interrupts.length ; i+=2 ) {
+			interrupts[i] = body.readShort();
+			interrupts[i+1] = body.readUnsignedShort();
+		}
+
+		final int[] words = new int[ 65536 ];
+		final int pageCount = body.readUnsignedShort();
+		for ( int i = 0 ; i < pageCount ; i++ )
+		{
+			final int start = body.readUnsignedByte() << MemoryImage.PAGE_SHIFT;
+			for ( int j = 0 ; j < MemoryImage.PAGE_SIZE_IN_WORDS ; j++ ) {
+				words[ start + j ] = body.readUnsignedShort();
+			}
+		}
+
+		final DeviceState[] devices = new DeviceState[ body.readUnsignedShort() ];
+		for ( int i = 0 ; i < devices.length ; i++ )
+		{
+			final int hardwareId = body.readInt();
+			final int deviceVersion = body.readUnsignedShort();
+			final byte[] state = new byte[ body.readInt() ];
+			body.readFully( state );
+			devices[i] = new DeviceState( hardwareId , deviceVersion , state );
+		}
+		return new EmulatorSnapshot( cpuState , hasCurrentInterrupt , interrupts , MemoryImage.create( words ) , devices );
+	}
+}
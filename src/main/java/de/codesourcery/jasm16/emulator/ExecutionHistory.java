@@ -0,0 +1,171 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.Arrays;
+
+/**
+ * Records the emulator's execution history so that execution can be reversed.
+ *
+ * <p>The history consists of full checkpoints (see {@link Emulator#saveSnapshot()}) taken every <code>checkpointInterval</code>
+ * instructions and a journal holding the program counter after each instruction. Going back in time restores the
+ * nearest checkpoint and silently re-executes the instructions up to the desired position. Since all device timing is
+ * driven by CPU cycles , re-execution yields exactly the same state as the original execution (unless the program
+ * depends on user input).</p>
+ *
+ * <p>Only the most recent <code>maxCheckpoints</code> checkpoints are kept , older history is discarded.</p>
+ *
+ * <p>This class is NOT thread-safe , all methods must be invoked while holding the emulator's CPU lock.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+final class ExecutionHistory
+{
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+	public static final int DEFAULT_MAX_CHECKPOINTS = 32;
+
+	private final Emulator emulator;
+	private final int checkpointInterval;
+	private final EmulatorSnapshot[] checkpoints;
+	// program counter for each position, indexed by position modulo journal length
+	private final int[] journal;
+
+	// number of instructions executed since recording started
+	private long position;
+	private long firstCheckpoint;
+	private long lastCheckpoint;
+
+	public ExecutionHistory(Emulator emulator) {
+		this( emulator , DEFAULT_CHECKPOINT_INTERVAL , DEFAULT_MAX_CHECKPOINTS );
+	}
+
+	public ExecutionHistory(Emulator emulator,int checkpointInterval,int maxCheckpoints)
+	{
+		if (emulator == null) {
+			throw new IllegalArgumentException("emulator must not be null");
+		}
+		if ( checkpointInterval < 1 ) {
+			throw new IllegalArgumentException("checkpoint interval must be >= 1");
+		}
+		if ( maxCheckpoints < 1 ) {
+			throw new IllegalArgumentException("max. number of checkpoints must be >= 1");
+		}
+		this.emulator = emulator;
+		this.checkpointInterval = checkpointInterval;
+		this.checkpoints = new EmulatorSnapshot[ maxCheckpoints ];
+		this.journal = new int[ checkpointInterval * ( maxCheckpoints + 1 ) ];
+	}
+
+	/**
+	 * Discards the recorded history and starts
+	 * recording at the emulator's current state.
+	 *
+	 * @param pc current program counter
+	 */
+	public void restart(int pc)
+	{
+		Arrays.fill( checkpoints , null );
+		position = 0;
+		firstCheckpoint = 0;
+		lastCheckpoint = 0;
+		checkpoints[0] = emulator.saveSnapshot();
+		journal[0] = pc;
+	}
+
+	/**
+	 * Invoked after each successfully executed instruction.
+	 *
+	 * @param pc program counter after the instruction
+	 */
+	public void instructionExecuted(int pc)
+	{
+		position++;
+		journal[ (int) ( position % journal.length ) ] = pc;
+
+		if ( position == ( lastCheckpoint + 1 ) * checkpointInterval )
+		{
+			lastCheckpoint++;
+			if ( lastCheckpoint - firstCheckpoint >= checkpoints.length ) {
+				firstCheckpoint++;
+			}
+			checkpoints[ (int) ( lastCheckpoint % checkpoints.length ) ] = emulator.saveSnapshot();
+		}
+	}
+
+	private long getOldestPosition() {
+		return firstCheckpoint * checkpointInterval;
+	}
+
+	/**
+	 * Returns whether there's at least one recorded instruction before the current position.
+	 *
+	 * @return
+	 */
+	public boolean canStepBack() {
+		return position > getOldestPosition();
+	}
+
+	/**
+	 * Reverts the last instruction.
+	 *
+	 * @return <code>false</code> if no history was available
+	 */
+	public boolean stepBack()
+	{
+		if ( ! canStepBack() ) {
+			return false;
+		}
+		travelTo( position - 1 );
+		return true;
+	}
+
+	/**
+	 * Goes back to the most recent position where the program counter was at an enabled breakpoint.
+	 *
+	 * <p>Breakpoint conditions are not evaluated. If no such position is found ,
+	 * goes back to the oldest recorded position.</p>
+	 *
+	 * @param breakpoints addresses with enabled breakpoints , indexed by word address
+	 * @return <code>true</code> if a breakpoint was reached
+	 */
+	public boolean runBackwards(boolean[] breakpoints)
+	{
+		if ( ! canStepBack() ) {
+			return false;
+		}
+		final long oldest = getOldestPosition();
+		for ( long p = position - 1 ; p >= oldest ; p-- )
+		{
+			if ( breakpoints[ journal[ (int) ( p % journal.length ) ] ] ) {
+				travelTo( p );
+				return true;
+			}
+		}
+		travelTo( oldest );
+		return false;
+	}
+
+	private void travelTo(long target)
+	{
+		final long checkpoint = target / checkpointInterval;
+		final EmulatorSnapshot snapshot = checkpoints[ (int) ( checkpoint % checkpoints.length ) ];
+		emulator.restoreAndReplay( snapshot , (int) ( target - checkpoint * checkpointInterval ) );
+
+		// discard the future
+		position = target;
+		lastCheckpoint = checkpoint;
+	}
+}
@@ -0,0 +1,520 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Stack;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Appender;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.compiler.CompilationListener;
+import de.codesourcery.jasm16.compiler.CompilationUnit;
+import de.codesourcery.jasm16.compiler.Compiler;
+import de.codesourcery.jasm16.compiler.DebugInfo;
+import de.codesourcery.jasm16.compiler.ICompilationUnit;
+import de.codesourcery.jasm16.compiler.ICompiler.CompilerOption;
+import de.codesourcery.jasm16.compiler.ISymbol;
+import de.codesourcery.jasm16.compiler.Label;
+import de.codesourcery.jasm16.compiler.io.ByteArrayObjectCodeWriterFactory;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.HaltReason;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.Result;
+import de.codesourcery.jasm16.emulator.ILogger.LogLevel;
+import de.codesourcery.jasm16.emulator.coverage.CoverageData;
+import de.codesourcery.jasm16.emulator.coverage.CoverageReport;
+import de.codesourcery.jasm16.emulator.devices.FrameDumper;
+import de.codesourcery.jasm16.emulator.devices.FrameHashWriter;
+import de.codesourcery.jasm16.exceptions.ParseException;
+import de.codesourcery.jasm16.parser.Identifier;
+import de.codesourcery.jasm16.utils.Misc;
+
+/**
+ * Class to run programs on the emulator from the command-line , without any UI.
+ *
+ * <p>Run this class without options (or with '--help') to see the available command-line options.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see HeadlessRunner
+ */
+public class HeadlessMain {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_USAGE_OR_COMPILATION_ERROR = 1;
+    private static final int EXIT_EMULATION_ERROR = 2;
+
+    private final List<ICompilationUnit> units = new ArrayList<ICompilationUnit>();
+    private DebugInfo debugInfo;
+
+    /*
+     * Options.
+     */
+    private File binaryFile;
+    private String loadAddress;
+    private int maxCycles = 0;
+    private boolean haltOnSelfLoop = true;
+    private String magicAddress;
+    private final List<String> breakpoints = new ArrayList<String>();
+    private final List<String> memoryDumps = new ArrayList<String>();
+    private File outputFile;
+    private File traceFile;
+    private File coverageFile;
+    private File lcovFile;
+    private File htmlFile;
+    private File frameHashFile;
+    private File frameDirectory = new File(".");
+    private final List<Long> framesToDump = new ArrayList<Long>();
+    private boolean verboseOutput = false;
+    private boolean relaxedParsing = false;
+    private boolean enableLocalLabelSupport = false;
+
+    public static void main(String[] args) throws Exception
+    {
+        System.setProperty("java.awt.headless" , "true" );
+
+        // keep std out clean for the JSON output
+        final Appender console = Logger.getRootLogger().getAppender("CONSOLE");
+        if ( console instanceof ConsoleAppender ) {
+            ((ConsoleAppender) console).setTarget( ConsoleAppender.SYSTEM_ERR );
+            ((ConsoleAppender) console).activateOptions();
+        }
+
+        try {
+            System.exit( new HeadlessMain().run( args ) );
+        }
+        catch(Exception e)
+        {
+            System.err.println("\n\nERROR: "+e.getMessage()+"\n" );
+            e.printStackTrace();
+            System.exit( EXIT_USAGE_OR_COMPILATION_ERROR );
+        }
+    }
+
+    private int run(String[] args) throws Exception
+    {
+        final Stack<String> arguments = new Stack<String>();
+        for ( String arg : args ) {
+            arguments.push( arg );
+        }
+        Collections.reverse( arguments );
+
+        while ( ! arguments.isEmpty() )
+        {
+            final String arg = arguments.peek();
+            if ( arg.startsWith("-" ) )
+            {
+                try {
+                    handleCommandlineOption( arg , arguments );
+                } catch(NoSuchElementException e) {
+                    printError("Invalid command line, option "+arg+" lacks argument.");
+                    return EXIT_USAGE_OR_COMPILATION_ERROR;
+                }
+            }
+            else
+            {
+                units.add( createCompilationUnit( arguments.pop() ) );
+            }
+        }
+
+        if ( units.isEmpty() == ( binaryFile == null ) ) {
+            printError("Either specify source files or a binary to run.");
+            return EXIT_USAGE_OR_COMPILATION_ERROR;
+        }
+        if ( ( lcovFile != null || htmlFile != null ) && units.isEmpty() ) {
+            printError("Coverage reports require source files.");
+            return EXIT_USAGE_OR_COMPILATION_ERROR;
+        }
+
+        final byte[] objectCode;
+        Address startAddress = Address.wordAddress( 0 );
+        if ( binaryFile != null )
+        {
+            objectCode = FileUtils.readFileToByteArray( binaryFile );
+        }
+        else
+        {
+            objectCode = compile();
+            if ( objectCode == null ) {
+                return EXIT_USAGE_OR_COMPILATION_ERROR;
+            }
+            startAddress = units.get(0).getObjectCodeStartOffset();
+        }
+
+        if ( loadAddress != null ) {
+            startAddress = resolveAddress( loadAddress );
+        }
+
+        final HeadlessRunner runner = new HeadlessRunner();
+        if ( verboseOutput )
+        {
+            final ILogger logger = new PrintStreamLogger( System.err );
+            logger.setLogLevel( LogLevel.DEBUG );
+            runner.setOutput( logger );
+        }
+        runner.setMaxCycles( maxCycles );
+        runner.setHaltOnSelfLoop( haltOnSelfLoop );
+        if ( magicAddress != null ) {
+            runner.setMagicAddress( resolveAddress( magicAddress ) );
+        }
+        for ( String bp : breakpoints ) {
+            runner.addBreakpoint( resolveAddress( bp ) );
+        }
+        for ( String dump : memoryDumps ) {
+            runner.addMemoryDump( parseRange( dump ) );
+        }
+        runner.setTraceFile( traceFile );
+
+        FrameDumper frameDumper = null;
+        if ( ! framesToDump.isEmpty() )
+        {
+            final long[] frames = new long[ framesToDump.size() ];
+            for ( int i = 0 ; i < frames.length ; i++ ) {
+                frames[i] = framesToDump.get(i);
+            }
+            frameDumper = new FrameDumper( frameDirectory , frames );
+            runner.addFrameListener( frameDumper );
+        }
+
+        Writer frameHashes = null;
+        FrameHashWriter frameHashWriter = null;
+        if ( frameHashFile != null )
+        {
+            frameHashes = new BufferedWriter( createWriter( frameHashFile ) );
+            frameHashWriter = new FrameHashWriter( frameHashes );
+            runner.addFrameListener( frameHashWriter );
+        }
+
+        CoverageData coverage = null;
+        if ( coverageFile != null || lcovFile != null || htmlFile != null )
+        {
+            // merge with coverage from previous runs
+            coverage = coverageFile != null && coverageFile.exists() ? CoverageData.load( coverageFile ) : new CoverageData();
+            runner.setCoverageData( coverage );
+        }
+
+        final Result result;
+        try {
+            result = runner.run( startAddress , objectCode );
+        } finally {
+            if ( frameHashes != null ) {
+                frameHashes.close();
+            }
+        }
+        if ( frameHashWriter != null && frameHashWriter.getError() != null ) {
+            throw frameHashWriter.getError();
+        }
+        if ( frameDumper != null && frameDumper.getError() != null ) {
+            throw frameDumper.getError();
+        }
+
+        if ( coverage != null ) {
+            writeCoverage( coverage );
+        }
+
+        final String json = result.toJSON();
+        if ( outputFile != null ) {
+            FileUtils.writeStringToFile( outputFile , json+"\n" , "UTF-8" );
+        } else {
+            System.out.println( json );
+        }
+        return result.getHaltReason() == HaltReason.EMULATION_ERROR ? EXIT_EMULATION_ERROR : EXIT_OK;
+    }
+
+    private void writeCoverage(CoverageData coverage) throws IOException
+    {
+        if ( coverageFile != null ) {
+            coverage.save( coverageFile );
+        }
+        if ( lcovFile == null && htmlFile == null ) {
+            return;
+        }
+        final CoverageReport report = new CoverageReport( coverage , debugInfo );
+        if ( lcovFile != null )
+        {
+            final Writer writer = createWriter( lcovFile );
+            try {
+                report.writeLcov( writer , null );
+            } finally {
+                writer.close();
+            }
+        }
+        if ( htmlFile != null )
+        {
+            final Writer writer = createWriter( htmlFile );
+            try {
+                report.writeHtml( writer );
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    private static Writer createWriter(File file) throws IOException {
+        return new OutputStreamWriter( new FileOutputStream( file ) , "UTF-8" );
+    }
+
+    private byte[] compile() throws IOException
+    {
+        final Compiler compiler = new Compiler();
+        compiler.setCompilerOption( CompilerOption.GENERATE_DEBUG_INFO , true );
+        if ( relaxedParsing ) {
+            compiler.setCompilerOption( CompilerOption.RELAXED_PARSING , true );
+        }
+        if ( enableLocalLabelSupport ) {
+            compiler.setCompilerOption( CompilerOption.LOCAL_LABELS_SUPPORTED, true );
+        }
+
+        final ByteArrayObjectCodeWriterFactory factory = new ByteArrayObjectCodeWriterFactory();
+        compiler.setObjectCodeWriterFactory( factory );
+        debugInfo = compiler.compile( units , new CompilationListener() );
+
+        boolean hasErrors = false;
+        for (ICompilationUnit unit : units)
+        {
+            if ( unit.hasErrors() )
+            {
+                Misc.printCompilationErrors(unit, Misc.readSource( unit ) , false );
+                hasErrors = true;
+            }
+        }
+        if ( hasErrors ) {
+            return null;
+        }
+
+        final byte[] result = factory.getBytes();
+        if ( result == null || result.length == 0 ) {
+            printError("No object code generated.");
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Parses an address , either a number (<code>0x</code> prefix for hexadecimal values) or
+     * the name of a label from the compiled sources.
+     */
+    private Address resolveAddress(String s)
+    {
+        final Integer value = parseNumber( s );
+        if ( value != null ) {
+            return Address.wordAddress( value );
+        }
+
+        for ( ICompilationUnit unit : units )
+        {
+            final ISymbol symbol;
+            try {
+                symbol = unit.getSymbolTable().getSymbol( new Identifier( s ) , null );
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Neither a number nor a valid label: '"+s+"'",e);
+            }
+            if ( symbol instanceof Label && ((Label) symbol).getAddress() != null ) {
+                return ((Label) symbol).getAddress();
+            }
+        }
+        throw new IllegalArgumentException("Unknown label: '"+s+"'");
+    }
+
+    /**
+     * Parses a memory range given as <code>start:length in words</code>.
+     */
+    private AddressRange parseRange(String s)
+    {
+        final int idx = s.lastIndexOf(':');
+        if ( idx <= 0 ) {
+            throw new IllegalArgumentException("Invalid memory range '"+s+"' , expected <start>:<length in words>");
+        }
+        final Integer length = parseNumber( s.substring( idx+1 ) );
+        if ( length == null || length <= 0 ) {
+            throw new IllegalArgumentException("Invalid length in memory range '"+s+"'");
+        }
+        return new AddressRange( resolveAddress( s.substring( 0 , idx ) ) , Size.words( length ) );
+    }
+
+    private static Integer parseNumber(String s)
+    {
+        try {
+            if ( s.toLowerCase().startsWith("0x") ) {
+                return Integer.parseInt( s.substring(2) , 16 );
+            }
+            return Integer.parseInt( s );
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void handleCommandlineOption(String option,Stack<String> arguments)
+    {
+        if ( "-v".equalsIgnoreCase( option ) || "--verbose".equalsIgnoreCase( option ) ) {
+            this.verboseOutput = true;
+            arguments.pop();
+        } else if ( "--relaxed-parsing".equalsIgnoreCase( option ) ) {
+            this.relaxedParsing = true;
+            arguments.pop();
+        } else if ( "--local-labels".equalsIgnoreCase( option ) ) {
+            this.enableLocalLabelSupport = true;
+            arguments.pop();
+        } else if ( "--no-self-loop".equalsIgnoreCase( option ) ) {
+            this.haltOnSelfLoop = false;
+            arguments.pop();
+        }
+        else if ( "--binary".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.binaryFile = new File( arguments.pop() );
+        }
+        else if ( "--load-address".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.loadAddress = arguments.pop();
+        }
+        else if ( "--max-cycles".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            final String value = arguments.pop();
+            final Integer cycles = parseNumber( value );
+            if ( cycles == null || cycles < 0 ) {
+                throw new IllegalArgumentException("Invalid cycle count: '"+value+"'");
+            }
+            this.maxCycles = cycles;
+        }
+        else if ( "--magic".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.magicAddress = arguments.pop();
+        }
+        else if ( "--break".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.breakpoints.add( arguments.pop() );
+        }
+        else if ( "--dump".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.memoryDumps.add( arguments.pop() );
+        }
+        else if ( "--trace".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.traceFile = new File( arguments.pop() );
+        }
+        else if ( "--coverage".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.coverageFile = new File( arguments.pop() );
+        }
+        else if ( "--coverage-lcov".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.lcovFile = new File( arguments.pop() );
+        }
+        else if ( "--coverage-html".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.htmlFile = new File( arguments.pop() );
+        }
+        else if ( "--frame-hashes".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.frameHashFile = new File( arguments.pop() );
+        }
+        else if ( "--dump-frame".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            final String value = arguments.pop();
+            final Integer frame = parseNumber( value );
+            if ( frame == null || frame <= 0 ) {
+                throw new IllegalArgumentException("Invalid frame number: '"+value+"'");
+            }
+            this.framesToDump.add( frame.longValue() );
+        }
+        else if ( "--frame-dir".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.frameDirectory = new File( arguments.pop() );
+        }
+        else if ( "-o".equalsIgnoreCase( option ) )
+        {
+            arguments.pop();
+            this.outputFile = new File( arguments.pop() );
+        } else if ( "-h".equalsIgnoreCase( option ) || "--help".equalsIgnoreCase( option ) ) {
+            printUsage();
+            System.exit( EXIT_USAGE_OR_COMPILATION_ERROR );
+        } else {
+            printError("Unrecognized option '"+option+"'\n\n");
+            printUsage();
+            System.exit( EXIT_USAGE_OR_COMPILATION_ERROR );
+        }
+    }
+
+    private void printUsage() {
+
+        final String usage="\nUsage: [options] source1 source2 ...\n"+
+                "       [options] --binary <file>\n\n"+
+                "Runs a program at max. speed until a halt condition is met and prints the CPU state as JSON.\n"+
+                "Addresses are either numbers (use 0x prefix for hexadecimal values) or labels from the source files.\n\n"+
+                "--binary <file>             => run object code from file instead of assembling source files\n"+
+                "--load-address <address>    => address to load the object code at\n"+
+                "--max-cycles <n>            => halt after executing (at least) n cycles\n"+
+                "--no-self-loop              => do not halt when the CPU is stuck in a instruction jumping to itself (SUB PC,1)\n"+
+                "--magic <address>           => halt when the program writes to this address\n"+
+                "--break <address>           => halt at a breakpoint (may be used more than once)\n"+
+                "--dump <address>:<length>   => include memory contents in the output (may be used more than once)\n"+
+                "--trace <file>              => write a binary trace of all executed instructions to a file (slow)\n"+
+                "--coverage <file>           => collect coverage and merge it with the coverage from a previous run stored in this file\n"+
+                "--coverage-lcov <file>      => write (merged) coverage as LCOV tracefile (requires source files)\n"+
+                "--coverage-html <file>      => write (merged) coverage as HTML report (requires source files)\n"+
+                "--frame-hashes <file>       => write a hash of each frame rendered by the display devices to a file\n"+
+                "--dump-frame <n>            => write the n-th frame of each display device as PNG image (may be used more than once)\n"+
+                "--frame-dir <dir>           => directory to write frame images to (default: current directory)\n"+
+                "-o <file>                   => write JSON to file instead of std out\n"+
+                "--relaxed-parsing           => relaxed parsing (instructions are parsed case-insensitive)\n"+
+                "--local-labels              => treat identifiers starting with a dot ('.') as local labels\n"+
+                "-v or --verbose             => print emulator output to std err\n\n"+
+                "Exit code is "+EXIT_OK+" if a halt condition has been met , "+EXIT_EMULATION_ERROR+" on emulation errors and "+
+                EXIT_USAGE_OR_COMPILATION_ERROR+" on any other error.\n";
+        System.out.println( usage );
+    }
+
+    private void printError(String message) {
+        System.err.println("ERROR: "+message);
+    }
+
+    private ICompilationUnit createCompilationUnit(String file) throws IOException {
+
+        final File infile = new File( file );
+        if ( ! infile.exists() ) {
+            throw new IOException("ERROR: File '"+file+"' does not exist.");
+        }
+        if ( ! infile.isFile() ) {
+            throw new IOException("ERROR: '"+file+"' is no file.");
+        }
+        return CompilationUnit.createInstance( file , infile );
+    }
+}
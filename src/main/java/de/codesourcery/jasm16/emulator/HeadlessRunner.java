@@ -0,0 +1,688 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.OpCode;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.IEmulator.EmulationSpeed;
+import de.codesourcery.jasm16.emulator.coverage.CoverageData;
+import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.IFrameListener;
+import de.codesourcery.jasm16.emulator.devices.IFramebufferDevice;
+import de.codesourcery.jasm16.emulator.exceptions.UnknownOpcodeException;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+import de.codesourcery.jasm16.emulator.memory.IMemoryTypes;
+import de.codesourcery.jasm16.emulator.memory.MemoryRegion;
+
+/**
+ * Runs a program on a new emulator instance (without any UI) until a halt condition is met.
+ *
+ * <p>The emulation always runs at {@link EmulationSpeed#MAX_SPEED}. Supported halt conditions are:
+ * <ul>
+ *   <li>a cycle budget (see {@link #setMaxCycles(int)})</li>
+ *   <li>a self-loop like <code>SUB PC,1</code> or <code>:loop SET PC,loop</code> (see {@link #setHaltOnSelfLoop(boolean)})</li>
+ *   <li>a write to a magic address (see {@link #setMagicAddress(Address)})</li>
+ *   <li>breakpoints (see {@link #addBreakpoint(Address)})</li>
+ *   <li>a <code>HCF</code> instruction or any other emulation error</li>
+ * </ul>
+ * </p>
+ * <p>Instances of this class are not thread-safe but since each run uses its own emulator ,
+ * an instance may be used for concurrent runs as long as its configuration is not changed
+ * (see {@link EmulatorFarm}).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see HeadlessMain
+ */
+public final class HeadlessRunner
+{
+	/**
+	 * Number of cycles between two checks whether the CPU is stuck in a self-loop.
+	 */
+	public static final int SELF_LOOP_CHECK_INTERVAL = 1000;
+
+	private static final int SUB_PC_1 = 0x8b83; // SUB PC,1
+	private static final int SET_PC_NEXT_WORD = 0x7f81; // SET PC, [next word]
+	private static final int SET_PC_MASK = 0x3ff; // b = PC , opcode = SET
+
+	private final EmulationOptions options;
+	private ILogger output = ILogger.NOP_LOGGER;
+
+	private int maxCycles = 0;
+	private boolean haltOnSelfLoop = true;
+	private Address magicAddress;
+	private final List<Address> breakpoints = new ArrayList<Address>();
+	private final List<AddressRange> memoryDumps = new ArrayList<AddressRange>();
+	private File traceFile;
+	private CoverageData coverageData;
+	private final List<IFrameListener> frameListeners = new ArrayList<IFrameListener>();
+
+	public static enum HaltReason
+	{
+		CYCLE_BUDGET,
+		SELF_LOOP,
+		MAGIC_WRITE,
+		BREAKPOINT,
+		HALT_INSTRUCTION,
+		EMULATION_ERROR;
+	}
+
+	/**
+	 * Outcome of a run.
+	 *
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static final class Result
+	{
+		private final HaltReason haltReason;
+		private final IReadOnlyCPU cpu;
+		private final Throwable emulationError;
+		private final int magicValue;
+		private final List<AddressRange> dumpedRanges;
+		private final List<int[]> dumpedMemory;
+
+		protected Result(HaltReason haltReason, IReadOnlyCPU cpu,Throwable emulationError, int magicValue,List<AddressRange> dumpedRanges,List<int[]> dumpedMemory)
+		{
+			this.haltReason = haltReason;
+			this.cpu = cpu;
+			this.emulationError = emulationError;
+			this.magicValue = magicValue;
+			this.dumpedRanges = dumpedRanges;
+			this.dumpedMemory = dumpedMemory;
+		}
+
+		public HaltReason getHaltReason() {
+			return haltReason;
+		}
+
+		/**
+		 * Returns the CPU state at the time the emulation halted.
+		 *
+		 * @return
+		 */
+		public IReadOnlyCPU getCPU() {
+			return cpu;
+		}
+
+		/**
+		 * Returns the emulation error.
+		 *
+		 * @return error or <code>null</code>
+		 */
+		public Throwable getEmulationError() {
+			return emulationError;
+		}
+
+		/**
+		 * Returns the value that got written to the magic address.
+		 *
+		 * @return value or -1 if the emulation did not halt because of a write to the magic address
+		 */
+		public int getMagicValue() {
+			return magicValue;
+		}
+
+		public List<AddressRange> getDumpedRanges() {
+			return dumpedRanges;
+		}
+
+		/**
+		 * Returns the memory contents of a requested range.
+		 *
+		 * @param index index into {@link #getDumpedRanges()}
+		 * @return
+		 */
+		public int[] getDumpedMemory(int index) {
+			return dumpedMemory.get(index);
+		}
+
+		public String toJSON()
+		{
+			final StringBuilder result = new StringBuilder();
+			result.append("{\n");
+			result.append("  \"haltReason\": \"").append( haltReason.name() ).append("\",\n");
+			if ( emulationError != null ) {
+				result.append("  \"error\": \"").append( escape( emulationError.getMessage() ) ).append("\",\n");
+			}
+			if ( haltReason == HaltReason.MAGIC_WRITE ) {
+				result.append("  \"magicValue\": ").append( magicValue ).append(",\n");
+			}
+			result.append("  \"cycles\": ").append( cpu.getCurrentCycleCount() ).append(",\n");
+			result.append("  \"registers\": {");
+			for ( int i = 0 ; i < IReadOnlyCPU.COMMON_REGISTER_COUNT ; i++ ) {
+				result.append(" \"").append( IReadOnlyCPU.COMMON_REGISTER_NAMES[i] ).append("\": ");
+				result.append( cpu.getRegisterValue( IReadOnlyCPU.COMMON_REGISTERS[i] ) ).append(",");
+			}
+			result.append(" \"PC\": ").append( cpu.getPC().getWordAddressValue() ).append(",");
+			result.append(" \"SP\": ").append( cpu.getSP().getWordAddressValue() ).append(",");
+			result.append(" \"EX\": ").append( cpu.getEX() ).append(",");
+			result.append(" \"IA\": ").append( cpu.getInterruptAddress().getWordAddressValue() ).append(" },\n");
+			result.append("  \"memory\": [");
+			for ( int i = 0 ; i < dumpedRanges.size() ; i++ )
+			{
+				result.append( i == 0 ? "\n" : ",\n" );
+				result.append("    { \"start\": ").append( dumpedRanges.get(i).getStartAddress().getWordAddressValue() ).append(", \"words\": [");
+				final int[] words = dumpedMemory.get(i);
+				for ( int j = 0 ; j < words.length ; j++ ) {
+					if ( j > 0 ) {
+						result.append(",");
+					}
+					result.append( words[j] );
+				}
+				result.append("] }");
+			}
+			result.append( dumpedRanges.isEmpty() ? "]\n" : "\n  ]\n" );
+			result.append("}");
+			return result.toString();
+		}
+
+		private static String escape(String s)
+		{
+			if ( s == null ) {
+				return "";
+			}
+			final StringBuilder result = new StringBuilder();
+			for ( char c : s.toCharArray() )
+			{
+				switch( c ) {
+					case '"':  result.append("\\\""); break;
+					case '\\': result.append("\\\\"); break;
+					case '\n': result.append("\\n"); break;
+					case '\r': result.append("\\r"); break;
+					case '\t': result.append("\\t"); break;
+					default:
+						if ( c < 0x20 ) {
+							result.append( String.format("\\u%04x", (int) c ) );
+						} else {
+							result.append( c );
+						}
+				}
+			}
+			return result.toString();
+		}
+	}
+
+	/**
+	 * RAM that invokes a callback on the first write after it has been armed.
+	 */
+	private static abstract class MagicAddressRegion extends MemoryRegion
+	{
+		private boolean armed = false;
+
+		public MagicAddressRegion(AddressRange range) {
+			super("magic address" , IMemoryTypes.TYPE_RAM , range );
+		}
+
+		public void arm() {
+			armed = true;
+		}
+
+		@Override
+		public void write(int wordAddress, int value)
+		{
+			super.write(wordAddress, value);
+			if ( armed ) {
+				armed = false;
+				onWrite( value & 0xffff );
+			}
+		}
+
+		protected abstract void onWrite(int value);
+	}
+
+	public HeadlessRunner() {
+		this( new EmulationOptions() );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param options options used to create the emulator , the emulation speed is ignored
+	 */
+	public HeadlessRunner(EmulationOptions options)
+	{
+		if (options == null) {
+			throw new IllegalArgumentException("options must not be null");
+		}
+		this.options = new EmulationOptions( options );
+		this.options.setEmulationSpeed( EmulationSpeed.MAX_SPEED );
+	}
+
+	/**
+	 * Sets the logger the emulator writes diagnostic output to.
+	 *
+	 * @param output
+	 */
+	public void setOutput(ILogger output)
+	{
+		if (output == null) {
+			throw new IllegalArgumentException("output must not be null");
+		}
+		this.output = output;
+	}
+
+	/**
+	 * Sets the max. number of CPU cycles to execute.
+	 *
+	 * @param maxCycles max. cycles or 0 to run without a cycle budget
+	 */
+	public void setMaxCycles(int maxCycles)
+	{
+		if ( maxCycles < 0 ) {
+			throw new IllegalArgumentException("maxCycles must not be negative");
+		}
+		this.maxCycles = maxCycles;
+	}
+
+	/**
+	 * Sets whether to halt when the CPU is stuck in an instruction that jumps to itself.
+	 *
+	 * <p>Self-loops are detected every {@link #SELF_LOOP_CHECK_INTERVAL} cycles so the cycle count
+	 * reported after halting may be up to this number of cycles larger than the cycle count
+	 * when the loop was entered.</p>
+	 * 
+	 * <p>A loop is only considered stuck while no interrupt can be handled (IA is 0 or 
+	 * interrupts are being queued) , so idle loops waiting for device interrupts keep running.</p>
+	 *
+	 * @param haltOnSelfLoop
+	 */
+	public void setHaltOnSelfLoop(boolean haltOnSelfLoop) {
+		this.haltOnSelfLoop = haltOnSelfLoop;
+	}
+
+	/**
+	 * Sets an address that halts the emulation when written to.
+	 *
+	 * <p>The emulation halts right after the instruction that performed the write.</p>
+	 *
+	 * @param magicAddress address or <code>null</code>
+	 */
+	public void setMagicAddress(Address magicAddress) {
+		this.magicAddress = magicAddress;
+	}
+
+	public void addBreakpoint(Address address)
+	{
+		if (address == null) {
+			throw new IllegalArgumentException("address must not be null");
+		}
+		breakpoints.add( address );
+	}
+
+	/**
+	 * Adds a memory range whose contents should be part of the {@link Result}.
+	 *
+	 * @param range
+	 */
+	public void addMemoryDump(AddressRange range)
+	{
+		if (range == null) {
+			throw new IllegalArgumentException("range must not be null");
+		}
+		memoryDumps.add( range );
+	}
+
+	/**
+	 * Sets a file to write a binary instruction trace to.
+	 *
+	 * <p>Only used by {@link #run(Address, byte[])} , tracing makes the emulation
+	 * considerably slower since instructions get executed one by one.</p>
+	 *
+	 * @param traceFile file or <code>null</code> to disable tracing
+	 * @see Emulator#startTrace(File)
+	 */
+	public void setTraceFile(File traceFile) {
+		this.traceFile = traceFile;
+	}
+
+	/**
+	 * Sets the instance to add the coverage of each run to.
+	 *
+	 * <p>Each run collects coverage separately and merges it into this instance
+	 * (while synchronizing on it) when the {@link Result} is created , so the same
+	 * instance may be used to merge coverage across many (concurrent) runs.</p>
+	 *
+	 * @param coverageData coverage data or <code>null</code> to not collect coverage
+	 * @see IEmulator#setCoverageData(CoverageData)
+	 */
+	public void setCoverageData(CoverageData coverageData) {
+		this.coverageData = coverageData;
+	}
+
+	/**
+	 * Adds a listener that gets notified about frames rendered by the emulator's display devices.
+	 *
+	 * <p>Display devices do not render anything unless they have frame listeners. The listener
+	 * gets registered with all display devices of each run's emulator so it must be thread-safe
+	 * when used for concurrent runs.</p>
+	 *
+	 * @param listener
+	 * @see IFramebufferDevice
+	 */
+	public void addFrameListener(IFrameListener listener)
+	{
+		if (listener == null) {
+			throw new IllegalArgumentException("listener must not be null");
+		}
+		frameListeners.add( listener );
+	}
+
+	/**
+	 * Loads object code on a new emulator instance and runs it until a halt condition is met.
+	 *
+	 * <p>This method blocks until the emulation halted. Make sure to either set a cycle
+	 * budget or use a program that is guaranteed to halt.</p>
+	 *
+	 * @param loadAddress
+	 * @param objectCode
+	 * @return
+	 * @throws InterruptedException
+	 * @throws IOException if writing the trace failed
+	 * @see #setTraceFile(File)
+	 */
+	public Result run(Address loadAddress,byte[] objectCode) throws InterruptedException, IOException
+	{
+		final Emulator emulator = createEmulator( true );
+		try 
+		{
+			emulator.loadMemory( loadAddress , objectCode );
+			return run( emulator );
+		} finally {
+			emulator.dispose();
+		}
+	}
+
+	/**
+	 * Runs the emulation starting from a snapshot until one of the halt conditions is met.
+	 *
+	 * <p>The snapshot must have been taken from an emulator with the same devices as the ones 
+	 * created by this runner's options. The cycle budget (see {@link #setMaxCycles(int)}) counts 
+	 * the cycles executed after restoring the snapshot.</p>
+	 *
+	 * @param snapshot
+	 * @return
+	 * @throws IllegalArgumentException if the snapshot's devices do not match this runner's emulator
+	 * @throws InterruptedException
+	 * @throws IOException if writing the trace failed
+	 * @see #run(Address, byte[])
+	 */
+	public Result run(EmulatorSnapshot snapshot) throws IllegalArgumentException, InterruptedException, IOException
+	{
+		final Emulator emulator = createEmulator( true );
+		try 
+		{
+			emulator.restoreSnapshot( snapshot );
+			return run( emulator );
+		} finally {
+			emulator.dispose();
+		}
+	}
+
+	private Result run(Emulator emulator) throws InterruptedException, IOException
+	{
+		final Session session = prepare( emulator );
+		if ( traceFile != null ) {
+			emulator.startTrace( traceFile );
+		}
+		emulator.start();
+		try {
+			session.stopped.await();
+		} catch(InterruptedException e) {
+			emulator.stop();
+			throw e;
+		}
+		emulator.stopTrace();
+		return createResult( session );
+	}
+
+	/**
+	 * Creates a new emulator instance using this runner's options.
+	 *
+	 * @param useClockThread
+	 * @return
+	 * @see Emulator#Emulator(boolean)
+	 */
+	protected Emulator createEmulator(boolean useClockThread) {
+		return options.createEmulator( useClockThread );
+	}
+
+	/**
+	 * State of a single run.
+	 */
+	protected static final class Session
+	{
+		public final Emulator emulator;
+		public final CountDownLatch stopped = new CountDownLatch(1);
+
+		// only accessed by the thread running the emulation
+		private HaltReason haltReason;
+		private int magicValue = -1;
+		private CoverageData coverageData;
+		private CoverageData mergedCoverageData;
+
+		protected Session(Emulator emulator) {
+			this.emulator = emulator;
+		}
+	}
+
+	/**
+	 * Sets up halt conditions on an emulator that already had the program loaded.
+	 *
+	 * <p>Restoring a snapshot cancels all scheduled events , so snapshots need to be
+	 * restored before invoking this method.</p>
+	 *
+	 * @param emulator
+	 * @return
+	 */
+	protected Session prepare(final Emulator emulator)
+	{
+		final Session session = new Session( emulator );
+		emulator.setOutput( output );
+
+		if ( coverageData != null )
+		{
+			session.coverageData = new CoverageData();
+			session.mergedCoverageData = coverageData;
+			emulator.setCoverageData( session.coverageData );
+		}
+
+		final IScheduledEvent haltEvent = new IScheduledEvent() {
+
+			@Override
+			public void fire(IEmulator emulator, ICPU cpu, IMemory memory) {
+				emulator.stop();
+			}
+		};
+
+		if ( maxCycles > 0 )
+		{
+			emulator.scheduleEvent( maxCycles , new IScheduledEvent() {
+
+				@Override
+				public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+				{
+					if ( session.haltReason == null ) {
+						session.haltReason = HaltReason.CYCLE_BUDGET;
+					}
+					emulator.stop();
+				}
+			});
+		}
+
+		if ( haltOnSelfLoop )
+		{
+			emulator.scheduleEvent( SELF_LOOP_CHECK_INTERVAL , new IScheduledEvent() {
+
+				@Override
+				public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+				{
+					if ( ! canReceiveInterrupts( cpu ) && isSelfLoop( cpu.getPC().getWordAddressValue() , memory ) )
+					{
+						if ( session.haltReason == null ) {
+							session.haltReason = HaltReason.SELF_LOOP;
+						}
+						emulator.stop();
+					} else {
+						emulator.scheduleEvent( SELF_LOOP_CHECK_INTERVAL , this );
+					}
+				}
+			});
+		}
+
+		if ( magicAddress != null )
+		{
+			final MagicAddressRegion region = new MagicAddressRegion( new AddressRange( magicAddress , Size.words( 1 ) ) ) 
+			{
+				@Override
+				protected void onWrite(int value)
+				{
+					if ( session.haltReason == null )
+					{
+						session.haltReason = HaltReason.MAGIC_WRITE;
+						session.magicValue = value;
+						// invoked by the emulation thread while executing an instruction ,
+						// stop right after this instruction
+						emulator.scheduleEvent( 0 , haltEvent );
+					}
+				}
+			};
+			emulator.mapRegion( region ); // copies the current memory contents into the region
+			region.arm();
+		}
+
+		for ( Address address : breakpoints ) {
+			emulator.addBreakpoint( new Breakpoint( address ) );
+		}
+
+		if ( ! frameListeners.isEmpty() )
+		{
+			for ( IDevice device : emulator.getDevices() )
+			{
+				if ( device instanceof IFramebufferDevice ) {
+					for ( IFrameListener listener : frameListeners ) {
+						((IFramebufferDevice) device).addFrameListener( listener );
+					}
+				}
+			}
+		}
+
+		emulator.addEmulationListener( new EmulationListener()
+		{
+			@Override
+			public void onStopHook(IEmulator emulator, Address previousPC, Throwable emulationError) {
+				session.stopped.countDown();
+			}
+		});
+		return session;
+	}
+
+	/**
+	 * Creates the result of a halted emulation.
+	 *
+	 * @param session
+	 * @return
+	 */
+	protected Result createResult(Session session)
+	{
+		final Emulator emulator = session.emulator;
+		final Throwable error = emulator.getLastEmulationError();
+		HaltReason reason = session.haltReason;
+		if ( reason == null )
+		{
+			if ( error == null ) {
+				reason = HaltReason.BREAKPOINT;
+			} else if ( error instanceof UnknownOpcodeException &&
+					    OpCode.isHaltInstruction( ((UnknownOpcodeException) error).getInstructionWord() ) )
+			{
+				reason = HaltReason.HALT_INSTRUCTION;
+			} else {
+				reason = HaltReason.EMULATION_ERROR;
+			}
+		}
+
+		if ( session.coverageData != null )
+		{
+			emulator.setCoverageData( null );
+			synchronized( session.mergedCoverageData ) {
+				session.mergedCoverageData.merge( session.coverageData );
+			}
+		}
+
+		final IReadOnlyCPU cpu = emulator.getCPU();
+		final List<int[]> dumpedMemory = emulator.doWithEmulator( new IEmulatorInvoker<List<int[]>>() {
+
+			@Override
+			public List<int[]> doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory)
+			{
+				final List<int[]> result = new ArrayList<int[]>();
+				for ( AddressRange range : memoryDumps )
+				{
+					final int[] words = new int[ range.getSize().getSizeInWords() ];
+					memory.snapshot( range.getStartAddress().getWordAddressValue() , words );
+					result.add( words );
+				}
+				return result;
+			}
+		});
+		return new Result( reason , cpu , reason == HaltReason.HALT_INSTRUCTION ? null : error , session.magicValue ,
+				Collections.unmodifiableList( new ArrayList<AddressRange>( memoryDumps ) ) , dumpedMemory );
+	}
+
+	/**
+	 * Check whether an interrupt handler could still be invoked.
+	 *
+	 * @param cpu
+	 * @return
+	 */
+	protected static boolean canReceiveInterrupts(IReadOnlyCPU cpu)
+	{
+		return cpu.getInterruptAddress().getWordAddressValue() != 0 && ! cpu.isQueueInterrupts();
+	}
+
+	/**
+	 * Check whether the instruction at a given address jumps to itself.
+	 *
+	 * @param wordAddress
+	 * @param memory
+	 * @return
+	 */
+	@SuppressWarnings("deprecation")
+	protected static boolean isSelfLoop(int wordAddress,IMemory memory)
+	{
+		final int instruction = memory.read( wordAddress );
+		if ( instruction == SUB_PC_1 ) {
+			return true;
+		}
+		if ( instruction == SET_PC_NEXT_WORD ) {
+			return memory.read( ( wordAddress + 1 ) & 0xffff ) == wordAddress;
+		}
+		final int operandA = instruction >>> 10;
+		if ( ( instruction & SET_PC_MASK ) == ( SET_PC_NEXT_WORD & SET_PC_MASK ) && operandA >= 0x20 )
+		{
+			// inline literal -1 ... 30
+			return ( ( operandA - 0x21 ) & 0xffff ) == wordAddress;
+		}
+		return false;
+	}
+}
@@ -83,6 +83,23 @@ public interface IEmulationListener
     
     public void onBreakpoint(IEmulator emulator,Breakpoint breakpoint);
     
+    /**
+     * Invoked after the emulation got stopped because an instruction 
+     * triggered a watchpoint.
+     * 
+     * <p>The emulation stops after the accessing instruction has been executed completely , 
+     * only the first watchpoint triggered by an instruction is reported.</p>
+     * 
+     * @param emulator
+     * @param watchpoint the watchpoint that triggered
+     * @param pc address of the instruction that accessed the memory
+     * @param address the address that was accessed
+     * @param oldValue value before the access
+     * @param newValue value after the access , same as <code>oldValue</code> for reads
+     * @see IEmulator#addWatchpoint(Watchpoint)
+     */
+    public void onWatchpoint(IEmulator emulator,Watchpoint watchpoint,Address pc,Address address,int oldValue,int newValue);
+    
     /**
      * Invoked before executing the next command.
      * 
@@ -141,4 +158,72 @@ public interface IEmulationListener
      * @see #isInvokeAfterCommandExecution()
      */
     public void afterCommandExecution(IEmulator emulator,int commandDuration);
+    
+    /**
+     * Returns how often {@link #afterCommandExecution(IEmulator, int)} should be invoked
+     * while the emulator is running in continuous mode.
+     * 
+     * <p>Listeners that only care about coarse progress (views that periodically refresh etc.) should
+     * use an interval instead of {@link #isInvokeAfterAndBeforeCommandExecutionInContinuousMode()}. They get
+     * invoked once at least the requested number of instructions (or cycles) have been executed , the 
+     * <code>commandDuration</code> passed to {@link #afterCommandExecution(IEmulator, int)} is the 
+     * number of cycles executed since the last invocation. Unlike listeners that need to be invoked after each instruction , 
+     * these listeners do not keep the emulator from executing instructions in batches so 
+     * invocations may happen a bit later than requested.</p>
+     * 
+     * <p>Only used if {@link #isInvokeAfterCommandExecution()} returns <code>true</code> and 
+     * {@link #isInvokeAfterAndBeforeCommandExecutionInContinuousMode()} returns <code>false</code>.
+     * The emulator will only check this <b>ONCE</b> when the listener is first registered.</p>
+     * 
+     * @return interval or <code>null</code> if this listener should not be invoked in continuous mode 
+     */
+    public InvocationInterval getContinuousModeInvocationInterval();
+    
+    /**
+     * Interval at which a listener gets invoked in continuous mode.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     * @see IEmulationListener#getContinuousModeInvocationInterval()
+     */
+    public static final class InvocationInterval 
+    {
+        private final int interval;
+        private final boolean inCycles;
+        
+        private InvocationInterval(int interval, boolean inCycles)
+        {
+            if ( interval < 1 ) {
+                throw new IllegalArgumentException("Interval must be >= 1");
+            }
+            this.interval = interval;
+            this.inCycles = inCycles;
+        }
+        
+        public static InvocationInterval instructions(int count) {
+            return new InvocationInterval( count , false );
+        }
+        
+        public static InvocationInterval cycles(int count) {
+            return new InvocationInterval( count , true );
+        }
+        
+        public int getInterval() {
+            return interval;
+        }
+        
+        /**
+         * Returns whether the interval is measured in CPU cycles
+         * instead of executed instructions.
+         * 
+         * @return
+         */
+        public boolean isInCycles() {
+            return inCycles;
+        }
+        
+        @Override
+        public String toString() {
+            return "every "+interval+( inCycles ? " cycles" : " instructions" ); 
+        }
+    }
 }
@@ -18,14 +18,18 @@ package de.codesourcery.jasm16.emulator;
 import java.util.List;
 
 import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.emulator.coverage.CoverageData;
 import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
 import de.codesourcery.jasm16.emulator.devices.IDevice;
 import de.codesourcery.jasm16.emulator.devices.IInterrupt;
+import de.codesourcery.jasm16.emulator.devices.IStatefulDevice;
 import de.codesourcery.jasm16.emulator.exceptions.DeviceErrorException;
 import de.codesourcery.jasm16.emulator.exceptions.MemoryProtectionFaultException;
 import de.codesourcery.jasm16.emulator.memory.IMemoryRegion;
 import de.codesourcery.jasm16.emulator.memory.IReadOnlyMemory;
 import de.codesourcery.jasm16.emulator.memory.MainMemory;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+import de.codesourcery.jasm16.emulator.profiler.CycleProfiler;
 
 /**
  * DCPU-16 emulator abstraction.
@@ -34,6 +38,12 @@ import de.codesourcery.jasm16.emulator.memory.MainMemory;
  */
 public interface IEmulator
 {
+    /**
+     * The DCPU-16's nominal clock rate , used to convert
+     * between emulated CPU cycles and (emulated) time.
+     */
+    public static final int CYCLES_PER_SECOND = 100000;
+    
     public enum EmulationSpeed 
     {
         /**
@@ -179,6 +189,23 @@ public interface IEmulator
 
     public List<Breakpoint> getBreakPoints();
     
+    /**
+     * Adds a watchpoint.
+     * 
+     * <p>Watchpoints only trigger on memory accesses performed while executing 
+     * instructions (including accesses by devices that run as part of executing an instruction) ,
+     * accesses by other threads (UI , debugger) are ignored. Listeners get notified through
+     * {@link IEmulationListener#onWatchpoint(IEmulator, Watchpoint, Address, Address, int, int)}.</p>
+     * 
+     * @param watchpoint
+     * @see #deleteWatchpoint(Watchpoint)
+     */
+    public void addWatchpoint(Watchpoint watchpoint);
+    
+    public void deleteWatchpoint(Watchpoint watchpoint);
+    
+    public List<Watchpoint> getWatchpoints();
+    
     /**
      * Returns a read-only instance of this emulator's CPU.
      * 
@@ -228,6 +255,19 @@ public interface IEmulator
      */
     public void loadMemory(Address startingOffset, byte[] data);
     
+    /**
+     * Replaces the memory's contents with a memory image.
+     * 
+     * <p>Plain RAM will share its pages with the image until they get written to , 
+     * so the same image can be loaded into any number of emulators.</p>
+     * 
+     * <p>This method will {@link #stop()} the emulator before updating the memory.</p>
+     * 
+     * @param image
+     * @see #loadMemory(Address, byte[])
+     */
+    public void loadMemory(MemoryImage image);
+    
     /**
      * Maps main memory to a specific region.
      * 
@@ -292,7 +332,169 @@ public interface IEmulator
      * otherwise <code>true</code>
      */
     public boolean triggerInterrupt(IInterrupt interrupt);      
+
+    /**
+     * Triggers an interrupt without allocating an {@link IInterrupt} instance.
+     * 
+     * <p>May be called by any thread without blocking , see {@link #triggerInterrupt(IInterrupt)}.</p>
+     * 
+     * @param source device that triggered the interrupt or <code>null</code> for a software interrupt
+     * @param message
+     * @return <code>false</code> if interrupts are disabled (IA is set to 0),
+     * otherwise <code>true</code>
+     */
+    public boolean triggerInterrupt(IDevice source,int message);
+    
+    /**
+     * Schedules an event to fire after a given number of emulated CPU cycles.
+     * 
+     * <p>Devices should use this method instead of wall-clock timers so
+     * that their timing is deterministic and independent of the emulation speed.
+     * Events do not fire while the emulation is stopped and get discarded when the
+     * emulator is reset.</p>
+     * 
+     * @param delayInCycles delay in CPU cycles , must not be negative. Events
+     * with a delay of 0 cycles fire right after the current instruction. Events scheduled
+     * by a firing event are scheduled relative to the cycle the firing event was due at so 
+     * that periodic events do not drift (and catch up if the firing event was late)
+     * @param event
+     * @see #CYCLES_PER_SECOND
+     * @see #cancelEvent(IScheduledEvent)
+     */
+    public void scheduleEvent(int delayInCycles,IScheduledEvent event);
+    
+    /**
+     * Cancels all pending occurrences of an event.
+     * 
+     * @param event
+     * @return <code>true</code> if the event was pending
+     * @see #scheduleEvent(int, IScheduledEvent)
+     */
+    public boolean cancelEvent(IScheduledEvent event);
+    
+    /**
+     * Returns the number of CPU cycles until an event fires.
+     * 
+     * @param event
+     * @return number of cycles until the next pending occurrence of the
+     * event fires or -1 if the event is not pending
+     * @see #scheduleEvent(int, IScheduledEvent)
+     */
+    public int getCyclesUntilEvent(IScheduledEvent event);
+    
+    /**
+     * Captures the complete state of this emulator.
+     * 
+     * <p>The snapshot contains the CPU registers , the interrupt queue , the contents
+     * of the DCPU-16's address space and the state of all devices that implement
+     * {@link IStatefulDevice}. It is taken in-between two instructions , so the
+     * emulation does not need to be stopped.</p>
+     * 
+     * @return
+     * @see #restoreSnapshot(EmulatorSnapshot)
+     */
+    public EmulatorSnapshot saveSnapshot();
+    
+    /**
+     * Stops the emulation and restores a snapshot.
+     * 
+     * <p>The emulator needs to have the same devices (in the same order) as the emulator
+     * the snapshot was taken from. Devices that do not implement {@link IStatefulDevice} get reset.
+     * Invokes {@link IEmulationListener#afterMemoryLoad(IEmulator, Address, int)} afterwards.</p>
+     * 
+     * @param snapshot
+     * @throws IllegalArgumentException if the snapshot was taken from an emulator with different devices
+     * @see #saveSnapshot()
+     */
+    public void restoreSnapshot(EmulatorSnapshot snapshot) throws IllegalArgumentException;
+
+    /**
+     * Enables/disables recording of the execution history.
+     *
+     * <p>While recording , the emulator periodically takes snapshots (see {@link #saveSnapshot()}) and
+     * keeps track of each executed instruction so that execution can be reversed (see {@link #stepBack()} and
+     * {@link #runBackwards()}). Recording starts at the current state and is restarted whenever the emulator is reset or
+     * memory gets loaded. Only a bounded amount of history is kept , older history gets discarded.</p>
+     *
+     * <p>Instructions are always executed one by one while recording , which is slower than the batch execution
+     * used at {@link EmulationSpeed#MAX_SPEED} otherwise. Disabling recording discards the history.</p>
+     *
+     * @param record
+     */
+    public void setRecordExecutionHistory(boolean record);
+
+    public boolean isRecordExecutionHistory();
+
+    /**
+     * Returns whether execution history is being recorded and
+     * at least one instruction has been recorded.
+     *
+     * @return
+     */
+    public boolean canStepBack();
+
+    /**
+     * Stops the emulation and reverts the last instruction.
+     *
+     * <p>Reverting is done by restoring the most recent snapshot taken before the instruction and re-executing
+     * all following instructions , so results may differ from the original execution if the program depends on
+     * user input (keyboard etc.). Invokes {@link IEmulationListener#afterCommandExecution(IEmulator, int)} afterwards.</p>
+     *
+     * @return <code>false</code> if there was no history to revert
+     * @throws IllegalStateException if execution history is not being recorded
+     * @see #setRecordExecutionHistory(boolean)
+     */
+    public boolean stepBack() throws IllegalStateException;
+
+    /**
+     * Stops the emulation and reverts execution up to the most recent instruction that was executed at an enabled breakpoint.
+     *
+     * <p>Breakpoint conditions are ignored. If no such instruction exists , execution
+     * is reverted to the oldest recorded state.</p>
+     *
+     * @return <code>true</code> if a breakpoint was reached
+     * @throws IllegalStateException if execution history is not being recorded
+     * @see #stepBack()
+     */
+    public boolean runBackwards() throws IllegalStateException;
+    
+    /**
+     * Attaches a profiler to this emulator.
+     * 
+     * <p>In {@link CycleProfiler.Mode#EXACT} mode the profiler is notified about each executed instruction 
+     * (which disables batch execution) , in {@link CycleProfiler.Mode#SAMPLING} mode its sampler gets scheduled 
+     * as an event (see {@link #scheduleEvent(int, IScheduledEvent)}).</p>
+     *  
+     * @param profiler profiler or <code>null</code> to stop profiling
+     * @see #doWithEmulator(IEmulatorInvoker)
+     */
+    public void setProfiler(CycleProfiler profiler);
+    
+    /**
+     * Returns the profiler attached to this emulator.
+     * 
+     * @return profiler or <code>null</code>
+     */
+    public CycleProfiler getProfiler();
     
+    /**
+     * Starts or stops collecting instruction and branch coverage.
+     * 
+     * <p>Coverage is collected by the CPU itself , so collecting it is cheap and does not prevent 
+     * the emulator from executing instructions in batches.</p>
+     * 
+     * @param data data to add coverage to or <code>null</code> to stop collecting coverage
+     * @see #doWithEmulator(IEmulatorInvoker)
+     */
+    public void setCoverageData(CoverageData data);
+    
+    /**
+     * Returns the coverage data currently being collected.
+     * 
+     * @return coverage data or <code>null</code>
+     */
+    public CoverageData getCoverageData();
+
     /**
      * Replaces a mapped memory region with plain (unmapped) main-memory.
      * 
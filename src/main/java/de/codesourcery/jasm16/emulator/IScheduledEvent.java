@@ -0,0 +1,41 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+
+/**
+ * An event that fires after a given number of emulated CPU cycles.
+ *
+ * <p>Events are fired by the emulation thread between two instructions ,
+ * with exclusive access to the emulator's CPU and memory.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see IEmulator#scheduleEvent(int, IScheduledEvent)
+ */
+public interface IScheduledEvent
+{
+	/**
+	 * Invoked when the event is due.
+	 *
+	 * @param emulator the emulator. Do not use {@link IEmulator#getCPU()} or
+	 * {@link IEmulator#getMemory()} to access the emulator's CPU/memory, use the <code>ICPU</code> / <code>IMemory</code>
+	 * instances passed to this method call instead
+	 * @param cpu
+	 * @param memory
+	 */
+	public void fire(IEmulator emulator,ICPU cpu,IMemory memory);
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.Arrays;
+
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.emulator.memory.IMemoryWriteListener;
+import de.codesourcery.jasm16.emulator.memory.MainMemory;
+
+/**
+ * Caches decoded instructions by word address.
+ *
+ * <p>Each entry occupies {@link #ENTRY_SIZE} consecutive slots , {@link #getWord(int)} returns the slot with a given index:
+ * <pre>
+ * entry   = flags , instruction size in words (lower 2 bits)
+ * entry+1 = instruction word
+ * entry+2 = first operand word (if any)
+ * entry+3 = second operand word (if any)
+ * </pre>
+ * Entries are stored in pages of {@link #PAGE_SIZE_IN_WORDS} addresses that only get allocated once
+ * an address inside the page got executed , so emulators running small programs only pay for the memory they execute.
+ * Entries get invalidated whenever one of the instruction's words is written. Instructions that are not
+ * completely located in plain RAM (see {@link MainMemory#isPlainRAM(int)}) are decoded
+ * again on every lookup because devices may change their memory without notice.</p>
+ *
+ * <p>Consecutive cached instructions are grouped into basic blocks (see {@link #getBlockLength(int, MainMemory)}).
+ * A basic block ends with the first instruction that may change the PC , change the CPU's interrupt
+ * state or fail. The emulation uses basic blocks to only check for interrupts and breakpoints when necessary.</p>
+ *
+ * <p>This class is NOT thread-safe , it must only be used by the emulation thread (or while the emulation is stopped).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class InstructionCache implements IMemoryWriteListener
+{
+	public static final int ENTRY_SIZE = 4;
+
+	private static final int SIZE_MASK = 0x03;
+	private static final int FLAG_CONDITIONAL = 1<<2;
+	private static final int FLAG_VALID = 1<<3;
+	private static final int FLAG_ENDS_BLOCK = 1<<4;
+
+	/**
+	 * Max. size of a basic block in words.
+	 */
+	public static final int MAX_BLOCK_SIZE_IN_WORDS = 64;
+
+	public static final int PAGE_SIZE_IN_WORDS = 256;
+
+	private static final int PAGE_SHIFT = 8;
+	private static final int PAGE_MASK = PAGE_SIZE_IN_WORDS - 1;
+
+	private static final int ENTRY_PAGE_SHIFT = 10; // PAGE_SIZE_IN_WORDS * ENTRY_SIZE
+	private static final int ENTRY_PAGE_MASK = ( 1 << ENTRY_PAGE_SHIFT ) - 1;
+
+	/**
+	 * Cached instructions of {@link #PAGE_SIZE_IN_WORDS} consecutive addresses.
+	 * 
+	 * <p>Block lengths , sizes and coverage counts never exceed {@link #MAX_BLOCK_SIZE_IN_WORDS} 
+	 * so they fit into a byte.</p>
+	 */
+	private static final class Page 
+	{
+		public final char[] entries = new char[ PAGE_SIZE_IN_WORDS * ENTRY_SIZE ];
+
+		// number of instructions in the basic block starting at a given address , 0 = no block
+		public final byte[] blockLength = new byte[ PAGE_SIZE_IN_WORDS ];
+		// size in words of the basic block starting at a given address
+		public final byte[] blockSize = new byte[ PAGE_SIZE_IN_WORDS ];
+		// number of basic blocks containing a given address
+		public final byte[] blockCoverage = new byte[ PAGE_SIZE_IN_WORDS ];
+	}
+
+	// pages get allocated on first use
+	private final Page[] pages = new Page[ 65536 / PAGE_SIZE_IN_WORDS ];
+
+	// set while reading instruction words from memory
+	private boolean decoding;
+
+	private Page page(int wordAddress)
+	{
+		final int index = wordAddress >>> PAGE_SHIFT;
+		Page result = pages[ index ];
+		if ( result == null ) {
+			result = new Page();
+			pages[ index ] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up the decoded instruction at a given address , decoding it if necessary.
+	 *
+	 * @param wordAddress
+	 * @param memory
+	 * @return index of the entry , see {@link #getWord(int)}
+	 */
+	@SuppressWarnings("deprecation")
+	public int lookup(int wordAddress,MainMemory memory)
+	{
+		final int address = wordAddress & 0xffff;
+		final char[] entries = page( address ).entries;
+		final int offset = ( address & PAGE_MASK ) * ENTRY_SIZE;
+		final int entry = address * ENTRY_SIZE;
+		if ( ( entries[ offset ] & FLAG_VALID ) != 0 ) {
+			return entry;
+		}
+
+		final int instructionWord;
+		final int sizeInWords;
+		boolean cacheable = true;
+		decoding = true;
+		try
+		{
+			instructionWord = memory.read( address );
+			sizeInWords = Emulator.calculateInstructionSizeInWords( address , memory );
+			for ( int i = 0 ; i < sizeInWords ; i++ )
+			{
+				final int current = ( address + i ) & 0xffff;
+				entries[ offset + 1 + i ] = (char) ( i == 0 ? instructionWord : memory.read( current ) );
+				cacheable &= memory.isPlainRAM( current );
+			}
+		} finally {
+			decoding = false;
+		}
+
+		final int opCode = instructionWord & 0x1f;
+		int flags = sizeInWords;
+		if ( opCode >= 0x10 && opCode <= 0x17 ) {
+			flags |= FLAG_CONDITIONAL;
+		}
+		if ( isEndOfBlock( instructionWord ) ) {
+			flags |= FLAG_ENDS_BLOCK;
+		}
+		if ( cacheable ) {
+			flags |= FLAG_VALID;
+		}
+		entries[ offset ] = (char) flags;
+		return entry;
+	}
+
+	/**
+	 * Returns whether this cache is currently reading instruction words from memory.
+	 *
+	 * <p>Used to tell instruction fetches apart from data accesses.</p>
+	 *
+	 * @return
+	 */
+	public boolean isDecoding() {
+		return decoding;
+	}
+
+	private static boolean isEndOfBlock(int instructionWord)
+	{
+		final int opCode = instructionWord & 0x1f;
+		switch( opCode )
+		{
+			case 0x00: // special opcodes (JSR , INT , RFI , IAQ , HWI , ...)
+			case 0x18: // unknown opcodes
+			case 0x19:
+			case 0x1c:
+			case 0x1d:
+				return true;
+			default:
+				if ( opCode >= 0x10 && opCode <= 0x17 ) { // IFx
+					return true;
+				}
+		}
+		final int targetOperand = ( instructionWord >>> 5 ) & 0x1f;
+		// writes to PC / (illegal) stores to an immediate value
+		return targetOperand == 0x1c || targetOperand == 0x1f;
+	}
+
+	/**
+	 * Returns the number of instructions in the basic block starting at a given address ,
+	 * creating the block if necessary.
+	 *
+	 * <p>Instructions inside a basic block are guaranteed to neither change the PC in any way other
+	 * than advancing it to the next instruction , nor to trigger or enable interrupts. Only the last instruction
+	 * of a block may do so.</p>
+	 *
+	 * @param wordAddress
+	 * @param memory
+	 * @return number of instructions , always at least 1
+	 * @see #isBlockValid(int)
+	 */
+	public int getBlockLength(int wordAddress,MainMemory memory)
+	{
+		final int start = wordAddress & 0xffff;
+		final Page startPage = page( start );
+		final int existing = startPage.blockLength[ start & PAGE_MASK ];
+		if ( existing != 0 ) {
+			return existing;
+		}
+
+		int current = start;
+		int count = 0;
+		int sizeInWords = 0;
+		while ( true )
+		{
+			final int entry = lookup( current , memory );
+			final int flags = getWord( entry );
+			final int size = flags & SIZE_MASK;
+			if ( ( flags & FLAG_VALID ) == 0 ||
+				 sizeInWords + size > MAX_BLOCK_SIZE_IN_WORDS ||
+				 current + size > 0x10000 )  // blocks must not wrap around
+			{
+				break;
+			}
+			count++;
+			sizeInWords += size;
+			current += size;
+			if ( ( flags & FLAG_ENDS_BLOCK ) != 0 ) {
+				break;
+			}
+		}
+
+		if ( count == 0 ) { // not cacheable
+			return 1;
+		}
+
+		startPage.blockLength[ start & PAGE_MASK ] = (byte) count;
+		startPage.blockSize[ start & PAGE_MASK ] = (byte) sizeInWords;
+		for ( int i = 0 ; i < sizeInWords ; i++ ) {
+			page( start + i ).blockCoverage[ ( start + i ) & PAGE_MASK ]++;
+		}
+		return count;
+	}
+
+	/**
+	 * Check whether the basic block starting at a given address
+	 * is (still) valid.
+	 *
+	 * <p>Basic blocks get invalidated when any of their instructions are overwritten.</p>
+	 *
+	 * @param wordAddress
+	 * @return
+	 * @see #getBlockLength(int, MainMemory)
+	 */
+	public boolean isBlockValid(int wordAddress) 
+	{
+		final int address = wordAddress & 0xffff;
+		final Page page = pages[ address >>> PAGE_SHIFT ];
+		return page != null && page.blockLength[ address & PAGE_MASK ] != 0;
+	}
+
+	private void invalidateBlocks(int wordAddress)
+	{
+		final Page page = pages[ wordAddress >>> PAGE_SHIFT ];
+		if ( page == null || page.blockCoverage[ wordAddress & PAGE_MASK ] == 0 ) {
+			return;
+		}
+		final int firstStart = Math.max( 0 , wordAddress - MAX_BLOCK_SIZE_IN_WORDS + 1 );
+		for ( int start = firstStart ; start <= wordAddress ; start++ )
+		{
+			final Page startPage = pages[ start >>> PAGE_SHIFT ];
+			if ( startPage == null ) {
+				continue;
+			}
+			final int size = startPage.blockSize[ start & PAGE_MASK ];
+			if ( startPage.blockLength[ start & PAGE_MASK ] != 0 && start + size > wordAddress )
+			{
+				startPage.blockLength[ start & PAGE_MASK ] = 0;
+				for ( int i = 0 ; i < size ; i++ ) {
+					pages[ ( start + i ) >>> PAGE_SHIFT ].blockCoverage[ ( start + i ) & PAGE_MASK ]--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a slot of a cached entry.
+	 * 
+	 * @param index entry index as returned by {@link #lookup(int, MainMemory)} plus the slot offset (0...{@link #ENTRY_SIZE}-1)
+	 * @return
+	 */
+	public int getWord(int index) {
+		return pages[ index >>> ENTRY_PAGE_SHIFT ].entries[ index & ENTRY_PAGE_MASK ];
+	}
+
+	public int getSizeInWords(int entry) {
+		return getWord( entry ) & SIZE_MASK;
+	}
+
+	public boolean isConditional(int entry) {
+		return ( getWord( entry ) & FLAG_CONDITIONAL ) != 0;
+	}
+
+	public int getInstructionWord(int entry) {
+		return getWord( entry + 1 );
+	}
+
+	private void invalidateEntry(int wordAddress)
+	{
+		final int address = wordAddress & 0xffff;
+		final Page page = pages[ address >>> PAGE_SHIFT ];
+		if ( page != null ) {
+			page.entries[ ( address & PAGE_MASK ) * ENTRY_SIZE ] = 0;
+		}
+	}
+
+	@Override
+	public void wordWritten(int wordAddress)
+	{
+		// instructions are at most 3 words long
+		invalidateEntry( wordAddress );
+		invalidateEntry( wordAddress - 1 );
+		invalidateEntry( wordAddress - 2 );
+		invalidateBlocks( wordAddress & 0xffff );
+	}
+
+	@Override
+	public void rangeChanged(AddressRange range)
+	{
+		final int start = range.getStartAddress().getWordAddressValue();
+		final int len = range.getSize().getSizeInWords();
+		if ( len >= 65536 ) {
+			invalidateAll();
+			return;
+		}
+		for ( int i = -2 ; i < len ; i++ ) {
+			invalidateEntry( start + i );
+		}
+		for ( int i = 0 ; i < len ; i++ ) {
+			invalidateBlocks( ( start + i ) & 0xffff );
+		}
+	}
+
+	public void invalidateAll() 
+	{
+		// pages are cleared instead of discarded since the instruction currently executing may still read its words
+		for ( Page page : pages ) 
+		{
+			if ( page != null ) {
+				Arrays.fill( page.entries , (char) 0 );
+				Arrays.fill( page.blockLength , (byte) 0 );
+				Arrays.fill( page.blockSize , (byte) 0 );
+				Arrays.fill( page.blockCoverage , (byte) 0 );
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.codesourcery.jasm16.emulator.devices.HardwareInterrupt;
+import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.IInterrupt;
+import de.codesourcery.jasm16.emulator.devices.SoftwareInterrupt;
+
+/**
+ * The DCPU-16's interrupt queue , a lock-free ring buffer with a fixed capacity of {@link #CAPACITY} interrupts.
+ * 
+ * <p>Any number of threads may post interrupts using {@link #offer(IDevice, int)} without locking or allocating
+ * memory. Each interrupt is stored as its 16-bit message plus the device that triggered it 
+ * (<code>null</code> for software interrupts).</p>
+ * 
+ * <p>There must only be a single consumer (the emulation thread or any thread holding the emulator's CPU lock) that 
+ * calls {@link #receive(boolean)} and {@link #poll(boolean)}. Posted interrupts stay in the ring until they get processed ,
+ * interrupts that have been received are either the <i>current</i> interrupt (will be processed by the CPU
+ * regardless of interrupt queueing) or <i>queued</i> (processed in FIFO order while interrupt queueing is
+ * turned off).</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class InterruptQueue 
+{
+	/**
+	 * Max. number of interrupts (received or not) , the DCPU-16 catches fire if more interrupts are queued.
+	 */
+	public static final int CAPACITY = 256;
+
+	private static final int MASK = CAPACITY-1;
+
+	/*
+	 * Bounded queue as described by Dmitry Vyukov: The slot for position P is free for the producer that
+	 * claimed P when sequences[ P & MASK ] == P and holds a published interrupt when it is P+1. 
+	 * The consumer frees the slot for the next round by setting it to P+CAPACITY.
+	 */
+	private final AtomicLongArray sequences = new AtomicLongArray( CAPACITY );
+	private final int[] messages = new int[ CAPACITY ];
+	private final IDevice[] sources = new IDevice[ CAPACITY ];
+
+	// next position to be claimed by a producer
+	private final AtomicLong tail = new AtomicLong();
+
+	// position of the oldest interrupt that has not been processed yet
+	private volatile long head;
+	// interrupts before this position have been received by the CPU
+	private volatile long received;
+	// whether the interrupt at the head position is the current interrupt
+	private boolean headIsCurrent;
+
+	public InterruptQueue() 
+	{
+		for ( int i = 0 ; i < CAPACITY ; i++ ) {
+			sequences.set( i , i );
+		}
+	}
+
+	/**
+	 * Posts an interrupt.
+	 * 
+	 * <p>Safe to be called by any thread.</p>
+	 * 
+	 * @param source the device that triggered the interrupt or <code>null</code> for software interrupts
+	 * @param message
+	 * @return <code>false</code> if the queue is full
+	 */
+	public boolean offer(IDevice source,int message) 
+	{
+		long position = tail.get();
+		while ( true ) 
+		{
+			final long sequence = sequences.get( (int) position & MASK );
+			if ( sequence == position ) 
+			{
+				if ( tail.compareAndSet( position , position+1 ) ) {
+					break;
+				}
+				position = tail.get();
+			} 
+			else if ( sequence < position ) {
+				return false; // slot still holds an interrupt from the previous round
+			} else {
+				position = tail.get(); // another producer claimed this position
+			}
+		}
+		final int slot = (int) position & MASK;
+		messages[ slot ] = message & 0xffff;
+		sources[ slot ] = source;
+		sequences.set( slot , position+1 ); // publish
+		return true;
+	}
+
+	private boolean isPublished(long position) {
+		return sequences.get( (int) position & MASK ) == position+1;
+	}
+
+	/**
+	 * Receives all interrupts that were posted since the last invocation.
+	 * 
+	 * <p>An interrupt becomes the current interrupt if there is neither a current nor any queued interrupt
+	 * and the CPU is not queueing interrupts. Otherwise it gets queued and the CPU needs to turn on 
+	 * interrupt queueing if there already was a current interrupt.</p> 
+	 * 
+	 * @param queueInterrupts whether the CPU is currently queueing interrupts 
+	 * @return <code>true</code> if the CPU needs to turn on interrupt queueing
+	 */
+	public boolean receive(boolean queueInterrupts) 
+	{
+		long position = received;
+		if ( ! isPublished( position ) ) {
+			return false;
+		}
+		boolean turnOnQueueing = false;
+		do 
+		{
+			if ( position == head && ! queueInterrupts ) {
+				headIsCurrent = true;
+			} else if ( headIsCurrent ) {
+				turnOnQueueing = queueInterrupts = true;
+			}
+			position++;
+		} while ( isPublished( position ) );
+		received = position;
+		return turnOnQueueing;
+	}
+
+	/**
+	 * Removes the next interrupt the CPU may process.
+	 * 
+	 * @param queueInterrupts whether the CPU is currently queueing interrupts
+	 * @return the interrupt's message or -1 if there is no processable interrupt
+	 */
+	public int poll(boolean queueInterrupts) 
+	{
+		final long position = head;
+		if ( position == received || ( queueInterrupts && ! headIsCurrent ) ) {
+			return -1;
+		}
+		final int slot = (int) position & MASK;
+		final int message = messages[ slot ];
+		sources[ slot ] = null;
+		headIsCurrent = false;
+		head = position+1;
+		sequences.set( slot , position+CAPACITY ); // free slot for the next round
+		return message;
+	}
+
+	/**
+	 * Discards all interrupts that have been posted so far.
+	 * 
+	 * <p>Must only be called by the consumer.</p>
+	 */
+	public void clear() 
+	{
+		if ( head == received && ! isPublished( head ) ) {
+			return; // already empty , avoid volatile writes
+		}
+		received = head;
+		headIsCurrent = false;
+		while ( isPublished( head ) ) 
+		{
+			received = head+1;
+			poll( false );
+		}
+	}
+
+	/**
+	 * Replaces the contents of this queue.
+	 * 
+	 * <p>Must only be called by the consumer.</p>
+	 * 
+	 * @param sources devices that triggered the interrupts , <code>null</code> elements denote software interrupts
+	 * @param messages
+	 * @param hasCurrentInterrupt whether the first interrupt is the current one , all others get queued
+	 * @throws IllegalArgumentException if there are more than {@link #CAPACITY} interrupts
+	 */
+	public void restore(IDevice[] sources,int[] messages,boolean hasCurrentInterrupt) throws IllegalArgumentException 
+	{
+		if ( messages.length > CAPACITY ) {
+			throw new IllegalArgumentException("Too many interrupts: "+messages.length);
+		}
+		clear();
+		for ( int i = 0 ; i < messages.length ; i++ ) {
+			offer( sources[i] , messages[i] );
+		}
+		received = head + messages.length;
+		headIsCurrent = hasCurrentInterrupt && messages.length > 0;
+	}
+
+	/**
+	 * Returns whether the oldest received interrupt is the current interrupt.
+	 * 
+	 * @return
+	 */
+	public boolean hasCurrentInterrupt() {
+		return headIsCurrent;
+	}
+
+	/**
+	 * Returns the number of received (current + queued) interrupts.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return (int) ( received - head );
+	}
+
+	/**
+	 * Returns the message of a received interrupt.
+	 * 
+	 * @param index 0 ... {@link #size()}-1 , index 0 is the oldest interrupt
+	 * @return
+	 */
+	public int getMessage(int index) {
+		return messages[ (int) ( head + index ) & MASK ];
+	}
+
+	/**
+	 * Returns the device that triggered a received interrupt.
+	 * 
+	 * @param index 0 ... {@link #size()}-1 , index 0 is the oldest interrupt
+	 * @return device or <code>null</code> for software interrupts
+	 */
+	public IDevice getSource(int index) {
+		return sources[ (int) ( head + index ) & MASK ];
+	}
+
+	/**
+	 * Returns all received interrupts.
+	 * 
+	 * <p>May be called by any thread , the result is not guaranteed to be consistent
+	 * if the queue is modified concurrently.</p>
+	 * 
+	 * @return
+	 */
+	public List<IInterrupt> toList() 
+	{
+		final long start = head;
+		final long end = received;
+		final List<IInterrupt> result = new ArrayList<IInterrupt>( (int) Math.max( 0 , end - start ) );
+		for ( long position = start ; position < end ; position++ ) 
+		{
+			final int slot = (int) position & MASK;
+			final IDevice source = sources[ slot ];
+			result.add( source == null ? new SoftwareInterrupt( messages[ slot ] ) : new HardwareInterrupt( source , messages[ slot ] ) );
+		}
+		return result;
+	}
+}
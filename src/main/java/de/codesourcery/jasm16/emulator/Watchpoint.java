@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+
+/**
+ * Debugger watchpoint , stops the emulation after an instruction accessed 
+ * a watched range of memory.
+ * 
+ * <p>Unlike breakpoints , watchpoints are checked by {@link de.codesourcery.jasm16.emulator.memory.MainMemory} 
+ * itself and only for pages that contain a watched address so they do not slow down execution of code that does
+ * not touch these pages.</p>
+ * 
+ * <p>Instances are immutable and thus thread-safe.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see IEmulator#addWatchpoint(Watchpoint)
+ * @see IEmulationListener#onWatchpoint(IEmulator, Watchpoint, Address, Address, int, int)
+ */
+public final class Watchpoint
+{
+	public static enum Type 
+	{
+		/**
+		 * Triggers when a watched address is read.
+		 */
+		READ,
+		/**
+		 * Triggers when a watched address is written , regardless of the value.
+		 */
+		WRITE,
+		/**
+		 * Triggers when a write actually changes the value at a watched address.
+		 */
+		CHANGE;
+	}
+	
+	private final AddressRange range;
+	private final Type type;
+	private final int start;
+	private final int end; // exclusive
+	
+	public Watchpoint(AddressRange range,Type type) 
+	{
+		if (range == null) {
+			throw new IllegalArgumentException("range must not be NULL.");
+		}
+		if (type == null) {
+			throw new IllegalArgumentException("type must not be NULL.");
+		}
+		this.range = range;
+		this.type = type;
+		this.start = range.getStartAddress().getWordAddressValue();
+		this.end = range.getEndAddress().getWordAddressValue();
+	}
+	
+	public AddressRange getAddressRange() {
+		return range;
+	}
+	
+	public Type getType() {
+		return type;
+	}
+	
+	public boolean contains(int wordAddress) {
+		return wordAddress >= start && wordAddress < end;
+	}
+	
+	/**
+	 * Checks whether a memory read triggers this watchpoint.
+	 * 
+	 * @param wordAddress
+	 * @return
+	 */
+	public boolean matchesRead(int wordAddress) {
+		return type == Type.READ && contains( wordAddress );
+	}
+	
+	/**
+	 * Checks whether a memory write triggers this watchpoint.
+	 * 
+	 * @param wordAddress
+	 * @param oldValue
+	 * @param newValue
+	 * @return
+	 */
+	public boolean matchesWrite(int wordAddress,int oldValue,int newValue) 
+	{
+		switch( type ) {
+			case WRITE:
+				return contains( wordAddress );
+			case CHANGE:
+				return oldValue != newValue && contains( wordAddress );
+			default:
+				return false;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return type+" watchpoint "+range;
+	}
+}
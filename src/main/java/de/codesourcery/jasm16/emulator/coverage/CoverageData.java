@@ -0,0 +1,224 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.coverage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import de.codesourcery.jasm16.emulator.IEmulator;
+
+/**
+ * Instruction and branch coverage of a program , one bit per memory word.
+ *
+ * <p>The emulator's CPU sets a bit for each executed instruction and records
+ * for each conditional instruction (<code>IFx</code>) whether its condition was satisfied (the
+ * next instruction was performed) or not (the next instruction was skipped). Bits are never
+ * cleared while collecting so an instance may be passed to any number of emulation runs
+ * (or merged with the data from other runs , see {@link #merge(CoverageData)}).</p>
+ *
+ * <p>This class is NOT thread-safe , the emulator updates it while holding its CPU lock so
+ * the data needs to be read through {@link IEmulator#doWithEmulator(de.codesourcery.jasm16.emulator.IEmulatorInvoker)}
+ * while collection is in progress.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see IEmulator#setCoverageData(CoverageData)
+ * @see CoverageReport
+ */
+public final class CoverageData
+{
+	protected static final int MAGIC = 0x44434f56; // 'DCOV'
+	protected static final int FORMAT_VERSION = 1;
+
+	private static final int BITMAP_SIZE = 65536 / 64;
+
+	private final long[] executed = new long[ BITMAP_SIZE ];
+	private final long[] conditionSatisfied = new long[ BITMAP_SIZE ];
+	private final long[] conditionFailed = new long[ BITMAP_SIZE ];
+
+	/**
+	 * Invoked by the CPU before executing an instruction.
+	 *
+	 * @param address
+	 */
+	public void instructionExecuted(int address) {
+		executed[ address >>> 6 ] |= 1L << address; // shift distance is taken modulo 64
+	}
+
+	/**
+	 * Invoked by the CPU after evaluating the condition of an <code>IFx</code> instruction.
+	 *
+	 * @param address address of the <code>IFx</code> instruction
+	 * @param satisfied
+	 */
+	public void conditionEvaluated(int address,boolean satisfied)
+	{
+		if ( satisfied ) {
+			conditionSatisfied[ address >>> 6 ] |= 1L << address;
+		} else {
+			conditionFailed[ address >>> 6 ] |= 1L << address;
+		}
+	}
+
+	private static boolean isSet(long[] bitmap,int address) {
+		return ( bitmap[ ( address & 0xffff ) >>> 6 ] & ( 1L << address ) ) != 0;
+	}
+
+	public boolean isExecuted(int address) {
+		return isSet( executed , address );
+	}
+
+	/**
+	 * Returns whether the condition of an <code>IFx</code> instruction was satisfied at least once.
+	 *
+	 * @param address
+	 * @return
+	 */
+	public boolean isConditionSatisfied(int address) {
+		return isSet( conditionSatisfied , address );
+	}
+
+	/**
+	 * Returns whether the condition of an <code>IFx</code> instruction failed at least once.
+	 *
+	 * @param address
+	 * @return
+	 */
+	public boolean isConditionFailed(int address) {
+		return isSet( conditionFailed , address );
+	}
+
+	/**
+	 * Returns the number of distinct instructions that have been executed.
+	 *
+	 * @return
+	 */
+	public int getExecutedInstructionCount()
+	{
+		int result = 0;
+		for ( long bits : executed ) {
+			result += Long.bitCount( bits );
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the coverage recorded by another instance to this one.
+	 *
+	 * @param other
+	 */
+	public void merge(CoverageData other)
+	{
+		for ( int i = 0 ; i < BITMAP_SIZE ; i++ )
+		{
+			executed[i] |= other.executed[i];
+			conditionSatisfied[i] |= other.conditionSatisfied[i];
+			conditionFailed[i] |= other.conditionFailed[i];
+		}
+	}
+
+	public CoverageData createCopy()
+	{
+		final CoverageData result = new CoverageData();
+		result.merge( this );
+		return result;
+	}
+
+	public void clear()
+	{
+		for ( int i = 0 ; i < BITMAP_SIZE ; i++ )
+		{
+			executed[i] = 0;
+			conditionSatisfied[i] = 0;
+			conditionFailed[i] = 0;
+		}
+	}
+
+	/**
+	 * Writes this instance in a binary format.
+	 *
+	 * @param out stream to write to , not closed by this method
+	 * @throws IOException
+	 * @see #read(InputStream)
+	 */
+	public void write(OutputStream out) throws IOException
+	{
+		final DataOutputStream data = new DataOutputStream( out );
+		data.writeInt( MAGIC );
+		data.writeShort( FORMAT_VERSION );
+		for ( long[] bitmap : new long[][] { executed , conditionSatisfied , conditionFailed } )
+		{
+			for ( long bits : bitmap ) {
+				data.writeLong( bits );
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads an instance written by {@link #write(OutputStream)}.
+	 *
+	 * @param in stream to read from , not closed by this method
+	 * @return
+	 * @throws IOException if reading failed or the stream does not contain coverage data
+	 */
+	public static CoverageData read(InputStream in) throws IOException
+	{
+		final DataInputStream data = new DataInputStream( in );
+		if ( data.readInt() != MAGIC ) {
+			throw new IOException("Not a coverage file");
+		}
+		final int version = data.readUnsignedShort();
+		if ( version != FORMAT_VERSION ) {
+			throw new IOException("Unsupported coverage format version "+version);
+		}
+		final CoverageData result = new CoverageData();
+		for ( long[] bitmap : new long[][] { result.executed , result.conditionSatisfied , result.conditionFailed } )
+		{
+			for ( int i = 0 ; i < BITMAP_SIZE ; i++ ) {
+				bitmap[i] = data.readLong();
+			}
+		}
+		return result;
+	}
+
+	public void save(File file) throws IOException
+	{
+		final OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) );
+		try {
+			write( out );
+		} finally {
+			out.close();
+		}
+	}
+
+	public static CoverageData load(File file) throws IOException
+	{
+		final InputStream in = new BufferedInputStream( new FileInputStream( file ) );
+		try {
+			return read( in );
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.coverage;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.ast.ASTNode;
+import de.codesourcery.jasm16.ast.ASTUtils;
+import de.codesourcery.jasm16.ast.ISimpleASTNodeVisitor;
+import de.codesourcery.jasm16.ast.InstructionNode;
+import de.codesourcery.jasm16.compiler.DebugInfo;
+import de.codesourcery.jasm16.compiler.ICompilationUnit;
+import de.codesourcery.jasm16.compiler.SourceLocation;
+import de.codesourcery.jasm16.utils.Misc;
+
+/**
+ * Maps {@link CoverageData} back to source lines.
+ *
+ * <p>Only lines with instructions are taken into account , data (<code>.dat</code> etc.) is ignored. Each
+ * conditional instruction (<code>IFx</code>) counts as two branches (condition satisfied / condition failed).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CoverageReport
+{
+	private final CoverageData data;
+	private final List<UnitCoverage> units = new ArrayList<UnitCoverage>();
+
+	/**
+	 * Coverage of a single source line.
+	 */
+	public static final class LineCoverage
+	{
+		private final int lineNumber;
+		private int instructions;
+		private int executedInstructions;
+		// addresses of IFx instructions on this line
+		private final List<Integer> conditionals = new ArrayList<Integer>();
+		private int coveredBranches;
+
+		protected LineCoverage(int lineNumber) {
+			this.lineNumber = lineNumber;
+		}
+
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		public int getInstructionCount() {
+			return instructions;
+		}
+
+		public int getExecutedInstructionCount() {
+			return executedInstructions;
+		}
+
+		public boolean isExecuted() {
+			return executedInstructions > 0;
+		}
+
+		public int getBranchCount() {
+			return conditionals.size()*2;
+		}
+
+		public int getCoveredBranchCount() {
+			return coveredBranches;
+		}
+	}
+
+	/**
+	 * Coverage of a compilation unit.
+	 */
+	public static final class UnitCoverage
+	{
+		private final ICompilationUnit unit;
+		private final TreeMap<Integer,LineCoverage> lines = new TreeMap<Integer,LineCoverage>();
+
+		protected UnitCoverage(ICompilationUnit unit) {
+			this.unit = unit;
+		}
+
+		public ICompilationUnit getCompilationUnit() {
+			return unit;
+		}
+
+		public String getName() {
+			return unit.getResource().getIdentifier();
+		}
+
+		/**
+		 * Returns all lines with instructions , ordered ascending by line number.
+		 *
+		 * @return
+		 */
+		public List<LineCoverage> getLines() {
+			return new ArrayList<LineCoverage>( lines.values() );
+		}
+
+		/**
+		 * Returns the coverage of a line.
+		 *
+		 * @param lineNumber
+		 * @return coverage or <code>null</code> if the line contains no instructions
+		 */
+		public LineCoverage getLine(int lineNumber) {
+			return lines.get( lineNumber );
+		}
+
+		public int getLineCount() {
+			return lines.size();
+		}
+
+		public int getExecutedLineCount()
+		{
+			int result = 0;
+			for ( LineCoverage line : lines.values() ) {
+				if ( line.isExecuted() ) {
+					result++;
+				}
+			}
+			return result;
+		}
+
+		public int getBranchCount()
+		{
+			int result = 0;
+			for ( LineCoverage line : lines.values() ) {
+				result += line.getBranchCount();
+			}
+			return result;
+		}
+
+		public int getCoveredBranchCount()
+		{
+			int result = 0;
+			for ( LineCoverage line : lines.values() ) {
+				result += line.getCoveredBranchCount();
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param data
+	 * @param debugInfo debug info of the program the coverage data was collected for , compilation units need to have their AST
+	 */
+	public CoverageReport(CoverageData data,DebugInfo debugInfo)
+	{
+		if (data == null) {
+			throw new IllegalArgumentException("data must not be null");
+		}
+		if (debugInfo == null) {
+			throw new IllegalArgumentException("debugInfo must not be null");
+		}
+		this.data = data;
+
+		final Map<String,UnitCoverage> unitsByName = new HashMap<String,UnitCoverage>();
+		final Map<String,Map<Integer,InstructionNode>> instructionsByUnit = new HashMap<String,Map<Integer,InstructionNode>>();
+		for ( ICompilationUnit unit : debugInfo.getCompilationUnits() )
+		{
+			final UnitCoverage coverage = new UnitCoverage( unit );
+			unitsByName.put( coverage.getName() , coverage );
+			units.add( coverage );
+			instructionsByUnit.put( coverage.getName() , getInstructions( unit ) );
+		}
+
+		for ( int address = 0 ; address < 65536 ; address++ )
+		{
+			final SourceLocation location = debugInfo.getSourceLocation( Address.wordAddress( address ) );
+			if ( location == null ) {
+				continue;
+			}
+			final String name = location.getCompilationUnit().getResource().getIdentifier();
+			final Map<Integer, InstructionNode> instructions = instructionsByUnit.get( name );
+			final InstructionNode instruction = instructions != null ? instructions.get( location.getStartingOffset() ) : null;
+			if ( instruction == null ) {
+				continue;
+			}
+
+			final UnitCoverage unit = unitsByName.get( name );
+			LineCoverage line = unit.lines.get( location.getLineNumber() );
+			if ( line == null ) {
+				line = new LineCoverage( location.getLineNumber() );
+				unit.lines.put( location.getLineNumber() , line );
+			}
+			line.instructions++;
+			if ( data.isExecuted( address ) ) {
+				line.executedInstructions++;
+			}
+			if ( instruction.getOpCode() != null && instruction.getOpCode().isConditionalBranchOpCode() )
+			{
+				line.conditionals.add( address );
+				line.coveredBranches += ( data.isConditionSatisfied( address ) ? 1 : 0 ) + ( data.isConditionFailed( address ) ? 1 : 0 );
+			}
+		}
+
+		Collections.sort( units , new Comparator<UnitCoverage>() {
+
+			@Override
+			public int compare(UnitCoverage o1, UnitCoverage o2) {
+				return o1.getName().compareTo( o2.getName() );
+			}
+		});
+	}
+
+	private static Map<Integer,InstructionNode> getInstructions(ICompilationUnit unit)
+	{
+		final Map<Integer,InstructionNode> result = new HashMap<Integer,InstructionNode>();
+		if ( unit.getAST() == null ) {
+			return result;
+		}
+		ASTUtils.visitInOrder( unit.getAST() , new ISimpleASTNodeVisitor<ASTNode>() {
+
+			@Override
+			public boolean visit(ASTNode node)
+			{
+				if ( node instanceof InstructionNode && node.getTextRegion() != null ) {
+					result.put( node.getTextRegion().getStartingOffset() , (InstructionNode) node );
+				}
+				return true;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Returns the coverage per compilation unit , ordered by name.
+	 *
+	 * @return
+	 */
+	public List<UnitCoverage> getUnits() {
+		return Collections.unmodifiableList( units );
+	}
+
+	/**
+	 * Writes the report in LCOV tracefile format (as understood by <code>genhtml</code> and most CI servers).
+	 *
+	 * <p>Line execution counts are either 0 or 1 since coverage data does not include execution counts.</p>
+	 *
+	 * @param out
+	 * @param testName
+	 * @throws IOException
+	 */
+	public void writeLcov(Writer out,String testName) throws IOException
+	{
+		for ( UnitCoverage unit : units )
+		{
+			out.write("TN:"+( testName != null ? testName : "" )+"\n");
+			out.write("SF:"+unit.getName()+"\n");
+			for ( LineCoverage line : unit.lines.values() )
+			{
+				int block = 0;
+				for ( int address : line.conditionals )
+				{
+					final boolean executed = data.isExecuted( address );
+					out.write("BRDA:"+line.lineNumber+","+block+",0,"+( executed ? ( data.isConditionSatisfied( address ) ? "1" : "0" ) : "-" )+"\n");
+					out.write("BRDA:"+line.lineNumber+","+block+",1,"+( executed ? ( data.isConditionFailed( address ) ? "1" : "0" ) : "-" )+"\n");
+					block++;
+				}
+			}
+			out.write("BRF:"+unit.getBranchCount()+"\n");
+			out.write("BRH:"+unit.getCoveredBranchCount()+"\n");
+			for ( LineCoverage line : unit.lines.values() ) {
+				out.write("DA:"+line.lineNumber+","+( line.isExecuted() ? 1 : 0 )+"\n");
+			}
+			out.write("LF:"+unit.getLineCount()+"\n");
+			out.write("LH:"+unit.getExecutedLineCount()+"\n");
+			out.write("end_of_record\n");
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes a self-contained HTML page with a summary table and the annotated
+	 * source of all compilation units.
+	 *
+	 * <p>Executed lines are highlighted green , lines that were never reached red and lines
+	 * with conditional instructions that did not take both branches yellow.</p>
+	 *
+	 * @param out
+	 * @throws IOException if reading a source file or writing failed
+	 */
+	public void writeHtml(Writer out) throws IOException
+	{
+		out.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>Coverage report</title>\n");
+		out.write("<style>\n"+
+				"body { font-family: sans-serif; }\n"+
+				"table.summary td, table.summary th { padding: 2px 8px; text-align: right; }\n"+
+				"table.summary td.name { text-align: left; }\n"+
+				"pre { margin: 0; }\n"+
+				".hit { background-color: #c0ffc0; }\n"+
+				".miss { background-color: #ffc0c0; }\n"+
+				".partial { background-color: #ffffa0; }\n"+
+				".lineno { color: #808080; }\n"+
+				"</style>\n</head>\n<body>\n");
+
+		out.write("<h1>Coverage report</h1>\n<table class=\"summary\">\n");
+		out.write("<tr><th>Compilation unit</th><th>Lines</th><th>Executed</th><th>%</th><th>Branches</th><th>Covered</th><th>%</th></tr>\n");
+		int unitIndex = 0;
+		for ( UnitCoverage unit : units )
+		{
+			out.write("<tr><td class=\"name\"><a href=\"#unit"+unitIndex+"\">"+escapeHtml( unit.getName() )+"</a></td>");
+			out.write("<td>"+unit.getLineCount()+"</td><td>"+unit.getExecutedLineCount()+"</td><td>"+toPercentage( unit.getExecutedLineCount() , unit.getLineCount() )+"</td>");
+			out.write("<td>"+unit.getBranchCount()+"</td><td>"+unit.getCoveredBranchCount()+"</td><td>"+toPercentage( unit.getCoveredBranchCount() , unit.getBranchCount() )+"</td></tr>\n");
+			unitIndex++;
+		}
+		out.write("</table>\n");
+
+		unitIndex = 0;
+		for ( UnitCoverage unit : units )
+		{
+			out.write("<h2 id=\"unit"+unitIndex+"\">"+escapeHtml( unit.getName() )+"</h2>\n");
+			final String[] sourceLines = Misc.readSource( unit.getCompilationUnit() ).split("\r?\n",-1);
+			for ( int i = 0 ; i < sourceLines.length ; i++ )
+			{
+				final LineCoverage line = unit.lines.get( i+1 );
+				final String style;
+				if ( line == null ) {
+					style = "";
+				} else if ( ! line.isExecuted() ) {
+					style = " class=\"miss\"";
+				} else if ( line.getCoveredBranchCount() < line.getBranchCount() ) {
+					style = " class=\"partial\"";
+				} else {
+					style = " class=\"hit\"";
+				}
+				out.write("<pre"+style+"><span class=\"lineno\">"+String.format("%5d" , i+1 )+"</span>  "+escapeHtml( sourceLines[i] )+"</pre>\n");
+			}
+			unitIndex++;
+		}
+		out.write("</body>\n</html>\n");
+		out.flush();
+	}
+
+	private static String toPercentage(int value,int total) {
+		return total == 0 ? "-" : String.format("%.1f" , value * 100.0d / total );
+	}
+
+	private static String escapeHtml(String s)
+	{
+		final StringBuilder result = new StringBuilder();
+		for ( char c : s.toCharArray() )
+		{
+			switch( c ) {
+				case '<': result.append("&lt;"); break;
+				case '>': result.append("&gt;"); break;
+				case '&': result.append("&amp;"); break;
+				case '"': result.append("&quot;"); break;
+				default:
+					result.append( c );
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes selected frames as PNG images to a directory.
+ * 
+ * <p>Files are named <code>&lt;device name&gt;-&lt;frame number&gt;.png</code> , for
+ * example <code>LEM-1802-120.png</code>. If writing a file fails , the error is kept (see {@link #getError()})
+ * and no further frames are written.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class FrameDumper implements IFrameListener 
+{
+	private final File directory;
+	private final Set<Long> frameNumbers = new HashSet<Long>();
+
+	private volatile IOException error;
+
+	/**
+	 * 
+	 * @param directory
+	 * @param frameNumbers frames to write , writes all frames if none are given
+	 */
+	public FrameDumper(File directory,long... frameNumbers) 
+	{
+		if (directory == null) {
+			throw new IllegalArgumentException("directory must not be null");
+		}
+		this.directory = directory;
+		for ( long frameNumber : frameNumbers ) {
+			this.frameNumbers.add( frameNumber );
+		}
+	}
+
+	public File getFile(IFramebufferDevice device,long frameNumber) {
+		return new File( directory , device.getDeviceDescriptor().getName()+"-"+frameNumber+".png" );
+	}
+
+	@Override
+	public void frameRendered(IFramebufferDevice device, Framebuffer frame) 
+	{
+		if ( error != null || ( ! frameNumbers.isEmpty() && ! frameNumbers.contains( frame.getFrameNumber() ) ) ) {
+			return;
+		}
+		try {
+			frame.writePNG( getFile( device , frame.getFrameNumber() ) );
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Returns the error that occurred while writing a frame.
+	 * 
+	 * @return error or <code>null</code>
+	 */
+	public IOException getError() {
+		return error;
+	}
+}
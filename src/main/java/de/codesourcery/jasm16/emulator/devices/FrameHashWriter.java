@@ -0,0 +1,76 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the hash of each rendered frame as one line of text.
+ * 
+ * <p>Line format: <code>&lt;device name&gt; &lt;frame number&gt; &lt;hash as 16 hex digits&gt;</code>. 
+ * Comparing these lines against the output of a previous run is a cheap way to detect rendering 
+ * regressions without storing images.</p>
+ * 
+ * <p>If writing fails , the error is kept (see {@link #getError()}) and no further lines are written.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see Framebuffer#hash()
+ */
+public final class FrameHashWriter implements IFrameListener 
+{
+	private final Writer writer;
+
+	private volatile IOException error;
+
+	/**
+	 * 
+	 * @param writer writer to append lines to , never closed by this class
+	 */
+	public FrameHashWriter(Writer writer) 
+	{
+		if (writer == null) {
+			throw new IllegalArgumentException("writer must not be null");
+		}
+		this.writer = writer;
+	}
+
+	@Override
+	public void frameRendered(IFramebufferDevice device, Framebuffer frame) 
+	{
+		final String line = device.getDeviceDescriptor().getName()+" "+frame.getFrameNumber()+" "+String.format("%016x",frame.hash())+"\n";
+		synchronized( writer ) 
+		{
+			if ( error != null ) {
+				return;
+			}
+			try {
+				writer.write( line );
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * Returns the error that occurred while writing.
+	 * 
+	 * @return error or <code>null</code>
+	 */
+	public IOException getError() {
+		return error;
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A rendered frame of a display device , 32-bit ARGB pixels in row-major order.
+ * 
+ * <p>Display devices reuse their instance for every frame so listeners must not keep
+ * a reference beyond {@link IFrameListener#frameRendered(IFramebufferDevice, Framebuffer)} ,
+ * use {@link #createCopy()} instead.</p>
+ * 
+ * <p>This class does not require an AWT peer and works with <code>java.awt.headless=true</code>.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see IFramebufferDevice
+ */
+public final class Framebuffer 
+{
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final int width;
+	private final int height;
+	private final int[] pixels;
+
+	private long frameNumber;
+
+	public Framebuffer(int width,int height) 
+	{
+		if ( width <= 0 || height <= 0 ) {
+			throw new IllegalArgumentException("Invalid size "+width+"x"+height);
+		}
+		this.width = width;
+		this.height = height;
+		this.pixels = new int[ width * height ];
+	}
+
+	/**
+	 * Replaces this frame's contents.
+	 * 
+	 * @param rgbPixels pixels in row-major order , the alpha channel is ignored (all pixels become opaque)
+	 * @param frameNumber
+	 */
+	public void update(int[] rgbPixels,long frameNumber) 
+	{
+		if ( rgbPixels.length != pixels.length ) {
+			throw new IllegalArgumentException("Expected "+pixels.length+" pixels but got "+rgbPixels.length);
+		}
+		for ( int i = 0 ; i < pixels.length ; i++ ) {
+			pixels[i] = 0xff000000 | rgbPixels[i];
+		}
+		this.frameNumber = frameNumber;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the frame number , the first frame a display renders is frame 1.
+	 * 
+	 * @return
+	 */
+	public long getFrameNumber() {
+		return frameNumber;
+	}
+
+	/**
+	 * Returns the ARGB pixels , must not be modified.
+	 * 
+	 * @return
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	public int getPixel(int x,int y) {
+		return pixels[ y * width + x ];
+	}
+
+	/**
+	 * Returns a 64-bit FNV-1a hash of this frame's pixels.
+	 * 
+	 * @return
+	 */
+	public long hash() 
+	{
+		long result = FNV_OFFSET_BASIS;
+		for ( int pixel : pixels ) 
+		{
+			for ( int shift = 0 ; shift < 32 ; shift += 8 ) {
+				result = ( result ^ ( ( pixel >>> shift ) & 0xff ) ) * FNV_PRIME;
+			}
+		}
+		return result;
+	}
+
+	public Framebuffer createCopy() 
+	{
+		final Framebuffer result = new Framebuffer( width , height );
+		System.arraycopy( pixels , 0 , result.pixels , 0 , pixels.length );
+		result.frameNumber = frameNumber;
+		return result;
+	}
+
+	public BufferedImage toImage() 
+	{
+		final BufferedImage result = new BufferedImage( width , height , BufferedImage.TYPE_INT_ARGB );
+		result.setRGB( 0 , 0 , width , height , pixels , 0 , width );
+		return result;
+	}
+
+	/**
+	 * Writes this frame as a PNG image.
+	 * 
+	 * @param out stream to write to , not closed by this method
+	 * @throws IOException
+	 */
+	public void writePNG(OutputStream out) throws IOException 
+	{
+		if ( ! ImageIO.write( toImage() , "png" , out ) ) {
+			throw new IOException("No PNG writer available");
+		}
+	}
+
+	public void writePNG(File file) throws IOException 
+	{
+		if ( ! ImageIO.write( toImage() , "png" , file ) ) {
+			throw new IOException("No PNG writer available");
+		}
+	}
+}
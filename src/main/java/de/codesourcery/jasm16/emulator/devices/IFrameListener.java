@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices;
+
+/**
+ * Gets notified about frames rendered by a display device.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see IFramebufferDevice#addFrameListener(IFrameListener)
+ */
+public interface IFrameListener 
+{
+	/**
+	 * Invoked by the thread that rendered a frame.
+	 * 
+	 * <p>The frame is only valid during this method invocation , implementations should return quickly
+	 * since the display device does not render the next frame before this method returned.</p>
+	 * 
+	 * @param device
+	 * @param frame 
+	 */
+	public void frameRendered(IFramebufferDevice device,Framebuffer frame);
+}
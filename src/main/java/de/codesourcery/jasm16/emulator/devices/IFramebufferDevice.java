@@ -0,0 +1,42 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices;
+
+/**
+ * A display device that renders frames without requiring an AWT peer.
+ * 
+ * <p>Display devices only render frames while they are either attached to a UI component or
+ * have at least one frame listener.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public interface IFramebufferDevice extends IDevice 
+{
+	public void addFrameListener(IFrameListener listener);
+
+	public void removeFrameListener(IFrameListener listener);
+
+	/**
+	 * Returns the number of frames rendered so far.
+	 * 
+	 * @return
+	 */
+	public long getFrameCount();
+
+	public int getFrameWidth();
+
+	public int getFrameHeight();
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import de.codesourcery.jasm16.emulator.EmulatorSnapshot;
+import de.codesourcery.jasm16.emulator.IEmulator;
+
+/**
+ * A hardware device whose state can be stored in an {@link EmulatorSnapshot}.
+ *
+ * <p>Both methods are invoked while the emulator holds its CPU lock , so no
+ * instructions get executed and no scheduled events fire during the invocation.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see IEmulator#saveSnapshot()
+ * @see IEmulator#restoreSnapshot(EmulatorSnapshot)
+ */
+public interface IStatefulDevice extends IDevice
+{
+	/**
+	 * Writes this device's state.
+	 *
+	 * <p>The contents of memory regions mapped by this device are part of
+	 * the emulator's memory and do not need to be saved.</p>
+	 *
+	 * @param emulator emulator this device is attached to
+	 * @param out
+	 * @throws IOException
+	 * @see IEmulator#getCyclesUntilEvent(de.codesourcery.jasm16.emulator.IScheduledEvent)
+	 */
+	public void saveState(IEmulator emulator,DataOutput out) throws IOException;
+
+	/**
+	 * Restores this device's state.
+	 *
+	 * <p>All pending events have already been cancelled when this method is invoked and devices need
+	 * to re-schedule their events. The emulator's memory gets restored <b>after</b> all devices have been restored ,
+	 * so devices only need to re-map their memory regions.</p>
+	 *
+	 * @param emulator emulator this device is attached to
+	 * @param in state as written by {@link #saveState(IEmulator, DataOutput)}
+	 * @throws IOException
+	 */
+	public void restoreState(IEmulator emulator,DataInput in) throws IOException;
+}
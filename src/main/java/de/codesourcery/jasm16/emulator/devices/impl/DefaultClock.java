@@ -15,172 +15,114 @@
  */
 package de.codesourcery.jasm16.emulator.devices.impl;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
-import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Register;
-import de.codesourcery.jasm16.emulator.EmulationListener;
 import de.codesourcery.jasm16.emulator.ICPU;
-import de.codesourcery.jasm16.emulator.IEmulationListener;
 import de.codesourcery.jasm16.emulator.IEmulator;
 import de.codesourcery.jasm16.emulator.ILogger;
+import de.codesourcery.jasm16.emulator.IScheduledEvent;
 import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
-import de.codesourcery.jasm16.emulator.devices.HardwareInterrupt;
-import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.IStatefulDevice;
 import de.codesourcery.jasm16.emulator.memory.IMemory;
 import de.codesourcery.jasm16.utils.Misc;
 
-public class DefaultClock implements IDevice
+/**
+ * Generic clock.
+ * 
+ * <p>The clock ticks in emulated time (see {@link IEmulator#scheduleEvent(int, IScheduledEvent)}) , so
+ * tick rates are independent of the host's speed and the selected emulation speed.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class DefaultClock implements IStatefulDevice
 {
-    private static final int INITIAL_TICKS_PER_SECOND = (int) Math.round( 1000.0 / 60.0d);	
-	
     private static final DeviceDescriptor DESC = new DeviceDescriptor("Generic clock",
     		"Generic clock (compatible)" , 0x12d0b402,1, Constants.JASM16_MANUFACTURER );
 
     private volatile IEmulator emulator;
     
-    private final ClockThread clockThread = new ClockThread();
-    
     private volatile ILogger out;
     
-    private final AtomicBoolean emulationRunning = new AtomicBoolean(false);
+    // @GuardedBy( this )
+    private int tickIntervalInCycles = 0; // 0 = clock turned off
+    // @GuardedBy( this )
+    private int tickCounter = 0;
+    // @GuardedBy( this )
+    private boolean irqEnabled = false;
+    // @GuardedBy( this )
+    private int irqMessage = 0;
     
-    private final IEmulationListener myEmulationListener = new EmulationListener() {
-        
-        public boolean belongsToHardwareDevice() {
-            return true;
-        }
-        
-        protected void beforeContinuousExecutionHook() {
-            emulationRunning.set( true );
-        }
-        
-        public void onStopHook(IEmulator emulator, Address previousPC, Throwable emulationError) {
-            emulationRunning.set( false);
+    private final IScheduledEvent tickEvent = new IScheduledEvent() {
+
+        @Override
+        public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+        {
+            tick( emulator );
         }
-    };    
+    };
     
     @Override
     public void reset()
     {
         stopClock();
-        clockThread.sleepDelay = INITIAL_TICKS_PER_SECOND;
-        clockThread.irqEnabled = false;
-        clockThread.irqMessage = 0;
-        clockThread.tickCounter = 0;
+        synchronized( this ) {
+            irqEnabled = false;
+            irqMessage = 0;
+            tickCounter = 0;
+        }
     }
     
-    protected final class ClockThread extends Thread {
-
-        private volatile boolean isRunnable = false;
-        
-        private volatile int tickCounter = 0;
-        private volatile boolean terminate = false;
-        private volatile int sleepDelay=INITIAL_TICKS_PER_SECOND; // 60 HZ
-
-        private volatile boolean irqEnabled = false;
-        private volatile int irqMessage = 0;
-        
-        private final Object SLEEP_LOCK = new Object();
-
-        public ClockThread() 
-        {
-            setDaemon(true);
-            setName("hw-clock-thread");
-        }
-
-        @Override
-        public void run()
+    // never invoke the emulator while holding this device's lock , the emulation thread
+    // already holds the emulator's CPU lock while firing events / handling interrupts
+    private void tick(IEmulator emulator) 
+    {
+        final int interval;
+        final int message;
+        synchronized( this ) 
         {
-            out.debug("Clock thread started.");
-            while ( ! terminate ) 
-            {
-                while( ! isRunnable ) 
-                {
-                    if ( terminate ) {
-                        break;
-                    }            
-                    out.debug("Clock thread stopped.");                    
-                    synchronized (SLEEP_LOCK) 
-                    {
-                        try {
-                            SLEEP_LOCK.wait();
-                            if ( terminate ) {
-                                break;
-                            }                            
-                        } catch (InterruptedException e) { }
-                    }
-                }
-                
-                if ( emulationRunning.get() ) 
-                {
-                    tickCounter = ( tickCounter+1 ) % 0x10000;
-                    if ( irqEnabled && emulator != null ) {
-                        emulator.triggerInterrupt( new HardwareInterrupt( DefaultClock.this , irqMessage ) );
-                    }
-                }
-                try {
-                    Thread.sleep( sleepDelay );
-                } catch (InterruptedException e) {
-                }
+            interval = tickIntervalInCycles;
+            if ( interval == 0 ) {
+                return;
             }
-            out.debug("Default clock shutdown.");
+            tickCounter = ( tickCounter+1 ) & 0xffff;
+            message = irqEnabled ? irqMessage : -1;
         }
-        
-        public void terminate() {
-            terminate=true;
-            synchronized (SLEEP_LOCK) {
-                SLEEP_LOCK.notifyAll();
-            }
-            
-            while ( clockThread.isAlive() ) 
-            {
-                out.debug("Waiting for clock thread to terminate...");
-                try {
-                    Thread.sleep( 250 );
-                } catch (InterruptedException e) { }
-            }
+        if ( message != -1 ) {
+            emulator.triggerInterrupt( DefaultClock.this , message );
         }
-        
-        public void setTicksPerSecond(int ticksPerSecond) 
-        {
-            stopClock();
-            tickCounter = 0;
-            out.debug("Clock set to tick "+ticksPerSecond+" times per second");
-            sleepDelay = (int) Math.round( 1000.0 / ticksPerSecond ); 
-        }
-        
-        public void startClock() {
-            if ( ! isRunnable ) {
-                isRunnable = true;
-                synchronized (SLEEP_LOCK) 
-                {
-                    SLEEP_LOCK.notifyAll();
-                }
-            }
-        }
-        
-        public void stopClock() {
-            if ( isRunnable ) {
-                isRunnable = false;
-            }
-        }        
+        emulator.scheduleEvent( interval , tickEvent );
     }
 
-    protected synchronized void startClock() 
+    /**
+     * (Re-)starts the clock.
+     * 
+     * @param b the clock ticks 60/B times per second
+     */
+    protected void startClock(int b) 
     {
-        if ( ! clockThread.isAlive() ) {
-            clockThread.start();
-        } 
-        clockThread.startClock();
+        stopClock();
+        // max. 65535 * 100000 / 60 cycles , fits into an int
+        final int interval = Math.max( 1 , (int) ( (long) b * IEmulator.CYCLES_PER_SECOND / 60 ) );
+        synchronized( this ) {
+            tickCounter = 0;
+            tickIntervalInCycles = interval;
+        }
+        out.debug("Clock set to tick every "+interval+" cycles");
+        emulator.scheduleEvent( interval , tickEvent );
     }
     
-    protected synchronized void stopClock() 
+    protected void stopClock() 
     {
-        if ( ! clockThread.isAlive() ) {
-            return;
+        synchronized( this ) {
+            tickIntervalInCycles = 0;
+        }
+        final IEmulator emulator = this.emulator;
+        if ( emulator != null ) {
+            emulator.cancelEvent( tickEvent );
         }
-        clockThread.stopClock();
     }  
     
     @Override
@@ -190,15 +132,13 @@ public class DefaultClock implements IDevice
             throw new IllegalStateException("Clock "+this+" already associated with emulator "+emulator+" ?");
         }
         this.emulator = emulator;
-        this.emulator.addEmulationListener( myEmulationListener );
         this.out = emulator.getOutput();
     }
 
     @Override
     public void beforeRemoveDevice(IEmulator emulator)
     {
-        clockThread.terminate();
-        this.emulator.removeEmulationListener( myEmulationListener );
+        stopClock();
         this.emulator = null;
     }
 
@@ -237,30 +177,31 @@ public class DefaultClock implements IDevice
                 int b = cpu.getRegisterValue(Register.B) & 0xffff;
                 if ( b == 0 ) {
                     stopClock();
+                    synchronized( this ) {
+                        tickCounter = 0;
+                    }
                     return 0;
                 } 
-                if ( b < 0 ) {
-                    clockThread.setTicksPerSecond( 60 );                    
-                } else if ( b > 60 ) {
-                    clockThread.setTicksPerSecond( 1 );                    
-                } else {
-                    clockThread.setTicksPerSecond( (int) Math.round( 60.0 / b ) );
-                }
-                startClock();
+                startClock( b );
                 break;
             case 1:
                 // Store number of ticks elapsed since last call to 0 in C register
-                cpu.setRegisterValue( Register.C , clockThread.tickCounter & 0xffff );
+                synchronized( this ) {
+                    cpu.setRegisterValue( Register.C , tickCounter );
+                }
                 break;
             case 2: 
                 // If register B is non-zero, turn on interrupts with message B. If B is zero, disable interrupts.
                 b = cpu.getRegisterValue(Register.B) & 0xffff;
-                if ( b == 0 ) {
-                    clockThread.irqEnabled=false;
-                } else {
-                    clockThread.irqMessage = b;
-                    clockThread.irqEnabled = true;
-                    out.debug("Clock IRQs enabled with message "+Misc.toHexString( b ));
+                synchronized( this ) 
+                {
+                    if ( b == 0 ) {
+                        irqEnabled=false;
+                    } else {
+                        irqMessage = b;
+                        irqEnabled = true;
+                        out.debug("Clock IRQs enabled with message "+Misc.toHexString( b ));
+                    }
                 }
                 break;
             default:
@@ -269,6 +210,42 @@ public class DefaultClock implements IDevice
         return 0;
     }
     
+    @Override
+    public void saveState(IEmulator emulator, DataOutput out) throws IOException
+    {
+        final int interval;
+        final int counter;
+        final boolean enabled;
+        final int message;
+        synchronized( this ) {
+            interval = tickIntervalInCycles;
+            counter = tickCounter;
+            enabled = irqEnabled;
+            message = irqMessage;
+        }
+        out.writeInt( interval );
+        out.writeInt( interval != 0 ? emulator.getCyclesUntilEvent( tickEvent ) : -1 );
+        out.writeShort( counter );
+        out.writeBoolean( enabled );
+        out.writeShort( message );
+    }
+
+    @Override
+    public void restoreState(IEmulator emulator, DataInput in) throws IOException
+    {
+        final int interval = in.readInt();
+        final int cyclesUntilNextTick = in.readInt();
+        synchronized( this ) {
+            tickIntervalInCycles = interval;
+            tickCounter = in.readUnsignedShort();
+            irqEnabled = in.readBoolean();
+            irqMessage = in.readUnsignedShort();
+        }
+        if ( interval != 0 && cyclesUntilNextTick != -1 ) {
+            emulator.scheduleEvent( cyclesUntilNextTick , tickEvent );
+        }
+    }
+
     @Override
     public boolean supportsMultipleInstances() {
     	return false;
@@ -15,21 +15,17 @@
  */
 package de.codesourcery.jasm16.emulator.devices.impl;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.LockSupport;
 
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Register;
 import de.codesourcery.jasm16.emulator.ICPU;
 import de.codesourcery.jasm16.emulator.IEmulator;
-import de.codesourcery.jasm16.emulator.IEmulatorInvoker;
+import de.codesourcery.jasm16.emulator.IScheduledEvent;
 import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
-import de.codesourcery.jasm16.emulator.devices.HardwareInterrupt;
-import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.IStatefulDevice;
 import de.codesourcery.jasm16.emulator.exceptions.DeviceErrorException;
 import de.codesourcery.jasm16.emulator.memory.IMemory;
 import de.codesourcery.jasm16.utils.Misc;
@@ -43,10 +39,13 @@ import de.codesourcery.jasm16.utils.Misc;
  * for a total of 1440 sectors containing 512 words each.
  * The M35FD works is asynchronous, and has a raw read/write speed of 30.7kw/s.
  * Track seeking time is about 2.4 ms per track.</p>
+ * 
+ * <p>Seek and transfer times are emulated by completing read/write operations after the
+ * corresponding number of emulated CPU cycles (see {@link IEmulator#scheduleEvent(int, IScheduledEvent)}).</p>
  *
  * @author tobias.gierke@code-sourcery.de
  */
-public class DefaultFloppyDrive implements IDevice {
+public class DefaultFloppyDrive implements IStatefulDevice {
 
 	/**
 	 * Emulation read speed.
@@ -69,14 +68,6 @@ public class DefaultFloppyDrive implements IDevice {
 	private volatile boolean interruptsEnabled = false;
 	private volatile int interruptMessage = 0;
 
-	private final Object WORKER_THREAD_LOCK = new Object();
-
-	// @GuardedBy( WORKER_THREAD_LOCK )
-	private WorkerThread workerThread;
-
-	// @GuardedBy( WORKER_THREAD_LOCK )
-	private TimerThread timerThread;	
-
 	private final Object DISK_LOCK = new Object();
 
 	// @GuardedBy( DISK_LOCK )
@@ -88,126 +79,78 @@ public class DefaultFloppyDrive implements IDevice {
 	// @GuardedBy( DISK_LOCK )	
 	private ErrorCode error = ErrorCode.NONE;
 
-	private volatile IEmulator emulator;
-
-	private volatile boolean runAtMaxSpeed = false;
-
-	private final AtomicInteger sectorsLeftThisSecond = new AtomicInteger(SECTORS_PER_SECOND);
-
-	protected static enum CommandType {
-		TERMINATE,
-		READ,
-		WRITE, DISK_CHANGED;
-	}
-
-	protected static abstract class DriveCommand {
-
-		private final CommandType type;
-
-		protected DriveCommand(CommandType type) {
-			this.type = type;
-		}
-
-		public final CommandType getType() { return type; }
-		public final boolean hasType(CommandType t) { return t.equals( type ); }
-	}
-
-	protected static final class ReadCommand extends DriveCommand {
-
-		private final int sector;
-		private final Address targetMemoryAddress;
-
-		protected ReadCommand(int sector,Address targetMemoryAddress) {
-			super(CommandType.READ);
-			this.sector=sector;
-			this.targetMemoryAddress = targetMemoryAddress;
-		}
+	// @GuardedBy( DISK_LOCK )
+	private int currentHeadPosition = 0; // sector the disk's read/write head is currently at
 
-		public int getSector() {
-			return sector;
-		}
+	// @GuardedBy( DISK_LOCK )
+	private DiskOperation pendingOperation;
 
-		public Address getTargetMemoryAddress() {
-			return targetMemoryAddress;
-		}
+	private volatile IEmulator emulator;
 
-		@Override
-		public String toString() {
-			return "READ_SECTOR[ sector = "+sector+" , target memory = "+Misc.toHexString( targetMemoryAddress );
-		}
-	}
+	private volatile boolean runAtMaxSpeed = false;
 
-	protected static final class WriteCommand extends DriveCommand {
+	/**
+	 * A read/write operation that completes when the
+	 * (emulated) seek and transfer time has elapsed.
+	 */
+	protected final class DiskOperation implements IScheduledEvent {
 
+		private final boolean isWrite;
 		private final int sector;
-		private final Address sourceMemoryAddress;
+		private final Address memoryAddress;
 
-		protected WriteCommand(int sector,Address sourceMemoryAddress) {
-			super(CommandType.WRITE);
+		protected DiskOperation(boolean isWrite,int sector,Address memoryAddress) {
+			this.isWrite = isWrite;
 			this.sector=sector;
-			this.sourceMemoryAddress = sourceMemoryAddress;
-		}		
-
-		public int getSector() {
-			return sector;
-		}
-
-		public Address getSourceMemoryAddress() {
-			return sourceMemoryAddress;
+			this.memoryAddress = memoryAddress;
 		}
 
 		@Override
-		public String toString() {
-			return "WRITE_SECTOR[ sector = "+sector+" , target memory = "+Misc.toHexString( sourceMemoryAddress );
-		}		
-	}	
-
-	protected static final class TerminateCommand extends DriveCommand 
-	{
-		protected TerminateCommand() {
-			super(CommandType.TERMINATE);
-		}
-
-		@Override
-		public String toString() {
-			return "TERMINATE";
-		}			
-	}		
-
-	protected static final class DiskChangedCommand extends DriveCommand 
-	{
-		protected DiskChangedCommand() {
-			super(CommandType.DISK_CHANGED);
-		}
-
-		@Override
-		public String toString() {
-			return "DISK_CHANGED";
-		}			
-	}		
-
-	protected final class TimerThread extends Thread {
-
-		private volatile boolean terminate = false;
-		public TimerThread() {
-			setDaemon( true );
-			setName("floppy-timer-thread");
+		public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+		{
+			ErrorCode newErrorCode;
+			try {
+				newErrorCode = execute( memory );
+			} 
+			catch(IOException e) 
+			{
+				logError("Command "+this+" failed",e);
+				newErrorCode = ErrorCode.BAD_SECTOR;
+			} 					
+			catch(Exception e) 
+			{
+				logError("Command "+this+" failed",e);
+				newErrorCode = ErrorCode.BROKEN;
+			} 
+			setIdleStatus( newErrorCode );
 		}
 
-		@Override
-		public void run() {
-			while ( ! terminate ) {
-				sectorsLeftThisSecond.set( SECTORS_PER_SECOND );
-				try {
-					Thread.sleep( 1000 );
-				} catch(InterruptedException e) {
-					// can't help it
+		private ErrorCode execute(IMemory memory) throws IOException 
+		{
+			logDebug("Executing command "+this);
+			synchronized( DISK_LOCK ) 
+			{
+				pendingOperation = null;
+				if ( disk == null ) {
+					return ErrorCode.EJECT;
 				}
+				currentHeadPosition = sector;
+				if ( isWrite ) 
+				{
+					if ( disk.isWriteProtected() ) {
+						return ErrorCode.PROTECTED;
+					}
+					disk.writeSector( sector , memory , memoryAddress );
+				} else {
+					disk.readSector( sector , memory , memoryAddress );
+				}
+				return ErrorCode.NONE;
 			}
 		}
 
-		public void terminate() {
-			this.terminate = true;
+		@Override
+		public String toString() {
+			return ( isWrite ? "WRITE_SECTOR" : "READ_SECTOR" )+"[ sector = "+sector+" , memory = "+Misc.toHexString( memoryAddress )+" ]";
 		}
 	}
 
@@ -215,27 +158,6 @@ public class DefaultFloppyDrive implements IDevice {
 		this.runAtMaxSpeed = runAtMaxSpeed;
 	}
 
-	protected WorkerThread getWorkerThread() 
-	{
-		WorkerThread result = null;
-		boolean workerStarted = false;
-		synchronized(WORKER_THREAD_LOCK) 
-		{
-			if ( workerThread == null || ! workerThread.isAlive() ) 
-			{
-				WorkerThread tmp = new WorkerThread();
-				tmp.start();
-				workerThread = tmp;
-				workerStarted = true;
-			}
-			result = workerThread;
-		}
-		if ( workerStarted ) {
-			logDebug("Worker thread started.");
-		}
-		return result;
-	}
-
 	public FloppyDisk getDisk() {
 		synchronized(DISK_LOCK ) {
 			return disk;
@@ -251,34 +173,40 @@ public class DefaultFloppyDrive implements IDevice {
 		if ( disk == null ) {
 			throw new IllegalArgumentException("disk must not be null");
 		}
+		final FloppyDisk previousDisk;
 		synchronized(DISK_LOCK ) {
+			previousDisk = this.disk;
 			this.disk = disk;
+			currentHeadPosition = 0;
 		}
-		logDebug( "Disk inserted: "+disk);
-		if ( emulator != null ) {
-			getWorkerThread().diskChanged();
+		if ( previousDisk != null && previousDisk != disk ) {
+			flush( previousDisk );
 		}
+		logDebug( "Disk inserted: "+disk);
+		setIdleStatus( null );
 	}
 
 	public void eject() 
 	{
-		boolean diskChanged = false;
+		final FloppyDisk ejected;
 		synchronized(DISK_LOCK ) 
 		{
+			ejected = disk;
 			if ( disk != null ) {
 				disk = null;
-				diskChanged = true;
+				currentHeadPosition = 0;
 			}
 		}
-		if ( diskChanged ) 
+		if ( ejected != null ) 
 		{
+			flush( ejected );
 			logDebug("Disk ejected");
-			if ( emulator != null ) {
-				getWorkerThread().diskChanged();
-			}
+			setIdleStatus( null );
 		}
 	}
 
+	// never invoke the emulator while holding DISK_LOCK , the emulation thread
+	// already holds the emulator's CPU lock while firing events / handling interrupts
 	private void updateStatus(StatusCode status,ErrorCode errorCode) 
 	{
 		boolean statusChanged;
@@ -295,309 +223,81 @@ public class DefaultFloppyDrive implements IDevice {
 		if ( statusChanged ) 
 		{
 			logDebug("New status: "+status+" / error: "+errorCode);
-			if ( interruptsEnabled ) {
-				emulator.triggerInterrupt( new HardwareInterrupt( this , interruptMessage ) );
+			final IEmulator emulator = this.emulator;
+			if ( interruptsEnabled && emulator != null ) {
+				emulator.triggerInterrupt( this , interruptMessage );
 			}
 		}
 	}	
 
-	protected void stopWorkerThread() 
+	private void setIdleStatus(ErrorCode errorCode) 
 	{
-		logDebug("Stopping worker thread");
-
-		synchronized(WORKER_THREAD_LOCK) 
+		final StatusCode newStatus;
+		synchronized( DISK_LOCK ) 
 		{
-			if ( workerThread != null && workerThread.isAlive() ) 
-			{
-				try {
-					workerThread.terminate();
-				} finally {
-					workerThread = null;
-				}
+			if ( pendingOperation != null ) {
+				newStatus = StatusCode.BUSY;
+			} else if ( disk == null ) {
+				newStatus = StatusCode.NO_MEDIA;
+			} else {
+				newStatus = disk.isWriteProtected() ? StatusCode.READY_WP : StatusCode.READY;
 			}
 		}
+		updateStatus( newStatus , errorCode );
 	}
 
-	protected final class WorkerThread extends Thread {
-
-		private final Object SLEEP_LOCK = new Object();
-
-		private final BlockingQueue<DriveCommand> commandQueue = new ArrayBlockingQueue<DriveCommand>(1);
-		private final CountDownLatch terminated = new CountDownLatch(1);
-
-		// @GuardedBy( DISK_LOCK )
-		private int currentHeadPosition = 0; // sector the disk's read/write head is currently at
-
-		public WorkerThread() {
-			setDaemon(true);
-			setName("floppy-disk-worker-thread");
-		}
-
-		public void diskChanged() 
-		{
-			sendCommand( new DiskChangedCommand() , true );
-		}
-
-		private DriveCommand takeCommand() 
-		{
-			while(true) {
-				try {
-					return commandQueue.take();
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-				}
-			}
-		}
-
-		@Override
-		public void run() 
-		{
-			logDebug("Worker thread is running.");
-			try 
-			{
-				while ( true ) 
-				{
-					DriveCommand command = null;
-					while( true ) 
-					{
-						command = commandQueue.peek();
-						if ( command != null && ! command.hasType(CommandType.DISK_CHANGED ) ) 
-						{
-							logDebug("Worker thread received command "+command);
-							break;
-						}
-
-						if ( command != null ) { // disk changed , reset head position
-							logDebug("Disk changed, reset head position.");
-							takeCommand();
-							currentHeadPosition = 0;
-						}
-
-						setIdleStatus(null);
-
-						while(true) 
-						{
-							try {
-								synchronized(SLEEP_LOCK) {
-									SLEEP_LOCK.wait(1000); // sleep for 1 second
-								}
-								break;
-							} catch(InterruptedException e) {
-								Thread.currentThread().interrupt();
-							}
-						}						
-					}
-
-					if ( command.hasType( CommandType.TERMINATE ) ) 
-					{
-						takeCommand();
-						break;
-					}
-
-					ErrorCode newErrorCode=ErrorCode.NONE;
-					try 
-					{
-						updateStatus(StatusCode.BUSY,ErrorCode.NONE);
-						newErrorCode = processCommand( command );
-					} 
-					catch(IOException e) 
-					{
-						logError("Command "+command+" failed",e);
-						newErrorCode = ErrorCode.BAD_SECTOR;
-					} 					
-					catch(Exception e) 
-					{
-						logError("Command "+command+" failed",e);
-						newErrorCode = ErrorCode.BROKEN;
-					} 
-					finally 
-					{
-						takeCommand();
-						setIdleStatus(newErrorCode);
-					}
-				}
-			} 
-			finally {
-				try {
-					logDebug("Disk worker thread terminated.");
-				} finally {
-					terminated.countDown();
-				}
-			}
-		}
-
-		private void setIdleStatus(ErrorCode errorCode) 
-		{
-			synchronized( DISK_LOCK ) 
-			{
-				if ( disk == null ) {
-					updateStatus(StatusCode.NO_MEDIA,errorCode);
-				} else {
-					updateStatus( disk.isWriteProtected() ? StatusCode.READY_WP : StatusCode.READY , errorCode );
-				}
-			}
-		}
-
-		private ErrorCode processCommand(DriveCommand cmd) throws IOException 
-		{
-			logDebug("Executing command "+cmd);
-
-			switch( cmd.getType() ) 
-			{
-				case READ: /* READ */
-					final ReadCommand readCmd = (ReadCommand) cmd;
-					moveHead( readCmd.getSector() ); // moveHead() calls Object#sleep() , do NOT use in synchronized block
-
-					synchronized( DISK_LOCK ) 
-					{
-						if ( disk != null ) 
-						{
-							enforceSpeed();
-
-							final IOException outcome = emulator.doWithEmulator( new IEmulatorInvoker<IOException>() {
-
-								@Override
-								public IOException doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory)
-								{
-									try {
-										disk.readSector( readCmd.getSector() , memory , readCmd.getTargetMemoryAddress() );
-									} catch (IOException e) {
-										return e;
-									}                                
-									return null;
-								}
-							});
-							if ( outcome != null ) {
-								throw outcome;
-							}
-							return ErrorCode.NONE;
-						}
-					}
-					return ErrorCode.NO_MEDIA;
-
-				case WRITE: /* WRITE */
-					final WriteCommand writeCmd = (WriteCommand) cmd;
-					moveHead( writeCmd.getSector() ); // moveHead() calls Object#sleep() , do NOT use in synchronized block
-					boolean writeProtected=false;
-					synchronized( DISK_LOCK ) 
-					{
-						if ( disk != null ) 
-						{
-							if ( ! disk.isWriteProtected() ) 
-							{
-								enforceSpeed();
-
-								final IOException outcome = emulator.doWithEmulator( new IEmulatorInvoker<IOException>() {
-
-									@Override
-									public IOException doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory)
-									{
-										try {
-											disk.writeSector( writeCmd.getSector() , memory , writeCmd.getSourceMemoryAddress() );
-										} catch (IOException e) {
-											return e;
-										}	                                
-										return null;
-									}
-								});
-								if ( outcome != null ) {
-									throw outcome;
-								}
-								return ErrorCode.NONE;
-							} 
-							writeProtected = true;
-						}
-					}
-					return writeProtected ? ErrorCode.PROTECTED : ErrorCode.NO_MEDIA;
-
-				default:
-					throw new RuntimeException("Internal error,unhandled command type "+cmd);
-			}
-		}
-
-		private void enforceSpeed() 
+	/**
+	 * Starts a read/write operation.
+	 * 
+	 * @param isWrite
+	 * @param sector
+	 * @param memoryAddress
+	 * @return <code>true</code> if the operation has been started
+	 */
+	private boolean startOperation(boolean isWrite,int sector,Address memoryAddress) 
+	{
+		final DiskOperation op;
+		final int delayInCycles;
+		ErrorCode errorCode = null;
+		synchronized( DISK_LOCK ) 
 		{
-			if ( runAtMaxSpeed ) {
-				return;
+			if ( pendingOperation != null ) {
+				errorCode = ErrorCode.BUSY;
+			} else if ( disk == null ) {
+				errorCode = ErrorCode.NO_MEDIA;
+			} else if ( isWrite && disk.isWriteProtected() ) {
+				errorCode = ErrorCode.PROTECTED;
 			}
 
-			while( sectorsLeftThisSecond.get() <= 0 ) {
-				try {
-					Thread.sleep(10);
-				} catch(Exception e) {
-				}
-			}
-			sectorsLeftThisSecond.decrementAndGet();			
-		}		
-
-		private void moveHead(int sector) 
-		{
-
-			synchronized( DISK_LOCK ) 
-			{
-				if ( currentHeadPosition != sector ) 
-				{
-					final int delta = Math.abs( currentHeadPosition - sector );
-					if ( ! runAtMaxSpeed ) {
-						// 1 ns = 10^-9 seconds
-						// 1 ms = 10^-3 seconds
-						LockSupport.parkNanos( (long) SEEK_TIME_IN_MS_PER_TRACK * delta * 1000000 ); // 2.8ms per track
-					}
-					currentHeadPosition = sector; 
-				}
+			if ( errorCode != null ) {
+				op = null;
+				delayInCycles = 0;
+			} else {
+				op = new DiskOperation( isWrite , sector , memoryAddress );
+				delayInCycles = calculateDelayInCycles( sector );
+				pendingOperation = op;
 			}
 		}
 
-		public boolean readSector(int sector,Address targetMemoryAddress) 
+		if ( op == null ) 
 		{
-			return sendCommand( new ReadCommand(sector,targetMemoryAddress ) , false );
+			setIdleStatus( errorCode );
+			return false;
 		}
+		updateStatus( StatusCode.BUSY , ErrorCode.NONE );
+		emulator.scheduleEvent( delayInCycles , op );
+		return true;
+	}
 
-		public boolean writeSector(int sector,Address targetMemoryAddress) {
-			return sendCommand( new WriteCommand(sector,targetMemoryAddress ) , false );
-		}		
-
-		private boolean sendCommand(DriveCommand cmd,boolean wait) 
-		{
-			boolean result;
-			while( true ) {
-				try {
-					if ( wait ) {
-						commandQueue.put( cmd );
-						result = true;
-					}  else {
-						result = commandQueue.offer( cmd );
-					}
-					break;
-				} 
-				catch (InterruptedException e1) {
-					Thread.currentThread().interrupt();
-				}
-			}
-
-			if ( result ) 
-			{
-				synchronized (SLEEP_LOCK) {
-					SLEEP_LOCK.notifyAll();
-				}
-			}
-			return result;
-		}
-
-		public void terminate()  
-		{
-			sendCommand( new TerminateCommand() , true );
-
-			while ( true ) 
-			{
-				try {
-					terminated.await();
-					break;
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-				}
-			}
+	// @GuardedBy( DISK_LOCK )
+	private int calculateDelayInCycles(int sector) 
+	{
+		if ( runAtMaxSpeed ) {
+			return 0;
 		}
+		final int trackDelta = Math.abs( currentHeadPosition / FloppyDisk.SECTORS_PER_TRACK - sector / FloppyDisk.SECTORS_PER_TRACK );
+		final int seekCycles = Math.round( trackDelta * SEEK_TIME_IN_MS_PER_TRACK * IEmulator.CYCLES_PER_SECOND / 1000.0f );
+		return seekCycles + IEmulator.CYCLES_PER_SECOND / SECTORS_PER_SECOND;
 	}
 
 	/**
@@ -664,12 +364,6 @@ public class DefaultFloppyDrive implements IDevice {
 	@Override
 	public void afterAddDevice(IEmulator emulator) 
 	{
-		synchronized( WORKER_THREAD_LOCK ) {
-			if ( timerThread == null || ! timerThread.isAlive() ) {
-				timerThread = new TimerThread();
-				timerThread.start();
-			}
-		}
 		this.emulator = emulator;
 	}
 
@@ -677,28 +371,47 @@ public class DefaultFloppyDrive implements IDevice {
 	public void beforeRemoveDevice(IEmulator emulator) 
 	{
 		try {
-			stopWorkerThread();
-		} 
-		finally 
-		{
-			try {
-				synchronized( WORKER_THREAD_LOCK ) {
-					timerThread.terminate();
-					timerThread = null;
-				}
-			} finally {
-				this.emulator = null;
+			cancelPendingOperation();
+			final FloppyDisk current = getDisk();
+			if ( current != null ) {
+				flush( current );
 			}
+		} finally {
+			this.emulator = null;
 		}
 	}	
 
+	private void flush(FloppyDisk disk) 
+	{
+		try {
+			disk.flush();
+		} catch (IOException e) {
+			logError("Failed to write back disk "+disk,e);
+		}
+	}
+
+	private void cancelPendingOperation() 
+	{
+		final DiskOperation op;
+		synchronized( DISK_LOCK ) {
+			op = pendingOperation;
+			pendingOperation = null;
+		}
+		final IEmulator emulator = this.emulator;
+		if ( op != null && emulator != null ) {
+			emulator.cancelEvent( op );
+		}
+	}
+
 	@Override
 	public void reset() {
 		interruptsEnabled = false;
 		interruptMessage = 0;
+		cancelPendingOperation();
 		synchronized( DISK_LOCK ) 
 		{
 			error = ErrorCode.NONE;
+			currentHeadPosition = 0;
 			if ( disk == null ) {
 				status = StatusCode.NO_MEDIA;
 			} else if ( disk.isWriteProtected() ) {
@@ -709,6 +422,65 @@ public class DefaultFloppyDrive implements IDevice {
 		}
 	}
 
+	/**
+	 * Saves the drive's state.
+	 * 
+	 * <p>The inserted disk is not part of the state , restoring the state
+	 * keeps whatever disk is currently inserted.</p>
+	 */
+	@Override
+	public void saveState(IEmulator emulator, DataOutput out) throws IOException
+	{
+		final DiskOperation op;
+		synchronized( DISK_LOCK ) 
+		{
+			out.writeBoolean( interruptsEnabled );
+			out.writeShort( interruptMessage );
+			out.writeByte( status.ordinal() );
+			out.writeByte( error.ordinal() );
+			out.writeShort( currentHeadPosition );
+			op = pendingOperation;
+		}
+		out.writeBoolean( op != null );
+		if ( op != null ) 
+		{
+			out.writeBoolean( op.isWrite );
+			out.writeShort( op.sector );
+			out.writeShort( op.memoryAddress.getWordAddressValue() );
+			out.writeInt( emulator.getCyclesUntilEvent( op ) );
+		}
+	}
+	
+	@Override
+	public void restoreState(IEmulator emulator, DataInput in) throws IOException
+	{
+		final DiskOperation op;
+		final int delayInCycles;
+		synchronized( DISK_LOCK ) 
+		{
+			interruptsEnabled = in.readBoolean();
+			interruptMessage = in.readUnsignedShort();
+			status = StatusCode.values()[ in.readUnsignedByte() ];
+			error = ErrorCode.values()[ in.readUnsignedByte() ];
+			currentHeadPosition = in.readUnsignedShort();
+			if ( in.readBoolean() ) 
+			{
+				final boolean isWrite = in.readBoolean();
+				final int sector = in.readUnsignedShort();
+				final Address memoryAddress = Address.wordAddress( in.readUnsignedShort() );
+				op = new DiskOperation( isWrite , sector , memoryAddress );
+				delayInCycles = Math.max( 0 , in.readInt() );
+			} else {
+				op = null;
+				delayInCycles = 0;
+			}
+			pendingOperation = op;
+		}
+		if ( op != null ) {
+			emulator.scheduleEvent( delayInCycles , op );
+		}
+	}
+	
 	@Override
 	public boolean supportsMultipleInstances() {
 		return false;
@@ -747,9 +519,9 @@ public class DefaultFloppyDrive implements IDevice {
 				 * since the last device poll. 
 				 */
 				logDebug("Device status polled");
-				cpu.setRegisterValue(Register.B , status.getCode() );
-				cpu.setRegisterValue(Register.C , error.getCode() );
 				synchronized(DISK_LOCK) {
+					cpu.setRegisterValue(Register.B , status.getCode() );
+					cpu.setRegisterValue(Register.C , error.getCode() );
 					error = ErrorCode.NONE;
 				}
 				break;
@@ -788,7 +560,7 @@ public class DefaultFloppyDrive implements IDevice {
 					throw new DeviceErrorException("Invalid sector number "+readSector,DefaultFloppyDrive.this);
 				}
 
-				if (  getWorkerThread().readSector( readSector , targetAddress ) )
+				if ( startOperation( false , readSector , targetAddress ) )
 				{
 					cpu.setRegisterValue(Register.B , 1 );
 				} else {
@@ -813,7 +585,7 @@ public class DefaultFloppyDrive implements IDevice {
 					throw new DeviceErrorException("Invalid sector number "+writeSector,DefaultFloppyDrive.this);
 				}
 
-				if ( getWorkerThread().writeSector( writeSector , sourceAddress ) )
+				if ( startOperation( true , writeSector , sourceAddress ) )
 				{
 					cpu.setRegisterValue(Register.B , 1 );
 				} else {
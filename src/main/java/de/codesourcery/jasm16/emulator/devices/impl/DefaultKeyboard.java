@@ -18,6 +18,9 @@ package de.codesourcery.jasm16.emulator.devices.impl;
 import java.awt.Component;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -34,8 +37,7 @@ import de.codesourcery.jasm16.emulator.IEmulationListener;
 import de.codesourcery.jasm16.emulator.IEmulator;
 import de.codesourcery.jasm16.emulator.IEmulatorInvoker;
 import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
-import de.codesourcery.jasm16.emulator.devices.HardwareInterrupt;
-import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.IStatefulDevice;
 import de.codesourcery.jasm16.emulator.memory.IMemory;
 import de.codesourcery.jasm16.emulator.memory.MemoryRegion;
 import de.codesourcery.jasm16.utils.Misc;
@@ -45,7 +47,7 @@ import de.codesourcery.jasm16.utils.Misc;
  * 
  * @author tobias.gierke@code-sourcery.de
  */
-public class DefaultKeyboard implements IDevice {
+public class DefaultKeyboard implements IStatefulDevice {
 
 	private static final Logger LOG = Logger.getLogger(DefaultKeyboard.class);
 	
@@ -285,7 +287,7 @@ public class DefaultKeyboard implements IDevice {
 		{
 			if ( interruptMessage != null && emulationRunning.get() ) 
 			{
-				emulator.triggerInterrupt( new HardwareInterrupt( DefaultKeyboard.this , interruptMessage ) );
+				emulator.triggerInterrupt( DefaultKeyboard.this , interruptMessage );
 			}			
 		}
 	};
@@ -387,6 +389,38 @@ public class DefaultKeyboard implements IDevice {
 		}
 	}
 	
+	@Override
+	public void saveState(IEmulator emulator, DataOutput out) throws IOException
+	{
+		final Integer msg = interruptMessage;
+		out.writeShort( msg != null ? msg.intValue() : 0 );
+		out.writeBoolean( receivedAtLeastOneInterrupt );
+		synchronized (BUFFER_LOCK) 
+		{
+			out.writeShort( keysTyped.size() );
+			for ( Integer keyCode : keysTyped ) {
+				out.writeShort( keyCode.intValue() );
+			}
+		}
+	}
+
+	@Override
+	public void restoreState(IEmulator emulator, DataInput in) throws IOException
+	{
+		final int msg = in.readUnsignedShort();
+		interruptMessage = msg != 0 ? msg : null;
+		receivedAtLeastOneInterrupt = in.readBoolean();
+		synchronized (BUFFER_LOCK) 
+		{
+			keysPressed.clear();
+			keysTyped.clear();
+			final int count = in.readUnsignedShort();
+			for ( int i = 0 ; i < count ; i++ ) {
+				keysTyped.add( in.readUnsignedShort() );
+			}
+		}
+	}
+	
     @Override
     public boolean supportsMultipleInstances() {
     	return false;
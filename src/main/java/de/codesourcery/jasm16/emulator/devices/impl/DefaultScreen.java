@@ -21,12 +21,15 @@ import java.awt.Component;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.CountDownLatch;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
-import java.util.concurrent.locks.LockSupport;
 
 import javax.imageio.ImageIO;
 
@@ -44,19 +47,47 @@ import de.codesourcery.jasm16.compiler.io.IResource.ResourceType;
 import de.codesourcery.jasm16.emulator.ICPU;
 import de.codesourcery.jasm16.emulator.IEmulator;
 import de.codesourcery.jasm16.emulator.ILogger;
+import de.codesourcery.jasm16.emulator.IScheduledEvent;
 import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
-import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.Framebuffer;
+import de.codesourcery.jasm16.emulator.devices.IFrameListener;
+import de.codesourcery.jasm16.emulator.devices.IFramebufferDevice;
+import de.codesourcery.jasm16.emulator.devices.IStatefulDevice;
 import de.codesourcery.jasm16.emulator.exceptions.DeviceErrorException;
 import de.codesourcery.jasm16.emulator.memory.IMemory;
 import de.codesourcery.jasm16.emulator.memory.MemoryRegion;
 import de.codesourcery.jasm16.utils.Misc;
 
-public final class DefaultScreen implements IDevice {
+/**
+ * LEM1802 display.
+ * 
+ * <p>The screen refreshes in emulated time , every {@link #CYCLES_PER_FRAME} cycles a snapshot of video , font 
+ * and palette RAM gets taken on the emulation thread. The snapshot is rendered by a separate thread so a slow host only 
+ * leads to skipped frames but never to torn ones. If frame listeners are registered , frames are rendered right
+ * away on the emulation thread instead so that listeners see every emulated frame.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class DefaultScreen implements IStatefulDevice, IFramebufferDevice {
 
     private static final Logger LOG = Logger.getLogger(DefaultScreen.class);
 
     private static final boolean ENABLE_SCREEN_REDRAW = true;
     
+    /**
+     * Emulated cycles per frame , the screen refreshes 30 times per (emulated) second.
+     */
+    public static final int CYCLES_PER_FRAME = IEmulator.CYCLES_PER_SECOND / 30;
+
+    /**
+     * Number of frames after which blinking characters toggle.
+     */
+    public static final int FRAMES_PER_BLINK = 30;
+
+    // time after which the render thread picks up memory changes on its own while
+    // the emulation is stopped (or too slow to reach the next frame boundary)
+    private static final long IDLE_REFRESH_MILLIS = 250;
+
     public static final int STANDARD_SCREEN_ROWS = 12;
     public static final int STANDARD_SCREEN_COLUMNS = 32;
 
@@ -110,11 +141,23 @@ public final class DefaultScreen implements IDevice {
 
     private final Object PEER_LOCK = new Object();
 
-    // @GuardedBy( PEER_LOCK )
-    private Component peer;
+    // lock order is PEER_LOCK -> FRAME_LOCK , the emulation thread never acquires PEER_LOCK while taking a snapshot
+    private final Object FRAME_LOCK = new Object();
+
+    // written while holding PEER_LOCK
+    private volatile Component peer;
 
     private final ConsoleScreen consoleScreen;
 
+    private final List<IFrameListener> frameListeners = new CopyOnWriteArrayList<IFrameListener>();
+
+    // @GuardedBy( PEER_LOCK )
+    private final Framebuffer framebuffer;
+
+    private volatile long frameCount;
+
+    private volatile long skippedFrameCount;
+
     private volatile IEmulator emulator = null;
 
     // default background color
@@ -129,20 +172,88 @@ public final class DefaultScreen implements IDevice {
     // Video RAM
     private volatile VideoRAM videoRAM = null;
 
-    private volatile RefreshThread refreshThread = null;
+    private final Object RENDER_THREAD_LOCK = new Object();
+
+    // only running while a UI component is attached , the emulation thread renders frames for frame listeners itself
+    // @GuardedBy( RENDER_THREAD_LOCK )
+    private RenderThread renderThread = null;
+
+    // whether the whole screen needs to be rendered , set while the screen shows the 'disconnected' message
+    // @GuardedBy( PEER_LOCK )
+    private boolean redrawAll = true;
+
+    // cells with the blink bit set , one bit per video RAM word
+    // @GuardedBy( PEER_LOCK )
+    private final long[] blinkingCells;
+    // @GuardedBy( PEER_LOCK )
+    private int blinkingCellCount;
+
+    // @GuardedBy( PEER_LOCK )
+    private boolean lastBlinkState = true;
+
+    // @GuardedBy( FRAME_LOCK )
+    private long emulatedFrameCount;
+    // @GuardedBy( FRAME_LOCK )
+    private boolean blinkState = true;
+
+    // snapshot being written by the emulation thread
+    // @GuardedBy( FRAME_LOCK )
+    private FrameSnapshot pendingFrame;
+    // @GuardedBy( FRAME_LOCK )
+    private boolean hasPendingFrame;
+
+    // snapshot being rendered , only swapped while holding PEER_LOCK
+    // @GuardedBy( FRAME_LOCK )
+    private FrameSnapshot renderedFrame;
+
+    private final IScheduledEvent frameEvent = new IScheduledEvent() {
+
+        @Override
+        public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+        {
+            frameBoundaryReached( emulator );
+        }
+    };
+
+    /**
+     * Contents of video , font and palette RAM at a frame boundary.
+     * 
+     * <p>Change flags accumulate until the snapshot got rendered so 
+     * skipping frames never loses any updates.</p>
+     */
+    private final class FrameSnapshot 
+    {
+        public boolean connected;
+        public boolean blinkState;
+
+        public final int[] cells = new int[ VIDEO_RAM_SIZE_IN_WORDS ];
+        public final long[] changedCells = new long[ DirtyBits.wordCount( VIDEO_RAM_SIZE_IN_WORDS ) ];
+
+        public final int[] glyphs = new int[ FontRAM.GLYPH_COUNT ];
+        public final long[] changedGlyphs = new long[ DirtyBits.wordCount( FontRAM.GLYPH_COUNT ) ];
+
+        public final Color[] palette = new Color[ PALETTE_COLORS ];
+        public boolean paletteChanged;
 
-    private volatile boolean blinkingCharactersOnScreen = false;
-    private volatile boolean lastBlinkState;
-    private volatile boolean blinkState;
+        public void clearChanges() 
+        {
+            for ( int i = 0 ; i < changedCells.length ; i++ ) {
+                changedCells[i] = 0;
+            }
+            for ( int i = 0 ; i < changedGlyphs.length ; i++ ) {
+                changedGlyphs[i] = 0;
+            }
+            paletteChanged = false;
+        }
+    }
 
-    private final class RefreshThread extends Thread {
+    private final class RenderThread extends Thread {
 
         private volatile boolean terminate = false;
-        private final CountDownLatch latch = new CountDownLatch(1);
 
-        private int fpsCounter;
-        private int lastFps;
-        private long lastTimestamp=System.currentTimeMillis();
+        public RenderThread() {
+            super("LEM1802-renderer");
+        }
 
         @Override
         public void run() 
@@ -150,40 +261,37 @@ public final class DefaultScreen implements IDevice {
             try {
                 while(!terminate) 
                 {
-                    LockSupport.parkNanos( (1000 / 30) * 1000000 );
-
-                    if ( ENABLE_SCREEN_REDRAW ) {
-                    	renderScreen();
-                    }
-
-                    int counter = fpsCounter++;
-                    if ( (counter % 30) == 0 ) { // let characters blink every 30 frames
-                        blinkState = ! blinkState;
-                    }
-
-                    if ( (counter % 300 ) == 0 ) 
+                    boolean idle;
+                    synchronized( FRAME_LOCK ) 
                     {
-                        final long now = System.currentTimeMillis();
-                        final float delta = (now - lastTimestamp) / 1000.0f;
-                        if ( delta > 0 ) 
-                        {
-                            float fps = ( counter - lastFps ) / delta;
-                            logDebug("FPS: "+fps);
+                        if ( ! hasPendingFrame && ! terminate ) {
+                            FRAME_LOCK.wait( IDLE_REFRESH_MILLIS );
                         }
-                        lastFps = counter;
-                        lastTimestamp = now;
+                        idle = ! hasPendingFrame;
+                    }
+                    if ( terminate || ! ENABLE_SCREEN_REDRAW ) {
+                        continue;
+                    }
+                    // frame listeners only get to see emulated frames
+                    if ( idle && peer != null && frameListeners.isEmpty() ) {
+                        takeSnapshot( false );
                     }
+                    renderPendingFrame();
                 }
-            } finally {
-                latch.countDown();
-            }
+            } 
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } 
         }
 
         public void terminate() 
         {
             terminate = true;
+            synchronized( FRAME_LOCK ) {
+                FRAME_LOCK.notifyAll();
+            }
             try {
-                latch.await();
+                join();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -223,8 +331,12 @@ public final class DefaultScreen implements IDevice {
         this.VIDEO_RAM_SIZE_IN_WORDS = SCREEN_ROWS*SCREEN_COLUMNS;
         this.SCREEN_WIDTH = (SCREEN_COLUMNS * GLYPH_WIDTH)+2*(BORDER_WIDTH);
         this.SCREEN_HEIGHT = (SCREEN_ROWS * GLYPH_HEIGHT)+2*(BORDER_HEIGHT);
+        this.blinkingCells = new long[ DirtyBits.wordCount( VIDEO_RAM_SIZE_IN_WORDS ) ];
+        this.pendingFrame = new FrameSnapshot();
+        this.renderedFrame = new FrameSnapshot();
 
         this.consoleScreen = new ConsoleScreen( DEFAULT_GLYPH_IMAGE , SCREEN_WIDTH , SCREEN_HEIGHT , DEFAULT_BORDER_COLOR );
+        this.framebuffer = new Framebuffer( SCREEN_WIDTH , SCREEN_HEIGHT );
         setupDefaultFontRAM();
         renderScreenDisconnectedMessage( );
 
@@ -273,11 +385,26 @@ public final class DefaultScreen implements IDevice {
                 videoRAM.unmap();
                 videoRAM = null;
             }
-            renderScreenDisconnectedMessage( );
 
-            blinkingCharactersOnScreen = false;
-            lastBlinkState=false;
-            blinkState=false;         
+            clearBlinkingCells();
+            lastBlinkState = true;
+            synchronized( FRAME_LOCK ) 
+            {
+                emulatedFrameCount = 0;
+                blinkState = true;
+            }
+        }
+        // the emulator discards all scheduled events when being reset
+        scheduleNextFrame( CYCLES_PER_FRAME );
+    }
+
+    private void scheduleNextFrame(int delayInCycles) 
+    {
+        final IEmulator emulator = this.emulator;
+        if ( emulator != null ) 
+        {
+            emulator.cancelEvent( frameEvent );
+            emulator.scheduleEvent( delayInCycles , frameEvent );
         }
     }
     
@@ -293,6 +420,10 @@ public final class DefaultScreen implements IDevice {
             return isMapped && getAddressRange().getStartAddress().equals( startingAddress );
         }
 
+        public synchronized boolean isMapped() {
+            return isMapped;
+        }
+
         public synchronized void map() 
         {
             if (! isMapped) {
@@ -312,12 +443,67 @@ public final class DefaultScreen implements IDevice {
         }
     }
 
+    /**
+     * Thread-safe bitmap that gets marked by the emulation thread 
+     * and consumed by the rendering thread.
+     */
+    protected static final class DirtyBits 
+    {
+        private final AtomicLongArray bits;
+
+        public DirtyBits(int size) {
+            bits = new AtomicLongArray( wordCount( size ) );
+        }
+
+        public static int wordCount(int size) {
+            return ( size + 63 ) >>> 6;
+        }
+
+        public void set(int index) 
+        {
+            final int word = index >>> 6;
+            final long mask = 1L << index; // shift distance is taken modulo 64
+            long value;
+            do {
+                value = bits.get( word );
+                if ( ( value & mask ) != 0 ) {
+                    return;
+                }
+            } while ( ! bits.compareAndSet( word , value , value | mask ) );
+        }
+
+        public void setAll() 
+        {
+            for ( int i = 0 ; i < bits.length() ; i++ ) {
+                bits.set( i , -1L );
+            }
+        }
+
+        public int getWordCount() {
+            return bits.length();
+        }
+
+        /**
+         * Returns and clears 64 bits.
+         * 
+         * @param word
+         * @return bits for indices <code>word*64 ... word*64+63</code>
+         */
+        public long getAndClear(int word) {
+            return bits.getAndSet( word , 0 );
+        }
+    }
+
     protected final class FontRAM extends StatefulMemoryRegion 
     {
-        private final AtomicBoolean hasChanged = new AtomicBoolean(true);
+        private static final int GLYPH_COUNT = 128;
+
+        // one bit per glyph
+        private final DirtyBits changedGlyphs = new DirtyBits( GLYPH_COUNT );
 
         public FontRAM(Address start) {
             super("Font RAM", TYPE_FONT_RAM , new AddressRange( start , Size.words( 256 ) ) , MemoryRegion.Flag.MEMORY_MAPPED_HW  ); // 2 words per character
+            changedGlyphs.setAll();
         }
 
         public void setup(ConsoleScreen scr) {
@@ -330,49 +516,48 @@ public final class DefaultScreen implements IDevice {
         super.write( adr++ , word0 );
         super.write( adr++ , word1 );
             }
-            hasChanged.set(true);
+            changedGlyphs.setAll();
         }
 
         @Override
         public void write(Address address, int value) 
         {
             super.write( address , value );
-            hasChanged.set(true);
+            changedGlyphs.set( address.toWordAddress().getValue() >>> 1 );
         }
 
         @Override
         public void write(int wordAddress, int value) 
         {
             super.write(wordAddress, value);
-            hasChanged.set(true);            
+            changedGlyphs.set( wordAddress >>> 1 ); // 2 words per glyph
         }		
 
         @Override
         public void clear() {
             super.clear();
-            hasChanged.set(true);            
+            changedGlyphs.setAll();
         }
 
-        public boolean hasChanged() 
+        /**
+         * Copies all glyphs and adds the glyphs that changed since the last invocation.
+         * 
+         * @param glyphs array that receives the glyphs , 32 bits each
+         * @param changed array with 2 elements that receives one bit per redefined glyph , 
+         * existing bits are kept 
+         */
+        public void snapshot(int[] glyphs,long[] changed) 
         {
-            return hasChanged.getAndSet(false);
-        }        
-
-        public void defineAllGlyphs() {
-
-            final int end = getSize().getSizeInWords();
-
-            for ( int wordAddress = 0 ; wordAddress < end ; wordAddress +=2 ) 
+            for ( int word = 0 ; word < changed.length ; word++ ) {
+                changed[word] |= changedGlyphs.getAndClear( word );
+            }
+            for ( int glyphIndex = 0 ; glyphIndex < GLYPH_COUNT ; glyphIndex++ ) 
             {
-                final int glyphIndex = wordAddress >>> 1; // 2 words per glyph
-
-                final int value1 = read( wordAddress );
-                final int value2 = read( wordAddress+1 );
+                final int value1 = read( glyphIndex << 1 );
+                final int value2 = read( ( glyphIndex << 1 ) + 1 );
                 // assemble into 32-bit word
-                final int newGlyph = ( (value1 & 0xffff) << 16 ) | value2;
-                consoleScreen.defineGylph( glyphIndex , newGlyph );
+                glyphs[ glyphIndex ] = ( (value1 & 0xffff) << 16 ) | value2;
             }
-            return;
         }
     }
 
@@ -386,9 +571,43 @@ public final class DefaultScreen implements IDevice {
         }
     }
 
+    /**
+     * Repaints part of the peer component.
+     * 
+     * <p>The peer is expected to display the screen image scaled to its own size.</p>
+     * 
+     * @param x x coordinate in the screen image
+     * @param y y coordinate in the screen image
+     * @param width
+     * @param height
+     */
+    protected final void repaintPeer(int x,int y,int width,int height) 
+    {
+        synchronized (PEER_LOCK) 
+        {
+            if ( peer == null ) {
+                return;
+            }
+            final int peerWidth = peer.getWidth();
+            final int peerHeight = peer.getHeight();
+            if ( peerWidth <= 0 || peerHeight <= 0 ) {
+                peer.repaint();
+                return;
+            }
+            // round outwards so that scaled pixels at the edges get repainted as well
+            final int x0 = x * peerWidth / SCREEN_WIDTH;
+            final int y0 = y * peerHeight / SCREEN_HEIGHT;
+            final int x1 = ( (x+width) * peerWidth + SCREEN_WIDTH - 1 ) / SCREEN_WIDTH;
+            final int y1 = ( (y+height) * peerHeight + SCREEN_HEIGHT - 1 ) / SCREEN_HEIGHT;
+            peer.repaint( x0 , y0 , x1 - x0 + 1 , y1 - y0 + 1 );
+        }
+    }
+
     protected void setupDefaultFontRAM() {
 
-        fontRAM.unmap();
+        if ( fontRAM != null ) {
+            fontRAM.unmap();
+        }
         FontRAM tmp = new FontRAM( Address.wordAddress( 0 ) );
         tmp.setup( consoleScreen );
         this.fontRAM = tmp;
@@ -492,39 +711,54 @@ public final class DefaultScreen implements IDevice {
 
     protected final class VideoRAM extends StatefulMemoryRegion {
 
-        private final AtomicBoolean hasChanged = new AtomicBoolean(false);
+        // one bit per cell
+        private final DirtyBits changedCells = new DirtyBits( VIDEO_RAM_SIZE_IN_WORDS );
 
         public VideoRAM(Address start) {
             super("Video RAM", TYPE_VRAM , new AddressRange( start , Size.words( VIDEO_RAM_SIZE_IN_WORDS ) ) , MemoryRegion.Flag.MEMORY_MAPPED_HW );
+            changedCells.setAll();
         }
 
         @Override
         public void clear() {
             super.clear();
-            hasChanged.set(true);
+            changedCells.setAll();
         }
 
-        public boolean hasChanged() 
+        /**
+         * Copies all cells and adds the cells that changed since the last invocation.
+         * 
+         * @param cells array that receives the cells
+         * @param changed array that receives one bit per changed cell , existing bits are kept
+         */
+        public void snapshot(int[] cells,long[] changed) 
         {
-            return hasChanged.getAndSet(false);
+            for ( int word = 0 ; word < changed.length ; word++ ) {
+                changed[word] |= changedCells.getAndClear( word );
+            }
+            for ( int cell = 0 ; cell < cells.length ; cell++ ) {
+                cells[cell] = read( cell );
+            }
         }
 
         @Override
         public void write(Address address, int value) {
             super.write( address, value);
-            hasChanged.set(true);
+            changedCells.set( address.toWordAddress().getValue() );
         }
 
         @Override
         public void write(int wordAddress, int value) {
             super.write( wordAddress , value );
-            hasChanged.set(true);
+            changedCells.set( wordAddress );
         }       
     }
 
     protected void setupDefaultPaletteRAM() 
     {
-        paletteRAM.unmap();
+        if ( paletteRAM != null ) {
+            paletteRAM.unmap();
+        }
         paletteRAM = new PaletteRAM(Address.wordAddress( 0) );
         paletteRAM.setDefaultPalette();
     }
@@ -550,14 +784,14 @@ public final class DefaultScreen implements IDevice {
         }
     }
 
-    private boolean isActive() {
-        return videoRAM != null && isAttached();
-    }
-
-    private boolean isAttached() {
-        synchronized (PEER_LOCK) {
-            return peer != null;
-        }
+    /**
+     * Returns whether anybody consumes rendered frames.
+     * 
+     * @return
+     */
+    private boolean hasConsumers() 
+    {
+        return peer != null || ! frameListeners.isEmpty();
     }
 
     protected void mapVideoRAM(Address videoRAMAddress) 
@@ -577,37 +811,286 @@ public final class DefaultScreen implements IDevice {
         }
     }
 
-    private void renderScreen()
+    /**
+     * Takes a snapshot of video , font and palette RAM and renders it right away.
+     * 
+     * <p>Only cells whose video RAM word or glyph changed since the last rendered frame (or that are blinking 
+     * and the blink state toggled) get rendered and only their part of the peer component gets repainted.
+     * A palette change renders the whole screen.</p>
+     * 
+     * <p>Does nothing unless this screen is attached to a UI component or has frame listeners , 
+     * the listeners get notified about each rendered frame.</p>
+     * 
+     * <p>The screen refreshes on its own at each emulated frame boundary , this method 
+     * is only needed to pick up memory changes while the emulation is not running.</p>
+     */
+    public void renderScreen()
+    {
+        if ( hasConsumers() ) 
+        {
+            takeSnapshot( false );
+            renderPendingFrame();
+        }
+    }
+
+    private void frameBoundaryReached(IEmulator emulator) 
+    {
+        synchronized( FRAME_LOCK ) 
+        {
+            emulatedFrameCount++;
+            blinkState = ( ( emulatedFrameCount / FRAMES_PER_BLINK ) & 1 ) == 0;
+        }
+        if ( ENABLE_SCREEN_REDRAW && hasConsumers() ) 
+        {
+            if ( frameListeners.isEmpty() ) {
+                takeSnapshot( true );
+            } else {
+                takeSnapshot( false );
+                renderPendingFrame();
+            }
+        }
+        emulator.scheduleEvent( CYCLES_PER_FRAME , frameEvent );
+    }
+
+    /**
+     * Copies video , font and palette RAM into the pending frame.
+     * 
+     * <p>Overwriting a frame that has not been rendered yet counts as a skipped frame.</p>
+     * 
+     * @param wakeRenderThread whether to have the render thread render the frame
+     */
+    private void takeSnapshot(boolean wakeRenderThread) 
+    {
+        final VideoRAM videoRAM = this.videoRAM;
+        final FontRAM fontRAM = this.fontRAM;
+        final PaletteRAM paletteRAM = this.paletteRAM;
+
+        synchronized( FRAME_LOCK ) 
+        {
+            if ( hasPendingFrame ) {
+                skippedFrameCount++;
+            }
+            final FrameSnapshot frame = pendingFrame;
+            frame.connected = videoRAM != null;
+            frame.blinkState = blinkState;
+            if ( frame.connected ) 
+            {
+                videoRAM.snapshot( frame.cells , frame.changedCells );
+                if ( fontRAM != null ) {
+                    fontRAM.snapshot( frame.glyphs , frame.changedGlyphs );
+                }
+                if ( paletteRAM != null ) 
+                {
+                    frame.paletteChanged |= paletteRAM.hasChanged();
+                    for ( int i = 0 ; i < PALETTE_COLORS ; i++ ) {
+                        frame.palette[i] = paletteRAM.getColor( i );
+                    }
+                }
+            }
+            hasPendingFrame = true;
+            if ( wakeRenderThread ) {
+                FRAME_LOCK.notifyAll();
+            }
+        }
+    }
+
+    private void renderPendingFrame() 
     {
         synchronized( PEER_LOCK ) 
         {
-            if ( ! isActive() ) 
+            final FrameSnapshot frame;
+            synchronized( FRAME_LOCK ) 
             {
-                renderScreenDisconnectedMessage();
-                return;
+                if ( ! hasPendingFrame ) {
+                    return;
+                }
+                frame = pendingFrame;
+                pendingFrame = renderedFrame;
+                renderedFrame = frame;
+                hasPendingFrame = false;
+            }
+
+            if ( ! frame.connected ) 
+            {
+                if ( ! redrawAll ) {
+                    renderScreenDisconnectedMessage();
+                }
+            } else {
+                renderCells( frame );
+            }
+            frame.clearChanges();
+            publishFrame();
+        }
+    }
+
+    private void publishFrame() 
+    {
+        final long frameNumber = ++frameCount;
+        if ( frameListeners.isEmpty() ) {
+            return;
+        }
+        framebuffer.update( consoleScreen.getPixels() , frameNumber );
+        for ( IFrameListener listener : frameListeners ) 
+        {
+            try {
+                listener.frameRendered( this , framebuffer );
+            } catch(Exception e) {
+                LOG.error("publishFrame(): Frame listener "+listener+" failed",e);
             }
+        }
+    }
 
-            final boolean fontRAMChanged = fontRAM.hasChanged();
-            final boolean updateRequired = fontRAMChanged || paletteRAM.hasChanged() || videoRAM.hasChanged();		
+    @Override
+    public void addFrameListener(IFrameListener listener) 
+    {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        frameListeners.add( listener );
+    }
 
-            if ( updateRequired || (blinkingCharactersOnScreen && lastBlinkState != blinkState) ) 
-            { 
-                if ( fontRAMChanged ) 
-                {
-                    fontRAM.defineAllGlyphs();
+    @Override
+    public void removeFrameListener(IFrameListener listener) {
+        frameListeners.remove( listener );
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of emulated frames that were not rendered 
+     * because the host did not keep up.
+     * 
+     * @return
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount;
+    }
+
+    /**
+     * Returns the number of frame boundaries the emulation passed since the last reset.
+     * 
+     * @return
+     * @see #CYCLES_PER_FRAME
+     */
+    public long getEmulatedFrameCount() 
+    {
+        synchronized( FRAME_LOCK ) {
+            return emulatedFrameCount;
+        }
+    }
+
+    @Override
+    public int getFrameWidth() {
+        return SCREEN_WIDTH;
+    }
+
+    @Override
+    public int getFrameHeight() {
+        return SCREEN_HEIGHT;
+    }
+
+    // @GuardedBy( PEER_LOCK )
+    private void renderCells(FrameSnapshot frame)
+    {
+        boolean glyphsChanged = false;
+        final long[] changedGlyphs = frame.changedGlyphs;
+        for ( int word = 0 ; word < changedGlyphs.length ; word++ ) 
+        {
+            for ( long bits = changedGlyphs[word] ; bits != 0 ; bits &= bits - 1 ) 
+            {
+                final int glyphIndex = ( word << 6 ) + Long.numberOfTrailingZeros( bits );
+                consoleScreen.defineGylph( glyphIndex , frame.glyphs[ glyphIndex ] );
+                glyphsChanged = true;
+            }
+        }
+        final boolean fullRedraw = frame.paletteChanged | redrawAll;
+        redrawAll = false;
+
+        final boolean blink = frame.blinkState;
+        final boolean blinkToggled = blink != lastBlinkState && blinkingCellCount > 0;
+        lastBlinkState = blink;
+
+        int firstColumn = 0;
+        int lastColumn = 0;
+        int currentRow = -1;
+        for ( int word = 0 ; word < blinkingCells.length ; word++ ) 
+        {
+            long changed = frame.changedCells[word];
+            if ( blinkToggled ) {
+                changed |= blinkingCells[word];
+            }
+            // a changed glyph may be displayed by any cell
+            long cells = fullRedraw || glyphsChanged ? -1L : changed;
+
+            for ( ; cells != 0 ; cells &= cells - 1 ) 
+            {
+                final int bit = Long.numberOfTrailingZeros( cells );
+                final int cell = ( word << 6 ) + bit;
+                if ( cell >= VIDEO_RAM_SIZE_IN_WORDS ) {
+                    break;
                 }
+                final int value = frame.cells[cell];
+                final int glyph = value & 0x7f;
+                if ( ! fullRedraw && ( changed & ( 1L << bit ) ) == 0 && ( changedGlyphs[ glyph >>> 6 ] & ( 1L << glyph ) ) == 0 ) {
+                    continue;
+                }
+                setBlinking( cell , renderMemoryValue( cell , value , blink , frame.palette ) );
 
-                final boolean blink = blinkState;
-                lastBlinkState = blink;
+                if ( fullRedraw ) {
+                    continue;
+                }
+                // coalesce adjacent cells of the same row into one repaint
+                final int row = cell / SCREEN_COLUMNS;
+                final int column = cell - ( row * SCREEN_COLUMNS );
+                if ( row != currentRow ) 
+                {
+                    repaintCells( currentRow , firstColumn , lastColumn );
+                    currentRow = row;
+                    firstColumn = column;
+                } 
+                lastColumn = column;
+            }
+        }
+
+        if ( fullRedraw ) {
+            repaintPeer();
+        } else {
+            repaintCells( currentRow , firstColumn , lastColumn );
+        }
+    }
+
+    private void repaintCells(int row,int firstColumn,int lastColumn) 
+    {
+        if ( row >= 0 ) 
+        {
+            repaintPeer( BORDER_WIDTH + firstColumn * GLYPH_WIDTH , BORDER_HEIGHT + row * GLYPH_HEIGHT , 
+                    ( lastColumn - firstColumn + 1 ) * GLYPH_WIDTH , GLYPH_HEIGHT );
+        }
+    }
 
-                boolean blinkingChars = false;
-                for ( int i = 0 ; i < VIDEO_RAM_SIZE_IN_WORDS ; i++ ) {
-                    blinkingChars |= renderMemoryValue( i , videoRAM.read( i ) , blink );
-                }        
-                blinkingCharactersOnScreen = blinkingChars;
+    private void setBlinking(int cell,boolean blinking) 
+    {
+        final int word = cell >>> 6;
+        final long mask = 1L << cell;
+        final boolean wasBlinking = ( blinkingCells[word] & mask ) != 0;
+        if ( blinking != wasBlinking ) 
+        {
+            blinkingCells[word] ^= mask;
+            blinkingCellCount += blinking ? 1 : -1;
+        }
+    }
 
-                repaintPeer();
+    private void clearBlinkingCells() 
+    {
+        synchronized( PEER_LOCK ) 
+        {
+            for ( int i = 0 ; i < blinkingCells.length ; i++ ) {
+                blinkingCells[i] = 0;
             }
+            blinkingCellCount = 0;
         }
     }
 
@@ -629,17 +1112,19 @@ public final class DefaultScreen implements IDevice {
                 videoRAM.unmap();
                 videoRAM = null;
             }
-            renderScreenDisconnectedMessage();
         }
     }
 
     private void renderScreenDisconnectedMessage() 
     {
+        synchronized( PEER_LOCK ) {
+            redrawAll = true;
+        }
         consoleScreen.renderScreenDisconnectedMessage();
         repaintPeer();
     }
 
-    protected boolean renderMemoryValue(int wordAddress , int memoryValue,boolean blinkState) 
+    protected boolean renderMemoryValue(int wordAddress , int memoryValue,boolean blinkState,Color[] palette) 
     {
         /* The LEM1802 is a 128x96 pixel color display compatible with the DCPU-16.
          * The display is made up of 32x12 16 bit cells.
@@ -664,8 +1149,8 @@ public final class DefaultScreen implements IDevice {
          * - bbbb selects which background color to use.    
          */
         final int foregroundPalette = ( memoryValue >>> 12) & ( 1+2+4+8);
-        final Color fg = paletteRAM.getColor( foregroundPalette );
-        final Color bg = paletteRAM.getColor( backgroundPalette );
+        final Color fg = palette[ foregroundPalette ];
+        final Color bg = palette[ backgroundPalette ];
 
         if ( blink && ! blinkState ) 
         {
@@ -695,10 +1180,7 @@ public final class DefaultScreen implements IDevice {
 
         this.out = emulator.getOutput();
 
-        if ( refreshThread == null || ! refreshThread.isAlive() ) {
-            refreshThread = new RefreshThread();
-            refreshThread.start();
-        }
+        scheduleNextFrame( CYCLES_PER_FRAME );
 
         emulator.getOutput().debug("Screen attached to emulator.");
     }
@@ -713,10 +1195,8 @@ public final class DefaultScreen implements IDevice {
     {
         disconnect();
 
-        if ( refreshThread != null && refreshThread.isAlive() ) {
-            refreshThread.terminate();
-        }
-        refreshThread = null;
+        emulator.cancelEvent( frameEvent );
+        stopRenderThread();
         this.emulator = null;
         synchronized( PEER_LOCK ) 
         {
@@ -730,6 +1210,112 @@ public final class DefaultScreen implements IDevice {
         return DESC;
     }
 
+    /*
+     * State format:
+     * 
+     * int     video RAM address or -1 if disconnected
+     * int     font RAM address or -1 if the default font RAM is used , followed by
+     *         ( short word count , short[] words ) with the default font RAM's contents
+     * int     palette RAM address or -1 if the default palette RAM is used , followed by
+     *         ( short word count , short[] words ) with the default palette RAM's contents
+     * byte    border color palette index
+     * int     cycles until the next frame boundary or -1 if none is scheduled
+     * long    emulated frame count
+     */
+    @Override
+    public void saveState(IEmulator emulator, DataOutput out) throws IOException
+    {
+        synchronized( PEER_LOCK ) 
+        {
+            final VideoRAM videoRAM = this.videoRAM;
+            out.writeInt( videoRAM != null ? videoRAM.getAddressRange().getStartAddress().getWordAddressValue() : -1 );
+            saveRegionState( fontRAM , out );
+            saveRegionState( paletteRAM , out );
+            out.writeByte( borderPaletteIndex );
+        }
+        out.writeInt( emulator.getCyclesUntilEvent( frameEvent ) );
+        out.writeLong( getEmulatedFrameCount() );
+    }
+
+    private static void saveRegionState(StatefulMemoryRegion region,DataOutput out) throws IOException 
+    {
+        if ( region != null && region.isMapped() ) {
+            out.writeInt( region.getAddressRange().getStartAddress().getWordAddressValue() );
+            return;
+        }
+        out.writeInt( -1 );
+        // contents of mapped regions are part of the emulator's memory
+        final int size = region != null ? region.getSize().getSizeInWords() : 0;
+        out.writeShort( size );
+        for ( int i = 0 ; i < size ; i++ ) {
+            out.writeShort( region.read( i ) );
+        }
+    }
+
+    private static int[] readRegionContents(DataInput in) throws IOException 
+    {
+        final int[] result = new int[ in.readUnsignedShort() ];
+        for ( int i = 0 ; i < result.length ; i++ ) {
+            result[i] = in.readUnsignedShort();
+        }
+        return result;
+    }
+
+    @Override
+    public void restoreState(IEmulator emulator, DataInput in) throws IOException
+    {
+        synchronized( PEER_LOCK ) 
+        {
+            final int videoRAMAddress = in.readInt();
+            if ( videoRAMAddress != -1 ) {
+                mapVideoRAM( Address.wordAddress( videoRAMAddress ) );
+            } 
+            else if ( videoRAM != null ) 
+            {
+                videoRAM.unmap();
+                videoRAM = null;
+            }
+
+            final int fontRAMAddress = in.readInt();
+            if ( fontRAMAddress != -1 ) {
+                mapFontRAM( Address.wordAddress( fontRAMAddress ) );
+            } 
+            else 
+            {
+                setupDefaultFontRAM();
+                final int[] contents = readRegionContents( in );
+                for ( int i = 0 ; i < contents.length ; i++ ) {
+                    fontRAM.write( i , contents[i] );
+                }
+            }
+
+            final int paletteRAMAddress = in.readInt();
+            if ( paletteRAMAddress != -1 ) {
+                mapPaletteRAM( Address.wordAddress( paletteRAMAddress ) );
+            } 
+            else 
+            {
+                setupDefaultPaletteRAM();
+                final int[] contents = readRegionContents( in );
+                for ( int i = 0 ; i < contents.length ; i++ ) {
+                    paletteRAM.write( i , contents[i] );
+                }
+            }
+
+            borderPaletteIndex = in.readUnsignedByte() & 0x0f;
+            consoleScreen.setBorderColor( paletteRAM.getColor( borderPaletteIndex ) );
+        }
+
+        final int cyclesUntilNextFrame = in.readInt();
+        final long frames = in.readLong();
+        synchronized( FRAME_LOCK ) 
+        {
+            emulatedFrameCount = frames;
+            blinkState = ( ( frames / FRAMES_PER_BLINK ) & 1 ) == 0;
+        }
+        scheduleNextFrame( cyclesUntilNextFrame != -1 ? cyclesUntilNextFrame : CYCLES_PER_FRAME );
+    }
+
     public void attach(Component uiComponent )
     {
         if (uiComponent == null) {
@@ -738,6 +1324,7 @@ public final class DefaultScreen implements IDevice {
         synchronized( PEER_LOCK ) {
             this.peer = uiComponent;
         }
+        startRenderThread();
     }
 
     public void detach() 
@@ -745,6 +1332,29 @@ public final class DefaultScreen implements IDevice {
         synchronized( PEER_LOCK ) {
             this.peer = null;
         }
+        stopRenderThread();
+    }
+
+    private void startRenderThread() 
+    {
+        synchronized( RENDER_THREAD_LOCK ) 
+        {
+            if ( renderThread == null || ! renderThread.isAlive() ) {
+                renderThread = new RenderThread();
+                renderThread.start();
+            }
+        }
+    }
+
+    private void stopRenderThread() 
+    {
+        synchronized( RENDER_THREAD_LOCK ) 
+        {
+            if ( renderThread != null && renderThread.isAlive() ) {
+                renderThread.terminate();
+            }
+            renderThread = null;
+        }
     }
 
     public BufferedImage getScreenImage() 
@@ -1113,6 +1723,10 @@ public final class DefaultScreen implements IDevice {
             return screen.getImage();
         }
 
+        public int[] getPixels() {
+            return screen.getBackingArray();
+        }
+
         public BufferedImage getFontImage() {
             return glyphBitmap.getImage();
         }
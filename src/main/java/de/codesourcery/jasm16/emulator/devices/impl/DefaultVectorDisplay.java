@@ -15,14 +15,14 @@
  */
 package de.codesourcery.jasm16.emulator.devices.impl;
 
-import static java.lang.Math.round;
-
 import java.awt.Color;
 import java.awt.Component;
-import java.awt.Graphics;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
@@ -37,15 +37,17 @@ import de.codesourcery.jasm16.WordAddress;
 import de.codesourcery.jasm16.emulator.ICPU;
 import de.codesourcery.jasm16.emulator.IEmulator;
 import de.codesourcery.jasm16.emulator.devices.DeviceDescriptor;
-import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.Framebuffer;
+import de.codesourcery.jasm16.emulator.devices.IFrameListener;
+import de.codesourcery.jasm16.emulator.devices.IFramebufferDevice;
+import de.codesourcery.jasm16.emulator.devices.IStatefulDevice;
 import de.codesourcery.jasm16.emulator.memory.IMemory;
 import de.codesourcery.jasm16.emulator.memory.MemoryRegion;
 import de.codesourcery.jasm16.utils.LinAlgUtils;
 import de.codesourcery.jasm16.utils.Matrix;
 import de.codesourcery.jasm16.utils.Misc;
-import de.codesourcery.jasm16.utils.Vector4;
 
-public class DefaultVectorDisplay implements IDevice {
+public class DefaultVectorDisplay implements IFramebufferDevice, IStatefulDevice {
 
 	private static final Logger LOG = Logger.getLogger(DefaultVectorDisplay.class);
 	
@@ -54,7 +56,7 @@ public class DefaultVectorDisplay implements IDevice {
 	
 	public static final boolean DEBUG = false;
 	
-	public static final Size VERTEX_SIZE_IN_WORDS = Size.words(1);
+	public static final Size VERTEX_SIZE_IN_WORDS = Size.words(2);
 	
 	public static final Color BACKGROUND_COLOR = Color.BLACK;
 	
@@ -98,15 +100,42 @@ public class DefaultVectorDisplay implements IDevice {
 	
 	// @GuardedBy( UI_PEER_LOCK )
 	private RawImage visibleBuffer = frontBuffer;
+
+	private final List<IFrameListener> frameListeners = new CopyOnWriteArrayList<IFrameListener>();
+
+	// @GuardedBy( UI_PEER_LOCK )
+	private final Framebuffer framebuffer = new Framebuffer( DISPLAY_WIDTH_PIXELS , DISPLAY_HEIGHT_PIXELS );
+
+	private volatile long frameCount;
+
+	// model-view-projection matrix (column-major) , only recalculated when the rotation changes
+	// @GuardedBy( UI_PEER_LOCK )
+	private final float[] mvpMatrix = new float[ Matrix.SIZE * Matrix.SIZE ];
+	// @GuardedBy( UI_PEER_LOCK )
+	private float mvpRotation = Float.NaN;
+
+	// projected vertices
+	// @GuardedBy( UI_PEER_LOCK )
+	private final int[] screenX = new int[ MAX_VERTICES ];
+	// @GuardedBy( UI_PEER_LOCK )
+	private final int[] screenY = new int[ MAX_VERTICES ];
+	// @GuardedBy( UI_PEER_LOCK )
+	private final int[] vertexColors = new int[ MAX_VERTICES ];
 	
+	/**
+	 * Vertex RAM , vertices get decoded as soon as the emulation writes them.
+	 */
 	protected static final class VertexRAM extends MemoryRegion 
 	{
-		private volatile boolean hasChanged = true;
-		
 		private final Object VERTICES_LOCK = new Object();
 		
+		// x,y,z model coordinates of each vertex
+		// @GuardedBy( VERTICES_LOCK )
+		private final float[] coordinates;
+		
+		// RGB color of each vertex
 		// @GuardedBy( VERTICES_LOCK )
-		private List<Vertex> vertices = new ArrayList<Vertex>(MAX_VERTICES);
+		private final int[] colors;
 		
 		// @GuardedBy( VERTICES_LOCK )		
 		private boolean isMapped = false;
@@ -121,6 +150,16 @@ public class DefaultVectorDisplay implements IDevice {
 			if ( vertexCount <0 || vertexCount > MAX_VERTICES ) {
 				throw new IllegalArgumentException("Invalid vertex count "+vertexCount);
 			}
+			this.coordinates = new float[ vertexCount * 3 ];
+			this.colors = new int[ vertexCount ];
+			decodeAll();
+		}
+		
+		public boolean isMapped() 
+		{
+			synchronized( VERTICES_LOCK ) {
+				return isMapped;
+			}
 		}
 		
 		public void map(IEmulator emulator) 
@@ -131,57 +170,120 @@ public class DefaultVectorDisplay implements IDevice {
 				{
 					emulator.mapRegion( this );
 					isMapped = true;
-					hasChanged = true;					
 				}
 			}
 		}
 		
-		public List<Vertex> getVertices() 
+		/**
+		 * Transforms all vertices to screen coordinates.
+		 * 
+		 * @param mvpMatrix model-view-projection matrix in column-major order
+		 * @param screenX array receiving the X coordinate of each vertex
+		 * @param screenY array receiving the Y coordinate of each vertex
+		 * @param rgb array receiving the color of each vertex
+		 * @return number of vertices , 0 if this vertex RAM is not mapped
+		 */
+		public int project(float[] mvpMatrix,int[] screenX,int[] screenY,int[] rgb) 
 		{
+			final int halfWidth = DISPLAY_WIDTH_PIXELS/2;
+			final int halfHeight = DISPLAY_HEIGHT_PIXELS/2;
+			final float scaleX = 2f;
+			final float scaleY = 2f;
+			
+			final float[] m = mvpMatrix;
 			synchronized( VERTICES_LOCK ) 
 			{
-				if ( hasChanged ) {
-					vertices = readVertices();
-					hasChanged = false;
+				if ( ! isMapped ) {
+					return 0;
+				}
+				for ( int i = 0 , offset = 0 ; i < vertexCount ; i++ , offset += 3 ) 
+				{
+					final float x = coordinates[ offset ];
+					final float y = coordinates[ offset + 1 ];
+					final float z = coordinates[ offset + 2 ];
+					
+					// w of model coordinates is always 1
+					float px = m[0] * x + m[4] * y + m[ 8] * z + m[12];
+					float py = m[1] * x + m[5] * y + m[ 9] * z + m[13];
+					final float pw = m[3] * x + m[7] * y + m[11] * z + m[15];
+					if ( pw != 1.0f ) {
+						px /= pw;
+						py /= pw;
+					}
+					screenX[i] = halfWidth  + Math.round( px * scaleX );
+					screenY[i] = halfHeight - Math.round( py * scaleY );
+					rgb[i] = colors[i];
 				}
-				return vertices;
+				return vertexCount;
 			}
 		}
 		
-		private List<Vertex> readVertices() 
+		/*
+         * Each vertex occupies two words of information in the main DCPU RAM. The data is
+         * encoded as (in LSB-0 format):
+         * 
+         * First word: YYYYYYYYXXXXXXXX
+         * Second word: 00000ICCZZZZZZZZ
+         * 
+         * => XXXXXXXX is the X-coordinate of the vertex
+         * => YYYYYYYY is the Y-coordinate 
+         * => ZZZZZZZZ is the Z-coordinate (Z is deeper into the screen, if the device is placed face up on the ground, this translates to "up" relative to the user.)
+         * => CC is color (possible color values are 0: black, 1: red, 2: green, 3: blue)
+         * => I is intensity (If the intensity bit is set, the color is drawn as more intense. The black color is meant to barely be visible at all, except for in very dim
+         * environments, or if the intensity bit is set.
+		 */
+		// @GuardedBy( VERTICES_LOCK )
+		private void decode(int vertex) 
 		{
-			final List<Vertex> result = new ArrayList<>();
-			
-			if ( ! isMapped ) {
-				return result;
+			if ( vertex >= vertexCount ) {
+				return;
 			}
-			final int words = vertexCount*2;
-			for ( int i = 0 ; i < words ; i+=2 ) {
-				int word0 = read( i );
-				int word1 = read( i+1 );
-				final Vertex vertex = Vertex.fromMemory(word0,word1 );
-				System.out.println("READ: "+vertex);
-                result.add( vertex );
+			final int word0 = read( vertex*2 );
+			final int word1 = read( vertex*2+1 );
+			
+			final int y = (word0 >> 8) & 0xff;
+			final int x = word0 & 0xff;
+			final int z = word1 & 0xff;
+			final int colorCode = (word1 >>> 8) & 0b11;
+			final boolean intense = (word1 & ( 1 << 10) ) != 0;
+			
+			final int offset = vertex * 3;
+			coordinates[ offset ] = x - 128;
+			coordinates[ offset + 1 ] = y - 128;
+			coordinates[ offset + 2 ] = -(z + 3);
+			colors[ vertex ] = ColorCode.valueOf( colorCode ).getColor( intense ).getRGB();
+		}
+		
+		private void decodeAll() 
+		{
+			synchronized( VERTICES_LOCK ) 
+			{
+				for ( int i = 0 ; i < vertexCount ; i++ ) {
+					decode( i );
+				}
 			}
-			return result;
 		}
 		
 		@Override
 		public void write(Address address, int value) {
 			super.write(address, value);
-			hasChanged = true;
+			synchronized( VERTICES_LOCK ) {
+				decode( address.toWordAddress().getValue() >>> 1 );
+			}
 		}
 		
 		@Override
 		public void write(int wordAddress, int value) {
 			super.write(wordAddress, value);
-			hasChanged = true;
+			synchronized( VERTICES_LOCK ) {
+				decode( wordAddress >>> 1 ); // 2 words per vertex
+			}
 		}
 		
 		@Override
 		public void clear() {
 			super.clear();
-			hasChanged = true;
+			decodeAll();
 		}
 		
 		public void unmap(IEmulator emulator) 
@@ -192,7 +294,6 @@ public class DefaultVectorDisplay implements IDevice {
 				{
 					emulator.unmapRegion( this );
 					isMapped = false;						
-					hasChanged = true;
 				}
 			}			
 		}
@@ -289,7 +390,7 @@ public class DefaultVectorDisplay implements IDevice {
 					
 					if ( ! halt && ! terminate ) 
 					{
-						renderOneFrame();
+						renderFrame();
 						LockSupport.parkNanos( (1000 / FRAMES_PER_SECOND ) * 1000000 ); // ~30 fps
 					}
 				}
@@ -305,103 +406,233 @@ public class DefaultVectorDisplay implements IDevice {
 				logDebug("Rendering thread terminated.");
 			}
 		}
-		
-		protected void renderOneFrame() 
-		{
-			synchronized( UI_PEER_LOCK ) 
-			{
-				// determine buffer to draw to
-				final RawImage invisibleBuffer = ( visibleBuffer == frontBuffer ) ? backBuffer : frontBuffer;
-				
-				// clear buffer
-				invisibleBuffer.fill( BACKGROUND_COLOR );				
-				
-				// render vertices
-				if ( uiPeer != null ) 
-				{
-					final List<Vertex> vertices = vertexRAM.getVertices();
-					renderToBuffer(vertices,invisibleBuffer.getGraphics());
-				}
-				
-				// swap buffers
-				visibleBuffer = invisibleBuffer;
-				
-				// tell peer to repaint itself
-				if ( uiPeer != null ) {
-					uiPeer.get().repaint();
-				}
-			}
-		}
-
-		private void renderToBuffer(final List<Vertex> copy,Graphics graphics) 
+	}
+	
+	public DefaultVectorDisplay() 
+	{
+		viewMatrix = setupPerspectiveProjection( 60, DISPLAY_WIDTH_PIXELS / (float) DISPLAY_HEIGHT_PIXELS , 1 , 300 );
+	}
+	
+	/**
+	 * Renders one frame.
+	 * 
+	 * <p>Does nothing unless this display is attached to a UI component or has frame listeners , 
+	 * the listeners get notified about each rendered frame.</p>
+	 * 
+	 * <p>Invoked periodically by this display's rendering thread.</p>
+	 */
+	public void renderFrame() 
+	{
+		synchronized( UI_PEER_LOCK ) 
 		{
-			if ( copy.size() < 2 ) {
-				deviceState = DeviceState.NO_DATA;				
+			final Component peer = uiPeer.get();
+			if ( peer == null && frameListeners.isEmpty() ) {
 				return;
 			}
+
+			// determine buffer to draw to
+			final RawImage invisibleBuffer = ( visibleBuffer == frontBuffer ) ? backBuffer : frontBuffer;
 			
-//			Matrix modelMatrix = LinAlgUtils.rotZ( rotationInDegreesPerFrame.get() );
-//			final Matrix mvpMatrix = viewMatrix.multiply( modelMatrix );
+			// clear buffer
+			invisibleBuffer.fill( BACKGROUND_COLOR );				
 			
-            Matrix modelMatrix = LinAlgUtils.rotZ( rotationInDegreesPerFrame.get() );
-            final Matrix mvpMatrix = modelMatrix.multiply( viewMatrix );
+			// render vertices
+			renderToBuffer( invisibleBuffer.getBackingArray() );
 			
-			// draw vertices
-			for ( int i = 0 ; i< (copy.size()-1) ; i+=1 ) 
-			{
-				final Vertex p1 = copy.get(i);
-				Vector4 p1Point = mvpMatrix.multiply( p1.p);
-				
-				final Vertex p2 = copy.get(i+1);
-				Vector4 p2Point = mvpMatrix.multiply( p2.p );
-				
-				p1Point = p1Point.normalizeW();
-				p2Point = p2Point.normalizeW();
-				
-                System.out.println( p1Point+" -> "+p2Point );
-				
-				drawLine(graphics,p1Point,p1.color,p2Point,p2.color);
+			// swap buffers
+			visibleBuffer = invisibleBuffer;
+			
+			// tell peer to repaint itself
+			if ( peer != null ) {
+				peer.repaint();
+			}
+			publishFrame( invisibleBuffer );
+		}
+	}
+
+	private void publishFrame(RawImage image) 
+	{
+		final long frameNumber = ++frameCount;
+		if ( frameListeners.isEmpty() ) {
+			return;
+		}
+		framebuffer.update( image.getBackingArray() , frameNumber );
+		for ( IFrameListener listener : frameListeners ) 
+		{
+			try {
+				listener.frameRendered( this , framebuffer );
+			} catch(Exception e) {
+				LOG.error("publishFrame(): Frame listener "+listener+" failed",e);
 			}
-			deviceState = DeviceState.STATE_RUNNING;
+		}
+	}
+
+	@Override
+	public void addFrameListener(IFrameListener listener) 
+	{
+		if (listener == null) {
+			throw new IllegalArgumentException("listener must not be null");
+		}
+		frameListeners.add( listener );
+	}
+
+	@Override
+	public void removeFrameListener(IFrameListener listener) {
+		frameListeners.remove( listener );
+	}
+
+	@Override
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	@Override
+	public int getFrameWidth() {
+		return DISPLAY_WIDTH_PIXELS;
+	}
+
+	@Override
+	public int getFrameHeight() {
+		return DISPLAY_HEIGHT_PIXELS;
+	}
+
+	// @GuardedBy( UI_PEER_LOCK )
+	private void renderToBuffer(int[] pixels) 
+	{
+		final float rotation = rotationInDegreesPerFrame.get();
+		if ( Float.compare( rotation , mvpRotation ) != 0 ) 
+		{
+			LinAlgUtils.rotZ( rotation ).multiply( viewMatrix , mvpMatrix );
+			mvpRotation = rotation;
+		}
+		
+		final int count = vertexRAM.project( mvpMatrix , screenX , screenY , vertexColors );
+		if ( count < 2 ) {
+			deviceState = DeviceState.NO_DATA;				
+			return;
 		}
 		
-		private void drawLine(Graphics graphics,
-				Vector4 p1, Color color1, 
-				Vector4 p2, Color color2) 
+		// draw vertices
+		for ( int i = 0 ; i < count - 1 ; i++ ) 
 		{
-			final Color c = averageColor( color1 , color2 );
-			graphics.setColor(c);
-			
-			final float scaleX = 2f;
-			final float scaleY = 2f;
-			
-			final int halfWidth = DISPLAY_WIDTH_PIXELS/2;
-			final int halfHeight = DISPLAY_HEIGHT_PIXELS/2;
-			
-			final int p1x = halfWidth  + round( p1.x() * scaleX);
-			final int p1y = halfHeight - round( p1.y() * scaleY);
-			
-			final int p2x = halfWidth  + round( p2.x() * scaleX);
-			final int p2y = halfHeight - round( p2.y() * scaleY);
-			
-			graphics.drawLine( p1x , p1y , p2x , p2y );
+			if ( DEBUG ) {
+				logDebug( "("+screenX[i]+","+screenY[i]+") -> ("+screenX[i+1]+","+screenY[i+1]+")" );
+			}
+			drawLine( pixels , DISPLAY_WIDTH_PIXELS , DISPLAY_HEIGHT_PIXELS , 
+					screenX[i] , screenY[i] , screenX[i+1] , screenY[i+1] ,
+					averageColor( vertexColors[i] , vertexColors[i+1] ) );
+		}
+		deviceState = DeviceState.STATE_RUNNING;
+	}
+	
+	private static final int OUT_LEFT = 1;
+	private static final int OUT_RIGHT = 2;
+	private static final int OUT_TOP = 4;
+	private static final int OUT_BOTTOM = 8;
+	
+	private static int outCode(int x,int y,int width,int height) 
+	{
+		int result = 0;
+		if ( x < 0 ) {
+			result |= OUT_LEFT;
+		} else if ( x >= width ) {
+			result |= OUT_RIGHT;
+		}
+		if ( y < 0 ) {
+			result |= OUT_TOP;
+		} else if ( y >= height ) {
+			result |= OUT_BOTTOM;
+		}
+		return result;
+	}
+	
+	/**
+	 * Draws a line into an image's backing array.
+	 * 
+	 * <p>The line gets clipped (Cohen-Sutherland) to the image bounds first because projected 
+	 * vertices may be arbitrarily far off-screen , then rasterized using Bresenham's algorithm.</p>
+	 * 
+	 * @param pixels
+	 * @param width image width
+	 * @param height image height
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 * @param color
+	 */
+	protected static void drawLine(int[] pixels,int width,int height,int x0,int y0,int x1,int y1,int color) 
+	{
+		int code0 = outCode( x0 , y0 , width , height );
+		int code1 = outCode( x1 , y1 , width , height );
+		for ( int iterations = 0 ; ( code0 | code1 ) != 0 ; iterations++ ) 
+		{
+			// both end points on the same outer side or rounding keeps moving a point across a corner
+			if ( ( code0 & code1 ) != 0 || iterations == 8 ) {
+				return;
+			}
+			final int code = code0 != 0 ? code0 : code1;
+			// double precision since the deltas may not fit into an int
+			final double dx = (double) x1 - x0;
+			final double dy = (double) y1 - y0;
+			final int x;
+			final int y;
+			if ( ( code & OUT_BOTTOM ) != 0 ) {
+				y = height - 1;
+				x = (int) Math.round( x0 + dx * ( y - y0 ) / dy );
+			} else if ( ( code & OUT_TOP ) != 0 ) {
+				y = 0;
+				x = (int) Math.round( x0 + dx * ( y - y0 ) / dy );
+			} else if ( ( code & OUT_RIGHT ) != 0 ) {
+				x = width - 1;
+				y = (int) Math.round( y0 + dy * ( x - x0 ) / dx );
+			} else {
+				x = 0;
+				y = (int) Math.round( y0 + dy * ( x - x0 ) / dx );
+			}
+			if ( code == code0 ) {
+				x0 = x;
+				y0 = y;
+				code0 = outCode( x0 , y0 , width , height );
+			} else {
+				x1 = x;
+				y1 = y;
+				code1 = outCode( x1 , y1 , width , height );
+			}
 		}
 		
-		private Color averageColor(Color c1,Color c2) 
+		final int dx = Math.abs( x1 - x0 );
+		final int dy = -Math.abs( y1 - y0 );
+		final int stepX = x0 < x1 ? 1 : -1;
+		final int stepY = y0 < y1 ? 1 : -1;
+		int error = dx + dy;
+		while ( true ) 
 		{
-			if (c1 == c2 || c1.equals( c2 ) ) {
-				return c1;
+			pixels[ y0 * width + x0 ] = color;
+			if ( x0 == x1 && y0 == y1 ) {
+				break;
+			}
+			final int error2 = 2 * error;
+			if ( error2 >= dy ) {
+				error += dy;
+				x0 += stepX;
+			}
+			if ( error2 <= dx ) {
+				error += dx;
+				y0 += stepY;
 			}
-			int r = (c1.getRed()+c2.getRed())/2;
-			int g = (c1.getGreen()+c2.getGreen())/2;
-			int b = (c1.getBlue()+c2.getBlue())/2;
-			return new Color(r,g,b);
 		}
 	}
 	
-	public DefaultVectorDisplay() 
+	private static int averageColor(int c1,int c2) 
 	{
-		viewMatrix = setupPerspectiveProjection( 60, DISPLAY_WIDTH_PIXELS / (float) DISPLAY_HEIGHT_PIXELS , 1 , 300 );
+		if ( c1 == c2 ) {
+			return c1;
+		}
+		final int r = ( ( ( c1 >> 16 ) & 0xff ) + ( ( c2 >> 16 ) & 0xff ) ) / 2;
+		final int g = ( ( ( c1 >>  8 ) & 0xff ) + ( ( c2 >>  8 ) & 0xff ) ) / 2;
+		final int b = ( ( c1 & 0xff ) + ( c2 & 0xff ) ) / 2;
+		return 0xff000000 | r << 16 | g << 8 | b;
 	}
 	
     public Matrix setupPerspectiveProjection(float fieldOfView, float aspectRatio ,float zNear, float zFar) 
@@ -477,47 +708,6 @@ public class DefaultVectorDisplay implements IDevice {
 		}
 	}	
 	
-	protected static final class Vertex 
-	{
-		public final Color color;
-		public final Vector4 p;
-		
-		private Vertex(int x, int y, int z, ColorCode color, boolean intensity) 
-		{
-			this.p = new Vector4(x-128,y-128,-(z+3)); 
-			this.color = color.getColor( intensity );
-		}
-		
-		@Override
-		public String toString() {
-			return "Vertex[ "+p+" , color="+color+" ]";
-		}
-		
-		/*
-         * Each vertex occupies two words of information in the main DCPU RAM. The data is
-         * encoded as (in LSB-0 format):
-         * 
-         * First word: YYYYYYYYXXXXXXXX
-         * Second word: 00000ICCZZZZZZZZ
-         * 
-         * => XXXXXXXX is the X-coordinate of the vertex
-         * => YYYYYYYY is the Y-coordinate 
-         * => ZZZZZZZZ is the Z-coordinate (Z is deeper into the screen, if the device is placed face up on the ground, this translates to "up" relative to the user.)
-         * => CC is color (possible color values are 0: black, 1: red, 2: green, 3: blue)
-         * => I is intensity (If the intensity bit is set, the color is drawn as more intense. The black color is meant to barely be visible at all, except for in very dim
-         * environments, or if the intensity bit is set.
-		 */		
-		public static Vertex fromMemory(int word0, int word1) 
-		{
-			final int y = (word0 >> 8) & 0xff;
-			final int x = word0 & 0xff;
-			final int z = word1 & 0xff;
-			final int colorCode = (word1 >>> 8) & 0b11;
-			final boolean intense = (word1 & ( 1 << 10) ) != 0;
-			return new Vertex( x,y,z, ColorCode.valueOf( colorCode ) , intense );
-		}		
-	}
-	
 	protected static enum DeviceState 
 	{
 		/**
@@ -573,6 +763,35 @@ public class DefaultVectorDisplay implements IDevice {
 		}
 	}
 
+	@Override
+	public void saveState(IEmulator emulator, DataOutput out) throws IOException 
+	{
+		synchronized(UI_PEER_LOCK) 
+		{
+			// vertices are part of the emulator's memory while mapped and irrelevant otherwise
+			out.writeInt( vertexRAM.isMapped() ? vertexRAM.getAddressRange().getStartAddress().getWordAddressValue() : -1 );
+			out.writeShort( vertexRAM.vertexCount );
+		}
+		out.writeByte( deviceState.ordinal() );
+		out.writeByte( lastError.ordinal() );
+		out.writeFloat( rotationInDegreesPerFrame.get() );
+	}
+
+	@Override
+	public void restoreState(IEmulator emulator, DataInput in) throws IOException 
+	{
+		final int vertexRAMAddress = in.readInt();
+		final int vertexCount = in.readUnsignedShort();
+		if ( vertexRAMAddress != -1 ) {
+			mapVertexRam( emulator , Address.wordAddress( vertexRAMAddress ) , vertexCount );
+		} else {
+			reset();
+		}
+		deviceState = DeviceState.values()[ in.readUnsignedByte() ];
+		lastError = ErrorCode.values()[ in.readUnsignedByte() ];
+		rotationInDegreesPerFrame.set( in.readFloat() );
+	}
+
 	@Override
 	public boolean supportsMultipleInstances() {
 		return false;
@@ -18,10 +18,17 @@ package de.codesourcery.jasm16.emulator.devices.impl;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.BitSet;
 
 /**
  * A {@link FloppyDisk} implementation that accesses a 
  * file in the local filesystem.
+ * 
+ * <p>The whole disk image gets loaded on first access and is kept in memory. Writes only
+ * change the in-memory copy and mark the sector as dirty , modified sectors are written back
+ * to the file by {@link #flush()} (which the floppy drive invokes when ejecting the disk or being
+ * removed from the emulator). Changes made to the file by other programs while the disk is 
+ * in use are not picked up.</p>
  *
  * @author tobias.gierke@code-sourcery.de
  */
@@ -29,6 +36,13 @@ public class FileBasedFloppyDisk extends FloppyDisk
 {
     private final File file;
 
+    // disk contents , one element per word
+    // @GuardedBy( this )
+    private int[] words;
+
+    // @GuardedBy( this )
+    private final BitSet dirtySectors = new BitSet( SECTOR_COUNT );
+
     public FileBasedFloppyDisk(File file) 
     {
         this( file , false );
@@ -40,57 +54,122 @@ public class FileBasedFloppyDisk extends FloppyDisk
         this.file = file;
     }
 
-    @Override
-    public void read(byte[] buffer, long byteOffset) throws IOException
+    // @GuardedBy( this )
+    private int[] words() throws IOException 
     {
-        final int bufferSize=buffer.length;
-        
-        try ( RandomAccessFile raf = new RandomAccessFile(file, "r" ); ) 
+        if ( words != null ) {
+            return words;
+        }
+        final byte[] data = new byte[ CAPACITY_IN_WORDS * 2 ];
+        if ( file.exists() ) 
         {
-            final long fileSize = raf.length();
-            if ( byteOffset >= fileSize ) 
-            {
-                for ( int i = 0 ; i < bufferSize ; i++ ) {
-                    buffer[i] = 0;
-                }
-                return;
-            } 
-            
-            // can read everything
-            raf.seek( byteOffset );
-            
-            if ( (byteOffset+buffer.length) >= fileSize ) 
+            try ( RandomAccessFile raf = new RandomAccessFile(file, "r" ); ) 
             {
-                // partial read
-                final int bytesAvailable = (int) ( fileSize - byteOffset ); 
-                int bytesRead = raf.read( buffer , 0 , bytesAvailable );
-                if ( bytesRead != bytesAvailable ) {
-                    throw new IOException("Short read, got only "+bytesRead+" of "+bytesAvailable+" bytes");
-                }
-                for ( int i = bytesAvailable ; i < bufferSize ; i++ ) {
-                    buffer[i] = 0;
-                }
-                return;
-            }
-            
-            int bytesRead = raf.read( buffer );
-            if ( bytesRead != buffer.length ) {
-                throw new IOException("Short read, got only "+bytesRead+" of "+buffer.length+" bytes");
+                // bytes past the end of the file read as zero
+                final int bytesAvailable = (int) Math.min( raf.length() , data.length );
+                raf.readFully( data , 0 , bytesAvailable );
             }
         }
+        final int[] result = new int[ CAPACITY_IN_WORDS ];
+        for ( int i = 0 , offset = 0 ; i < result.length ; i++ , offset += 2 ) {
+            result[i] = ( ( data[ offset ] & 0xff ) << 8 ) | ( data[ offset + 1 ] & 0xff );
+        }
+        words = result;
+        return result;
     }
-    
+
     @Override
-    public void write(byte[] buffer, long byteOffset) throws IOException
+    protected synchronized void readSector(int sector, int[] target) throws IOException 
+    {
+        System.arraycopy( words() , sector * WORDS_PER_SECTOR , target , 0 , WORDS_PER_SECTOR );
+    }
+
+    @Override
+    protected synchronized void writeSector(int sector, int[] source) throws IOException 
+    {
+        checkWritable();
+        final int[] words = words();
+        final int offset = sector * WORDS_PER_SECTOR;
+        for ( int i = 0 ; i < WORDS_PER_SECTOR ; i++ ) {
+            words[ offset + i ] = source[i] & 0xffff;
+        }
+        dirtySectors.set( sector );
+    }
+
+    private void checkWritable() throws IOException 
     {
         if ( isWriteProtected() ) {
             throw new IOException("Refusing to write to is write-protected disk "+this);
         }
-        
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, long byteOffset) throws IOException
+    {
+        // reading past the end of the disk yields zeros
+        if ( byteOffset < 0 ) {
+            throw new IOException("Read of "+buffer.length+" bytes at offset "+byteOffset+" is out of bounds for "+this);
+        }
+        final int[] words = words();
+        for ( int i = 0 ; i < buffer.length ; i++ ) 
+        {
+            final long offset = byteOffset + i;
+            if ( offset >= CAPACITY_IN_WORDS * 2 ) {
+                buffer[i] = 0;
+            } else {
+                final int word = words[ (int) ( offset >> 1 ) ];
+                buffer[i] = (byte) ( ( offset & 1 ) == 0 ? word >> 8 : word );
+            }
+        }
+    }
+    
+    @Override
+    public synchronized void write(byte[] buffer, long byteOffset) throws IOException
+    {
+        checkWritable();
+        if ( byteOffset < 0 || byteOffset + buffer.length > CAPACITY_IN_WORDS * 2 ) {
+            throw new IOException("Write of "+buffer.length+" bytes at offset "+byteOffset+" exceeds capacity of "+this);
+        }
+        final int[] words = words();
+        for ( int i = 0 ; i < buffer.length ; i++ ) 
+        {
+            final long offset = byteOffset + i;
+            final int index = (int) ( offset >> 1 );
+            if ( ( offset & 1 ) == 0 ) {
+                words[ index ] = ( ( buffer[i] & 0xff ) << 8 ) | ( words[ index ] & 0xff );
+            } else {
+                words[ index ] = ( words[ index ] & 0xff00 ) | ( buffer[i] & 0xff );
+            }
+        }
+        if ( buffer.length > 0 ) {
+            dirtySectors.set( (int) ( byteOffset / BYTES_PER_SECTOR ) , (int) ( ( byteOffset + buffer.length - 1 ) / BYTES_PER_SECTOR ) + 1 );
+        }
+    }
+
+    /**
+     * Writes all modified sectors to the file.
+     */
+    @Override
+    public synchronized void flush() throws IOException 
+    {
+        if ( dirtySectors.isEmpty() ) {
+            return;
+        }
+        final byte[] buffer = new byte[ BYTES_PER_SECTOR ];
         try ( RandomAccessFile raf = new RandomAccessFile(file, "rw" );) 
         {
-            raf.seek( byteOffset );
-            raf.write( buffer );
+            for ( int sector = dirtySectors.nextSetBit( 0 ) ; sector >= 0 ; sector = dirtySectors.nextSetBit( sector + 1 ) ) 
+            {
+                final int offset = sector * WORDS_PER_SECTOR;
+                for ( int i = 0 ; i < WORDS_PER_SECTOR ; i++ ) 
+                {
+                    buffer[ 2*i ] = (byte) ( words[ offset + i ] >> 8 );
+                    buffer[ 2*i + 1 ] = (byte) words[ offset + i ];
+                }
+                raf.seek( (long) sector * BYTES_PER_SECTOR );
+                raf.write( buffer );
+            }
         }
+        dirtySectors.clear();
     }
 }
\ No newline at end of file
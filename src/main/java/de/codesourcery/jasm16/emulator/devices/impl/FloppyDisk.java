@@ -21,14 +21,14 @@ import org.apache.commons.lang.StringUtils;
 
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Size;
-import de.codesourcery.jasm16.disassembler.ByteArrayMemoryAdapter;
 import de.codesourcery.jasm16.emulator.memory.IMemory;
 
 /**
  * Abstract super-class for floppy disk media implementations.
  * 
  * <p>Subclasses need to implement {@link #read(byte[], long)} and
- * {@link #write(byte[], long)}.</p>
+ * {@link #write(byte[], long)} , implementations that keep the disk contents
+ * in memory should also override {@link #readSector(int, int[])} and {@link #writeSector(int, int[])}.</p>
  *
  * @author tobias.gierke@code-sourcery.de
  */
@@ -39,13 +39,20 @@ public abstract class FloppyDisk {
     public static final int TRACKS = 80;
     public static final int SECTORS_PER_TRACK = 18;
 
-    private static final int SECTOR_COUNT = TRACKS * SECTORS_PER_TRACK;
+    protected static final int SECTOR_COUNT = TRACKS * SECTORS_PER_TRACK;
 
     public static final int WORDS_PER_SECTOR = 512;
 
+    protected static final int BYTES_PER_SECTOR = WORDS_PER_SECTOR * 2;
+
     private final String identifier;
     private volatile boolean writeProtected;
 
+    // @GuardedBy( this )
+    private final int[] sectorBuffer = new int[ WORDS_PER_SECTOR ];
+    // @GuardedBy( this )
+    private final byte[] byteBuffer = new byte[ BYTES_PER_SECTOR ];
+
     public FloppyDisk(String identifier,boolean writeProtected) 
     {
         if (StringUtils.isBlank(identifier)) {
@@ -60,46 +67,83 @@ public abstract class FloppyDisk {
         this(identifier,false);
     }
 
-    @SuppressWarnings("deprecation")
-    public final void readSector(int sector,IMemory target,Address targetAddress) throws IOException 
+    /**
+     * Copies a sector into memory.
+     * 
+     * <p>The sector gets written using {@link IMemory#bulkWrite(int, int[], int, int)} so 
+     * memory is either updated as a whole or not at all.</p>
+     * 
+     * @param sector
+     * @param target
+     * @param targetAddress
+     * @throws IOException
+     */
+    public final synchronized void readSector(int sector,IMemory target,Address targetAddress) throws IOException 
     {
-        final long byteOffset = sector * 512 * 2;
-        final byte[] buffer = new byte[ WORDS_PER_SECTOR * 2 ];
-
-        read( buffer , byteOffset );
-
-        final ByteArrayMemoryAdapter mem = new ByteArrayMemoryAdapter( buffer );
-
-        // TODO: Requires atomic memory write in IMemoryRegion
+        readSector( sector , sectorBuffer );
+        target.bulkWrite( targetAddress.getWordAddressValue() , sectorBuffer , 0 , WORDS_PER_SECTOR );
+    }
 
-        int len = WORDS_PER_SECTOR;
-        for ( int src = 0 , dst = targetAddress.getWordAddressValue() ; len > 0 ; len-- ) 
-        {
-            target.write( dst++ , mem.read( src++ ) );
+    /**
+     * Reads a sector.
+     * 
+     * <p>The default implementation uses {@link #read(byte[], long)} , words are stored big-endian.</p>
+     * 
+     * @param sector
+     * @param words array receiving the sector's {@link #WORDS_PER_SECTOR} words 
+     * @throws IOException
+     */
+    protected void readSector(int sector,int[] words) throws IOException 
+    {
+        read( byteBuffer , (long) sector * BYTES_PER_SECTOR );
+        for ( int i = 0 , offset = 0 ; i < WORDS_PER_SECTOR ; i++ , offset += 2 ) {
+            words[i] = ( ( byteBuffer[ offset ] & 0xff ) << 8 ) | ( byteBuffer[ offset + 1 ] & 0xff );
         }
     }
 
     public abstract void read(byte[] buffer,long byteOffset) throws IOException;
 
     @SuppressWarnings("deprecation")
-    public final void writeSector(int sector,IMemory source,Address sourceAddress) throws IOException 
+    public final synchronized void writeSector(int sector,IMemory source,Address sourceAddress) throws IOException 
     {
-        final long byteOffset = sector * 512 * 2;
-        final byte[] buffer = new byte[ WORDS_PER_SECTOR * 2 ];
-        final ByteArrayMemoryAdapter mem = new ByteArrayMemoryAdapter( buffer );
-
-        // TODO: Requires atomic memory write in IMemoryRegion
+        final int start = sourceAddress.getWordAddressValue();
+        for ( int i = 0 ; i < WORDS_PER_SECTOR ; i++ ) {
+            sectorBuffer[i] = source.read( ( start + i ) & 0xffff );
+        }
+        writeSector( sector , sectorBuffer );
+    }	
 
-        int len = WORDS_PER_SECTOR;
-        for ( int src = sourceAddress.getWordAddressValue() , dst = 0 ; len > 0 ; len-- ) 
+    /**
+     * Writes a sector.
+     * 
+     * <p>The default implementation uses {@link #write(byte[], long)} , words are stored big-endian.</p>
+     * 
+     * @param sector
+     * @param words array holding the sector's {@link #WORDS_PER_SECTOR} words
+     * @throws IOException
+     */
+    protected void writeSector(int sector,int[] words) throws IOException 
+    {
+        for ( int i = 0 , offset = 0 ; i < WORDS_PER_SECTOR ; i++ , offset += 2 ) 
         {
-            mem.write( dst++ , source.read( src++ ) );
-        }		
-        write( buffer , byteOffset );
-    }	
+            byteBuffer[ offset ] = (byte) ( words[i] >> 8 );
+            byteBuffer[ offset + 1 ] = (byte) words[i];
+        }
+        write( byteBuffer , (long) sector * BYTES_PER_SECTOR );
+    }
 
     public abstract void write(byte[] buffer, long byteOffset ) throws IOException;	
 
+    /**
+     * Writes any cached changes to the underlying storage.
+     * 
+     * <p>The default implementation does nothing.</p>
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+    }
+
     public boolean isWriteProtected() {
         return writeProtected;
     }
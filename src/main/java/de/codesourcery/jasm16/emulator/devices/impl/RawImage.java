@@ -24,6 +24,7 @@ import java.awt.image.DirectColorModel;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -62,8 +63,7 @@ public final class RawImage
     }
 
     public void fill(Color fillColor) {
-    	getGraphics().setColor( fillColor );
-    	getGraphics().fillRect( 0 , 0 ,getWidth() , getHeight() );
+    	Arrays.fill( data , fillColor.getRGB() );
     }
     
     public int getWidth() {
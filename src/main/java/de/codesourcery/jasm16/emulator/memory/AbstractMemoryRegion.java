@@ -0,0 +1,192 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.Size.SizeInWords;
+
+/**
+ * Abstract base-class for memory regions , subclasses only need to 
+ * provide the actual storage.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see MemoryRegion
+ * @see RAMRegion
+ */
+public abstract class AbstractMemoryRegion implements IMemoryRegion , IMemoryTypes {
+    
+    private final String regionName;
+    private final AddressRange addressRange;
+    private final boolean supportsMerging; // distinct field and not just a flag for speed reasons
+    private final Set<Flag> flags = new HashSet<>();
+    private final long typeId;
+    
+    protected AbstractMemoryRegion(String regionName , long typeId , AddressRange range,Flag... flags) 
+    {
+        if (StringUtils.isBlank(regionName)) {
+            throw new IllegalArgumentException("regionName must not be NULL/blank.");
+        }
+        if ( range == null ) {
+            throw new IllegalArgumentException("startingAddress must not be NULL.");
+        }
+        final SizeInWords sizeInWords = range.getSize().toSizeInWords();
+        if ( sizeInWords.getValue() < 1 ) {
+            throw new IllegalArgumentException("Memory size must be >= 1 word(s), invalid address range passed: "+range);
+        }
+        if ( flags != null ) {
+        	this.flags.addAll( Arrays.asList( flags ) );
+        }
+        this.typeId = typeId;
+    	this.supportsMerging = this.flags.contains( Flag.SUPPORTS_MERGING );
+        this.addressRange = range;
+        this.regionName = regionName;    	
+    }
+
+    @Override
+    public boolean contains(int wordAddress) {
+    	return addressRange.contains( wordAddress );
+    }
+    
+    @Override
+    public long getTypeId() {
+    	return typeId;
+    }
+    
+    public Set<Flag> getFlags() {
+		return new HashSet<Flag>( this.flags );
+	}
+    
+    protected Flag[] getFlagsArray() {
+    	return this.flags.toArray(new Flag[this.flags.size()]);
+    }
+    
+    public boolean hasFlag(Flag flag) {
+    	if (flag == null) {
+			throw new IllegalArgumentException("flag must not be null");
+		}
+    	return flags.contains( flag );
+    }
+    
+    @Override
+    public boolean supportsMerging()
+    {
+        return supportsMerging;
+    }
+    
+    public int read(Address address) {
+        return read( address.toWordAddress().getValue() );
+    }
+    
+    public void write(Address address,int value) {
+        write( address.toWordAddress().getValue() , value );
+    }
+    
+    @Override
+    public void snapshot(int wordAddress, int[] target) 
+    {
+        final int size = getSize().getSizeInWords();
+        int current = wordAddress % size;
+        for ( int i = 0 ; i < target.length ; i++ ) 
+        {
+            target[i] = read( current );
+            current = ( current + 1 ) % size;
+        }
+    }    
+
+    /**
+     * Writes consecutive memory words.
+     * 
+     * <p>This implementation invokes {@link #write(int, int)} for each word so that
+     * subclasses tracking writes (memory-mapped hardware) do not need to override this method.</p>
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void bulkWrite(int wordAddress, int[] source, int sourceOffset, int count) 
+    {
+        final int size = getSize().getSizeInWords();
+        int current = wordAddress % size;
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            write( current , source[ sourceOffset + i ] );
+            current = ( current + 1 ) % size;
+        }
+    }
+
+    @Override
+    public Size getSize()
+    {
+        return addressRange.getSize();
+    }
+
+    @Override
+    public String getRegionName()
+    {
+        return regionName;
+    }
+    
+    /**
+     * Creates a copy of this region's contents for a given address range.
+     * 
+     * @param range address range that is part of this region's address range
+     * @return
+     */
+    protected abstract IMemoryRegion createCopy(AddressRange range);
+    
+    /**
+     * Returns the index of the first word of an address range (that is 
+     * part of this region) relative to this region's start.
+     * 
+     * @param range
+     * @return
+     */
+    protected final int getOffset(AddressRange range) {
+        return ( range.getStartAddress().minus( getAddressRange().getStartAddress() ) ).toWordAddress().getValue();
+    }
+
+    @Override
+    public List<IMemoryRegion> split(AddressRange gap)
+    {
+        final List<AddressRange> regions = addressRange.subtract( gap );
+        final List<IMemoryRegion> result = new ArrayList<>();
+        
+        for ( AddressRange region : regions ) {
+            result.add( createCopy( region ) );
+        }
+        return result;
+    }
+
+    @Override
+    public AddressRange getAddressRange()
+    {
+        return addressRange;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return getRegionName()+" - "+getAddressRange().toString();
+    }    
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.memory;
+
+import java.util.Arrays;
+
+import de.codesourcery.jasm16.AddressRange;
+import static de.codesourcery.jasm16.emulator.memory.MemoryImage.*;
+
+/**
+ * Plain RAM that initially shares its pages with a {@link MemoryImage} and
+ * only copies a page when it gets written to.
+ *
+ * <p>Like {@link RAMRegion} , this region must only be modified by a single thread.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see MainMemory#loadImage(MemoryImage)
+ */
+public final class CopyOnWriteRAMRegion extends AbstractMemoryRegion {
+
+    // pages for the complete 64k words address space , indexed by absolute word address
+    private final int[][] pages;
+    // whether a page has been copied and may thus be written to
+    private final boolean[] owned = new boolean[ PAGE_COUNT ];
+    private final int startAddress;
+
+    public CopyOnWriteRAMRegion(String regionName , long typeId , AddressRange range,MemoryImage image,Flag... flags)
+    {
+        super( regionName , typeId , range , flags );
+        this.startAddress = range.getStartAddress().getWordAddressValue();
+        this.pages = new int[ PAGE_COUNT ][];
+        for ( int i = 0 ; i < PAGE_COUNT ; i++ ) {
+            pages[i] = image.getPage( i << PAGE_SHIFT );
+        }
+    }
+
+    private CopyOnWriteRAMRegion(String regionName , long typeId , AddressRange range,int[][] pages,Flag... flags)
+    {
+        super( regionName , typeId , range , flags );
+        this.startAddress = range.getStartAddress().getWordAddressValue();
+        this.pages = pages;
+    }
+
+    public int read(int wordAddress)
+    {
+        final int address = ( startAddress + wordAddress ) & 0xffff;
+        return pages[ address >>> PAGE_SHIFT ][ address & PAGE_MASK ];
+    }
+
+    public void write(int wordAddress,int value)
+    {
+        final int address = ( startAddress + wordAddress ) & 0xffff;
+        final int page = address >>> PAGE_SHIFT;
+        if ( ! owned[ page ] ) {
+            pages[ page ] = pages[ page ].clone();
+            owned[ page ] = true;
+        }
+        pages[ page ][ address & PAGE_MASK ] = value & 0xffff;
+    }
+
+    /**
+     * Returns the number of pages this region had to copy so far.
+     *
+     * @return
+     */
+    public int getCopiedPageCount()
+    {
+        int result = 0;
+        for ( boolean b : owned ) {
+            if ( b ) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill( pages , ZERO_PAGE );
+        Arrays.fill( owned , false );
+    }
+
+    @Override
+    protected IMemoryRegion createCopy(AddressRange range)
+    {
+        // share all pages with the copy , both regions need to copy
+        // pages again before writing to them
+        Arrays.fill( owned , false );
+        return new CopyOnWriteRAMRegion( getRegionName() , getTypeId() , range , pages.clone() , getFlagsArray() );
+    }
+}
@@ -39,4 +39,16 @@ public interface IMemory extends IReadOnlyMemory {
     
     public void write(Address address,int value);
     
+    /**
+     * Writes consecutive memory words at once.
+     * 
+     * <p>Addresses wrap around at the end of this memory.</p>
+     * 
+     * @param wordAddress address of the first word to write
+     * @param source array holding the words to write
+     * @param sourceOffset index of the first word in the source array
+     * @param count number of words to write
+     * @see #snapshot(int, int[])
+     */
+    public void bulkWrite(int wordAddress,int[] source,int sourceOffset,int count);
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.memory;
+
+/**
+ * Gets notified about reads and writes to watched pages of {@link MainMemory}.
+ *
+ * <p>Listeners are invoked synchronously by the thread that accessed the memory (which
+ * may be any thread , not just the emulation thread) , so implementations need to be fast. Note that
+ * the listener is notified about ALL accesses to a watched page , it's up to the listener to
+ * filter out addresses it is not interested in.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see MainMemory#setWatchListener(IMemoryWatchListener)
+ * @see MainMemory#setPageWatched(int, boolean)
+ */
+public interface IMemoryWatchListener {
+
+    /**
+     * Invoked after a word has been read from a watched page.
+     *
+     * @param wordAddress
+     * @param value the value that was read
+     */
+    public void wordRead(int wordAddress,int value);
+
+    /**
+     * Invoked after a word on a watched page has been written.
+     *
+     * @param wordAddress
+     * @param oldValue value before the write
+     * @param newValue value after the write
+     */
+    public void wordWritten(int wordAddress,int oldValue,int newValue);
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.memory;
+
+import de.codesourcery.jasm16.AddressRange;
+
+/**
+ * Gets notified about changes to {@link MainMemory}.
+ *
+ * <p>Listeners are invoked synchronously by the thread that changed the memory , so
+ * implementations need to be fast.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see MainMemory#MainMemory(int, boolean, IMemoryWriteListener)
+ */
+public interface IMemoryWriteListener {
+
+    /**
+     * Invoked after a word has been written.
+     *
+     * @param wordAddress
+     */
+    public void wordWritten(int wordAddress);
+
+    /**
+     * Invoked after the contents of an address range changed all at once
+     * (because memory regions got mapped/unmapped or memory was cleared).
+     *
+     * @param range
+     */
+    public void rangeChanged(AddressRange range);
+}
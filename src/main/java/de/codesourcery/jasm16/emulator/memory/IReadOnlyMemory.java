@@ -53,4 +53,19 @@ public interface IReadOnlyMemory
      * @return
      */
     public int read(Address address);
+    
+    /**
+     * Copies consecutive memory words into an array.
+     * 
+     * <p>Threads other than the emulation thread should use this method to read memory , 
+     * the copied data is guaranteed to be at least as recent as the last time
+     * the emulation published its memory writes.</p> 
+     * 
+     * <p>Addresses wrap around at the end of this memory.</p>
+     * 
+     * @param wordAddress address of the first word to copy
+     * @param target array to copy memory words into , the array's length determines the number of words copied
+     * @see MainMemory#publishWrites()
+     */
+    public void snapshot(int wordAddress,int[] target);
 }
@@ -45,90 +45,117 @@ public final class MainMemory implements IMemory, IMemoryTypes
 {
 	private static final Logger LOG = Logger.getLogger(MainMemory.class);
 	
-	private final IMemoryRegion NOP_RANGE = new IMemoryRegion() {
-
-		@Override
-		public void clear() {
-			throw new UnsupportedOperationException("Not implemented");
-		}
-
-		@Override
-		public void write(int wordAddress, int value) {
-			throw new UnsupportedOperationException("Not implemented");
-		}
-
-		@Override
-		public void write(Address address, int value) {
-			throw new UnsupportedOperationException("Not implemented");
-		}
-
-		@Override
-		public Size getSize() {
-			throw new UnsupportedOperationException("Not implemented");			
-		}
-
-		@Override
-		public int read(int wordAddress) {
-			throw new UnsupportedOperationException("Not implemented");			
-		}
-
-		@Override
-		public int read(Address address) {
-			throw new UnsupportedOperationException("Not implemented");
-		}
-
-		@Override
-		public Set<Flag> getFlags() {
-			return Collections.emptySet();
-		}
-
-		@Override
-		public boolean hasFlag(Flag flag) {
-			return false;
-		}
-
-		@Override
-		public long getTypeId() {
-			throw new UnsupportedOperationException("Not implemented");			
-		}
-
-		@Override
-		public AddressRange getAddressRange() {
-			throw new UnsupportedOperationException("Not implemented");			
-		}
-
-		@Override
-		public String getRegionName() {
-			throw new UnsupportedOperationException("Not implemented");			
+	private static final int PAGE_SHIFT = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_COUNT = 65536 / PAGE_SIZE;
+	
+	/**
+	 * Immutable lookup table that maps word addresses to the memory region
+	 * they belong to.
+	 * 
+	 * <p>Memory is split into {@link MainMemory#PAGE_COUNT} pages of {@link MainMemory#PAGE_SIZE} words each. Pages 
+	 * that are covered by a single region just store this region , pages that are shared
+	 * by more than one region (for example because video RAM does not start/end 
+	 * at a page boundary) store the region for each individual word.</p>
+	 * 
+	 * <p>A new instance gets created whenever a region is mapped or unmapped.</p>
+	 */
+	private static final class PageTable 
+	{
+		// region covering the whole page or NULL if the page is shared by multiple regions
+		private final IMemoryRegion[] pageRegions = new IMemoryRegion[ PAGE_COUNT ];
+		// start address of the region covering the whole page
+		private final int[] pageRegionStart = new int[ PAGE_COUNT ];
+		
+		// per-word lookup tables for pages that are shared by more than one region
+		private final IMemoryRegion[][] wordRegions = new IMemoryRegion[ PAGE_COUNT ][];
+		private final int[][] wordRegionStart = new int[ PAGE_COUNT ][];
+		
+		public PageTable(List<IMemoryRegion> regions) 
+		{
+			for ( IMemoryRegion region : regions ) 
+			{
+				final AddressRange range = region.getAddressRange();
+				final int start = range.getStartAddress().getWordAddressValue();
+				final int end = Math.min( range.getEndAddress().getWordAddressValue() , 65536 );
+				
+				int address = start;
+				while ( address < end ) 
+				{
+					final int page = address >>> PAGE_SHIFT;
+					if ( ( address & (PAGE_SIZE-1) ) == 0 && address + PAGE_SIZE <= end ) 
+					{
+						// region covers the whole page
+						pageRegions[ page ] = region;
+						pageRegionStart[ page ] = start;
+						address += PAGE_SIZE;
+						continue;
+					}
+					
+					if ( wordRegions[ page ] == null ) {
+						wordRegions[ page ] = new IMemoryRegion[ PAGE_SIZE ];
+						wordRegionStart[ page ] = new int[ PAGE_SIZE ];
+					}
+					wordRegions[ page ][ address & (PAGE_SIZE-1) ] = region;
+					wordRegionStart[ page ][ address & (PAGE_SIZE-1) ] = start;
+					address++;
+				}
+			}
 		}
-
-		@Override
-		public boolean supportsMerging() {
-			throw new UnsupportedOperationException("Not implemented");			
+		
+		public IMemoryRegion getRegion(int wordAddress) 
+		{
+			final int page = wordAddress >>> PAGE_SHIFT;
+			final IMemoryRegion result = pageRegions[ page ];
+			if ( result != null ) {
+				return result;
+			}
+			final IMemoryRegion[] words = wordRegions[ page ];
+			return words != null ? words[ wordAddress & (PAGE_SIZE-1) ] : null;
 		}
-
-		@Override
-		public List<IMemoryRegion> split(AddressRange gap) throws IllegalArgumentException 
+		
+		public int getOffset(int wordAddress) 
 		{
-			throw new UnsupportedOperationException("Not implemented");			
+			final int page = wordAddress >>> PAGE_SHIFT;
+			final int regionStart;
+			if ( pageRegions[ page ] != null ) {
+				regionStart = pageRegionStart[ page ];
+			} else {
+				regionStart = wordRegionStart[ page ][ wordAddress & (PAGE_SIZE-1) ];
+			}
+			return ( wordAddress - regionStart ) & 0xffff;
 		}
-
-		@Override
-		public boolean contains(int wordAddress) {
-			return false;
-		}		
-	};
+	}
+	
+	// re-created whenever the regions list changes
+	private volatile PageTable pageTable;
 	
-	private IMemoryRegion lastReadLookup = NOP_RANGE;
-	private IMemoryRegion lastWriteLookup = NOP_RANGE;	
+	// incremented by the emulation thread to publish memory writes
+	// to other threads , see publishWrites() and snapshot()
+	private volatile int publishedWrites;
 	
 	// GuardedBy( regions )
 	private final List<IMemoryRegion> regions = new ArrayList<IMemoryRegion>(); 
 	private volatile boolean checkWriteAccess;
+	
+	// may be NULL
+	private final IMemoryWriteListener writeListener;
 
 	// list of AddressRange instances that will trigger an exception 
 	// when being written to
 	private final Bitfield writeProtectedMemoryRanges;
+	
+	/*
+	 * Pages that have at least one watched word , accesses to 
+	 * all other pages never touch the watch listener.
+	 * 
+	 * Only modified while the owner of this memory (the emulator) holds its
+	 * CPU lock , threads that do not hold this lock may see stale flags. 
+	 */
+	private final boolean[] watchedPages = new boolean[ PAGE_COUNT ];
+	
+	// may be NULL
+	private volatile IMemoryWatchListener watchListener;
 
 	public MainMemory(int sizeInWords) 
 	{
@@ -137,8 +164,21 @@ public final class MainMemory implements IMemory, IMemoryTypes
 
 	public MainMemory(int sizeInWords,boolean checkWriteAccess) 
 	{
+		this(sizeInWords , checkWriteAccess , null );
+	}
+	
+	/**
+	 * 
+	 * @param sizeInWords
+	 * @param checkWriteAccess
+	 * @param writeListener listener to notify about memory changes , may be <code>null</code> 
+	 */
+	public MainMemory(int sizeInWords,boolean checkWriteAccess,IMemoryWriteListener writeListener) 
+	{
+		this.writeListener = writeListener;
 		final IMemoryRegion mainMemory = createMainMemory( new AddressRange( WordAddress.ZERO , Size.words( 65536 ) ) );
 		regions.add( mainMemory );
+		this.pageTable = new PageTable( regions );
 		this.writeProtectedMemoryRanges = new Bitfield( sizeInWords );
 		this.checkWriteAccess = checkWriteAccess;
 	}    
@@ -148,7 +188,7 @@ public final class MainMemory implements IMemory, IMemoryTypes
 	}
 
 	private static IMemoryRegion createMainMemory(AddressRange range) {
-		return new MemoryRegion( "main memory" , TYPE_RAM , range , MemoryRegion.Flag.SUPPORTS_MERGING  );
+		return new RAMRegion( "main memory" , TYPE_RAM , range , IMemoryRegion.Flag.SUPPORTS_MERGING  );
 	}
 
 	public void dumpMemoryLayout(ILogger logger) 
@@ -165,11 +205,52 @@ public final class MainMemory implements IMemory, IMemoryTypes
 	public void clear()
 	{
 		synchronized(regions) {
-			lastReadLookup = lastWriteLookup = NOP_RANGE;
 			for ( IMemory r : regions ) {
 				r.clear();
 			}
 		}
+		if ( writeListener != null ) {
+			writeListener.rangeChanged( new AddressRange( WordAddress.ZERO , Size.words( 65536 ) ) );
+		}
+	}
+
+	/**
+	 * Replaces the contents of this memory with a {@link MemoryImage}.
+	 * 
+	 * <p>Plain RAM regions are replaced by {@link CopyOnWriteRAMRegion}s that share
+	 * their pages with the image , all other (memory-mapped) regions are
+	 * cleared and have the image's contents written to them.</p>
+	 * 
+	 * @param image
+	 */
+	public void loadImage(MemoryImage image)
+	{
+		if (image == null) {
+			throw new IllegalArgumentException("image must not be null");
+		}
+		synchronized( regions ) 
+		{
+			for ( int i = 0 ; i < regions.size() ; i++ ) 
+			{
+				final IMemoryRegion region = regions.get(i);
+				if ( region instanceof RAMRegion || region instanceof CopyOnWriteRAMRegion ) 
+				{
+					final AbstractMemoryRegion ram = (AbstractMemoryRegion) region;
+					regions.set( i , new CopyOnWriteRAMRegion( ram.getRegionName() , ram.getTypeId() , ram.getAddressRange() , image , ram.getFlagsArray() ) );
+					continue;
+				} 
+				region.clear();
+				final int start = region.getAddressRange().getStartAddress().getWordAddressValue();
+				final int size = region.getSize().toSizeInWords().getValue();
+				for ( int offset = 0 ; offset < size ; offset++ ) {
+					region.write( offset , image.read( start + offset ) );
+				}
+			}
+			pageTable = new PageTable( regions );
+		}
+		if ( writeListener != null ) {
+			writeListener.rangeChanged( new AddressRange( WordAddress.ZERO , Size.words( 65536 ) ) );
+		}
 	}
 
 	/**
@@ -207,6 +288,39 @@ public final class MainMemory implements IMemory, IMemoryTypes
 	public void resetWriteProtection() {
 		writeProtectedMemoryRanges.clear();
 	}
+	
+	/**
+	 * Sets the listener to notify about reads and writes to watched pages.
+	 * 
+	 * @param listener listener or <code>null</code>
+	 * @see #setPageWatched(int, boolean)
+	 */
+	public void setWatchListener(IMemoryWatchListener listener) {
+		this.watchListener = listener;
+	}
+	
+	/**
+	 * Enables or disables notification of the {@link IMemoryWatchListener} about accesses
+	 * to the page containing a given word address.
+	 * 
+	 * @param wordAddress
+	 * @param watched
+	 * @see #clearWatchedPages()
+	 */
+	public void setPageWatched(int wordAddress,boolean watched) {
+		watchedPages[ ( wordAddress & 0xffff ) >>> PAGE_SHIFT ] = watched;
+	}
+	
+	/**
+	 * Marks all pages as not being watched.
+	 * 
+	 * @see #setPageWatched(int, boolean)
+	 */
+	public void clearWatchedPages() {
+		for ( int i = 0 ; i < PAGE_COUNT ; i++ ) {
+			watchedPages[i] = false;
+		}
+	}
 
 	/**
 	 * Replaces a mapped memory region with plain (unmapped) main-memory.
@@ -221,8 +335,6 @@ public final class MainMemory implements IMemory, IMemoryTypes
 
 		synchronized(regions) 
 		{
-			lastReadLookup = lastWriteLookup = NOP_RANGE;			
-			
 		    boolean found = false;
 			for (Iterator<IMemoryRegion> it = regions.iterator(); it.hasNext();) {
 				final IMemoryRegion existing = it.next();
@@ -329,105 +441,71 @@ public final class MainMemory implements IMemory, IMemoryTypes
 		
 		synchronized( regions ) 
 		{
-			lastReadLookup = lastWriteLookup = NOP_RANGE;
-			
 			// copy existing memory contents into new region
 			MemUtils.memCopy( this , newRegion , newRegion.getAddressRange().getStartAddress() , newRegion.getSize() );
 			
-			boolean intersects = false;
-			do 
-			{
-				intersects = false;
-				int index = 0;
-				
-				final int len = regions.size();
-				for ( int i = 0 ; i < len ; i++ ) 
-				{
-					final IMemoryRegion existing = regions.get(i);
-					if ( existing.getAddressRange().intersectsWith( newRegion.getAddressRange() ) ) 
-					{
-						regions.remove( index ); // remove existing region
-
-						if ( existing.getAddressRange().equals( newRegion.getAddressRange() ) ) {
-							// simple case, just replacing an existing region
-							regions.add( index , newRegion );
-							return;
-						}
-
-						regions.addAll( index , existing.split( newRegion.getAddressRange() ) );
-						intersects = true;
-						break;
-					}
-					index++;
-				}
-			} while ( intersects );
-
-			// no intersection, just insert into the list
-			final int len = regions.size();
-			for ( int index = 0 ; index < len ; index++) 
-			{
-				IMemoryRegion existing = regions.get(index);
-				if ( newRegion.getAddressRange().getStartAddress().isLessThan( existing.getAddressRange().getStartAddress() ) ) {
-					regions.add( index , newRegion );
-					return;
-				}
-				index++;
-			}
-			regions.add( newRegion );
+			insertRegion( newRegion );
+			
+			// publish new memory layout
+			pageTable = new PageTable( regions );
+		}
+		if ( writeListener != null ) {
+			writeListener.rangeChanged( newRegion.getAddressRange() );
 		}
 	}
-
-	private IMemoryRegion getReadRegion(int wordAddress) 
+	
+	// @GuardedBy( regions )
+	private void insertRegion(IMemoryRegion newRegion) 
 	{
-		synchronized( regions ) 
+		boolean intersects = false;
+		do 
 		{
-			// TODO: performance - Maybe replace with binary search ??
-			if ( lastReadLookup.contains( wordAddress ) ) {
-				return lastReadLookup;
-			}
+			intersects = false;
+			int index = 0;
+			
 			final int len = regions.size();
-			for ( int i = 0 ; i < len ; i++ )
+			for ( int i = 0 ; i < len ; i++ ) 
 			{
-				final IMemoryRegion r = regions.get(i);
-				if ( r.contains( wordAddress ) ) {
-					lastReadLookup = r;
-					return r;
+				final IMemoryRegion existing = regions.get(i);
+				if ( existing.getAddressRange().intersectsWith( newRegion.getAddressRange() ) ) 
+				{
+					regions.remove( index ); // remove existing region
+
+					if ( existing.getAddressRange().equals( newRegion.getAddressRange() ) ) {
+						// simple case, just replacing an existing region
+						regions.add( index , newRegion );
+						return;
+					}
+
+					regions.addAll( index , existing.split( newRegion.getAddressRange() ) );
+					intersects = true;
+					break;
 				}
+				index++;
 			}
-		}
+		} while ( intersects );
 
-		// address not mapped...
-		LOG.error("getRegion(): Access to unmapped address 0x"+Misc.toHexString( wordAddress ) );
-		LOG.error("getRegion(): Memory layout:\n\n");
-		synchronized( regions ) 
+		// no intersection, just insert into the list
+		final int len = regions.size();
+		for ( int index = 0 ; index < len ; index++) 
 		{
-			for ( IMemoryRegion r : regions ) 
-			{
-				LOG.error("getRegion(): " + r );
+			IMemoryRegion existing = regions.get(index);
+			if ( newRegion.getAddressRange().getStartAddress().isLessThan( existing.getAddressRange().getStartAddress() ) ) {
+				regions.add( index , newRegion );
+				return;
 			}
+			index++;
 		}
-		throw new RuntimeException("Address not mapped: 0x"+Misc.toHexString( wordAddress ));		
+		regions.add( newRegion );
 	}
-	
-	private IMemoryRegion getWriteRegion(int wordAddress) 
+
+	private IMemoryRegion getRegion(PageTable table,int wordAddress) 
 	{
-		synchronized( regions ) 
-		{
-			// TODO: performance - Maybe replace with binary search ??
-			if ( lastWriteLookup.contains( wordAddress ) ) {
-				return lastWriteLookup;
-			}
-			final int len = regions.size();
-			for ( int i = 0 ; i < len ; i++ )
-			{
-				final IMemoryRegion r = regions.get(i);
-				if ( r.contains( wordAddress ) ) {
-					lastWriteLookup = r;
-					return r;
-				}
-			}
+		final IMemoryRegion result = table.getRegion( wordAddress );
+		if ( result != null ) {
+			return result;
 		}
-
+		
 		// address not mapped...
 		LOG.error("getRegion(): Access to unmapped address 0x"+Misc.toHexString( wordAddress ) );
 		LOG.error("getRegion(): Memory layout:\n\n");
@@ -439,7 +517,7 @@ public final class MainMemory implements IMemory, IMemoryTypes
 			}
 		}
 		throw new RuntimeException("Address not mapped: 0x"+Misc.toHexString( wordAddress ));		
-	}	
+	}
 	
 	@Override
 	public int read(Address adr)
@@ -451,13 +529,65 @@ public final class MainMemory implements IMemory, IMemoryTypes
 	@Override
 	public int read(int address)
 	{
-		final IMemoryRegion region = getReadRegion( address );
-        int newValue = address - region.getAddressRange().getStartAddress().getWordAddressValue();
-        if ( newValue < 0 ) {
-            newValue = (int) ( (WordAddress.MAX_ADDRESS+1)+newValue );
-        }		
-		return region.read( newValue );
+		final PageTable table = pageTable;
+		final IMemoryRegion region = getRegion( table , address );
+		final int value = region.read( table.getOffset( address ) );
+		if ( watchedPages[ address >>> PAGE_SHIFT ] ) {
+			notifyWordRead( address , value );
+		}
+		return value;
 	}	
+	
+	private void notifyWordRead(int address,int value) 
+	{
+		final IMemoryWatchListener listener = watchListener;
+		if ( listener != null ) {
+			listener.wordRead( address , value );
+		}
+	}
+
+	/**
+	 * Returns whether an address is backed by plain RAM.
+	 * 
+	 * <p>The contents of plain RAM only ever change through this class , so
+	 * all changes are reported to the {@link IMemoryWriteListener}. Memory-mapped regions 
+	 * (video RAM , keyboard buffers etc.) may also get modified by their device directly.</p>
+	 * 
+	 * @param wordAddress
+	 * @return
+	 */
+	public boolean isPlainRAM(int wordAddress) 
+	{
+		final PageTable table = pageTable;
+		final IMemoryRegion region = getRegion( table , wordAddress );
+		return region instanceof RAMRegion || region instanceof CopyOnWriteRAMRegion;
+	}
+	
+	/**
+	 * Publishes all memory writes done by the current thread so far.
+	 * 
+	 * <p>Plain RAM (see {@link RAMRegion}) is not thread-safe , the emulation thread 
+	 * invokes this method at safe points so that other threads using {@link #snapshot(int, int[])} 
+	 * are guaranteed to see all writes done up to this point.</p>
+	 */
+	public void publishWrites() {
+		publishedWrites++; // volatile write, there's only one thread calling this method
+	}
+	
+	@Override
+	public void snapshot(int wordAddress, int[] target) 
+	{
+		if ( publishedWrites < 0 ) { // volatile read , creates happens-before edge with publishWrites()
+			LOG.debug("snapshot(): Counter wrapped around");
+		}
+		final PageTable table = pageTable;
+		int current = wordAddress & 0xffff;
+		for ( int i = 0 ; i < target.length ; i++ ) 
+		{
+			target[i] = getRegion( table , current ).read( table.getOffset( current ) );
+			current = ( current + 1 ) & 0xffff;
+		}
+	}
 
 	private void checkWritePermitted(int wordAddress, int value ) throws MemoryProtectionFaultException
 	{
@@ -473,17 +603,27 @@ public final class MainMemory implements IMemory, IMemoryTypes
 	@Override
 	public void write(int wordAddress, int value) throws MemoryProtectionFaultException
 	{
-        final IMemoryRegion region = getWriteRegion( wordAddress );
+		final PageTable table = pageTable;
+		final IMemoryRegion region = getRegion( table , wordAddress );
         
 		if ( checkWriteAccess ) {
 			checkWritePermitted(wordAddress,value);
 		}
-
-        int newValue = wordAddress - region.getAddressRange().getStartAddress().getWordAddressValue();
-        if ( newValue < 0 ) {
-            newValue = (int) ( (WordAddress.MAX_ADDRESS+1)+newValue );
-        }			
-		region.write( newValue , value );
+		final int offset = table.getOffset( wordAddress );
+		if ( watchedPages[ wordAddress >>> PAGE_SHIFT ] ) 
+		{
+			final int oldValue = region.read( offset );
+			region.write( offset , value );
+			final IMemoryWatchListener listener = watchListener;
+			if ( listener != null ) {
+				listener.wordWritten( wordAddress , oldValue , value & 0xffff );
+			}
+		} else {
+			region.write( offset , value );
+		}
+		if ( writeListener != null ) {
+			writeListener.wordWritten( wordAddress );
+		}
 	}
 	
 	@Override
@@ -492,6 +632,73 @@ public final class MainMemory implements IMemory, IMemoryTypes
 		write( adr.getWordAddressValue() , value );
 	}
 
+	/**
+	 * Writes consecutive memory words.
+	 * 
+	 * <p>The write either succeeds as a whole or (if part of the address range is write-protected) 
+	 * fails without changing any memory. Consecutive words backed by the same region are handed to the
+	 * region at once , the {@link IMemoryWriteListener} gets notified about the whole range.</p>
+	 * 
+	 * @throws MemoryProtectionFaultException
+	 */
+	@Override
+	public void bulkWrite(int wordAddress, int[] source, int sourceOffset, int count) throws MemoryProtectionFaultException
+	{
+		final int start = wordAddress & 0xffff;
+		if ( checkWriteAccess ) 
+		{
+			for ( int i = 0 ; i < count ; i++ ) {
+				checkWritePermitted( ( start + i ) & 0xffff , source[ sourceOffset + i ] );
+			}
+		}
+
+		final PageTable table = pageTable;
+		int i = 0;
+		while ( i < count ) 
+		{
+			final int address = ( start + i ) & 0xffff;
+			final IMemoryRegion region = getRegion( table , address );
+			final int offset = table.getOffset( address );
+			if ( watchedPages[ address >>> PAGE_SHIFT ] ) 
+			{
+				final int value = source[ sourceOffset + i ];
+				final int oldValue = region.read( offset );
+				region.write( offset , value );
+				final IMemoryWatchListener listener = watchListener;
+				if ( listener != null ) {
+					listener.wordWritten( address , oldValue , value & 0xffff );
+				}
+				i++;
+				continue;
+			}
+
+			// extend run as long as the same region continues 
+			int runLength = 1;
+			while ( i + runLength < count ) 
+			{
+				final int next = ( address + runLength ) & 0xffff;
+				if ( next == 0 || watchedPages[ next >>> PAGE_SHIFT ] || table.getRegion( next ) != region || 
+					 table.getOffset( next ) != offset + runLength ) 
+				{
+					break;
+				}
+				runLength++;
+			}
+			region.bulkWrite( offset , source , sourceOffset + i , runLength );
+			i += runLength;
+		}
+
+		if ( writeListener != null && count > 0 ) 
+		{
+			final int words = Math.min( count , 65536 );
+			final int firstPart = Math.min( words , 65536 - start );
+			writeListener.rangeChanged( new AddressRange( Address.wordAddress( start ) , Size.words( firstPart ) ) );
+			if ( firstPart < words ) {
+				writeListener.rangeChanged( new AddressRange( WordAddress.ZERO , Size.words( words - firstPart ) ) );
+			}
+		}
+	}
+
 	@Override
 	public Size getSize()
 	{
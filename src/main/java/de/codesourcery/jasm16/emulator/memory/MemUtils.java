@@ -17,7 +17,6 @@ package de.codesourcery.jasm16.emulator.memory;
 
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Size;
-import de.codesourcery.jasm16.utils.IMemoryIterator;
 
 /**
  * Utility methods related to the emulator's DCPU-16  memory emulation.
@@ -69,20 +68,24 @@ public class MemUtils
     	final int numberOfBytesToRead = numBytesToRead.toSizeInBytes().getValue();
         final byte[] result = new byte[numberOfBytesToRead];
         
-        final IMemoryIterator iterator = new MemoryIterator(memory,startAddress,
-        		Size.bytes( numberOfBytesToRead) , wrap ); 
-
-        int bytesLeft = numberOfBytesToRead;
-        for ( int index = 0 ; iterator.hasNext() && bytesLeft > 0 ; ) 
+        final int startWord = startAddress.toWordAddress().getValue();
+        int wordsToRead = ( numberOfBytesToRead + 1 ) / 2;
+        if ( ! wrap ) 
         {
-            final int value = iterator.nextWord();
-            result[index++] = (byte) ( ( value  >>> 8 ) & 0xff );      
-            bytesLeft--;
-            if ( bytesLeft <= 0 ) {
-                break;
-            }
-            result[index++] = (byte) ( value & 0xff );
-            bytesLeft--;
+            // stop at the end of memory , bytes past it are left zero
+            final int wordsAvailable = memory.getSize().toSizeInWords().getValue() - startWord;
+            wordsToRead = Math.max( 0 , Math.min( wordsToRead , wordsAvailable ) );
+        }
+        
+        // bulk copy , safe to use while the emulation is running
+        final int[] words = new int[ wordsToRead ];
+        memory.snapshot( startWord , words );
+        
+        final int bytesToCopy = Math.min( numberOfBytesToRead , wordsToRead * 2 );
+        for ( int index = 0 ; index < bytesToCopy ; index++ ) 
+        {
+            final int value = words[ index >>> 1 ];
+            result[index] = (byte) ( ( index & 1 ) == 0 ? ( value >>> 8 ) & 0xff : value & 0xff );
         }
         return result;        
     }    
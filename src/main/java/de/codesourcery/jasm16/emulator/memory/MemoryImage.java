@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.memory;
+
+import de.codesourcery.jasm16.Address;
+
+/**
+ * An immutable image of the DCPU-16's complete 64k words address space.
+ *
+ * <p>Images are split into pages that are shared by all {@link CopyOnWriteRAMRegion}s created from
+ * an image , so any number of emulators can load the same program while only paying for the memory
+ * pages they actually modify.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see MainMemory#loadImage(MemoryImage)
+ */
+public final class MemoryImage
+{
+	public static final int PAGE_SHIFT = 8;
+	public static final int PAGE_SIZE_IN_WORDS = 1 << PAGE_SHIFT;
+	public static final int PAGE_MASK = PAGE_SIZE_IN_WORDS - 1;
+	public static final int PAGE_COUNT = 65536 / PAGE_SIZE_IN_WORDS;
+
+	// shared by all pages that only contain zeros
+	protected static final int[] ZERO_PAGE = new int[ PAGE_SIZE_IN_WORDS ];
+
+	private final int[][] pages = new int[ PAGE_COUNT ][];
+	private final Address startAddress;
+	private final int lengthInBytes;
+
+	private MemoryImage(Address startAddress,int lengthInBytes)
+	{
+		this.startAddress = startAddress;
+		this.lengthInBytes = lengthInBytes;
+	}
+
+	/**
+	 * Creates an image from object code.
+	 *
+	 * @param startAddress address the object code should be located at
+	 * @param data object code , words are stored in big-endian order. Data that
+	 * does not fit into the address space wraps around to address 0.
+	 * @return
+	 */
+	public static MemoryImage create(Address startAddress,byte[] data)
+	{
+		if (startAddress == null) {
+			throw new IllegalArgumentException("startAddress must not be null");
+		}
+		if (data == null) {
+			throw new IllegalArgumentException("data must not be null");
+		}
+
+		final int[] words = new int[ 65536 ];
+		int address = startAddress.toWordAddress().getValue();
+		for ( int i = 0 ; i < data.length ; i+=2 , address = ( address + 1 ) & 0xffff )
+		{
+			final int hi = data[i] & 0xff;
+			final int lo = i+1 < data.length ? data[i+1] & 0xff : 0;
+			words[ address ] = ( hi << 8 ) | lo;
+		}
+		return create( startAddress , data.length , words );
+	}
+
+	/**
+	 * Creates an image of the complete address space.
+	 *
+	 * @param words contents of all 65536 memory words , the array is not modified
+	 * @return
+	 */
+	public static MemoryImage create(int[] words)
+	{
+		if ( words == null || words.length != 65536 ) {
+			throw new IllegalArgumentException("words must have 65536 elements");
+		}
+		return create( Address.wordAddress( 0 ) , 65536*2 , words );
+	}
+
+	private static MemoryImage create(Address startAddress,int lengthInBytes,int[] words)
+	{
+		final MemoryImage result = new MemoryImage( startAddress , lengthInBytes );
+		for ( int page = 0 ; page < PAGE_COUNT ; page++ )
+		{
+			int[] pageData = null;
+			final int offset = page << PAGE_SHIFT;
+			for ( int i = 0 ; i < PAGE_SIZE_IN_WORDS ; i++ ) {
+				if ( words[ offset + i ] != 0 ) {
+					pageData = new int[ PAGE_SIZE_IN_WORDS ];
+					for ( int j = 0 ; j < PAGE_SIZE_IN_WORDS ; j++ ) {
+						pageData[j] = words[ offset + j ] & 0xffff;
+					}
+					break;
+				}
+			}
+			result.pages[ page ] = pageData != null ? pageData : ZERO_PAGE;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether a page only contains zeros.
+	 *
+	 * @param page page number ( 0...{@link #PAGE_COUNT}-1 )
+	 * @return
+	 */
+	public boolean isZeroPage(int page) {
+		return pages[ page ] == ZERO_PAGE;
+	}
+
+	/**
+	 * Returns the shared page for a given word address.
+	 *
+	 * <p>Callers must never modify the returned array.</p>
+	 *
+	 * @param wordAddress
+	 * @return
+	 */
+	protected int[] getPage(int wordAddress) {
+		return pages[ ( wordAddress & 0xffff ) >>> PAGE_SHIFT ];
+	}
+
+	public int read(int wordAddress) {
+		return getPage( wordAddress )[ wordAddress & PAGE_MASK ];
+	}
+
+	public Address getStartAddress() {
+		return startAddress;
+	}
+
+	/**
+	 * Returns the length of the object code this image was created from.
+	 *
+	 * @return
+	 */
+	public int getLengthInBytes() {
+		return lengthInBytes;
+	}
+}
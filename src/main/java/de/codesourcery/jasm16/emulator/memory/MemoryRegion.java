@@ -15,19 +15,10 @@
  */
 package de.codesourcery.jasm16.emulator.memory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicIntegerArray;
 
-import org.apache.commons.lang.StringUtils;
-
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.AddressRange;
-import de.codesourcery.jasm16.Size;
-import de.codesourcery.jasm16.Size.SizeInWords;
 
 /**
  * A memory region.
@@ -35,66 +26,23 @@ import de.codesourcery.jasm16.Size.SizeInWords;
  * <p>Each region has a (non-unique) name for informational purposes along with
  * the address range covered by this memory region.</p>
  * 
+ * <p>Memory contents are stored in an {@link AtomicIntegerArray} so this region
+ * may safely be written and read by different threads (for example by the emulation
+ * and a device's refresh thread).</p>
+ * 
  * @author tobias.gierke@code-sourcery.de
+ * @see RAMRegion
  */
-public class MemoryRegion implements IMemoryRegion , IMemoryTypes {
+public class MemoryRegion extends AbstractMemoryRegion {
     
-    private final String regionName;
-    private final AddressRange addressRange;
     private final AtomicIntegerArray memory;
-    private final boolean supportsMerging; // distinct field and not just a flag for speed reasons
-    private final Set<Flag> flags = new HashSet<>();
-    private final long typeId;
     
     public MemoryRegion(String regionName , long typeId , AddressRange range,Flag... flags) 
     {
-        if (StringUtils.isBlank(regionName)) {
-            throw new IllegalArgumentException("regionName must not be NULL/blank.");
-        }
-        if ( range == null ) {
-            throw new IllegalArgumentException("startingAddress must not be NULL.");
-        }
-        final SizeInWords sizeInWords = range.getSize().toSizeInWords();
-        if ( sizeInWords.getValue() < 1 ) {
-            throw new IllegalArgumentException("Memory size must be >= 1 word(s), invalid address range passed: "+range);
-        }
-        if ( flags != null ) {
-        	this.flags.addAll( Arrays.asList( flags ) );
-        }
-        this.typeId = typeId;
-    	this.supportsMerging = this.flags.contains( Flag.SUPPORTS_MERGING );
-        this.memory = new  AtomicIntegerArray( sizeInWords.getValue() );
-        this.addressRange = range;
-        this.regionName = regionName;    	
+        super( regionName , typeId , range , flags );
+        this.memory = new  AtomicIntegerArray( range.getSize().toSizeInWords().getValue() );
     }
 
-    @Override
-    public boolean contains(int wordAddress) {
-    	return addressRange.contains( wordAddress );
-    }
-    
-    @Override
-    public long getTypeId() {
-    	return typeId;
-    }
-    
-    public Set<Flag> getFlags() {
-		return new HashSet<Flag>( this.flags );
-	}
-    
-    public boolean hasFlag(Flag flag) {
-    	if (flag == null) {
-			throw new IllegalArgumentException("flag must not be null");
-		}
-    	return flags.contains( flag );
-    }
-    
-    @Override
-    public boolean supportsMerging()
-    {
-        return supportsMerging;
-    }
-    
     public int read(int wordAddress) {
         return memory.get( wordAddress );
     }
@@ -110,7 +58,7 @@ public class MemoryRegion implements IMemoryRegion , IMemoryTypes {
     public void write(Address address,int value) {
         memory.set( address.toWordAddress().getValue() , value & 0xffff);
     }
-
+    
     @Override
     public void clear()
     {
@@ -121,23 +69,12 @@ public class MemoryRegion implements IMemoryRegion , IMemoryTypes {
     }
 
     @Override
-    public Size getSize()
+    protected IMemoryRegion createCopy(AddressRange range) 
     {
-        return addressRange.getSize();
-    }
-
-    @Override
-    public String getRegionName()
-    {
-        return regionName;
-    }
-    
-    private IMemoryRegion createCopy(AddressRange range) 
-    {
-        final MemoryRegion result = new MemoryRegion( regionName , this.typeId , range , this.flags.toArray(new Flag[this.flags.size()]));
+        final MemoryRegion result = new MemoryRegion( getRegionName() , getTypeId() , range , getFlagsArray() );
 
         final int numberOfMemWordsToCopy= range.getSize().toSizeInWords().getValue();
-        int readAddress = ( range.getStartAddress().minus( getAddressRange().getStartAddress() ) ).toWordAddress().getValue();
+        int readAddress = getOffset( range );
         
         for ( int index = 0 ; index < numberOfMemWordsToCopy; index++ ) 
         {
@@ -145,28 +82,4 @@ public class MemoryRegion implements IMemoryRegion , IMemoryTypes {
         }
         return result;
     }
-
-    @Override
-    public List<IMemoryRegion> split(AddressRange gap)
-    {
-        final List<AddressRange> regions = addressRange.subtract( gap );
-        final List<IMemoryRegion> result = new ArrayList<>();
-        
-        for ( AddressRange region : regions ) {
-            result.add( createCopy( region ) );
-        }
-        return result;
-    }
-
-    @Override
-    public AddressRange getAddressRange()
-    {
-        return addressRange;
-    }
-    
-    @Override
-    public String toString()
-    {
-        return getRegionName()+" - "+getAddressRange().toString();
-    }    
-}
\ No newline at end of file
+}
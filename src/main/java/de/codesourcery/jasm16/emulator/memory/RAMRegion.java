@@ -0,0 +1,98 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.memory;
+
+import java.util.Arrays;
+
+import de.codesourcery.jasm16.AddressRange;
+
+/**
+ * Plain RAM backed by an <code>int</code> array.
+ * 
+ * <p>Unlike {@link MemoryRegion} , reads and writes are NOT volatile so this region 
+ * must only be modified by a single thread (the emulation) ; other threads need to
+ * use {@link #snapshot(int, int[])} on the {@link MainMemory} this region is
+ * mapped into to get a consistent view of the region's contents.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see MainMemory#publishWrites()
+ */
+public final class RAMRegion extends AbstractMemoryRegion {
+    
+    private final int[] memory;
+    
+    public RAMRegion(String regionName , long typeId , AddressRange range,Flag... flags) 
+    {
+        super( regionName , typeId , range , flags );
+        this.memory = new int[ range.getSize().toSizeInWords().getValue() ];
+    }
+
+    public int read(int wordAddress) {
+        return memory[ wordAddress ];
+    }
+    
+    public void write(int wordAddress,int value) {
+        memory[ wordAddress ] = value & 0xffff;
+    }
+    
+    @Override
+    public void snapshot(int wordAddress, int[] target) 
+    {
+        final int size = memory.length;
+        int srcPos = wordAddress % size;
+        int destPos = 0;
+        while ( destPos < target.length ) 
+        {
+            final int count = Math.min( target.length - destPos , size - srcPos );
+            System.arraycopy( memory , srcPos , target , destPos , count );
+            destPos += count;
+            srcPos = 0;
+        }
+    }
+    
+    @Override
+    public void bulkWrite(int wordAddress, int[] source, int sourceOffset, int count) 
+    {
+        final int size = memory.length;
+        int dstPos = wordAddress % size;
+        int srcPos = sourceOffset;
+        int remaining = count;
+        while ( remaining > 0 ) 
+        {
+            final int chunk = Math.min( remaining , size - dstPos );
+            for ( int i = 0 ; i < chunk ; i++ ) {
+                memory[ dstPos + i ] = source[ srcPos + i ] & 0xffff;
+            }
+            srcPos += chunk;
+            remaining -= chunk;
+            dstPos = 0;
+        }
+    }
+    
+    @Override
+    public void clear()
+    {
+        Arrays.fill( memory , 0 );
+    }
+
+    @Override
+    protected IMemoryRegion createCopy(AddressRange range) 
+    {
+        final RAMRegion result = new RAMRegion( getRegionName() , getTypeId() , range , getFlagsArray() );
+        System.arraycopy( memory , getOffset( range ) , result.memory , 0 , result.memory.length );
+        return result;
+    }
+}
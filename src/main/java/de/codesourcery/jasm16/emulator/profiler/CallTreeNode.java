@@ -0,0 +1,135 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.profiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in the call tree recorded by {@link CycleProfiler}.
+ *
+ * <p>Each node represents a subroutine (entered through <code>JSR</code>) or an interrupt handler
+ * invoked along a specific path of calls , the root node represents all code executed outside of any
+ * subroutine.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CallTreeNode
+{
+	private final CallTreeNode parent;
+	private final int entryAddress;
+	private final boolean interruptHandler;
+	private final List<CallTreeNode> children = new ArrayList<CallTreeNode>();
+
+	protected long selfCycles;
+	protected long invocations;
+
+	protected CallTreeNode() {
+		this( null , -1 , false );
+	}
+
+	private CallTreeNode(CallTreeNode parent,int entryAddress,boolean interruptHandler)
+	{
+		this.parent = parent;
+		this.entryAddress = entryAddress;
+		this.interruptHandler = interruptHandler;
+	}
+
+	protected CallTreeNode getOrCreateChild(int entryAddress,boolean interruptHandler)
+	{
+		for ( int i = 0 , len = children.size() ; i < len ; i++ )
+		{
+			final CallTreeNode child = children.get(i);
+			if ( child.entryAddress == entryAddress && child.interruptHandler == interruptHandler ) {
+				return child;
+			}
+		}
+		final CallTreeNode child = new CallTreeNode( this , entryAddress , interruptHandler );
+		children.add( child );
+		return child;
+	}
+
+	protected CallTreeNode createCopy(CallTreeNode newParent)
+	{
+		final CallTreeNode result = new CallTreeNode( newParent , entryAddress , interruptHandler );
+		result.selfCycles = selfCycles;
+		result.invocations = invocations;
+		for ( CallTreeNode child : children ) {
+			result.children.add( child.createCopy( result ) );
+		}
+		return result;
+	}
+
+	public boolean isRoot() {
+		return parent == null;
+	}
+
+	public CallTreeNode getParent() {
+		return parent;
+	}
+
+	/**
+	 * Returns the address of the subroutine/interrupt handler.
+	 *
+	 * @return address or -1 for the root node
+	 */
+	public int getEntryAddress() {
+		return entryAddress;
+	}
+
+	public boolean isInterruptHandler() {
+		return interruptHandler;
+	}
+
+	public List<CallTreeNode> getChildren() {
+		return Collections.unmodifiableList( children );
+	}
+
+	/**
+	 * Returns the number of cycles spent in this subroutine , excluding
+	 * any subroutines it invoked.
+	 *
+	 * @return
+	 */
+	public long getSelfCycles() {
+		return selfCycles;
+	}
+
+	/**
+	 * Returns the number of cycles spent in this subroutine and
+	 * any subroutines it invoked.
+	 *
+	 * @return
+	 */
+	public long getTotalCycles()
+	{
+		long result = selfCycles;
+		for ( CallTreeNode child : children ) {
+			result += child.getTotalCycles();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns how often this subroutine was invoked along this call path.
+	 *
+	 * @return
+	 */
+	public long getInvocationCount() {
+		return invocations;
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.profiler;
+
+import de.codesourcery.jasm16.emulator.ICPU;
+import de.codesourcery.jasm16.emulator.IEmulator;
+import de.codesourcery.jasm16.emulator.IScheduledEvent;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+import de.codesourcery.jasm16.emulator.memory.IReadOnlyMemory;
+
+/**
+ * Measures where CPU cycles are spent.
+ *
+ * <p>The profiler supports two modes:
+ * <ul>
+ *   <li>{@link Mode#EXACT}: The emulator reports each executed instruction , cycles are accumulated per
+ *   instruction address and a call tree is recorded by tracking <code>JSR</code> instructions and interrupts. Subroutines
+ *   and interrupt handlers are considered to have returned as soon as the stack pointer moves above the
+ *   position it had right after entering them , so <code>SET PC,POP</code> , <code>RFI</code> and any other way to clean up
+ *   the stack work. Instructions are executed one by one in this mode.</li>
+ *   <li>{@link Mode#SAMPLING}: The program counter is sampled every <code>n</code> cycles using a scheduled event
+ *   (see {@link IEmulator#scheduleEvent(int, IScheduledEvent)}). Much cheaper since the emulator may
+ *   still execute instructions in batches but only provides an estimate per address and no call tree. Samples
+ *   are attributed to the instruction executed right after the sample was taken.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>This class is NOT thread-safe , the emulator updates the profiler while holding its CPU lock so
+ * {@link #createProfile()} and {@link #clear()} need to be invoked through {@link IEmulator#doWithEmulator(de.codesourcery.jasm16.emulator.IEmulatorInvoker)}
+ * while the profiler is attached to an emulator.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see IEmulator#setProfiler(CycleProfiler)
+ */
+public final class CycleProfiler
+{
+	public static final int DEFAULT_SAMPLING_INTERVAL = 100;
+
+	// JSR is a special opcode (basic opcode 0 , special opcode 1 in bits 5-9)
+	private static final int SPECIAL_OPCODE_MASK = 0x3ff;
+	private static final int JSR = 0x01 << 5;
+
+	private static final int MAX_CALL_DEPTH = 1024;
+
+	public static enum Mode {
+		EXACT,
+		SAMPLING;
+	}
+
+	private final Mode mode;
+	private final int samplingInterval;
+
+	private final long[] cycles = new long[ 65536 ];
+	private final long[] executions = new long[ 65536 ];
+	private long totalCycles;
+
+	private CallTreeNode root = new CallTreeNode();
+	private final CallTreeNode[] callStack = new CallTreeNode[ MAX_CALL_DEPTH ];
+	// stack depth ( number of words on the stack ) right after entering a subroutine
+	private final int[] stackDepth = new int[ MAX_CALL_DEPTH ];
+	private int top;
+
+	private final IScheduledEvent sampler = new IScheduledEvent()
+	{
+		@Override
+		public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+		{
+			final int pc = cpu.getPC().getWordAddressValue();
+			cycles[ pc ] += samplingInterval;
+			executions[ pc ]++;
+			totalCycles += samplingInterval;
+			emulator.scheduleEvent( samplingInterval , this );
+		}
+	};
+
+	/**
+	 * Creates an exact profiler.
+	 */
+	public CycleProfiler() {
+		this( Mode.EXACT , DEFAULT_SAMPLING_INTERVAL );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param mode
+	 * @param samplingIntervalInCycles sampling interval , ignored in {@link Mode#EXACT} mode
+	 */
+	public CycleProfiler(Mode mode,int samplingIntervalInCycles)
+	{
+		if (mode == null) {
+			throw new IllegalArgumentException("mode must not be null");
+		}
+		if ( samplingIntervalInCycles < 1 ) {
+			throw new IllegalArgumentException("sampling interval must be >= 1");
+		}
+		this.mode = mode;
+		this.samplingInterval = samplingIntervalInCycles;
+		callStack[0] = root;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getSamplingInterval() {
+		return samplingInterval;
+	}
+
+	/**
+	 * Returns the event used to take samples in {@link Mode#SAMPLING} mode.
+	 *
+	 * <p>The emulator schedules this event when the profiler gets attached , the event
+	 * re-schedules itself.</p>
+	 *
+	 * @return
+	 */
+	public IScheduledEvent getSampler() {
+		return sampler;
+	}
+
+	private static int getStackDepth(int sp) {
+		return ( -sp ) & 0xffff;
+	}
+
+	/**
+	 * Invoked by the emulator after each instruction in {@link Mode#EXACT} mode.
+	 *
+	 * @param pc address of the executed instruction
+	 * @param durationInCycles
+	 * @param newPC program counter after the instruction (and interrupt processing)
+	 * @param sp stack pointer after the instruction (and interrupt processing)
+	 * @param interruptTaken whether an interrupt was processed right after the instruction
+	 * @param memory
+	 */
+	@SuppressWarnings("deprecation")
+	public void instructionExecuted(int pc,int durationInCycles,int newPC,int sp,boolean interruptTaken,IReadOnlyMemory memory)
+	{
+		cycles[ pc ] += durationInCycles;
+		executions[ pc ]++;
+		totalCycles += durationInCycles;
+		callStack[ top ].selfCycles += durationInCycles;
+
+		// interrupt processing pushed PC and A
+		final int depth = getStackDepth( sp ) - ( interruptTaken ? 2 : 0 );
+		while ( top > 0 && depth < stackDepth[ top ] ) {
+			top--;
+		}
+
+		if ( ( memory.read( pc ) & SPECIAL_OPCODE_MASK ) == JSR ) {
+			// if an interrupt was taken , the subroutine's address is the PC pushed by the interrupt
+			enter( interruptTaken ? memory.read( ( sp + 1 ) & 0xffff ) : newPC , depth , false );
+		}
+		if ( interruptTaken ) {
+			enter( newPC , depth + 2 , true );
+		}
+	}
+
+	private void enter(int entryAddress,int depth,boolean interruptHandler)
+	{
+		if ( top == MAX_CALL_DEPTH - 1 ) { // runaway recursion , attribute everything to the deepest subroutine
+			return;
+		}
+		final CallTreeNode node = callStack[ top ].getOrCreateChild( entryAddress , interruptHandler );
+		node.invocations++;
+		top++;
+		callStack[ top ] = node;
+		stackDepth[ top ] = depth;
+	}
+
+	/**
+	 * Discards all data recorded so far.
+	 */
+	public void clear()
+	{
+		for ( int i = 0 ; i < cycles.length ; i++ ) {
+			cycles[i] = 0;
+			executions[i] = 0;
+		}
+		totalCycles = 0;
+		root = new CallTreeNode();
+		callStack[0] = root;
+		top = 0;
+	}
+
+	/**
+	 * Creates a copy of the data recorded so far.
+	 *
+	 * @return
+	 */
+	public Profile createProfile() {
+		return new Profile( mode , cycles , executions , totalCycles , mode == Mode.EXACT ? root.createCopy( null ) : null );
+	}
+}
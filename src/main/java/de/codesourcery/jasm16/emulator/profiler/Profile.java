@@ -0,0 +1,354 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.profiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.compiler.DebugInfo;
+import de.codesourcery.jasm16.compiler.ICompilationUnit;
+import de.codesourcery.jasm16.compiler.ISymbol;
+import de.codesourcery.jasm16.compiler.Label;
+import de.codesourcery.jasm16.compiler.SourceLocation;
+import de.codesourcery.jasm16.emulator.profiler.CycleProfiler.Mode;
+import de.codesourcery.jasm16.utils.Misc;
+
+/**
+ * Immutable copy of the data recorded by a {@link CycleProfiler}.
+ *
+ * <p>All methods that take a {@link DebugInfo} accept <code>null</code> , addresses
+ * are reported as hexadecimal numbers then.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see CycleProfiler#createProfile()
+ */
+public final class Profile
+{
+	public static final String ROOT_FRAME = "[root]";
+	public static final String INTERRUPT_HANDLER_PREFIX = "[IRQ] ";
+
+	private final Mode mode;
+	private final long[] cycles;
+	private final long[] executions;
+	private final long totalCycles;
+	private final CallTreeNode callTree;
+
+	/**
+	 * Cycles spent in a part of the program.
+	 */
+	public static final class Entry
+	{
+		private final String name;
+		private long cycles;
+		private long executions;
+
+		protected Entry(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCycles() {
+			return cycles;
+		}
+
+		/**
+		 * Returns the number of executed instructions ({@link Mode#EXACT}) or the number of samples ({@link Mode#SAMPLING}).
+		 *
+		 * @return
+		 */
+		public long getExecutions() {
+			return executions;
+		}
+
+		@Override
+		public String toString() {
+			return name+": "+cycles+" cycles";
+		}
+	}
+
+	private static final Comparator<Entry> BY_CYCLES_DESCENDING = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry o1, Entry o2)
+		{
+			if ( o1.cycles != o2.cycles ) {
+				return o1.cycles > o2.cycles ? -1 : 1;
+			}
+			return o1.name.compareTo( o2.name );
+		}
+	};
+
+	/*
+	 * Global labels sorted ascending by address.
+	 */
+	private static final class LabelIndex
+	{
+		private final int[] addresses;
+		private final String[] names;
+
+		public LabelIndex(DebugInfo debugInfo)
+		{
+			final List<Label> labels = new ArrayList<Label>();
+			if ( debugInfo != null )
+			{
+				for ( ICompilationUnit unit : debugInfo.getCompilationUnits() )
+				{
+					for ( ISymbol symbol : unit.getSymbolTable().getSymbols() )
+					{
+						if ( symbol instanceof Label && symbol.isGlobalSymbol() && ((Label) symbol).getAddress() != null ) {
+							labels.add( (Label) symbol );
+						}
+					}
+				}
+			}
+			Collections.sort( labels , new Comparator<Label>() {
+
+				@Override
+				public int compare(Label o1, Label o2) {
+					return Integer.compare( o1.getAddress().getWordAddressValue() , o2.getAddress().getWordAddressValue() );
+				}
+			});
+			addresses = new int[ labels.size() ];
+			names = new String[ labels.size() ];
+			for ( int i = 0 ; i < addresses.length ; i++ )
+			{
+				addresses[i] = labels.get(i).getAddress().getWordAddressValue();
+				names[i] = labels.get(i).getName().getRawValue();
+			}
+		}
+
+		/**
+		 * Returns the index of the label at or before an address or -1.
+		 */
+		public int find(int address)
+		{
+			int idx = Arrays.binarySearch( addresses , address );
+			if ( idx < 0 ) {
+				idx = -( idx + 1 ) - 1;
+			} else {
+				// several labels may share the same address , use the first one
+				while ( idx > 0 && addresses[ idx-1 ] == address ) {
+					idx--;
+				}
+			}
+			return idx;
+		}
+
+		public String getName(int address)
+		{
+			final int idx = find( address );
+			if ( idx == -1 ) {
+				return "0x"+Misc.toHexString( address );
+			}
+			final int offset = address - addresses[idx];
+			return offset == 0 ? names[idx] : names[idx]+"+0x"+Integer.toHexString( offset );
+		}
+	}
+
+	protected Profile(Mode mode,long[] cycles,long[] executions,long totalCycles,CallTreeNode callTree)
+	{
+		this.mode = mode;
+		this.cycles = cycles.clone();
+		this.executions = executions.clone();
+		this.totalCycles = totalCycles;
+		this.callTree = callTree;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public long getTotalCycles() {
+		return totalCycles;
+	}
+
+	public long getCycles(int address) {
+		return cycles[ address & 0xffff ];
+	}
+
+	/**
+	 * Returns how often the instruction at a given address was executed ({@link Mode#EXACT}) or
+	 * sampled ({@link Mode#SAMPLING}).
+	 *
+	 * @param address
+	 * @return
+	 */
+	public long getExecutionCount(int address) {
+		return executions[ address & 0xffff ];
+	}
+
+	/**
+	 * Returns the call tree.
+	 *
+	 * @return call tree or <code>null</code> in {@link Mode#SAMPLING} mode
+	 */
+	public CallTreeNode getCallTree() {
+		return callTree;
+	}
+
+	/**
+	 * Returns the cycles spent per instruction address , sorted descending by cycles.
+	 *
+	 * @param debugInfo
+	 * @return
+	 */
+	public List<Entry> getFlatProfileByAddress(DebugInfo debugInfo)
+	{
+		final LabelIndex labels = new LabelIndex( debugInfo );
+		final List<Entry> result = new ArrayList<Entry>();
+		for ( int address = 0 ; address < cycles.length ; address++ )
+		{
+			if ( executions[address] != 0 )
+			{
+				final Entry entry = new Entry( "0x"+Misc.toHexString( address )+" ("+labels.getName( address )+")" );
+				entry.cycles = cycles[address];
+				entry.executions = executions[address];
+				result.add( entry );
+			}
+		}
+		Collections.sort( result , BY_CYCLES_DESCENDING );
+		return result;
+	}
+
+	/**
+	 * Returns the cycles spent after each (global) label , sorted descending by cycles.
+	 *
+	 * <p>Cycles are attributed to the nearest label at or before the address of each instruction.</p>
+	 *
+	 * @param debugInfo
+	 * @return
+	 */
+	public List<Entry> getFlatProfileByLabel(DebugInfo debugInfo)
+	{
+		final LabelIndex labels = new LabelIndex( debugInfo );
+		final Map<String,Entry> entries = new HashMap<String,Entry>();
+		for ( int address = 0 ; address < cycles.length ; address++ )
+		{
+			if ( executions[address] != 0 )
+			{
+				final int idx = labels.find( address );
+				final String name = idx == -1 ? "<no label>" : labels.names[idx];
+				add( entries , name , address );
+			}
+		}
+		return sorted( entries );
+	}
+
+	/**
+	 * Returns the cycles spent per source line , sorted descending by cycles.
+	 *
+	 * @param debugInfo
+	 * @return
+	 */
+	public List<Entry> getFlatProfileByLine(DebugInfo debugInfo)
+	{
+		final Map<String,Entry> entries = new HashMap<String,Entry>();
+		for ( int address = 0 ; address < cycles.length ; address++ )
+		{
+			if ( executions[address] != 0 )
+			{
+				final SourceLocation location = debugInfo != null ? debugInfo.getSourceLocation( Address.wordAddress( address ) ) : null;
+				final String name;
+				if ( location != null ) {
+					name = location.getCompilationUnit().getResource().getIdentifier()+":"+location.getLineNumber();
+				} else {
+					name = "<no source> 0x"+Misc.toHexString( address );
+				}
+				add( entries , name , address );
+			}
+		}
+		return sorted( entries );
+	}
+
+	private void add(Map<String,Entry> entries,String name,int address)
+	{
+		Entry entry = entries.get( name );
+		if ( entry == null ) {
+			entry = new Entry( name );
+			entries.put( name , entry );
+		}
+		entry.cycles += cycles[address];
+		entry.executions += executions[address];
+	}
+
+	private static List<Entry> sorted(Map<String,Entry> entries)
+	{
+		final List<Entry> result = new ArrayList<Entry>( entries.values() );
+		Collections.sort( result , BY_CYCLES_DESCENDING );
+		return result;
+	}
+
+	/**
+	 * Returns the name of a call tree node.
+	 *
+	 * @param node
+	 * @param debugInfo
+	 * @return
+	 */
+	public String getName(CallTreeNode node,DebugInfo debugInfo) {
+		return getName( node , new LabelIndex( debugInfo ) );
+	}
+
+	private static String getName(CallTreeNode node,LabelIndex labels)
+	{
+		if ( node.isRoot() ) {
+			return ROOT_FRAME;
+		}
+		final String name = labels.getName( node.getEntryAddress() );
+		return node.isInterruptHandler() ? INTERRUPT_HANDLER_PREFIX+name : name;
+	}
+
+	/**
+	 * Writes the call tree in the 'collapsed stacks' format understood by flame graph
+	 * tools (one line per call path , frames separated by semicolons followed by the number
+	 * of cycles spent in the last frame).
+	 *
+	 * @param out
+	 * @param debugInfo
+	 * @throws IOException
+	 * @throws IllegalStateException in {@link Mode#SAMPLING} mode
+	 */
+	public void writeCollapsedStacks(Writer out,DebugInfo debugInfo) throws IOException,IllegalStateException
+	{
+		if ( callTree == null ) {
+			throw new IllegalStateException("No call tree recorded in "+mode+" mode");
+		}
+		writeCollapsedStacks( callTree , "" , new LabelIndex( debugInfo ) , out );
+		out.flush();
+	}
+
+	private static void writeCollapsedStacks(CallTreeNode node,String prefix,LabelIndex labels,Writer out) throws IOException
+	{
+		final String path = prefix+getName( node , labels );
+		if ( node.getSelfCycles() > 0 ) {
+			out.write( path+" "+node.getSelfCycles()+"\n" );
+		}
+		for ( CallTreeNode child : node.getChildren() ) {
+			writeCollapsedStacks( child , path+";" , labels , out );
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads traces written by {@link TraceWriter}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class TraceReader implements Closeable
+{
+	private static final int BUFFER_SIZE = 1024*1024;
+
+	private final DataInputStream in;
+	private final TraceRecord record = new TraceRecord();
+	private final int startCycleCount;
+
+	public TraceReader(File file) throws IOException {
+		this( new BufferedInputStream( new FileInputStream( file ) , BUFFER_SIZE ) );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param in stream to read from , gets closed by {@link #close()}
+	 * @throws IOException if reading failed or the data is no valid trace
+	 */
+	public TraceReader(InputStream in) throws IOException
+	{
+		if (in == null) {
+			throw new IllegalArgumentException("input stream must not be null");
+		}
+		this.in = new DataInputStream( in );
+		if ( this.in.readInt() != TraceWriter.MAGIC ) {
+			throw new IOException("Not an instruction trace");
+		}
+		final int version = this.in.readUnsignedShort();
+		if ( version != TraceWriter.FORMAT_VERSION ) {
+			throw new IOException("Unsupported trace format version "+version);
+		}
+		startCycleCount = this.in.readInt();
+		record.cycleCount = startCycleCount;
+		for ( int i = 0 ; i < record.registers.length ; i++ ) {
+			record.registers[i] = this.in.readUnsignedShort();
+		}
+	}
+
+	/**
+	 * Returns the CPU cycle count when tracing started.
+	 *
+	 * @return
+	 */
+	public int getStartCycleCount() {
+		return startCycleCount;
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @return next record or <code>null</code> if the end of the trace has been reached ,
+	 * the returned instance gets re-used by the next invocation
+	 * @throws IOException
+	 */
+	public TraceRecord next() throws IOException
+	{
+		final int hi = in.read();
+		if ( hi == -1 ) {
+			return null;
+		}
+		record.index++;
+		record.pc = hi << 8 | in.readUnsignedByte();
+
+		final int sizeAndCycles = in.readUnsignedByte();
+		record.instructionSizeInWords = sizeAndCycles & 0x03;
+		final int cycles = sizeAndCycles >>> 2;
+		record.cycles = cycles == TraceWriter.CYCLES_ESCAPE ? in.readInt() : cycles;
+		record.cycleCount += record.cycles;
+		for ( int i = 0 ; i < record.instructionSizeInWords ; i++ ) {
+			record.instructionWords[i] = in.readUnsignedShort();
+		}
+
+		record.changedRegisters = in.readUnsignedShort();
+		for ( int i = 0 , mask = record.changedRegisters ; mask != 0 ; i++ , mask >>>= 1 )
+		{
+			if ( ( mask & 1 ) != 0 ) {
+				record.registers[i] = in.readUnsignedShort();
+			}
+		}
+
+		int writeCount = in.readUnsignedByte();
+		if ( writeCount == TraceWriter.WRITES_ESCAPE ) {
+			writeCount = in.readUnsignedShort();
+		}
+		if ( writeCount > record.writeAddresses.length )
+		{
+			record.writeAddresses = new int[ writeCount ];
+			record.writeValues = new int[ writeCount ];
+		}
+		for ( int i = 0 ; i < writeCount ; i++ )
+		{
+			record.writeAddresses[i] = in.readUnsignedShort();
+			record.writeValues[i] = in.readUnsignedShort();
+		}
+		record.writeCount = writeCount;
+		return record;
+	}
+
+	/**
+	 * Reads records until one is accepted by a filter.
+	 *
+	 * @param filter
+	 * @return next accepted record or <code>null</code> if the end of the trace has been reached
+	 * @throws IOException
+	 */
+	public TraceRecord next(ITraceFilter filter) throws IOException
+	{
+		TraceRecord current;
+		while ( ( current = next() ) != null ) {
+			if ( filter.accept( current ) ) {
+				return current;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the first record that differs between two traces.
+	 *
+	 * @param trace1
+	 * @param trace2
+	 * @return index of the first record that differs (or is missing from the shorter trace) or -1 if both traces are identical
+	 * @throws IOException
+	 * @see TraceRecord#isSameAs(TraceRecord)
+	 */
+	public static long findFirstDifference(TraceReader trace1,TraceReader trace2) throws IOException
+	{
+		long index = 0;
+		while ( true )
+		{
+			final TraceRecord r1 = trace1.next();
+			final TraceRecord r2 = trace2.next();
+			if ( r1 == null && r2 == null ) {
+				return -1;
+			}
+			if ( r1 == null || r2 == null || ! r1.isSameAs( r2 ) ) {
+				return index;
+			}
+			index++;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
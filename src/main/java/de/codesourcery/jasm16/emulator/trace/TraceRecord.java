@@ -0,0 +1,252 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.trace;
+
+import java.util.List;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.compiler.DebugInfo;
+import de.codesourcery.jasm16.compiler.SourceLocation;
+import de.codesourcery.jasm16.disassembler.DisassembledLine;
+import de.codesourcery.jasm16.disassembler.Disassembler;
+import de.codesourcery.jasm16.utils.Misc;
+
+/**
+ * A single executed instruction read from a trace.
+ *
+ * <p>Instances are mutable and get re-used by {@link TraceReader} for each record , so
+ * they must not be kept around after advancing the reader. Register values are the
+ * values after the instruction was executed.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see TraceReader#next()
+ */
+public final class TraceRecord
+{
+	// order of registers in the trace
+	private static final Register[] REGISTERS = { Register.A , Register.B , Register.C , Register.X , Register.Y , Register.Z ,
+		Register.I , Register.J , Register.EX , Register.SP };
+
+	private static final int IA_INDEX = 10;
+	private static final int QUEUE_INTERRUPTS_INDEX = 11;
+
+	protected long index = -1;
+	protected int pc;
+	protected int cycles;
+	protected int cycleCount;
+	protected final int[] instructionWords = new int[3];
+	protected int instructionSizeInWords;
+	protected final int[] registers = new int[ TraceWriter.TRACED_REGISTERS.length ];
+	protected int changedRegisters;
+	protected int[] writeAddresses = new int[ 64 ];
+	protected int[] writeValues = new int[ 64 ];
+	protected int writeCount;
+
+	protected TraceRecord() {
+	}
+
+	/**
+	 * Returns the number of instructions traced before this one.
+	 *
+	 * @return
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the address of the executed instruction.
+	 *
+	 * @return
+	 */
+	public int getPC() {
+		return pc;
+	}
+
+	public int getInstructionSizeInWords() {
+		return instructionSizeInWords;
+	}
+
+	public int getInstructionWord(int index) {
+		if ( index < 0 || index >= instructionSizeInWords ) {
+			throw new IndexOutOfBoundsException("Invalid index "+index+" , instruction has "+instructionSizeInWords+" words");
+		}
+		return instructionWords[index];
+	}
+
+	/**
+	 * Returns the number of CPU cycles spent on this instruction.
+	 *
+	 * @return
+	 */
+	public int getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Returns the CPU's cycle count after this instruction.
+	 *
+	 * @return
+	 */
+	public int getCycleCount() {
+		return cycleCount;
+	}
+
+	private static int indexOf(Register r)
+	{
+		for ( int i = 0 ; i < REGISTERS.length ; i++ ) {
+			if ( REGISTERS[i] == r ) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Register is not part of the trace: "+r);
+	}
+
+	/**
+	 * Returns a register's value after the instruction.
+	 *
+	 * @param r any register except {@link Register#PC} , the PC after an instruction is the PC of the next record
+	 * @return
+	 */
+	public int getRegisterValue(Register r) {
+		return registers[ indexOf( r ) ];
+	}
+
+	public boolean isRegisterChanged(Register r) {
+		return ( changedRegisters & ( 1 << indexOf( r ) ) ) != 0;
+	}
+
+	public int getInterruptAddress() {
+		return registers[ IA_INDEX ];
+	}
+
+	public boolean isQueueInterrupts() {
+		return registers[ QUEUE_INTERRUPTS_INDEX ] != 0;
+	}
+
+	public int getMemoryWriteCount() {
+		return writeCount;
+	}
+
+	public int getMemoryWriteAddress(int index) {
+		checkWriteIndex( index );
+		return writeAddresses[index];
+	}
+
+	/**
+	 * Returns the value a written memory location had after the instruction.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public int getMemoryWriteValue(int index) {
+		checkWriteIndex( index );
+		return writeValues[index];
+	}
+
+	private void checkWriteIndex(int index)
+	{
+		if ( index < 0 || index >= writeCount ) {
+			throw new IndexOutOfBoundsException("Invalid index "+index+" , record has "+writeCount+" memory writes");
+		}
+	}
+
+	/**
+	 * Returns whether this record and another one describe the same instruction , register
+	 * changes and memory writes (ignoring the record's index).
+	 *
+	 * @param other
+	 * @return
+	 */
+	public boolean isSameAs(TraceRecord other)
+	{
+		if ( pc != other.pc || cycles != other.cycles || cycleCount != other.cycleCount ||
+			 instructionSizeInWords != other.instructionSizeInWords || changedRegisters != other.changedRegisters ||
+			 writeCount != other.writeCount )
+		{
+			return false;
+		}
+		for ( int i = 0 ; i < instructionSizeInWords ; i++ ) {
+			if ( instructionWords[i] != other.instructionWords[i] ) {
+				return false;
+			}
+		}
+		for ( int i = 0 ; i < registers.length ; i++ ) {
+			if ( registers[i] != other.registers[i] ) {
+				return false;
+			}
+		}
+		for ( int i = 0 ; i < writeCount ; i++ ) {
+			if ( writeAddresses[i] != other.writeAddresses[i] || writeValues[i] != other.writeValues[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return toString( null );
+	}
+
+	/**
+	 * Returns a human-readable description of this record.
+	 *
+	 * @param debugInfo debug information used to look up the source location of the instruction , may be <code>null</code>
+	 * @return
+	 */
+	public String toString(DebugInfo debugInfo)
+	{
+		final StringBuilder result = new StringBuilder();
+		result.append( index ).append( ": 0x" ).append( Misc.toHexString( pc ) );
+
+		if ( debugInfo != null )
+		{
+			final SourceLocation location = debugInfo.getSourceLocation( Address.wordAddress( pc ) );
+			if ( location != null ) {
+				result.append(" (").append( location.getCompilationUnit().getResource().getIdentifier() )
+				.append(":").append( location.getLineNumber() ).append(")");
+			}
+		}
+
+		result.append(" ").append( disassemble() ).append(" ; cycles=").append( cycles );
+
+		for ( int i = 0 ; i < registers.length ; i++ )
+		{
+			if ( ( changedRegisters & ( 1 << i ) ) != 0 )
+			{
+				final String name = i < REGISTERS.length ? REGISTERS[i].toString() : ( i == IA_INDEX ? "IA" : "IAQ" );
+				result.append(" ").append( name ).append("=0x").append( Misc.toHexString( registers[i] ) );
+			}
+		}
+		for ( int i = 0 ; i < writeCount ; i++ ) {
+			result.append(" [0x").append( Misc.toHexString( writeAddresses[i] ) ).append("]=0x").append( Misc.toHexString( writeValues[i] ) );
+		}
+		return result.toString();
+	}
+
+	private String disassemble()
+	{
+		final byte[] data = new byte[ instructionSizeInWords*2 ];
+		for ( int i = 0 ; i < instructionSizeInWords ; i++ ) {
+			data[i*2] = (byte) ( instructionWords[i] >> 8 );
+			data[i*2+1] = (byte) instructionWords[i];
+		}
+		final List<DisassembledLine> lines = new Disassembler().disassemble( Address.ZERO , data , 1 , false );
+		return lines.isEmpty() ? "???" : lines.get(0).getContents();
+	}
+}
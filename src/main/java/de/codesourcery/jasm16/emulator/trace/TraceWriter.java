@@ -0,0 +1,303 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.emulator.Emulator;
+import de.codesourcery.jasm16.emulator.memory.IMemoryWriteListener;
+import de.codesourcery.jasm16.emulator.memory.IReadOnlyMemory;
+
+/**
+ * Writes a compact binary trace of all executed instructions.
+ *
+ * <p>Records are encoded into a direct buffer that gets appended to the trace file
+ * whenever it is full , so tracing neither allocates objects nor performs I/O for
+ * individual instructions.</p>
+ *
+ * <p>Binary format (all values big-endian):
+ * <pre>
+ * int       magic ( 'DTRC' )
+ * short     format version
+ * int       CPU cycle count when tracing started
+ * short[12] initial register values ( A,B,C,X,Y,Z,I,J,EX,SP,IA,queue interrupts flag )
+ * --- followed by one record per executed instruction until EOF ---
+ * short     program counter
+ * byte      bits 0-1: instruction size in words , bits 2-7: cycles executed or 63 , followed by an int holding the actual number of cycles
+ * short[]   instruction words
+ * short     bitmask of registers that changed ( bit 0 = A , bit 11 = queue interrupts flag) , followed by one short per changed register holding the new value
+ * byte      number of memory writes or 255 , followed by an unsigned short holding the actual number , followed by ( short address , short value ) for each write
+ * </pre>
+ * The program counter after the instruction is implied by the next record. Register changes made outside of
+ * instructions (by a debugger , device or interrupt handling) are reported by the next record , memory writes
+ * are reported with the value the address had after the instruction (and interrupt handling) finished.</p>
+ *
+ * <p>This class is NOT thread-safe , all methods are invoked by the emulator while holding its CPU lock.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see Emulator#startTrace(TraceWriter)
+ * @see TraceReader
+ */
+public final class TraceWriter implements IMemoryWriteListener, Closeable
+{
+	public static final int MAGIC = 0x44545243; // 'DTRC'
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Number of <code>int</code>s in a CPU register state array , see {@link #begin(int[])}.
+	 */
+	public static final int STATE_SIZE = 14;
+
+	// indices of traced registers in the CPU state array , the PC is implied by the record itself
+	protected static final int[] TRACED_REGISTERS = { 0,1,2,3,4,5,6,7,8,10,11,12 };
+	protected static final int PC_INDEX = 9;
+	protected static final int CYCLE_INDEX = 13;
+
+	protected static final int CYCLES_ESCAPE = 63;
+	protected static final int WRITES_ESCAPE = 255;
+	protected static final int MAX_WRITES_PER_RECORD = 65535;
+
+	// pc + size/cycles + escaped cycles + instruction words + register mask + registers + write count
+	private static final int MAX_FIXED_RECORD_SIZE = 2 + 1 + 4 + 3*2 + 2 + TRACED_REGISTERS.length*2 + 3;
+
+	private static final int DEFAULT_CHUNK_SIZE = 1024*1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	// CPU state as reported by the last record
+	private final int[] lastState = new int[ STATE_SIZE ];
+
+	private IReadOnlyMemory memory;
+	private int pc;
+	private final int[] instructionWords = new int[3];
+	private int instructionSizeInWords;
+
+	private Thread tracingThread;
+	private boolean inInstruction;
+	private int[] writes = new int[ 64 ];
+	private int writeCount;
+
+	private long recordCount;
+	private boolean started;
+
+	/**
+	 * Create instance.
+	 *
+	 * @param file file to write to , gets overwritten if it already exists
+	 * @throws IOException
+	 */
+	public TraceWriter(File file) throws IOException {
+		this( new FileOutputStream( file ).getChannel() , DEFAULT_CHUNK_SIZE );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param channel channel to append to , gets closed by {@link #close()}
+	 * @param chunkSizeInBytes size of the buffer that gets written to the channel at once
+	 */
+	public TraceWriter(FileChannel channel,int chunkSizeInBytes)
+	{
+		if (channel == null) {
+			throw new IllegalArgumentException("channel must not be null");
+		}
+		if ( chunkSizeInBytes < MAX_FIXED_RECORD_SIZE + MAX_WRITES_PER_RECORD*4 ) {
+			throw new IllegalArgumentException("chunk size must be at least "+(MAX_FIXED_RECORD_SIZE + MAX_WRITES_PER_RECORD*4)+" bytes");
+		}
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect( chunkSizeInBytes );
+	}
+
+	/**
+	 * Writes the trace header.
+	 *
+	 * @param cpuState CPU state when tracing starts , as written by {@link Emulator}'s <code>CPU#saveState(int[])</code>
+	 * @throws IOException
+	 */
+	public void begin(int[] cpuState) throws IOException
+	{
+		if ( started ) {
+			throw new IllegalStateException("Trace already started");
+		}
+		started = true;
+		System.arraycopy( cpuState , 0 , lastState , 0 , STATE_SIZE );
+
+		buffer.putInt( MAGIC );
+		buffer.putShort( (short) FORMAT_VERSION );
+		buffer.putInt( cpuState[ CYCLE_INDEX ] );
+		for ( int index : TRACED_REGISTERS ) {
+			buffer.putShort( (short) cpuState[ index ] );
+		}
+	}
+
+	/**
+	 * Invoked right before an instruction gets executed.
+	 *
+	 * @param pc address of the instruction
+	 * @param memory
+	 */
+	@SuppressWarnings("deprecation")
+	public void beforeInstruction(int pc,IReadOnlyMemory memory)
+	{
+		this.pc = pc;
+		this.memory = memory;
+		this.tracingThread = Thread.currentThread();
+		this.instructionSizeInWords = Emulator.calculateInstructionSizeInWords( pc , memory );
+		for ( int i = 0 ; i < instructionSizeInWords ; i++ ) {
+			instructionWords[i] = memory.read( ( pc + i ) & 0xffff );
+		}
+		writeCount = 0;
+		inInstruction = true;
+	}
+
+	@Override
+	public void wordWritten(int wordAddress)
+	{
+		if ( ! inInstruction || Thread.currentThread() != tracingThread || writeCount == MAX_WRITES_PER_RECORD ) {
+			return;
+		}
+		if ( writeCount == writes.length ) {
+			final int[] tmp = new int[ Math.min( writes.length * 2 , MAX_WRITES_PER_RECORD ) ];
+			System.arraycopy( writes , 0 , tmp , 0 , writeCount );
+			writes = tmp;
+		}
+		writes[ writeCount++ ] = wordAddress;
+	}
+
+	/**
+	 * Records writes to a range of memory words.
+	 *
+	 * <p>Bulk writes performed while an instruction is being traced (for example a
+	 * device transferring data from/to memory) get recorded as writes to each
+	 * word of the range. Changes outside of instructions (like mapping/unmapping memory regions)
+	 * are ignored.</p>
+	 */
+	@Override
+	public void rangeChanged(AddressRange range) 
+	{
+		if ( ! inInstruction || Thread.currentThread() != tracingThread ) {
+			return;
+		}
+		final int start = range.getStartAddress().getWordAddressValue();
+		final int words = range.getSize().getSizeInWords();
+		for ( int i = 0 ; i < words ; i++ ) {
+			wordWritten( ( start + i ) & 0xffff );
+		}
+	}
+
+	/**
+	 * Invoked after an instruction (and any pending interrupt) has been executed successfully.
+	 *
+	 * <p>Instructions that fail do not get traced.</p>
+	 *
+	 * @param cpuState CPU state after the instruction
+	 * @throws IOException
+	 */
+	@SuppressWarnings("deprecation")
+	public void afterInstruction(int[] cpuState) throws IOException
+	{
+		inInstruction = false;
+
+		if ( buffer.remaining() < MAX_FIXED_RECORD_SIZE + writeCount*4 ) {
+			flush();
+		}
+
+		buffer.putShort( (short) pc );
+
+		final int cycles = cpuState[ CYCLE_INDEX ] - lastState[ CYCLE_INDEX ];
+		if ( cycles >= 0 && cycles < CYCLES_ESCAPE ) {
+			buffer.put( (byte) ( instructionSizeInWords | cycles << 2 ) );
+		} else {
+			buffer.put( (byte) ( instructionSizeInWords | CYCLES_ESCAPE << 2 ) );
+			buffer.putInt( cycles );
+		}
+		for ( int i = 0 ; i < instructionSizeInWords ; i++ ) {
+			buffer.putShort( (short) instructionWords[i] );
+		}
+
+		int mask = 0;
+		for ( int i = 0 ; i < TRACED_REGISTERS.length ; i++ )
+		{
+			final int index = TRACED_REGISTERS[i];
+			if ( cpuState[ index ] != lastState[ index ] ) {
+				mask |= 1 << i;
+			}
+		}
+		buffer.putShort( (short) mask );
+		for ( int i = 0 ; mask != 0 ; i++ , mask >>>= 1 )
+		{
+			if ( ( mask & 1 ) != 0 ) {
+				buffer.putShort( (short) cpuState[ TRACED_REGISTERS[i] ] );
+			}
+		}
+		System.arraycopy( cpuState , 0 , lastState , 0 , STATE_SIZE );
+
+		if ( writeCount < WRITES_ESCAPE ) {
+			buffer.put( (byte) writeCount );
+		} else {
+			buffer.put( (byte) WRITES_ESCAPE );
+			buffer.putShort( (short) writeCount );
+		}
+		for ( int i = 0 ; i < writeCount ; i++ )
+		{
+			final int address = writes[i];
+			buffer.putShort( (short) address );
+			buffer.putShort( (short) memory.read( address ) );
+		}
+		recordCount++;
+	}
+
+	/**
+	 * Returns the number of instructions traced so far.
+	 *
+	 * @return
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while ( buffer.hasRemaining() ) {
+			channel.write( buffer );
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes all buffered records and closes the underlying channel.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if ( ! channel.isOpen() ) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
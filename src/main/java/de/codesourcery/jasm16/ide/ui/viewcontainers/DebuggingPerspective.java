@@ -46,6 +46,9 @@ public class DebuggingPerspective extends Perspective
     private final IWorkspace workspace;
 
     private final EmulatorProxy proxy = new EmulatorProxy();
+    
+    // @GuardedBy( proxy )
+    private ViewRefreshScheduler refreshScheduler;
 
     private volatile IAssemblyProject project;
     private IResource executable;
@@ -199,6 +202,11 @@ public class DebuggingPerspective extends Perspective
         } 
         finally 
         {
+            synchronized( proxy ) {
+                if ( refreshScheduler != null ) {
+                    refreshScheduler.dispose();
+                }
+            }
             if ( emulator() != null ) {
                 try {
                     this.emulator().dispose();
@@ -209,6 +217,22 @@ public class DebuggingPerspective extends Perspective
         }
     }
 
+    /**
+     * Returns the scheduler used to refresh this perspective's views.
+     * 
+     * @return
+     */
+    public ViewRefreshScheduler getViewRefreshScheduler() 
+    {
+        synchronized( proxy ) 
+        {
+            if ( refreshScheduler == null ) {
+                refreshScheduler = new ViewRefreshScheduler( proxy.getProxyInstance() );
+            }
+            return refreshScheduler;
+        }
+    }
+
     private IEmulator emulator() {
         return proxy.hasTarget() ? proxy.getProxyInstance() : null;
     }
@@ -260,7 +284,7 @@ public class DebuggingPerspective extends Perspective
     	final List<IView> createdViews = new ArrayList<>();
         // setup CPU view
         if ( getCPUView() == null ) {
-            CPUView view = new CPUView( emulator() );
+            CPUView view = new CPUView( getViewRefreshScheduler() );
             createdViews.add( addView( view ) );
         }
 
@@ -272,13 +296,13 @@ public class DebuggingPerspective extends Perspective
 
         // setup stack view
         if ( getStackView() == null ) {
-            StackView view = new StackView( emulator() );
+            StackView view = new StackView( getViewRefreshScheduler() );
             createdViews.add( addView( view ) );
         }        
 
         // setup hex-dump view
         if ( getHexDumpView() == null ) {
-            final HexDumpView view = new HexDumpView( emulator() );
+            final HexDumpView view = new HexDumpView( getViewRefreshScheduler() );
             createdViews.add( addView( view ) );
         }           
 
@@ -314,6 +338,18 @@ public class DebuggingPerspective extends Perspective
             createdViews.add( addView( view ) );
         }    
         
+        // setup profiler view
+        if ( getProfilerView() == null ) {
+            final ProfilerView view = new ProfilerView( emulator() ) {
+
+				@Override
+				protected IAssemblyProject getCurrentProject() {
+					return DebuggingPerspective.this.getCurrentProject();
+				}
+            };
+            createdViews.add( addView( view ) );
+        }    
+        
         // refresh views AFTER
         // all have been created, views
         // may have interdependencies
@@ -327,6 +363,10 @@ public class DebuggingPerspective extends Perspective
         return (SourceLevelDebugView) getViewByID( SourceLevelDebugView.VIEW_ID );
     }      
 
+    private ProfilerView getProfilerView() {
+        return (ProfilerView) getViewByID( ProfilerView.VIEW_ID );
+    }
+
     private BreakpointView getBreakpointView() {
         return (BreakpointView) getViewByID( BreakpointView.VIEW_ID );
     }  
@@ -461,7 +501,7 @@ public class DebuggingPerspective extends Perspective
             lock(readLock);
             try
             {
-                if ( method.getName().equals("loadMemory" ) ) 
+                if ( method.getName().equals("loadMemory" ) && args.length == 2 ) 
                 {
                     final Address adr = (Address) args[0];
                     final byte[] data = (byte[]) args[1];
@@ -23,7 +23,6 @@ import java.util.List;
 
 import javax.swing.JPanel;
 import javax.swing.JTextPane;
-import javax.swing.SwingUtilities;
 import javax.swing.text.Document;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
@@ -33,18 +32,16 @@ import org.apache.commons.lang.StringUtils;
 
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Size;
-import de.codesourcery.jasm16.emulator.EmulationListener;
 import de.codesourcery.jasm16.emulator.ICPU;
-import de.codesourcery.jasm16.emulator.IEmulationListener;
-import de.codesourcery.jasm16.emulator.IEmulator;
 import de.codesourcery.jasm16.emulator.IReadOnlyCPU;
 import de.codesourcery.jasm16.emulator.memory.MemUtils;
-import de.codesourcery.jasm16.ide.ui.utils.UIUtils;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.ViewSnapshot;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.IRefreshableView;
 import de.codesourcery.jasm16.utils.ITextRegion;
 import de.codesourcery.jasm16.utils.Misc;
 import de.codesourcery.jasm16.utils.TextRegion;
 
-public class CPUView extends AbstractView
+public class CPUView extends AbstractView implements IRefreshableView
 {
     public static final String VIEW_ID = "cpu-view";
     
@@ -54,39 +51,7 @@ public class CPUView extends AbstractView
     private final SimpleAttributeSet errorStyle;  
     private final JTextPane textArea = new JTextPane();
     
-    private volatile IEmulator emulator;
-    
-    private final IEmulationListener listener = new EmulationListener() {
-
-        @Override
-        public void afterCommandExecution(IEmulator emulator, int commandDuration)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-        @Override
-        public void afterReset(IEmulator emulator)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-        @Override
-        public void afterMemoryLoad(IEmulator emulator, Address startAddress, int lengthInBytes)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-		@Override
-		public void onStopHook(IEmulator emulator, Address previousPC, Throwable emulationError) {
-			refreshDisplay();
-		}
-     };
+    private ViewRefreshScheduler refreshScheduler;
     
     public CPUView() 
     {
@@ -94,10 +59,10 @@ public class CPUView extends AbstractView
         defaultStyle = createStyle(Color.GREEN);
     }
     
-    public CPUView(IEmulator emulator) 
+    public CPUView(ViewRefreshScheduler refreshScheduler) 
     {
         this();
-        setEmulator( emulator );
+        setRefreshScheduler( refreshScheduler );
     }    
     
     protected final static SimpleAttributeSet createStyle(Color color) 
@@ -110,27 +75,20 @@ public class CPUView extends AbstractView
     @Override
     public void refreshDisplay() 
     {
-        UIUtils.invokeLater( new Runnable() {
-
-            @Override
-            public void run()
-            {
-                internalRefreshDisplay();                
-            }
-        });
+        if ( refreshScheduler != null ) {
+            refreshScheduler.requestRefresh( true );
+        }
     }
     
-    private void internalRefreshDisplay() 
+    @Override
+    public void refresh(ViewSnapshot snapshot) 
     {
-        if ( emulator == null ) {
-            return;
-        }
-        final IReadOnlyCPU cpu = emulator.getCPU();
+        final IReadOnlyCPU cpu = snapshot.getCPU();
 
         final StringBuilder builder = new StringBuilder();
         final List<ITextRegion> redRegions = new ArrayList<ITextRegion>();
         
-        Throwable lastError = emulator.getLastEmulationError();
+        Throwable lastError = snapshot.getLastEmulationError();
         if ( lastError != null ) 
         {
             final String msg = StringUtils.isBlank( lastError.getMessage() ) ? lastError.getClass().getName() : lastError.getMessage();
@@ -146,7 +104,7 @@ public class CPUView extends AbstractView
             builder.append( ICPU.COMMON_REGISTER_NAMES[i]+": "+Misc.toHexString( value )+"    ");
             
             Address address = Address.wordAddress( value );
-            final byte[] data = MemUtils.getBytes( emulator.getMemory() , 
+            final byte[] data = MemUtils.getBytes( snapshot.getMemory() , 
                     address ,
                     Size.words( 4 ) ,
                     true
@@ -180,44 +138,33 @@ public class CPUView extends AbstractView
         builder.append("IRQs: "+StringUtils.join( cpu.getInterruptQueue() , "," )).append("\n");
         builder.append("SP: "+Misc.toHexString( cpu.getSP().getValue() )).append("\n");
         
-        SwingUtilities.invokeLater( new Runnable() {
-            @Override
-            public void run()
-            {
-                final StyledDocument doc = textArea.getStyledDocument();
-                doc.putProperty(Document.StreamDescriptionProperty, null);                
-                
-                textArea.setText( builder.toString() );
-                for ( ITextRegion region : redRegions ) {
-                    doc.setCharacterAttributes( region.getStartingOffset() , region.getLength() , errorStyle  , true );
-                }
-            }
-        });
+        final StyledDocument doc = textArea.getStyledDocument();
+        doc.putProperty(Document.StreamDescriptionProperty, null);                
+
+        textArea.setText( builder.toString() );
+        for ( ITextRegion region : redRegions ) {
+            doc.setCharacterAttributes( region.getStartingOffset() , region.getLength() , errorStyle  , true );
+        }
     }
     
-    public void setEmulator(IEmulator emulator)
+    public void setRefreshScheduler(ViewRefreshScheduler refreshScheduler)
     {
-        if (emulator == null) {
-            throw new IllegalArgumentException("emulator must not be NULL.");
+        if (refreshScheduler == null) {
+            throw new IllegalArgumentException("refreshScheduler must not be NULL.");
         }
-        if ( this.emulator == emulator ) {
-            return;
+        if ( this.refreshScheduler != null ) {
+            this.refreshScheduler.removeView( this );
         }
-        
-        if ( this.emulator != null ) {
-            this.emulator.removeEmulationListener( listener );
-        }
-        this.emulator = emulator;
-        
-        emulator.addEmulationListener( listener );
+        this.refreshScheduler = refreshScheduler;
+        refreshScheduler.addView( this );
     }
     
     @Override
     public void disposeHook() 
     {
-        if ( this.emulator != null ) {
-            this.emulator.removeEmulationListener( listener );
-            this.emulator = null;
+        if ( this.refreshScheduler != null ) {
+            this.refreshScheduler.removeView( this );
+            this.refreshScheduler = null;
         }
     }
     
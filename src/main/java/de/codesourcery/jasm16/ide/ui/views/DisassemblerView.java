@@ -21,6 +21,7 @@ import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -28,7 +29,6 @@ import java.util.regex.Pattern;
 
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
-import javax.swing.SwingUtilities;
 
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Size;
@@ -40,12 +40,15 @@ import de.codesourcery.jasm16.emulator.EmulationListener;
 import de.codesourcery.jasm16.emulator.Emulator;
 import de.codesourcery.jasm16.emulator.IEmulationListener;
 import de.codesourcery.jasm16.emulator.IEmulator;
+import de.codesourcery.jasm16.emulator.memory.IReadOnlyMemory;
 import de.codesourcery.jasm16.ide.ui.utils.PagingKeyAdapter;
 import de.codesourcery.jasm16.ide.ui.utils.UIUtils;
 import de.codesourcery.jasm16.ide.ui.viewcontainers.DebuggingPerspective;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.ViewSnapshot;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.IRefreshableView;
 import de.codesourcery.jasm16.utils.Misc;
 
-public class DisassemblerView extends AbstractView
+public class DisassemblerView extends AbstractView implements IRefreshableView
 {
     public static final String VIEW_ID = "dissassembly-view";
     
@@ -63,6 +66,16 @@ public class DisassemblerView extends AbstractView
     
     private final Disassembler disassembler = new Disassembler();
     
+    // latest snapshot , only accessed by the EDT
+    private ViewSnapshot lastSnapshot;
+    
+    // memory words the last disassembly was created from , only accessed by the EDT
+    private Address lastDisassemblyStart;
+    private int lastDisassemblyRows;
+    private boolean lastDisassemblyHexDump;
+    private int[] lastDisassemblyWords;
+    private List<DisassembledLine> lastDisassembly;
+    
     private final IEmulationListener listener = new EmulationListener() {
 
     	public void breakpointAdded(IEmulator emulator, Breakpoint breakpoint) {
@@ -80,33 +93,6 @@ public class DisassemblerView extends AbstractView
     	public void breakpointDeleted(IEmulator emulator, Breakpoint breakpoint) {
     		refreshDisplay();
     	};
-    	
-        @Override
-        public void afterMemoryLoad(IEmulator emulator, Address startAddress, int lengthInBytes)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-        
-        @Override
-        public void afterCommandExecution(IEmulator emulator, int commandDuration)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-        @Override
-        public void afterReset(IEmulator emulator)
-        {
-       		refreshDisplay();
-        }
-        
-		@Override
-		public void onStopHook(IEmulator emulator, Address previousPC, Throwable emulationError) {
-			refreshDisplay();
-		}        
      };
      
     public DisassemblerView(DebuggingPerspective perspective, IEmulator emulator) {
@@ -124,7 +110,25 @@ public class DisassemblerView extends AbstractView
             return;
         }
         
-        setViewStartingAddress( emulator.getCPU().getPC() );
+        UIUtils.invokeLater( new Runnable() {
+
+            @Override
+            public void run()
+            {
+                if ( lastSnapshot != null ) {
+                    showDisassembly( lastSnapshot.getCPU().getPC() , true );
+                } else {
+                    perspective.getViewRefreshScheduler().requestRefresh( true );
+                }
+            }
+        });
+    }
+    
+    @Override
+    public void refresh(ViewSnapshot snapshot)
+    {
+        lastSnapshot = snapshot;
+        showDisassembly( snapshot.getCPU().getPC() , true );
     }
     
     public void setViewStartingAddress(Address startingAddress) 
@@ -139,25 +143,67 @@ public class DisassemblerView extends AbstractView
             @Override
             public void run()
             {
-                // show some context before the actual address so the 
-                // use is not completely lost where in the program he is
-                final Address offset = Address.wordAddress( 3 ); 
-                final Address realStart = adjustAddress ? startingAddress.minus( offset ) : startingAddress;
-                
-                int rows = calculateVisibleTextRowCount( textArea );
-                if ( rows < 5 ) {
-                    rows = 5;
-                }
-                final List<DisassembledLine> lines = disassembler.disassemble(emulator.getMemory() , realStart , rows , showHexDump );
-                
-                renderDisassembly(lines);                  
+                showDisassembly( startingAddress , adjustAddress );
             }} );
     }
+    
+    private IReadOnlyMemory getMemory() {
+        return lastSnapshot != null ? lastSnapshot.getMemory() : emulator.getMemory();
+    }
+    
+    private void showDisassembly(Address startingAddress,boolean adjustAddress) 
+    {
+        if ( emulator == null ) {
+            return;
+        }
+        
+        // show some context before the actual address so the 
+        // use is not completely lost where in the program he is
+        final Address offset = Address.wordAddress( 3 ); 
+        final Address realStart = adjustAddress ? startingAddress.minus( offset ) : startingAddress;
+        
+        int rows = calculateVisibleTextRowCount( textArea );
+        if ( rows < 5 ) {
+            rows = 5;
+        }
+        
+        // used to mark the current PC value
+        final Address pc = lastSnapshot != null ? lastSnapshot.getCPU().getPC() : emulator.getCPU().getPC();
+        renderDisassembly( disassemble( getMemory() , realStart , rows ) , pc );
+    }
+    
+    private List<DisassembledLine> disassemble(IReadOnlyMemory memory,Address start,int rows) 
+    {
+        // re-use the last disassembly if the memory it was created from did not change
+        if ( lastDisassembly != null && rows == lastDisassemblyRows && showHexDump == lastDisassemblyHexDump &&
+             start.equals( lastDisassemblyStart ) ) 
+        {
+            final int[] words = new int[ lastDisassemblyWords.length ];
+            memory.snapshot( start.getWordAddressValue() , words );
+            if ( Arrays.equals( words , lastDisassemblyWords ) ) {
+                return lastDisassembly;
+            }
+        }
+        
+        final List<DisassembledLine> lines = disassembler.disassemble( memory , start , rows , showHexDump );
+        
+        int sizeInWords = 0;
+        for ( DisassembledLine line : lines ) {
+            sizeInWords += line.getInstructionLength().getSizeInWords();
+        }
+        final int[] words = new int[ Math.min( sizeInWords , 65536 ) ];
+        memory.snapshot( start.getWordAddressValue() , words );
+        
+        lastDisassemblyStart = start;
+        lastDisassemblyRows = rows;
+        lastDisassemblyHexDump = showHexDump;
+        lastDisassemblyWords = words;
+        lastDisassembly = lines;
+        return lines;
+    }
 
-	private void renderDisassembly(final List<DisassembledLine> lines) 
+	private void renderDisassembly(final List<DisassembledLine> lines,Address pc) 
 	{
-        final Address pc = emulator.getCPU().getPC(); // used to mark the current PC value
-        
 		final StringBuilder result = new StringBuilder();
         final Iterator<DisassembledLine> it = lines.iterator();
 
@@ -181,15 +227,7 @@ public class DisassemblerView extends AbstractView
                 result.append("\n");
             }
         }
-        
-        SwingUtilities.invokeLater( new Runnable() {
-
-            @Override
-            public void run()
-            {
-                textArea.setText( result.toString() );         
-            }
-        });
+        textArea.setText( result.toString() );         
 	}
     
     private String toString(Address pc , DisassembledLine line) 
@@ -252,6 +290,7 @@ public class DisassemblerView extends AbstractView
         
         this.emulatorController = new EmulatorControllerView( perspective , emulator );
         emulator.addEmulationListener( listener );
+        perspective.getViewRefreshScheduler().addView( this );
     }
     
     @Override
@@ -260,6 +299,7 @@ public class DisassemblerView extends AbstractView
         if ( this.emulator != null ) 
         {
             this.emulator.removeEmulationListener( listener );
+            perspective.getViewRefreshScheduler().removeView( this );
             this.emulatorController.dispose();
             this.emulator = null;
         }
@@ -322,7 +362,7 @@ public class DisassemblerView extends AbstractView
 			    
                 if ( addressAtBottomOfScreen != null && addressAtTopOfScreen != null ) 
                 {
-                    final int instructionSize = Emulator.calculateInstructionSizeInWords( addressAtBottomOfScreen , emulator.getMemory() );
+                    final int instructionSize = Emulator.calculateInstructionSizeInWords( addressAtBottomOfScreen , getMemory() );
                     setViewStartingAddress( addressAtTopOfScreen.plus( Size.words( instructionSize ) , true ) , false );
                 }			    
 			}
@@ -52,11 +52,15 @@ public class EmulatorControllerView extends AbstractView
     private final JButton singleStepButton = new JButton("Step");
     private final JButton stepReturnButton = new JButton("Step return");   
     private final JButton skipButton = new JButton("Skip");    
+    private final JButton stepBackButton = new JButton("Step back");    
+    private final JButton runBackwardsButton = new JButton("Run backwards");    
     private final JButton runButton = new JButton("Run");
     private final JButton stopButton = new JButton("Stop");   
     private final JButton resetButton = new JButton("Reset");
 
     private JCheckBox runAtRealSpeed;
+    private JCheckBox updateWhileRunning;
+    private JCheckBox recordHistory;
 
     private final DebuggingPerspective perspective;
     private IEmulator emulator;
@@ -213,6 +217,9 @@ public class EmulatorControllerView extends AbstractView
                 } else {
                     stepReturnButton.setEnabled( true );
                 }
+                final boolean canGoBack = ! emulatorRunningContinously && recordHistory != null && recordHistory.isSelected();
+                stepBackButton.setEnabled( canGoBack );
+                runBackwardsButton.setEnabled( canGoBack );
                 resetButton.setEnabled( true );  
             }
         };
@@ -307,6 +314,50 @@ public class EmulatorControllerView extends AbstractView
         cnstrs = constraints( x++ , 0 , false , true , GridBagConstraints.NONE );          
         buttonBar.add( skipButton , cnstrs );              
 
+        // =========== "Step back" button ============        
+        stepBackButton.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                executeAsynchronously( new Invoker() {
+
+                    @Override
+                    public void invoke(IEmulator emulator)
+                    {                
+                        if ( emulator.isRecordExecutionHistory() ) {
+                            emulator.stepBack();
+                        }
+                    }
+                });
+            }
+        });
+
+        cnstrs = constraints( x++ , 0 , false , true , GridBagConstraints.NONE );          
+        buttonBar.add( stepBackButton , cnstrs );              
+
+        // =========== "Run backwards" button ============        
+        runBackwardsButton.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                executeAsynchronously( new Invoker() {
+
+                    @Override
+                    public void invoke(IEmulator emulator)
+                    {                
+                        if ( emulator.isRecordExecutionHistory() ) {
+                            emulator.runBackwards();
+                        }
+                    }
+                });
+            }
+        });
+
+        cnstrs = constraints( x++ , 0 , false , true , GridBagConstraints.NONE );          
+        buttonBar.add( runBackwardsButton , cnstrs );              
+
         // =========== "RUN" button ============        
         runButton.addActionListener( new ActionListener() {
 
@@ -390,9 +441,45 @@ public class EmulatorControllerView extends AbstractView
             }
         });
 
-        cnstrs = constraints( x++ , 0 , true , true , GridBagConstraints.NONE );          
+        cnstrs = constraints( x++ , 0 , false , true , GridBagConstraints.NONE );          
         buttonBar.add( runAtRealSpeed , cnstrs );        
 
+        // =========== "Record history" checkbox ============
+        recordHistory = new JCheckBox("Record history",emulator.isRecordExecutionHistory() );
+        recordHistory.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                final boolean isSelected = recordHistory.isSelected();                  
+                executeAsynchronously( new Invoker() {
+
+                    @Override
+                    public void invoke(IEmulator emulator)
+                    {
+                        emulator.setRecordExecutionHistory( isSelected );
+                    }} );
+                updateButtonStates( stopButton.isEnabled() );
+            }
+        });
+
+        cnstrs = constraints( x++ , 0 , false , true , GridBagConstraints.NONE );          
+        buttonBar.add( recordHistory , cnstrs );        
+
+        // =========== "Update views while running" checkbox ============
+        updateWhileRunning = new JCheckBox("Update views while running",perspective.getViewRefreshScheduler().isUpdateWhileRunning() );
+        updateWhileRunning.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                perspective.getViewRefreshScheduler().setUpdateWhileRunning( updateWhileRunning.isSelected() );
+            }
+        });
+
+        cnstrs = constraints( x++ , 0 , true , true , GridBagConstraints.NONE );          
+        buttonBar.add( updateWhileRunning , cnstrs );        
+
         updateButtonStates( false );
         return buttonBar;
     }
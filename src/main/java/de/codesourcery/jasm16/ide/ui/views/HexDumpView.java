@@ -26,65 +26,35 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
-import javax.swing.SwingUtilities;
 
 import org.apache.commons.lang.StringUtils;
 
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Size;
-import de.codesourcery.jasm16.emulator.EmulationListener;
-import de.codesourcery.jasm16.emulator.IEmulationListener;
-import de.codesourcery.jasm16.emulator.IEmulator;
 import de.codesourcery.jasm16.emulator.memory.MemUtils;
 import de.codesourcery.jasm16.ide.ui.utils.PagingKeyAdapter;
+import de.codesourcery.jasm16.ide.ui.utils.UIUtils;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.ViewSnapshot;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.IRefreshableView;
 import de.codesourcery.jasm16.utils.Misc;
 
-public class HexDumpView extends AbstractView
+public class HexDumpView extends AbstractView implements IRefreshableView
 {
     public static final String VIEW_ID = "hexdump-view";
     
     private JPanel panel;
     private final JTextArea textArea = new JTextArea();
     
-    private IEmulator emulator;
+    private ViewRefreshScheduler refreshScheduler;
+    // snapshot displayed last , only accessed by the EDT
+    private ViewSnapshot lastSnapshot;
+    
     private Address dumpStartAddress = Address.wordAddress( 0x0 );
     private int numberOfWordsPerLine = 8;
     private boolean printASCII = true;
     
-    private final IEmulationListener listener = new EmulationListener() {
-
-        @Override
-        public void afterCommandExecution(IEmulator emulator, int commandDuration)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-        @Override
-        public void afterReset(IEmulator emulator)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-        @Override
-        public void afterMemoryLoad(IEmulator emulator, Address startAddress, int lengthInBytes)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-		@Override
-		public void onStopHook(IEmulator emulator, Address previousPC, Throwable emulationError) {
-			refreshDisplay();
-		}        
-     };
-     
-    public HexDumpView(IEmulator emulator) {
-        setEmulator( emulator );
+    public HexDumpView(ViewRefreshScheduler refreshScheduler) {
+        setRefreshScheduler( refreshScheduler );
     }
     
     public HexDumpView() {
@@ -93,33 +63,40 @@ public class HexDumpView extends AbstractView
     @Override
     public void refreshDisplay() 
     {
-        if ( emulator == null ) {
-            return;
-        }
-        
-        SwingUtilities.invokeLater( new Runnable() {
+        UIUtils.invokeLater( new Runnable() {
 
             @Override
             public void run()
             {
-            	final byte[] data = MemUtils.getBytes( emulator.getMemory() , 
-            		dumpStartAddress ,
-            		calcSizeOfVisibleMemory(),
-            		true
-            	);
-            	
-                textArea.setText( 
-                		Misc.toHexDumpWithAddresses(dumpStartAddress, 
-                				data, 
-                				data.length , 
-                				numberOfWordsPerLine , 
-                				printASCII,
-                				true)
-                );                
+                if ( lastSnapshot != null ) {
+                    refresh( lastSnapshot );
+                } else if ( refreshScheduler != null ) {
+                    refreshScheduler.requestRefresh( true );
+                }
             }
         });
     }
     
+    @Override
+    public void refresh(ViewSnapshot snapshot) 
+    {
+        lastSnapshot = snapshot;
+        final byte[] data = MemUtils.getBytes( snapshot.getMemory() , 
+                dumpStartAddress ,
+                calcSizeOfVisibleMemory(),
+                true
+        );
+
+        textArea.setText( 
+                Misc.toHexDumpWithAddresses(dumpStartAddress, 
+                        data, 
+                        data.length , 
+                        numberOfWordsPerLine , 
+                        printASCII,
+                        true)
+        );                
+    }
+    
     protected Size calcSizeOfVisibleMemory() 
     {
     	int rows = calculateVisibleTextRowCount( textArea );
@@ -129,30 +106,26 @@ public class HexDumpView extends AbstractView
     	return Size.words( rows * numberOfWordsPerLine );    	
     }
     
-    public void setEmulator(IEmulator emulator)
+    public void setRefreshScheduler(ViewRefreshScheduler refreshScheduler)
     {
-        if (emulator == null) {
-            throw new IllegalArgumentException("emulator must not be NULL.");
-        }
-        if ( this.emulator == emulator ) {
-            return;
+        if (refreshScheduler == null) {
+            throw new IllegalArgumentException("refreshScheduler must not be NULL.");
         }
-        
-        if ( this.emulator != null ) {
-            this.emulator.removeEmulationListener( listener );
+        if ( this.refreshScheduler != null ) {
+            this.refreshScheduler.removeView( this );
         }
-        this.emulator = emulator;
-        
-        emulator.addEmulationListener( listener );
+        this.refreshScheduler = refreshScheduler;
+        refreshScheduler.addView( this );
     }
     
     @Override
     public void disposeHook() 
     {
-        if ( this.emulator != null ) {
-            this.emulator.removeEmulationListener( listener );
-            this.emulator = null;
+        if ( this.refreshScheduler != null ) {
+            this.refreshScheduler.removeView( this );
+            this.refreshScheduler = null;
         }
+        lastSnapshot = null;
     }
     
     protected JPanel createPanel()
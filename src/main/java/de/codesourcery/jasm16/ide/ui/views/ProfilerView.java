@@ -0,0 +1,407 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.ide.ui.views;
+
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTable;
+import javax.swing.JTree;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+
+import de.codesourcery.jasm16.compiler.DebugInfo;
+import de.codesourcery.jasm16.compiler.Executable;
+import de.codesourcery.jasm16.emulator.ICPU;
+import de.codesourcery.jasm16.emulator.IEmulator;
+import de.codesourcery.jasm16.emulator.IEmulatorInvoker;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+import de.codesourcery.jasm16.emulator.profiler.CallTreeNode;
+import de.codesourcery.jasm16.emulator.profiler.CycleProfiler;
+import de.codesourcery.jasm16.emulator.profiler.CycleProfiler.Mode;
+import de.codesourcery.jasm16.emulator.profiler.Profile;
+import de.codesourcery.jasm16.ide.IAssemblyProject;
+import de.codesourcery.jasm16.ide.ui.utils.UIUtils;
+
+/**
+ * Displays the data recorded by a {@link CycleProfiler} , aggregated by label , source line
+ * and as call tree.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public abstract class ProfilerView extends AbstractView
+{
+    public static final String VIEW_ID = "profiler-view";
+
+    private static final int COL_NAME = 0;
+    private static final int COL_CYCLES = 1;
+    private static final int COL_PERCENTAGE = 2;
+    private static final int COL_EXECUTIONS = 3;
+
+    private final IEmulator emulator;
+    private JPanel panel;
+
+    private final JComboBox<Mode> modeChooser = new JComboBox<Mode>( Mode.values() );
+    private final JButton startStopButton = new JButton("Start");
+    private final JButton clearButton = new JButton("Clear");
+    private final JButton refreshButton = new JButton("Refresh");
+    private final JButton exportButton = new JButton("Export flame graph...");
+
+    private final ProfileTableModel byLabelModel = new ProfileTableModel();
+    private final ProfileTableModel byLineModel = new ProfileTableModel();
+    private final ProfileTableModel byAddressModel = new ProfileTableModel();
+    private final DefaultTreeModel callTreeModel = new DefaultTreeModel( new DefaultMutableTreeNode("<no call tree>") );
+
+    protected final class ProfileTableModel extends AbstractTableModel
+    {
+        private List<Profile.Entry> entries = new ArrayList<Profile.Entry>();
+        private long totalCycles;
+
+        public void setEntries(List<Profile.Entry> entries,long totalCycles)
+        {
+            this.entries = entries;
+            this.totalCycles = totalCycles;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public String getColumnName(int column)
+        {
+            switch( column )
+            {
+                case COL_NAME:
+                    return "Name";
+                case COL_CYCLES:
+                    return "Cycles";
+                case COL_PERCENTAGE:
+                    return "%";
+                case COL_EXECUTIONS:
+                    return "Executions / Samples";
+                default:
+                    return "<unknown column>";
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return entries.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 4;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex)
+        {
+            final Profile.Entry entry = entries.get( rowIndex );
+            switch( columnIndex )
+            {
+                case COL_NAME:
+                    return entry.getName();
+                case COL_CYCLES:
+                    return Long.toString( entry.getCycles() );
+                case COL_PERCENTAGE:
+                    return toPercentage( entry.getCycles() , totalCycles );
+                case COL_EXECUTIONS:
+                    return Long.toString( entry.getExecutions() );
+                default:
+                    return "<unknown column>";
+            }
+        }
+    }
+
+    /*
+     * Label of a node in the call tree.
+     */
+    private static final class CallTreeLabel
+    {
+        private final String label;
+
+        public CallTreeLabel(Profile profile,CallTreeNode node,DebugInfo debugInfo)
+        {
+            this.label = profile.getName( node , debugInfo )+" - "+node.getTotalCycles()+" cycles ("+
+                    toPercentage( node.getTotalCycles() , profile.getTotalCycles() )+" %) , self: "+node.getSelfCycles()+
+                    " , calls: "+node.getInvocationCount();
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public ProfilerView(IEmulator emulator)
+    {
+        if ( emulator == null ) {
+            throw new IllegalArgumentException("emulator must not be null");
+        }
+        this.emulator = emulator;
+    }
+
+    protected abstract IAssemblyProject getCurrentProject();
+
+    private static String toPercentage(long value,long total) {
+        return total == 0 ? "0.00" : String.format("%.2f" , value * 100.0d / total );
+    }
+
+    private DebugInfo getDebugInfo()
+    {
+        final IAssemblyProject project = getCurrentProject();
+        if ( project == null ) {
+            return null;
+        }
+        final Executable executable = project.getProjectBuilder().getExecutable();
+        return executable != null ? executable.getDebugInfo() : null;
+    }
+
+    private Profile createProfile()
+    {
+        return emulator.doWithEmulator( new IEmulatorInvoker<Profile>() {
+
+            @Override
+            public Profile doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory)
+            {
+                final CycleProfiler profiler = emulator.getProfiler();
+                return profiler != null ? profiler.createProfile() : null;
+            }
+        });
+    }
+
+    @Override
+    public void refreshDisplay()
+    {
+        executeAsynchronously( new Runnable() {
+
+            @Override
+            public void run()
+            {
+                final Profile profile = createProfile();
+                if ( profile == null ) {
+                    return;
+                }
+                final DebugInfo debugInfo = getDebugInfo();
+                final List<Profile.Entry> byLabel = profile.getFlatProfileByLabel( debugInfo );
+                final List<Profile.Entry> byLine = profile.getFlatProfileByLine( debugInfo );
+                final List<Profile.Entry> byAddress = profile.getFlatProfileByAddress( debugInfo );
+                final DefaultMutableTreeNode callTree = profile.getCallTree() != null ?
+                        createTreeNode( profile , profile.getCallTree() , debugInfo ) : new DefaultMutableTreeNode("<no call tree in "+profile.getMode()+" mode>");
+
+                UIUtils.invokeLater( new Runnable() {
+
+                    @Override
+                    public void run()
+                    {
+                        byLabelModel.setEntries( byLabel , profile.getTotalCycles() );
+                        byLineModel.setEntries( byLine , profile.getTotalCycles() );
+                        byAddressModel.setEntries( byAddress , profile.getTotalCycles() );
+                        callTreeModel.setRoot( callTree );
+                    }
+                });
+            }
+        });
+    }
+
+    private static DefaultMutableTreeNode createTreeNode(Profile profile,CallTreeNode node,DebugInfo debugInfo)
+    {
+        final DefaultMutableTreeNode result = new DefaultMutableTreeNode( new CallTreeLabel( profile , node , debugInfo ) );
+        for ( CallTreeNode child : node.getChildren() ) {
+            result.add( createTreeNode( profile , child , debugInfo ) );
+        }
+        return result;
+    }
+
+    private void updateButtonStates()
+    {
+        final boolean profiling = emulator.getProfiler() != null;
+        startStopButton.setText( profiling ? "Stop" : "Start" );
+        modeChooser.setEnabled( ! profiling );
+        clearButton.setEnabled( profiling );
+    }
+
+    private void exportFlameGraph()
+    {
+        final Profile profile = createProfile();
+        if ( profile == null || profile.getCallTree() == null ) {
+            UIUtils.showErrorDialog( panel , "No call tree" , "Flame graphs require profiling in "+Mode.EXACT+" mode" );
+            return;
+        }
+
+        final JFileChooser fc = new JFileChooser();
+        fc.setSelectedFile( new File("profile.folded") );
+        if ( fc.showSaveDialog( panel ) != JFileChooser.APPROVE_OPTION ) {
+            return;
+        }
+
+        try
+        {
+            final Writer writer = new FileWriter( fc.getSelectedFile() );
+            try {
+                profile.writeCollapsedStacks( writer , getDebugInfo() );
+            } finally {
+                writer.close();
+            }
+        }
+        catch (IOException e) {
+            UIUtils.showErrorDialog( panel , "Export failed" , "Failed to write "+fc.getSelectedFile().getAbsolutePath() , e );
+        }
+    }
+
+    @Override
+    protected void disposeHook()
+    {
+        emulator.setProfiler( null );
+    }
+
+    @Override
+    public String getTitle() {
+        return "Profiler";
+    }
+
+    @Override
+    public String getID() {
+        return VIEW_ID;
+    }
+
+    @Override
+    protected JPanel getPanel()
+    {
+        if ( panel == null ) {
+            panel = createPanel();
+        }
+        return panel;
+    }
+
+    private JTable createTable(ProfileTableModel model)
+    {
+        final JTable table = new JTable( model );
+        table.setFillsViewportHeight( true );
+        table.setFont( getMonospacedFont() );
+        setColors( table );
+        return table;
+    }
+
+    private JScrollPane createScrollPane(java.awt.Component component)
+    {
+        final JScrollPane pane = new JScrollPane( component );
+        setColors( pane );
+        return pane;
+    }
+
+    private JPanel createPanel()
+    {
+        // setup button bar
+        final JPanel buttonBar = new JPanel();
+        buttonBar.setLayout( new GridBagLayout() );
+        setColors( buttonBar );
+
+        int x = 0;
+        modeChooser.setSelectedItem( Mode.EXACT );
+        buttonBar.add( modeChooser , constraints( x++ , 0 , false , true , GridBagConstraints.NONE ) );
+
+        startStopButton.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                if ( emulator.getProfiler() != null ) {
+                    emulator.setProfiler( null );
+                } else {
+                    emulator.setProfiler( new CycleProfiler( (Mode) modeChooser.getSelectedItem() , CycleProfiler.DEFAULT_SAMPLING_INTERVAL ) );
+                }
+                updateButtonStates();
+            }
+        });
+        buttonBar.add( startStopButton , constraints( x++ , 0 , false , true , GridBagConstraints.NONE ) );
+
+        clearButton.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                emulator.doWithEmulator( new IEmulatorInvoker<Void>() {
+
+                    @Override
+                    public Void doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory)
+                    {
+                        final CycleProfiler profiler = emulator.getProfiler();
+                        if ( profiler != null ) {
+                            profiler.clear();
+                        }
+                        return null;
+                    }
+                });
+                refreshDisplay();
+            }
+        });
+        buttonBar.add( clearButton , constraints( x++ , 0 , false , true , GridBagConstraints.NONE ) );
+
+        refreshButton.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshDisplay();
+            }
+        });
+        buttonBar.add( refreshButton , constraints( x++ , 0 , false , true , GridBagConstraints.NONE ) );
+
+        exportButton.addActionListener( new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exportFlameGraph();
+            }
+        });
+        buttonBar.add( exportButton , constraints( x++ , 0 , true , true , GridBagConstraints.NONE ) );
+
+        updateButtonStates();
+
+        // setup tabs
+        final JTabbedPane tabs = new JTabbedPane();
+        setColors( tabs );
+        tabs.addTab( "By label" , createScrollPane( createTable( byLabelModel ) ) );
+        tabs.addTab( "By source line" , createScrollPane( createTable( byLineModel ) ) );
+        tabs.addTab( "By address" , createScrollPane( createTable( byAddressModel ) ) );
+
+        final JTree tree = new JTree( callTreeModel );
+        tree.setFont( getMonospacedFont() );
+        setColors( tree );
+        tabs.addTab( "Call tree" , createScrollPane( tree ) );
+
+        final JPanel result = new JPanel();
+        result.setLayout( new GridBagLayout() );
+        setColors( result );
+        result.add( buttonBar , constraints( 0 , 0 , true , false , GridBagConstraints.HORIZONTAL ) );
+        result.add( tabs , constraints( 0 , 1 , true , true , GridBagConstraints.BOTH ) );
+        return result;
+    }
+}
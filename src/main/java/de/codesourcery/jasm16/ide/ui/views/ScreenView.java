@@ -167,6 +167,17 @@ public class ScreenView extends AbstractView
     {
         panel = new JPanel() 
         {
+            @Override
+            public void repaint(long tm, int x, int y, int width, int height)
+            {
+                // the screen requests repaints relative to the full panel size
+                if ( debugCustomFonts ) {
+                    super.repaint( tm , 0 , 0 , getWidth() , getHeight() );
+                } else {
+                    super.repaint( tm , x , y , width , height );
+                }
+            }
+
         	public void paint(java.awt.Graphics g) 
              {
         		super.paint(g);
@@ -64,10 +64,12 @@ import de.codesourcery.jasm16.ide.ui.MenuManager;
 import de.codesourcery.jasm16.ide.ui.MenuManager.MenuEntry;
 import de.codesourcery.jasm16.ide.ui.utils.UIUtils;
 import de.codesourcery.jasm16.ide.ui.viewcontainers.DebuggingPerspective;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.ViewSnapshot;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.IRefreshableView;
 import de.codesourcery.jasm16.utils.ITextRegion;
 import de.codesourcery.jasm16.utils.Misc;
 
-public class SourceLevelDebugView extends SourceCodeView
+public class SourceLevelDebugView extends SourceCodeView implements IRefreshableView
 {
     public static final String VIEW_ID = "source-level-debug";
 
@@ -108,11 +110,6 @@ public class SourceLevelDebugView extends SourceCodeView
             });
         }
         
-        @Override
-        public void afterCommandExecution(IEmulator emulator, int commandDuration) {
-            refreshDisplayHook();
-        }
-        
         @Override
         public void onStopHook(final IEmulator emulator, final Address previousPC, final Throwable emulationError) 
         {
@@ -132,10 +129,6 @@ public class SourceLevelDebugView extends SourceCodeView
             });
         }
         
-        @Override
-        public void afterReset(IEmulator emulator) {
-            refreshDisplayHook();
-        }
         @Override
         public void afterMemoryLoad(final IEmulator emulator, Address startAddress, int lengthInBytes) {
             UIUtils.invokeLater( new Runnable() {
@@ -162,6 +155,7 @@ public class SourceLevelDebugView extends SourceCodeView
         this.perspective = perspective;
         this.emulator = emulator;
         this.emulator.addEmulationListener( listener );
+        perspective.getViewRefreshScheduler().addView( this );
     }
     
     private final MouseAdapter mouseListener = new MouseAdapter() {
@@ -272,6 +266,7 @@ public class SourceLevelDebugView extends SourceCodeView
             removeMouseListener( mouseListener );
         }
         emulator.removeEmulationListener( listener );
+        perspective.getViewRefreshScheduler().removeView( this );
     }
 
     private void toggleBreakpoint(Address address)
@@ -440,6 +435,11 @@ public class SourceLevelDebugView extends SourceCodeView
         });
     }
     
+    @Override
+    public void refresh(ViewSnapshot snapshot) {
+        scrollToVisible( snapshot.getCPU().getPC() , true , false );
+    }
+    
     private void highlightBreakpoints() 
     {
         final List<Breakpoint> copy;
@@ -23,63 +23,28 @@ import java.util.List;
 
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
-import javax.swing.SwingUtilities;
 
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.Size;
 import de.codesourcery.jasm16.WordAddress;
-import de.codesourcery.jasm16.emulator.EmulationListener;
-import de.codesourcery.jasm16.emulator.IEmulationListener;
-import de.codesourcery.jasm16.emulator.IEmulator;
 import de.codesourcery.jasm16.emulator.memory.MemUtils;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.ViewSnapshot;
+import de.codesourcery.jasm16.ide.ui.views.ViewRefreshScheduler.IRefreshableView;
 import de.codesourcery.jasm16.utils.Misc;
 
-public class StackView extends AbstractView
+public class StackView extends AbstractView implements IRefreshableView
 {
     public static final String VIEW_ID = "stack-view";
     
     private JPanel panel;
     private final JTextArea textArea = new JTextArea();
     
-    private IEmulator emulator;
+    private ViewRefreshScheduler refreshScheduler;
     private int numberOfWordsToDump = 16;
     private boolean printASCII = true;
     
-    private final IEmulationListener listener = new EmulationListener() {
-
-        @Override
-        public void afterCommandExecution(IEmulator emulator, int commandDuration)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-        @Override
-        public void afterReset(IEmulator emulator)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-        @Override
-        public void afterMemoryLoad(IEmulator emulator, Address startAddress, int lengthInBytes)
-        {
-        	if ( ! isFullSpeedMode() ) {
-        		refreshDisplay();
-        	}
-        }
-
-		@Override
-		public void onStopHook(IEmulator emulator, Address previousPC, Throwable emulationError) {
-			refreshDisplay();
-		}
-
-     };
-     
-    public StackView(IEmulator emulator) {
-        setEmulator( emulator );
+    public StackView(ViewRefreshScheduler refreshScheduler) {
+        setRefreshScheduler( refreshScheduler );
     }
     
     public StackView() {
@@ -88,69 +53,62 @@ public class StackView extends AbstractView
     @Override
     public void refreshDisplay() 
     {
-        if ( emulator == null ) {
-            return;
+        if ( refreshScheduler != null ) {
+            refreshScheduler.requestRefresh( true );
         }
-        
-        Address startOfStack = emulator.getCPU().getSP();
-        final int realStart = (startOfStack.toWordAddress().getValue() - numberOfWordsToDump + 1 ) & 0xffff;
+    }
+    
+    @Override
+    public void refresh(ViewSnapshot snapshot) 
+    {
+        final Address sp = snapshot.getCPU().getSP();
+        final int realStart = (sp.toWordAddress().getValue() - numberOfWordsToDump + 1 ) & 0xffff;
                 
-        final byte[] data = MemUtils.getBytes( emulator.getMemory() , 
+        final byte[] data = MemUtils.getBytes( snapshot.getMemory() , 
         		Address.wordAddress( realStart ) , 
         		Size.words( numberOfWordsToDump) , 
         		true 
         );
-        SwingUtilities.invokeLater( new Runnable() {
-
-            @Override
-            public void run()
-            {
-                final List<String> lines = Misc.toHexDumpLines( Address.wordAddress( realStart ), data, data.length , 1 , printASCII , true , true );
-                Collections.reverse( lines ); // reverse lines => print stack from highest to lowest address
-                
-                Address current = Address.wordAddress( ( realStart + numberOfWordsToDump  -1 ) & 0xffff );
-                
-                StringBuilder result = new StringBuilder();
-                for (Iterator<String> iterator = lines.iterator(); iterator.hasNext();) {
-                    String line = iterator.next();
-                    result.append( line );
-                    
-                    if ( current.equals( emulator.getCPU().getSP() ) ) {
-                        result.append("  << ");
-                    }
-                    if ( iterator.hasNext() ) {
-                        result.append("\n");
-                    }
-                    current = current.decrementByOne();
-                }
-                textArea.setText( result.toString() );                
+        
+        final List<String> lines = Misc.toHexDumpLines( Address.wordAddress( realStart ), data, data.length , 1 , printASCII , true , true );
+        Collections.reverse( lines ); // reverse lines => print stack from highest to lowest address
+        
+        Address current = Address.wordAddress( ( realStart + numberOfWordsToDump  -1 ) & 0xffff );
+        
+        StringBuilder result = new StringBuilder();
+        for (Iterator<String> iterator = lines.iterator(); iterator.hasNext();) {
+            String line = iterator.next();
+            result.append( line );
+            
+            if ( current.equals( sp ) ) {
+                result.append("  << ");
+            }
+            if ( iterator.hasNext() ) {
+                result.append("\n");
             }
-        });
+            current = current.decrementByOne();
+        }
+        textArea.setText( result.toString() );                
     }
     
-    public void setEmulator(IEmulator emulator)
+    public void setRefreshScheduler(ViewRefreshScheduler refreshScheduler)
     {
-        if (emulator == null) {
-            throw new IllegalArgumentException("emulator must not be NULL.");
+        if (refreshScheduler == null) {
+            throw new IllegalArgumentException("refreshScheduler must not be NULL.");
         }
-        if ( this.emulator == emulator ) {
-            return;
+        if ( this.refreshScheduler != null ) {
+            this.refreshScheduler.removeView( this );
         }
-        
-        if ( this.emulator != null ) {
-            this.emulator.removeEmulationListener( listener );
-        }
-        this.emulator = emulator;
-        
-        emulator.addEmulationListener( listener );
+        this.refreshScheduler = refreshScheduler;
+        refreshScheduler.addView( this );
     }
     
     @Override
     public void disposeHook() 
     {
-        if ( this.emulator != null ) {
-            this.emulator.removeEmulationListener( listener );
-            this.emulator = null;
+        if ( this.refreshScheduler != null ) {
+            this.refreshScheduler.removeView( this );
+            this.refreshScheduler = null;
         }
     }
     
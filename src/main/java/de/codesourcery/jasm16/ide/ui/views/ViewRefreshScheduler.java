@@ -0,0 +1,371 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.ide.ui.views;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.Breakpoint;
+import de.codesourcery.jasm16.emulator.EmulationListener;
+import de.codesourcery.jasm16.emulator.ICPU;
+import de.codesourcery.jasm16.emulator.IEmulationListener;
+import de.codesourcery.jasm16.emulator.IEmulator;
+import de.codesourcery.jasm16.emulator.IEmulatorInvoker;
+import de.codesourcery.jasm16.emulator.IReadOnlyCPU;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+import de.codesourcery.jasm16.emulator.memory.IReadOnlyMemory;
+
+/**
+ * Refreshes all debugger views from a single , consistent snapshot of the emulator's state.
+ *
+ * <p>Views do not react to emulation events themselves but request a refresh from this class. Refresh requests
+ * are coalesced: a snapshot of the CPU and memory is taken at most once every {@link #getMinRefreshIntervalMillis()}
+ * milliseconds (or right away when the emulation stopped or hit a breakpoint) and then handed to all registered
+ * views on the Event Dispatch Thread. Snapshots that have not been rendered yet when a newer snapshot becomes
+ * available are dropped.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class ViewRefreshScheduler
+{
+	private static final Logger LOG = Logger.getLogger(ViewRefreshScheduler.class);
+
+	public static final int DEFAULT_MIN_REFRESH_INTERVAL_MILLIS = 50;
+
+	/**
+	 * Number of cycles between refresh requests when the views
+	 * should get updated while the emulation is running.
+	 *
+	 * @see #setUpdateWhileRunning(boolean)
+	 */
+	public static final int UPDATE_WHILE_RUNNING_INTERVAL_IN_CYCLES = 10000;
+
+	/**
+	 * A view that gets refreshed by the {@link ViewRefreshScheduler}.
+	 *
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public interface IRefreshableView
+	{
+		/**
+		 * Refreshes this view.
+		 *
+		 * <p>Always invoked by the Event Dispatch Thread.</p>
+		 *
+		 * @param snapshot
+		 */
+		public void refresh(ViewSnapshot snapshot);
+	}
+
+	/**
+	 * Immutable copy of the emulator's CPU and memory taken
+	 * in-between two instructions.
+	 *
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static final class ViewSnapshot
+	{
+		private final IReadOnlyCPU cpu;
+		private final SnapshotMemory memory;
+		private final Throwable lastEmulationError;
+
+		protected ViewSnapshot(IReadOnlyCPU cpu, int[] memory,Throwable lastEmulationError)
+		{
+			this.cpu = cpu;
+			this.memory = new SnapshotMemory( memory );
+			this.lastEmulationError = lastEmulationError;
+		}
+
+		public IReadOnlyCPU getCPU() {
+			return cpu;
+		}
+
+		public IReadOnlyMemory getMemory() {
+			return memory;
+		}
+
+		/**
+		 *
+		 * @return
+		 * @see IEmulator#getLastEmulationError()
+		 */
+		public Throwable getLastEmulationError() {
+			return lastEmulationError;
+		}
+	}
+
+	private static final class SnapshotMemory implements IReadOnlyMemory
+	{
+		private final int[] data;
+
+		public SnapshotMemory(int[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public Size getSize() {
+			return Size.words( data.length );
+		}
+
+		@Override
+		public int read(int wordAddress) {
+			return data[ wordAddress & 0xffff ];
+		}
+
+		@Override
+		public int read(Address address) {
+			return read( address.getWordAddressValue() );
+		}
+
+		@Override
+		public void snapshot(int wordAddress, int[] target)
+		{
+			for ( int i = 0 ; i < target.length ; i++ ) {
+				target[i] = data[ ( wordAddress + i ) & 0xffff ];
+			}
+		}
+	}
+
+	private final IEmulator emulator;
+	private final int minRefreshIntervalMillis;
+	private final CopyOnWriteArrayList<IRefreshableView> views = new CopyOnWriteArrayList<IRefreshableView>();
+
+	private final ScheduledExecutorService timer;
+
+	// whether a snapshot has been scheduled but not taken yet
+	private final AtomicBoolean snapshotPending = new AtomicBoolean(false);
+	private volatile long lastSnapshotTime = 0;
+
+	// latest snapshot not rendered yet
+	private final AtomicReference<ViewSnapshot> unrenderedSnapshot = new AtomicReference<ViewSnapshot>();
+
+	private volatile boolean updateWhileRunning = false;
+
+	private final Runnable takeSnapshot = new Runnable() {
+
+		@Override
+		public void run()
+		{
+			try {
+				takeSnapshot();
+			} catch(Exception e) {
+				LOG.error("takeSnapshot(): Failed to take snapshot",e);
+			}
+		}
+	};
+
+	private final Runnable renderSnapshot = new Runnable() {
+
+		@Override
+		public void run()
+		{
+			final ViewSnapshot snapshot = unrenderedSnapshot.getAndSet( null );
+			if ( snapshot == null ) {
+				return;
+			}
+			for ( IRefreshableView view : views )
+			{
+				try {
+					view.refresh( snapshot );
+				} catch(Exception e) {
+					LOG.error("renderSnapshot(): View "+view+" failed to refresh",e);
+				}
+			}
+		}
+	};
+
+	private final IEmulationListener listener = new EmulationListener()
+	{
+		@Override
+		public void afterCommandExecution(IEmulator emulator, int commandDuration) {
+			requestRefresh( false );
+		}
+
+		@Override
+		public void afterReset(IEmulator emulator) {
+			requestRefresh( false );
+		}
+
+		@Override
+		public void afterMemoryLoad(IEmulator emulator, Address startAddress, int lengthInBytes) {
+			requestRefresh( false );
+		}
+
+		@Override
+		public void onBreakpoint(IEmulator emulator, Breakpoint breakpoint) {
+			requestRefresh( true );
+		}
+
+		@Override
+		public void onStopHook(IEmulator emulator, Address previousPC, Throwable emulationError) {
+			requestRefresh( true );
+		}
+	};
+
+	// only registered while updateWhileRunning is set
+	private final IEmulationListener whileRunningListener = new EmulationListener()
+	{
+		@Override
+		public InvocationInterval getContinuousModeInvocationInterval() {
+			return InvocationInterval.cycles( UPDATE_WHILE_RUNNING_INTERVAL_IN_CYCLES );
+		}
+
+		@Override
+		public void afterCommandExecution(IEmulator emulator, int commandDuration)
+		{
+			if ( isFullSpeedMode() ) { // single-step mode is already handled by the other listener
+				requestRefresh( false );
+			}
+		}
+	};
+
+	public ViewRefreshScheduler(IEmulator emulator) {
+		this( emulator , DEFAULT_MIN_REFRESH_INTERVAL_MILLIS );
+	}
+
+	public ViewRefreshScheduler(IEmulator emulator,int minRefreshIntervalMillis)
+	{
+		if (emulator == null) {
+			throw new IllegalArgumentException("emulator must not be NULL.");
+		}
+		if ( minRefreshIntervalMillis < 0 ) {
+			throw new IllegalArgumentException("minRefreshIntervalMillis must not be negative");
+		}
+		this.emulator = emulator;
+		this.minRefreshIntervalMillis = minRefreshIntervalMillis;
+		this.timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				final Thread result = new Thread( r , "view-refresh-thread" );
+				result.setDaemon( true );
+				return result;
+			}
+		});
+		emulator.addEmulationListener( listener );
+	}
+
+	public void addView(IRefreshableView view)
+	{
+		if (view == null) {
+			throw new IllegalArgumentException("view must not be NULL.");
+		}
+		views.addIfAbsent( view );
+	}
+
+	public void removeView(IRefreshableView view) {
+		views.remove( view );
+	}
+
+	public int getMinRefreshIntervalMillis() {
+		return minRefreshIntervalMillis;
+	}
+
+	/**
+	 * Sets whether views should get refreshed periodically while the
+	 * emulation is running.
+	 *
+	 * @param yesNo
+	 */
+	public synchronized void setUpdateWhileRunning(boolean yesNo)
+	{
+		if ( this.updateWhileRunning == yesNo ) {
+			return;
+		}
+		this.updateWhileRunning = yesNo;
+		if ( yesNo ) {
+			emulator.addEmulationListener( whileRunningListener );
+		} else {
+			emulator.removeEmulationListener( whileRunningListener );
+		}
+	}
+
+	public boolean isUpdateWhileRunning() {
+		return updateWhileRunning;
+	}
+
+	/**
+	 * Requests all views to be refreshed.
+	 *
+	 * @param immediately whether to take the snapshot right away instead of waiting
+	 * until the min. refresh interval has passed since the last snapshot
+	 */
+	public void requestRefresh(boolean immediately)
+	{
+		if ( immediately ) {
+			snapshotPending.set( true );
+			schedule( 0 );
+		}
+		else if ( snapshotPending.compareAndSet( false , true ) )
+		{
+			final long delay = lastSnapshotTime + minRefreshIntervalMillis - System.currentTimeMillis();
+			schedule( Math.max( 0 , delay ) );
+		}
+	}
+
+	private void schedule(long delayMillis)
+	{
+		if ( ! timer.isShutdown() ) {
+			timer.schedule( takeSnapshot , delayMillis , TimeUnit.MILLISECONDS );
+		}
+	}
+
+	private void takeSnapshot()
+	{
+		if ( ! snapshotPending.compareAndSet( true , false ) ) {
+			return; // already taken by an earlier , immediate request
+		}
+
+		final ViewSnapshot snapshot = emulator.doWithEmulator( new IEmulatorInvoker<ViewSnapshot>() {
+
+			@Override
+			public ViewSnapshot doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory)
+			{
+				final int[] data = new int[ 65536 ];
+				memory.snapshot( 0 , data );
+				return new ViewSnapshot( emulator.getCPU() , data , emulator.getLastEmulationError() );
+			}
+		});
+		lastSnapshotTime = System.currentTimeMillis();
+
+		if ( snapshot == null ) { // no emulator loaded
+			return;
+		}
+		if ( unrenderedSnapshot.getAndSet( snapshot ) == null ) {
+			SwingUtilities.invokeLater( renderSnapshot );
+		}
+	}
+
+	public void dispose()
+	{
+		emulator.removeEmulationListener( listener );
+		emulator.removeEmulationListener( whileRunningListener );
+		views.clear();
+		timer.shutdownNow();
+	}
+}
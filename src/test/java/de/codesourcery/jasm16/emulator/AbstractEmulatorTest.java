@@ -79,6 +79,15 @@ public abstract class AbstractEmulatorTest extends TestCase
     protected void tearDownHook() throws Exception {
     }
     
+    /**
+     * Returns the emulation speed tests should run at.
+     * 
+     * @return
+     */
+    protected EmulationSpeed getEmulationSpeed() {
+        return EmulationSpeed.REAL_SPEED;
+    }
+    
     // ==================== helper code ====================
 
     protected final void execute(String source) throws TimeoutException, InterruptedException {
@@ -166,7 +175,7 @@ public abstract class AbstractEmulatorTest extends TestCase
         {
             emulator.reset(true);
             emulator.loadMemory(compilationUnit.getObjectCodeStartOffset() , objectCode);      
-            emulator.setEmulationSpeed( EmulationSpeed.REAL_SPEED );
+            emulator.setEmulationSpeed( getEmulationSpeed() );
             if ( l != null ) {
                 emulator.addEmulationListener( l );
             }
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.compiler.CompilationListener;
+import de.codesourcery.jasm16.compiler.CompilationUnit;
+import de.codesourcery.jasm16.compiler.DebugInfo;
+import de.codesourcery.jasm16.compiler.ICompilationUnit;
+import de.codesourcery.jasm16.compiler.ICompiler;
+import de.codesourcery.jasm16.compiler.ICompiler.CompilerOption;
+import de.codesourcery.jasm16.compiler.ISymbol;
+import de.codesourcery.jasm16.compiler.Label;
+import de.codesourcery.jasm16.compiler.io.ByteArrayObjectCodeWriterFactory;
+import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultClock;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+
+/**
+ * Base class for tests that create their own emulators without a clock thread
+ * (see {@link Emulator#Emulator(boolean)}) and drive them using {@link Emulator#executeTimeSlice(int)}.
+ * 
+ * <p>Emulators created by {@link #createEmulator(IDevice...)} get disposed after each test.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public abstract class AbstractHeadlessEmulatorTest extends TestCase
+{
+    /**
+     * Program that counts clock interrupts in <code>[0x1000]</code> and loop iterations in <code>[0x1001]</code>.
+     * 
+     * <p>Needs a {@link DefaultClock} as device #0 , the clock ticks every 1666 cycles.</p>
+     */
+    protected static final String CLOCK_PROGRAM = "       IAS handler\n"+
+                                                  "       SET a,0\n"+
+                                                  "       SET b,1\n"+
+                                                  "       HWI 0\n"+
+                                                  "       SET a,2\n"+
+                                                  "       SET b,0x42\n"+
+                                                  "       HWI 0\n"+
+                                                  "loop:  ADD [0x1001],1\n"+
+                                                  "       ADD x,[0x1000]\n"+
+                                                  "       SET PC,loop\n"+
+                                                  "handler: ADD [0x1000],1\n"+
+                                                  "       RFI 0\n";
+
+    protected static final int CLOCK_PROGRAM_LOOP_ADDRESS = 8;
+    protected static final int CLOCK_PROGRAM_HANDLER_ADDRESS = 13;
+
+    private final List<Emulator> emulators = new ArrayList<Emulator>();
+
+    /**
+     * Compilation unit and debug info of the last program compiled by {@link #compileToBytes(String)}.
+     */
+    protected ICompilationUnit compilationUnit;
+    protected DebugInfo debugInfo;
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for ( Emulator emulator : emulators ) {
+            emulator.dispose();
+        }
+        emulators.clear();
+    }
+
+    /**
+     * Creates an emulator with a {@link DefaultClock}.
+     * 
+     * @return
+     */
+    protected final Emulator createEmulator() 
+    {
+        return createEmulator( new DefaultClock() );
+    }
+
+    /**
+     * Creates an emulator with the given devices.
+     * 
+     * @param devices
+     * @return
+     */
+    protected final Emulator createEmulator(IDevice... devices) 
+    {
+        final Emulator emulator = new Emulator( false );
+        emulators.add( emulator );
+        emulator.setOutput( new PrintStreamLogger( System.out ) );
+        for ( IDevice device : devices ) {
+            emulator.addDevice( device );
+        }
+        return emulator;
+    }
+
+    /**
+     * Compiles source code into a memory image starting at address 0.
+     * 
+     * @param source
+     * @return
+     */
+    protected final MemoryImage compile(String source)
+    {
+        return MemoryImage.create( Address.wordAddress( 0 ) , compileToBytes( source ) );
+    }
+
+    protected final byte[] compileToBytes(String source)
+    {
+        final ICompiler c = new de.codesourcery.jasm16.compiler.Compiler();
+        c.setCompilerOption(CompilerOption.RELAXED_PARSING,true);
+        c.setCompilerOption(CompilerOption.GENERATE_DEBUG_INFO,true);
+
+        final ByteArrayObjectCodeWriterFactory factory = new ByteArrayObjectCodeWriterFactory();
+        c.setObjectCodeWriterFactory( factory );
+
+        compilationUnit = CompilationUnit.createInstance("string" , source );
+        debugInfo = c.compile( Collections.singletonList( compilationUnit ) , new CompilationListener() );
+        assertFalse( "Failed to compile source" , compilationUnit.hasErrors() );
+        return factory.getBytes();
+    }
+
+    /**
+     * Returns the address of a label from the last program compiled.
+     * 
+     * @param name
+     * @return
+     */
+    protected final int getLabelAddress(String name)
+    {
+        for ( ISymbol symbol : compilationUnit.getSymbolTable().getSymbols() )
+        {
+            if ( symbol instanceof Label && symbol.getName().getRawValue().equals( name ) ) {
+                return ((Label) symbol).getAddress().getWordAddressValue();
+            }
+        }
+        throw new IllegalArgumentException("Unknown label "+name);
+    }
+
+    /**
+     * Starts an emulator , executes a number of instructions and stops it again.
+     * 
+     * @param emulator
+     * @param instructions
+     */
+    protected final void run(Emulator emulator,int instructions)
+    {
+        emulator.start();
+        while ( instructions > 0 )
+        {
+            final int slice = Math.min( instructions , 1000 );
+            emulator.executeTimeSlice( slice );
+            instructions -= slice;
+        }
+        emulator.stop();
+        assertNull( emulator.getLastEmulationError() );
+    }
+
+    /**
+     * Asserts that two emulators have the same register values , cycle count and memory contents.
+     * 
+     * @param expected
+     * @param actual
+     */
+    protected static void assertSameState(Emulator expected,Emulator actual)
+    {
+        for ( Register r : new Register[] { Register.A , Register.B, Register.C , Register.X , Register.Y , Register.Z ,
+                                            Register.I , Register.J , Register.EX , Register.PC , Register.SP } )
+        {
+            assertEquals( r.toString() , expected.getCPU().getRegisterValue( r ) , actual.getCPU().getRegisterValue( r ) );
+        }
+        assertEquals( expected.getCPU().getCurrentCycleCount() , actual.getCPU().getCurrentCycleCount() );
+        for ( int i = 0 ; i < 65536 ; i++ ) {
+            assertEquals( "Memory differs at "+i , expected.getMemory().read( i ) , actual.getMemory().read( i ) );
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.emulator.devices.IInterrupt;
+import de.codesourcery.jasm16.emulator.memory.MainMemory;
+import de.codesourcery.jasm16.exceptions.ParseException;
+
+public class BreakpointConditionTest extends TestCase {
+
+	private final Map<Register,Integer> registers = new HashMap<Register,Integer>();
+	private MainMemory memory;
+
+	private final IReadOnlyCPU cpu = new IReadOnlyCPU() {
+
+		@Override
+		public Address getPC() { return Address.wordAddress( getRegisterValue( Register.PC ) ); }
+
+		@Override
+		public Address getSP() { return Address.wordAddress( getRegisterValue( Register.SP ) ); }
+
+		@Override
+		public int getEX() { return getRegisterValue( Register.EX ); }
+
+		@Override
+		public Address getInterruptAddress() { return Address.wordAddress( 0 ); }
+
+		@Override
+		public int getCurrentCycleCount() { return 0; }
+
+		@Override
+		public int getRegisterValue(Register reg) {
+			final Integer value = registers.get( reg );
+			return value != null ? value.intValue() : 0;
+		}
+
+		@Override
+		public boolean isQueueInterrupts() { return false; }
+
+		@Override
+		public boolean interruptsEnabled() { return false; }
+
+		@Override
+		public List<IInterrupt> getInterruptQueue() { return Collections.emptyList(); }
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		registers.clear();
+		memory = new MainMemory(65536);
+	}
+
+	private long evaluate(String condition) throws ParseException {
+		return BreakpointCondition.compile( condition ).evaluate( cpu , memory );
+	}
+
+	public void testLiterals() throws ParseException {
+		assertEquals( 3 , evaluate("1+2") );
+		assertEquals( 0x42 , evaluate("0x42") );
+		assertEquals( -5 , evaluate("-5") );
+		assertEquals( 14 , evaluate("2 + 3 * 4") );
+		assertEquals( 20 , evaluate("(2+3)*4") );
+	}
+
+	public void testComparison() throws ParseException {
+		registers.put( Register.I , 0x1234 );
+		assertEquals( 1 , evaluate("i == 0x1234") );
+		assertEquals( 0 , evaluate("I != 0x1234") );
+		assertEquals( 1 , evaluate("i > 10 & i < 0x2000") );
+	}
+
+	public void testRegisters() throws ParseException {
+		registers.put( Register.A , 42 );
+		registers.put( Register.X , 43 );
+		registers.put( Register.PC , 0x100 );
+		assertEquals( 85 , evaluate("a+x") );
+		assertEquals( 0x101 , evaluate("pc+1") );
+	}
+
+	public void testMemoryReferences() throws ParseException {
+		registers.put( Register.A , 42 );
+		memory.write( 42 , 1 );
+		memory.write( 43 , 7 );
+		memory.write( 0x4000 , 49 );
+		assertEquals( 1+0x42+1+49 , evaluate("1+0x42+[a]+[0x4000]") );
+		assertEquals( 7 , evaluate("[ a + 1 ]") );
+	}
+
+	public void testConditionIsOnlyEvaluatedAgainstCurrentState() throws ParseException {
+		final BreakpointCondition condition = BreakpointCondition.compile("[0x10] == 3");
+		assertEquals( 0 , condition.evaluate( cpu , memory ) );
+		memory.write( 0x10 , 3 );
+		assertEquals( 1 , condition.evaluate( cpu , memory ) );
+	}
+
+	public void testInvalidConditions() {
+		for ( String invalid : new String[] { "1+" , "(1" , "[a" , "foo" , "0x" , "1 2" } )
+		{
+			try {
+				BreakpointCondition.compile( invalid );
+				fail("Should've failed to compile '"+invalid+"'");
+			} catch(ParseException e) {
+				// ok
+			}
+		}
+	}
+
+	public void testInvalidConditionKeepsOldCondition() throws ParseException {
+		final Breakpoint bp = new Breakpoint( Address.wordAddress( 1 ) , "a == 1" );
+		try {
+			bp.setCondition("a ==");
+			fail("Should've failed");
+		} catch(ParseException e) {
+			// ok
+		}
+		assertEquals( "a == 1" , bp.getCondition() );
+		registers.put( Register.A , 1 );
+		assertTrue( bp.matches( cpu , memory ) );
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+
+public class CycleSchedulerTest extends TestCase
+{
+    private CycleScheduler scheduler;
+    private List<String> fired;
+
+    private final class RecordingEvent implements IScheduledEvent {
+
+        private final String name;
+
+        public RecordingEvent(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+        {
+            fired.add( name+"@"+scheduler.getCurrentCycle() );
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        scheduler = new CycleScheduler();
+        fired = new ArrayList<String>();
+    }
+
+    private void advanceAndFire(int cycles) {
+        scheduler.advance( cycles );
+        scheduler.fireDueEvents( null , null , null );
+    }
+
+    public void testEventsFireInOrderOfDueCycle() {
+
+        scheduler.schedule( 10 , new RecordingEvent("b") );
+        scheduler.schedule( 5 , new RecordingEvent("a") );
+
+        assertFalse( scheduler.advance( 4 ) );
+        assertTrue( scheduler.advance( 1 ) );
+        scheduler.fireDueEvents( null , null , null );
+        assertEquals( "[a@5]" , fired.toString() );
+
+        advanceAndFire( 5 );
+        assertEquals( "[a@5, b@10]" , fired.toString() );
+        assertFalse( scheduler.hasDueEvents() );
+    }
+
+    public void testEventsDueAtSameCycleFireInSchedulingOrder() {
+
+        scheduler.schedule( 3 , new RecordingEvent("first") );
+        scheduler.schedule( 3 , new RecordingEvent("second") );
+        scheduler.schedule( 3 , new RecordingEvent("third") );
+
+        advanceAndFire( 7 );
+        assertEquals( "[first@7, second@7, third@7]" , fired.toString() );
+    }
+
+    public void testZeroDelayFiresOnNextInvocation() {
+
+        scheduler.schedule( 0 , new RecordingEvent("a") );
+        assertTrue( scheduler.hasDueEvents() );
+        scheduler.fireDueEvents( null , null , null );
+        assertEquals( "[a@0]" , fired.toString() );
+    }
+
+    public void testCancel() {
+
+        final RecordingEvent a = new RecordingEvent("a");
+        scheduler.schedule( 2 , a );
+        scheduler.schedule( 4 , new RecordingEvent("b") );
+
+        assertTrue( scheduler.cancel( a ) );
+        assertFalse( scheduler.cancel( a ) );
+
+        assertFalse( scheduler.advance( 2 ) );
+        advanceAndFire( 2 );
+        assertEquals( "[b@4]" , fired.toString() );
+    }
+
+    public void testClear() {
+
+        scheduler.schedule( 1 , new RecordingEvent("a") );
+        scheduler.clear();
+        assertFalse( scheduler.advance( 10 ) );
+    }
+
+    public void testPeriodicEventDoesNotDrift() {
+
+        final IScheduledEvent periodic = new IScheduledEvent() {
+
+            @Override
+            public void fire(IEmulator emulator, ICPU cpu, IMemory memory)
+            {
+                fired.add( "tick@"+scheduler.getCurrentCycle() );
+                scheduler.schedule( 10 , this );
+            }
+        };
+        scheduler.schedule( 10 , periodic );
+
+        advanceAndFire( 13 ); // fires 3 cycles late
+        advanceAndFire( 7 ); // due at cycle 20 , not 23
+        assertEquals( "[tick@13, tick@20]" , fired.toString() );
+
+        advanceAndFire( 25 ); // both ticks that became due in the meantime fire
+        assertEquals( "[tick@13, tick@20, tick@45, tick@45]" , fired.toString() );
+    }
+
+    public void testNegativeDelayIsRejected() {
+
+        try {
+            scheduler.schedule( -1 , new RecordingEvent("a") );
+            fail("Should've failed");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.HaltReason;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.Result;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+
+public class EmulatorFarmTest extends AbstractHeadlessEmulatorTest
+{
+    private EmulatorFarm farm;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        farm = new EmulatorFarm( 2 , 100 );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try {
+            farm.shutdown();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testInstancesSharingAnImageRunIndependently() throws Exception
+    {
+        // each instance increments a counter in memory that
+        // also gets modified by the program's code
+        final MemoryImage image = compile("       SET i,0\n"+
+                                          "loop:  ADD [counter],1\n"+
+                                          "       ADD i,1\n"+
+                                          "       IFN i,1000\n"+
+                                          "       SET PC,loop\n"+
+                                          "       SET a,[counter]\n"+
+                                          "halt:  SUB PC,1\n"+
+                                          "counter: .dat 42\n");
+
+        final HeadlessRunner runner = new HeadlessRunner();
+        final List<Future<Result>> results = new ArrayList<Future<Result>>();
+        for ( int i = 0 ; i < 20 ; i++ ) {
+            results.add( farm.submit( runner , image ) );
+        }
+
+        for ( Future<Result> future : results )
+        {
+            final Result result = future.get( 30 , TimeUnit.SECONDS );
+            assertEquals( HaltReason.SELF_LOOP , result.getHaltReason() );
+            assertEquals( 1042 , result.getCPU().getRegisterValue( Register.A ) );
+        }
+        assertEquals( 0 , farm.getRunningInstanceCount() );
+        assertEquals( 20 , farm.getCompletedInstanceCount() );
+        assertTrue( farm.getExecutedCycles() > 20 * 1000 );
+    }
+
+    public void testCycleBudgetAndMemoryDump() throws Exception
+    {
+        final MemoryImage image = compile("loop:  ADD [0x1000],1\n"+
+                                          "       SET PC,loop\n");
+
+        final HeadlessRunner runner = new HeadlessRunner();
+        runner.setMaxCycles( 5000 );
+        runner.addMemoryDump( new AddressRange( Address.wordAddress( 0x1000 ) , Size.words( 1 ) ) );
+
+        final Result result = farm.submit( runner , image ).get( 30 , TimeUnit.SECONDS );
+        assertEquals( HaltReason.CYCLE_BUDGET , result.getHaltReason() );
+        assertTrue( result.getDumpedMemory(0)[0] > 0 );
+        assertEquals( 0 , image.read( 0x1000 ) );
+    }
+
+    public void testInstancesStartFromSnapshot() throws Exception
+    {
+        final HeadlessRunner runner = new HeadlessRunner();
+        runner.setMaxCycles( 5000 );
+        runner.addMemoryDump( new AddressRange( Address.wordAddress( 0x1000 ) , Size.words( 1 ) ) );
+
+        final EmulatorSnapshot snapshot;
+        final int cyclesAtSnapshot;
+        final Emulator emulator = runner.createEmulator( false );
+        try 
+        {
+            emulator.loadMemory( compile("loop:  ADD [0x1000],1\n"+
+                                         "       SET PC,loop\n") );
+            run( emulator , 20000 );
+            snapshot = emulator.saveSnapshot();
+            cyclesAtSnapshot = emulator.getCPU().getCurrentCycleCount();
+        } finally {
+            emulator.dispose();
+        }
+        final int counterAtSnapshot = snapshot.getMemory().read( 0x1000 );
+
+        final List<Future<Result>> results = new ArrayList<Future<Result>>();
+        for ( int i = 0 ; i < 5 ; i++ ) {
+            results.add( farm.submit( runner , snapshot ) );
+        }
+
+        for ( Future<Result> future : results )
+        {
+            final Result result = future.get( 30 , TimeUnit.SECONDS );
+            assertEquals( HaltReason.CYCLE_BUDGET , result.getHaltReason() );
+            assertTrue( result.getDumpedMemory(0)[0] > counterAtSnapshot + 1000 );
+            assertTrue( result.getCPU().getCurrentCycleCount() >= cyclesAtSnapshot + 5000 );
+        }
+        assertEquals( counterAtSnapshot , snapshot.getMemory().read( 0x1000 ) );
+    }
+
+    public void testCancelStopsInstance() throws Exception
+    {
+        final MemoryImage image = compile("loop:  ADD a,1\n"+
+                                          "       SET PC,loop\n");
+
+        final Future<Result> future = farm.submit( new HeadlessRunner() , image );
+        assertTrue( future.cancel( false ) );
+
+        final long deadline = System.currentTimeMillis() + 30000;
+        while ( farm.getRunningInstanceCount() > 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 0 , farm.getRunningInstanceCount() );
+        assertEquals( 1 , farm.getCompletedInstanceCount() );
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultKeyboard;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultVectorDisplay;
+import de.codesourcery.jasm16.emulator.memory.IMemoryRegion;
+import de.codesourcery.jasm16.emulator.memory.IMemoryRegion.Flag;
+import de.codesourcery.jasm16.emulator.memory.MainMemory;
+
+public class EmulatorSnapshotTest extends AbstractHeadlessEmulatorTest
+{
+    private EmulatorSnapshot runAndSnapshot(Emulator emulator)
+    {
+        emulator.loadMemory( compile( CLOCK_PROGRAM ) );
+        run( emulator , 5000 );
+        return emulator.saveSnapshot();
+    }
+
+    public void testRestoredEmulatorContinuesLikeOriginal() throws Exception
+    {
+        final Emulator original = createEmulator();
+        final EmulatorSnapshot snapshot = runAndSnapshot( original );
+        final int ticksAtSnapshot = original.getMemory().read( 0x1000 );
+
+        final Emulator restored = createEmulator();
+        restored.restoreSnapshot( snapshot );
+        assertSameState( original , restored );
+
+        run( original , 20000 );
+        run( restored , 20000 );
+
+        assertSameState( original , restored );
+        assertTrue( "Clock did not tick after restore" , restored.getMemory().read( 0x1000 ) > ticksAtSnapshot );
+    }
+
+    public void testSnapshotCanBeRestoredMoreThanOnce() throws Exception
+    {
+        final Emulator original = createEmulator();
+        final EmulatorSnapshot snapshot = runAndSnapshot( original );
+        run( original , 3000 );
+
+        final Emulator restored = createEmulator();
+        for ( int i = 0 ; i < 3 ; i++ )
+        {
+            restored.restoreSnapshot( snapshot );
+            run( restored , 3000 );
+            assertSameState( original , restored );
+        }
+    }
+
+    public void testVectorDisplayMappingSurvivesRestore() throws Exception
+    {
+        final Emulator original = createEmulator( new DefaultVectorDisplay() );
+        original.loadMemory( compile( "       SET a,1\n"+
+                                      "       SET x,0x2000\n"+
+                                      "       SET y,2\n"+
+                                      "       HWI 0\n"+
+                                      "       SET a,2\n"+
+                                      "       SET x,90\n"+
+                                      "       HWI 0\n"+
+                                      "       SET [0x2000],0x8040\n"+
+                                      "       SET [0x2003],0x0110\n"+
+                                      "halt:  SUB PC,1\n" ) );
+        run( original , 100 );
+        final EmulatorSnapshot snapshot = original.saveSnapshot();
+
+        final Emulator restored = createEmulator( new DefaultVectorDisplay() );
+        restored.restoreSnapshot( snapshot );
+        assertSameState( original , restored );
+
+        final List<IMemoryRegion> regions = ((MainMemory) restored.getMemory()).getRegions( new AddressRange( Address.wordAddress( 0x2000 ) , Size.words( 4 ) ) );
+        assertEquals( 1 , regions.size() );
+        assertEquals( new AddressRange( Address.wordAddress( 0x2000 ) , Size.words( 4 ) ) , regions.get(0).getAddressRange() );
+        assertTrue( regions.get(0).hasFlag( Flag.MEMORY_MAPPED_HW ) );
+
+        // device state (vertex RAM location , vertex count , rotation) got restored as well
+        final byte[] expectedState = snapshot.getDeviceStates()[0].state;
+        assertTrue( Arrays.equals( expectedState , restored.saveSnapshot().getDeviceStates()[0].state ) );
+    }
+
+    public void testSerialization() throws Exception
+    {
+        final Emulator original = createEmulator();
+        final EmulatorSnapshot snapshot = runAndSnapshot( original );
+
+        final byte[] uncompressed = snapshot.toByteArray( false );
+        final byte[] compressed = snapshot.toByteArray( true );
+        assertTrue( compressed.length < uncompressed.length );
+
+        for ( byte[] data : new byte[][] { uncompressed , compressed } )
+        {
+            final Emulator restored = createEmulator();
+            restored.restoreSnapshot( EmulatorSnapshot.fromByteArray( data ) );
+            assertSameState( original , restored );
+        }
+    }
+
+    public void testReadingGarbageFails() throws Exception
+    {
+        try {
+            EmulatorSnapshot.fromByteArray( new byte[] { 1,2,3,4,5,6,7,8 } );
+            fail("Should've failed");
+        } catch(IOException e) {
+            // ok
+        }
+    }
+
+    public void testRestoreFailsIfDevicesDoNotMatch() throws Exception
+    {
+        final EmulatorSnapshot snapshot = runAndSnapshot( createEmulator() );
+
+        final Emulator other = createEmulator( new DefaultKeyboard( false ) );
+        try {
+            other.restoreSnapshot( snapshot );
+            fail("Should've failed");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+    }
+}
@@ -1475,6 +1475,25 @@ public class EmulatorTest extends AbstractEmulatorTest
 		assertMemoryValue( getLabelAddress("contlabel") , sp.plus(Size.words(1), false ) ); // PC of instruction after INT        
 	}
 
+	public void testQueuedInterruptIsIgnoredWhileIAIsZero() throws InterruptedException, TimeoutException {
+
+		final String source = "       IAS subroutine\n" +
+				"       IAQ 1\n"+ // switch queuing on
+				"       INT 0x42\n"+ // software interrupt will be queued
+				"       IAS 0\n"+ // interrupts do nothing while IA is 0
+				"       IAQ 0\n"+ // switch queuing off , queued interrupt gets discarded
+				"       IAS subroutine\n" +
+				"       SET c, 0xbeef\n"+ 
+				"       HCF 0\n"+ 
+				"subroutine:"+
+				"       SET x, 0xdead\n"+
+				"       HCF 0";
+		execute(source);
+
+		assertRegC( 0xbeef );
+		assertRegX( 0 );        
+	}
+
 	/* ==========================
 	 * ============= HWN ========
 	 * ========================== */       
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import de.codesourcery.jasm16.Address;
+
+public class ExecutionHistoryTest extends AbstractHeadlessEmulatorTest
+{
+    private Emulator createRecordingEmulator()
+    {
+        final Emulator emulator = createEmulator();
+        emulator.setRecordExecutionHistory( true );
+        emulator.loadMemory( compile( CLOCK_PROGRAM ) );
+        return emulator;
+    }
+
+    public void testStepBackRevertsInstructions() throws Exception
+    {
+        final Emulator emulator = createRecordingEmulator();
+        final Emulator reference = createRecordingEmulator();
+
+        // cross a checkpoint boundary when stepping back
+        run( emulator , ExecutionHistory.DEFAULT_CHECKPOINT_INTERVAL*2 + 3 );
+        for ( int i = 0 ; i < 5 ; i++ ) {
+            assertTrue( emulator.stepBack() );
+        }
+        run( reference , ExecutionHistory.DEFAULT_CHECKPOINT_INTERVAL*2 - 2 );
+        assertSameState( reference , emulator );
+
+        // execution continues from the reverted state
+        run( emulator , 5000 );
+        run( reference , 5000 );
+        assertSameState( reference , emulator );
+    }
+
+    public void testStepBackStopsAtStartOfHistory() throws Exception
+    {
+        final Emulator emulator = createRecordingEmulator();
+        assertFalse( emulator.canStepBack() );
+
+        run( emulator , 2 );
+        assertTrue( emulator.stepBack() );
+        assertTrue( emulator.stepBack() );
+        assertFalse( emulator.canStepBack() );
+        assertFalse( emulator.stepBack() );
+        assertEquals( 0 , emulator.getCPU().getPC().getWordAddressValue() );
+    }
+
+    public void testRunBackwardsStopsAtBreakpoint() throws Exception
+    {
+        final Emulator emulator = createRecordingEmulator();
+        run( emulator , 15000 );
+        final int counter = emulator.getMemory().read( 0x1001 );
+
+        emulator.addBreakpoint( new Breakpoint( Address.wordAddress( CLOCK_PROGRAM_LOOP_ADDRESS ) ) );
+        assertTrue( emulator.runBackwards() );
+        assertEquals( CLOCK_PROGRAM_LOOP_ADDRESS , emulator.getCPU().getPC().getWordAddressValue() );
+        assertTrue( emulator.getMemory().read( 0x1001 ) < counter );
+        assertTrue( emulator.getMemory().read( 0x1001 ) > 0 );
+    }
+
+    public void testRunBackwardsWithoutBreakpointGoesToStartOfHistory() throws Exception
+    {
+        final Emulator emulator = createRecordingEmulator();
+        run( emulator , 500 );
+
+        assertFalse( emulator.runBackwards() );
+        assertFalse( emulator.canStepBack() );
+        assertEquals( 0 , emulator.getCPU().getPC().getWordAddressValue() );
+        assertEquals( 0 , emulator.getMemory().read( 0x1001 ) );
+    }
+
+    public void testResetDiscardsHistory() throws Exception
+    {
+        final Emulator emulator = createRecordingEmulator();
+        run( emulator , 100 );
+        assertTrue( emulator.canStepBack() );
+
+        emulator.reset( false );
+        assertFalse( emulator.canStepBack() );
+    }
+
+    public void testStepBackFailsIfNotRecording() throws Exception
+    {
+        final Emulator emulator = createRecordingEmulator();
+        emulator.setRecordExecutionHistory( false );
+        try {
+            emulator.stepBack();
+            fail("Should've failed");
+        } catch(IllegalStateException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.io.IOException;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.HaltReason;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.Result;
+
+public class HeadlessRunnerTest extends AbstractHeadlessEmulatorTest
+{
+    private HeadlessRunner runner;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        runner = new HeadlessRunner();
+    }
+
+    private Result run(String source) throws InterruptedException, IOException
+    {
+        return runner.run( Address.wordAddress( 0 ) , compileToBytes( source ) );
+    }
+
+    public void testHaltsOnSelfLoop() throws Exception {
+
+        final Result result = run("       SET a,0x1234\n"+
+                                  "halt:  SUB PC,1\n");
+
+        assertEquals( HaltReason.SELF_LOOP , result.getHaltReason() );
+        assertEquals( 0x1234 , result.getCPU().getRegisterValue( Register.A ) );
+        assertEquals( Address.wordAddress( 2 ) , result.getCPU().getPC() );
+        assertNull( result.getEmulationError() );
+    }
+
+    public void testHaltsOnSetPCToItself() throws Exception {
+
+        final Result result = run("       SET a,1\n"+
+                                  "       SET b,2\n"+
+                                  "halt:  SET PC,halt\n");
+
+        assertEquals( HaltReason.SELF_LOOP , result.getHaltReason() );
+        assertEquals( Address.wordAddress( 2 ) , result.getCPU().getPC() );
+    }
+
+    public void testIdleLoopWaitingForInterruptsIsNoSelfLoop() throws Exception {
+
+        runner.setMaxCycles( 100000 );
+        final Result result = run("       IAS handler\n"+
+                                  "       SET a,0\n"+
+                                  "       SET b,1\n"+
+                                  "       HWI 0\n"+
+                                  "       SET a,2\n"+
+                                  "       SET b,0x42\n"+
+                                  "       HWI 0\n"+
+                                  "idle:  SUB PC,1\n"+
+                                  "handler: ADD [0x1000],1\n"+
+                                  "       IFE [0x1000],3\n"+
+                                  "       HCF 0\n"+
+                                  "       RFI 0\n");
+
+        assertEquals( HaltReason.HALT_INSTRUCTION , result.getHaltReason() );
+        assertNull( result.getEmulationError() );
+    }
+
+    public void testRunFromSnapshot() throws Exception {
+
+        final Emulator emulator = runner.createEmulator( false );
+        final EmulatorSnapshot snapshot;
+        try 
+        {
+            // turns the first instruction into a self-loop
+            emulator.loadMemory( compile("       SET [0],0x8b83\n"+
+                                         "       SET a,2\n"+
+                                         "halt:  SUB PC,1\n") );
+            run( emulator , 1 );
+            snapshot = emulator.saveSnapshot();
+        } finally {
+            emulator.dispose();
+        }
+
+        final Result result = runner.run( snapshot );
+        assertEquals( HaltReason.SELF_LOOP , result.getHaltReason() );
+        assertEquals( 2 , result.getCPU().getRegisterValue( Register.A ) );
+        assertEquals( getLabelAddress( "halt" ) , result.getCPU().getPC().getWordAddressValue() );
+    }
+
+    public void testHaltsRightAfterWriteToMagicAddress() throws Exception {
+
+        runner.setMagicAddress( Address.wordAddress( 0x7000 ) );
+        final Result result = run("       SET a,5\n"+
+                                  "       SET [0x7000],0x42\n"+
+                                  "       SET b,1\n"+
+                                  "       HCF 0\n");
+
+        assertEquals( HaltReason.MAGIC_WRITE , result.getHaltReason() );
+        assertEquals( 0x42 , result.getMagicValue() );
+        assertEquals( 5 , result.getCPU().getRegisterValue( Register.A ) );
+        assertEquals( 0 , result.getCPU().getRegisterValue( Register.B ) );
+    }
+
+    public void testHaltsWhenCycleBudgetIsExhausted() throws Exception {
+
+        runner.setMaxCycles( 100000 );
+        final Result result = run("loop:  ADD a,1\n"+
+                                  "       SET PC,loop\n");
+
+        assertEquals( HaltReason.CYCLE_BUDGET , result.getHaltReason() );
+        final int cycles = result.getCPU().getCurrentCycleCount();
+        assertTrue( "Unexpected cycle count: "+cycles , cycles >= 100000 && cycles <= 100002 );
+    }
+
+    public void testHaltsAtBreakpoint() throws Exception {
+
+        runner.addBreakpoint( Address.wordAddress( 2 ) );
+        final Result result = run("       SET a,1\n"+
+                                  "       SET b,1\n"+
+                                  "       SET c,1\n"+
+                                  "       HCF 0\n");
+
+        assertEquals( HaltReason.BREAKPOINT , result.getHaltReason() );
+        assertEquals( 1 , result.getCPU().getRegisterValue( Register.B ) );
+        assertEquals( 0 , result.getCPU().getRegisterValue( Register.C ) );
+    }
+
+    public void testHaltInstructionAndMemoryDump() throws Exception {
+
+        runner.addMemoryDump( new AddressRange( Address.wordAddress( 0x1000 ) , Size.words( 2 ) ) );
+        final Result result = run("       SET [0x1000],0x1234\n"+
+                                  "       SET [0x1001],0x5678\n"+
+                                  "       HCF 0\n");
+
+        assertEquals( HaltReason.HALT_INSTRUCTION , result.getHaltReason() );
+        assertNull( result.getEmulationError() );
+        assertEquals( 0x1234 , result.getDumpedMemory(0)[0] );
+        assertEquals( 0x5678 , result.getDumpedMemory(0)[1] );
+
+        final String json = result.toJSON();
+        assertTrue( json , json.contains("\"haltReason\": \"HALT_INSTRUCTION\"") );
+        assertTrue( json , json.contains("{ \"start\": 4096, \"words\": [4660,22136] }") );
+    }
+}
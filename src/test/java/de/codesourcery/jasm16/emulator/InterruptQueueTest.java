@@ -0,0 +1,159 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import de.codesourcery.jasm16.emulator.devices.HardwareInterrupt;
+import de.codesourcery.jasm16.emulator.devices.IInterrupt;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultClock;
+
+public class InterruptQueueTest extends TestCase
+{
+    private final InterruptQueue queue = new InterruptQueue();
+
+    public void testFirstInterruptBecomesCurrent()
+    {
+        assertTrue( queue.offer( null , 1 ) );
+        assertEquals( -1 , queue.poll( false ) ); // not received yet
+
+        assertFalse( queue.receive( false ) );
+        assertTrue( queue.hasCurrentInterrupt() );
+        assertEquals( 1 , queue.size() );
+        assertEquals( 1 , queue.poll( true ) ); // current interrupt is processed regardless of queueing
+        assertEquals( 0 , queue.size() );
+        assertEquals( -1 , queue.poll( false ) );
+    }
+
+    public void testFurtherInterruptsTurnOnQueueing()
+    {
+        queue.offer( null , 1 );
+        queue.offer( null , 2 );
+        queue.offer( null , 3 );
+        assertTrue( queue.receive( false ) );
+        assertEquals( 3 , queue.size() );
+
+        assertEquals( 1 , queue.poll( true ) );
+        assertEquals( -1 , queue.poll( true ) );
+        assertEquals( 2 , queue.poll( false ) );
+        assertEquals( 3 , queue.poll( false ) );
+        assertEquals( -1 , queue.poll( false ) );
+    }
+
+    public void testInterruptsAreQueuedWhileQueueingIsOn()
+    {
+        queue.offer( null , 1 );
+        assertFalse( queue.receive( true ) );
+        assertFalse( queue.hasCurrentInterrupt() );
+        assertEquals( -1 , queue.poll( true ) );
+        assertEquals( 1 , queue.poll( false ) );
+    }
+
+    public void testQueueFull()
+    {
+        for ( int i = 0 ; i < InterruptQueue.CAPACITY ; i++ ) {
+            assertTrue( queue.offer( null , i ) );
+        }
+        assertFalse( queue.offer( null , 4711 ) );
+
+        queue.receive( false );
+        assertEquals( 0 , queue.poll( false ) );
+        assertTrue( queue.offer( null , 4711 ) );
+        queue.receive( true );
+
+        for ( int i = 1 ; i < InterruptQueue.CAPACITY ; i++ ) {
+            assertEquals( i , queue.poll( false ) );
+        }
+        assertEquals( 4711 , queue.poll( false ) );
+    }
+
+    public void testClearAndRestore()
+    {
+        final DefaultClock clock = new DefaultClock();
+        queue.offer( null , 1 );
+        queue.offer( clock , 2 );
+        queue.receive( false );
+
+        final List<IInterrupt> list = queue.toList();
+        assertEquals( 2 , list.size() );
+        assertTrue( list.get(0).isSoftwareInterrupt() );
+        assertSame( clock , ((HardwareInterrupt) list.get(1)).getDevice() );
+
+        queue.clear();
+        assertEquals( 0 , queue.size() );
+        assertFalse( queue.hasCurrentInterrupt() );
+        assertEquals( -1 , queue.poll( false ) );
+
+        queue.restore( new DefaultClock[] { clock , null } , new int[] { 3 , 4 } , true );
+        assertTrue( queue.hasCurrentInterrupt() );
+        assertSame( clock , queue.getSource( 0 ) );
+        assertEquals( 3 , queue.poll( true ) );
+        assertEquals( 4 , queue.poll( false ) );
+    }
+
+    public void testConcurrentProducers() throws Exception
+    {
+        final int threadCount = 4;
+        final int perThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[ threadCount ];
+        for ( int t = 0 ; t < threadCount ; t++ )
+        {
+            final int id = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for ( int i = 0 ; i < perThread ; i++ )
+                    {
+                        while ( ! queue.offer( null , ( id << 14 ) | ( i & 0x3fff ) ) ) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+
+        // messages of each producer must arrive in order
+        final int[] expected = new int[ threadCount ];
+        int received = 0;
+        while ( received < threadCount * perThread )
+        {
+            queue.receive( true );
+            int message;
+            while ( ( message = queue.poll( false ) ) != -1 )
+            {
+                final int id = message >>> 14;
+                assertEquals( expected[id] & 0x3fff , message & 0x3fff );
+                expected[id]++;
+                received++;
+            }
+        }
+        for ( Thread t : threads ) {
+            t.join();
+        }
+        assertEquals( 0 , queue.size() );
+    }
+}
@@ -15,6 +15,7 @@
  */
 package de.codesourcery.jasm16.emulator;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -24,6 +25,7 @@ import junit.framework.TestCase;
 import de.codesourcery.jasm16.Address;
 import de.codesourcery.jasm16.AddressRange;
 import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.exceptions.MemoryProtectionFaultException;
 import de.codesourcery.jasm16.emulator.memory.*;
 import de.codesourcery.jasm16.utils.Misc;
 
@@ -180,6 +182,73 @@ DEBUG: main memory - 0x9001 - 0x010000 ( 28671 words / 57342 bytes )
 		assertMemoryContains( region6 , 0x1234 );
 	}
 	
+	@SuppressWarnings("deprecation")
+	public void testRegionNotAlignedToPageBoundary() {
+		
+		memory.write( 0x80ff , 0x1111 );
+		memory.write( 0x8181 , 0x2222 );
+		
+		final AddressRange range = new AddressRange( Address.wordAddress( 0x8100 ) , Address.wordAddress( 0x8181 ) );
+		final MemoryRegion region = new MemoryRegion("vram" , TYPE_RAM , range );
+		memory.mapRegion( region );
+		
+		memory.write( 0x8100 , 0x1234 );
+		memory.write( 0x8180 , 0x5678 );
+		
+		assertEquals( 0x1234 , region.read( 0 ) );
+		assertEquals( 0x5678 , region.read( 0x80 ) );
+		assertEquals( 0x1234 , memory.read( 0x8100 ) );
+		assertEquals( 0x5678 , memory.read( 0x8180 ) );
+		assertEquals( 0x1111 , memory.read( 0x80ff ) );
+		assertEquals( 0x2222 , memory.read( 0x8181 ) );
+		
+		memory.unmapRegion( region );
+		memory.write( 0x8100 , 0xbeef );
+		
+		assertEquals( 0x1234 , region.read( 0 ) );
+		assertEquals( 0xbeef , memory.read( 0x8100 ) );
+		assertEquals( 0x5678 , memory.read( 0x8180 ) );
+	}
+
+	@SuppressWarnings("deprecation")
+	public void testSnapshot() {
+
+		final AddressRange range = new AddressRange( Address.wordAddress( 0x8000 ) , Address.wordAddress( 0x8002 ) );
+		final MemoryRegion region = new MemoryRegion("vram" , TYPE_RAM , range );
+		memory.mapRegion( region );
+
+		memory.write( 0x7fff , 1 );
+		memory.write( 0x8000 , 2 );
+		memory.write( 0x8001 , 3 );
+		memory.write( 0x8002 , 4 );
+		memory.write( 0xffff , 5 );
+		memory.write( 0x0000 , 6 );
+		memory.publishWrites();
+
+		final int[] data = new int[4];
+		memory.snapshot( 0x7fff , data );
+		assertTrue( Arrays.equals( new int[] { 1 , 2 , 3 , 4 } , data ) );
+
+		final int[] wrapped = new int[2];
+		memory.snapshot( 0xffff , wrapped );
+		assertTrue( Arrays.equals( new int[] { 5 , 6 } , wrapped ) );
+	}
+
+	@SuppressWarnings("deprecation")
+	public void testGetBytes() {
+
+		memory.write( 0xfffe , 0x1234 );
+		memory.write( 0xffff , 0x5678 );
+		memory.write( 0x0000 , 0x9abc );
+		memory.publishWrites();
+
+		final byte[] wrapped = MemUtils.getBytes( memory , Address.wordAddress( 0xfffe ) , Size.bytes( 5 ) , true );
+		assertTrue( Arrays.equals( new byte[] { 0x12 , 0x34 , 0x56 , 0x78 , (byte) 0x9a } , wrapped ) );
+
+		final byte[] clamped = MemUtils.getBytes( memory , Address.wordAddress( 0xfffe ) , Size.bytes( 5 ) , false );
+		assertTrue( Arrays.equals( new byte[] { 0x12 , 0x34 , 0x56 , 0x78 , 0 } , clamped ) );
+	}
+
 	private void fillMemoryRegion(IMemory memory , IMemoryRegion region , int value) {
 		
 		Address start = region.getAddressRange().getStartAddress();
@@ -271,4 +340,73 @@ DEBUG: main memory - 0x9001 - 0x010000 ( 28671 words / 57342 bytes )
         assertMemoryContains( memory , region4.getAddressRange().getStartAddress() , region4.getSize()  , 0xcdef );
         assertMemoryContains( memory , region5.getAddressRange().getStartAddress() , region5.getSize()  , 0xbeef );        
     }	
+
+    public void testLoadImageCopiesPagesOnWrite() {
+
+        final MemoryImage image = MemoryImage.create( Address.wordAddress( 0x1000 ) , new byte[] { 0x12 , 0x34 , 0x56 , 0x78 } );
+        final MainMemory other = new MainMemory(65536);
+
+        memory.loadImage( image );
+        other.loadImage( image );
+        assertEquals( 0x1234 , memory.read( 0x1000 ) );
+        assertEquals( 0x5678 , other.read( 0x1001 ) );
+        assertTrue( memory.isPlainRAM( 0x1000 ) );
+
+        memory.write( 0x1000 , 0xbeef );
+        assertEquals( 0xbeef , memory.read( 0x1000 ) );
+        assertEquals( 0x5678 , memory.read( 0x1001 ) );
+        assertEquals( 0x1234 , other.read( 0x1000 ) );
+        assertEquals( 0x1234 , image.read( 0x1000 ) );
+
+        // remapping splits the copy-on-write region
+        final MemoryRegion region = new MemoryRegion("test" , TYPE_RAM , new AddressRange( Address.wordAddress( 0x1001 ) , Size.words( 1 ) ) );
+        memory.mapRegion( region );
+        assertEquals( 0x5678 , memory.read( 0x1001 ) );
+        memory.unmapRegion( region );
+        assertEquals( 0xbeef , memory.read( 0x1000 ) );
+        assertEquals( 0x5678 , memory.read( 0x1001 ) );
+        assertEquals( 0x1234 , other.read( 0x1000 ) );
+    }
+
+    public void testBulkWrite() {
+
+        final MemoryRegion region = new MemoryRegion("test" , TYPE_RAM , new AddressRange( Address.wordAddress( 0x1010 ) , Size.words( 0x10 ) ) );
+        memory.mapRegion( region );
+
+        final int[] data = new int[ 0x40 ];
+        for ( int i = 0 ; i < data.length ; i++ ) {
+            data[i] = 0x1000 + i;
+        }
+        memory.bulkWrite( 0x1000 , data , 0 , data.length );
+        for ( int i = 0 ; i < data.length ; i++ ) {
+            assertEquals( 0x1000 + i , memory.read( 0x1000 + i ) );
+        }
+        assertEquals( 0x1010 , region.read( 0 ) );
+        assertEquals( 0x101f , region.read( 0x0f ) );
+
+        // wraps around at the end of the address space
+        memory.bulkWrite( 0xfffe , data , 0x20 , 4 );
+        assertEquals( 0x1020 , memory.read( 0xfffe ) );
+        assertEquals( 0x1021 , memory.read( 0xffff ) );
+        assertEquals( 0x1022 , memory.read( 0 ) );
+        assertEquals( 0x1023 , memory.read( 1 ) );
+    }
+
+    public void testBulkWriteIsAllOrNothing() {
+
+        memory = new MainMemory( 65536 , true );
+        memory.writeProtect( new AddressRange( Address.wordAddress( 0x2008 ) , Size.words( 1 ) ) );
+
+        final int[] data = new int[ 16 ];
+        Arrays.fill( data , 0xbeef );
+        try {
+            memory.bulkWrite( 0x2000 , data , 0 , data.length );
+            fail("Should've failed");
+        } catch(MemoryProtectionFaultException e) {
+            // ok
+        }
+        for ( int i = 0 ; i < data.length ; i++ ) {
+            assertEquals( 0 , memory.read( 0x2000 + i ) );
+        }
+    }
 }
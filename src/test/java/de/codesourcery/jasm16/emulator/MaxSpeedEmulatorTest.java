@@ -0,0 +1,196 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.emulator.IEmulator.EmulationSpeed;
+
+/**
+ * Runs programs at {@link EmulationSpeed#MAX_SPEED} so that
+ * instructions get executed in batches.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class MaxSpeedEmulatorTest extends AbstractEmulatorTest
+{
+    @Override
+    protected void setUpHook() throws Exception
+    {
+        emulator.setOutput( ILogger.NOP_LOGGER );
+    }
+    
+    @Override
+    protected EmulationSpeed getEmulationSpeed() {
+        return EmulationSpeed.MAX_SPEED;
+    }
+    
+    public void testLoopSpanningSeveralBatches() throws Exception {
+
+        final String source = "       SET a,0\n"+
+                "       SET i,0\n"+
+                "loop:  ADD a,2\n"+
+                "       ADD i,1\n"+
+                "       IFN i,0x8000\n"+
+                "       SET PC,loop\n"+
+                "       HCF 0";
+
+        execute(source);
+
+        assertRegA( 0 ); // 0x8000 * 2 overflows to zero
+        assertRegI( 0x8000 );
+        assertRegEX( 0 );
+    }
+    
+    public void testIntervalListenerIsInvokedWhileExecutingBatches() throws Exception {
+
+        final AtomicInteger invocations = new AtomicInteger();
+        final AtomicLong reportedCycles = new AtomicLong();
+        emulator.addEmulationListener( new EmulationListener() 
+        {
+            @Override
+            public InvocationInterval getContinuousModeInvocationInterval() {
+                return InvocationInterval.cycles( 1000 );
+            }
+            
+            @Override
+            public void afterCommandExecution(IEmulator emulator, int commandDuration) 
+            {
+                invocations.incrementAndGet();
+                reportedCycles.addAndGet( commandDuration );
+            }
+        });
+        
+        final String source = "       SET i,0\n"+
+                "loop:  ADD i,1\n"+
+                "       IFN i,0x4000\n"+
+                "       SET PC,loop\n"+
+                "       HCF 0";
+
+        execute(source);
+
+        final int cycles = emulator.getCPU().getCurrentCycleCount();
+        assertRegI( 0x4000 );
+        assertTrue( "Listener not invoked" , invocations.get() > 0 );
+        assertTrue( invocations.get() <= cycles / 1000 );
+        assertTrue( reportedCycles.get() <= cycles );
+    }
+    
+    public void testStackOperations() throws Exception {
+
+        final String source = "       SET PUSH,0x1234\n"+
+                "       SET PUSH,0x5678\n"+
+                "       SET a,POP\n"+
+                "       HCF 0";
+
+        execute(source);
+
+        assertRegA( 0x5678 );
+        assertRegSP( 0xffff );
+        assertOnTopOfStack( 0x1234 );
+    }
+    
+    public void testSelfModifyingCode() throws Exception {
+
+        final String source = "       SET i,0\n"+
+                "loop:  ADD a,1\n"+
+                "       SET [loop],[replacement]\n"+
+                "patch: SET c,0x1234\n"+
+                "       SET [patch+1],0x5678\n"+
+                "       ADD i,1\n"+
+                "       IFN i,3\n"+
+                "       SET PC,loop\n"+
+                "       HCF 0\n"+
+                "replacement: ADD b,1";
+
+        execute(source);
+
+        assertRegA( 1 );
+        assertRegB( 2 );
+        assertRegC( 0x5678 );
+    }
+
+    public void testPatchingJumpIntoCurrentBasicBlock() throws Exception {
+
+        final String source = "       SET [patch],[replacement]\n"+
+                "patch: SET a,1\n"+
+                "       SET b,1\n"+
+                "       HCF 0\n"+
+                "done:  SET c,1\n"+
+                "       HCF 0\n"+
+                "replacement: SET PC,done";
+
+        execute(source);
+
+        assertRegA( 0 );
+        assertRegB( 0 );
+        assertRegC( 1 );
+    }
+
+    public void testStopsAtBreakpoint() throws Exception {
+
+        final String source = "       SET a,1\n"+
+                "       SET b,2\n"+
+                "label: SET c,3\n"+
+                "       HCF 0";
+
+        execute( source , MAX_TIME_PER_TEST_MILLIS , false );
+        emulator.stop();
+        emulator.reset( false );
+        final Breakpoint bp = new Breakpoint( getLabelAddress("label") );
+        emulator.addBreakpoint( bp );
+        try 
+        {
+            emulator.start();
+            final long start = System.currentTimeMillis();
+            while ( emulator.getCPU().getPC().getWordAddressValue() != getLabelAddress("label").getWordAddressValue() ) 
+            {
+                if ( System.currentTimeMillis() - start > MAX_TIME_PER_TEST_MILLIS ) {
+                    fail("Breakpoint not reached");
+                }
+                Thread.sleep( 10 );
+            }
+        } finally {
+            emulator.stop();
+            emulator.deleteBreakpoint( bp );
+        }
+        assertRegA( 1 );
+        assertRegB( 2 );
+        assertRegC( 0 );
+    }
+    
+    public void testOneShotBreakpointDoesNotReplaceRegularBreakpoint() throws Exception {
+
+        final Address address = Address.wordAddress( 0x1234 );
+        final Breakpoint regular = new Breakpoint( address );
+        final Breakpoint oneShot = new OneShotBreakpoint( address );
+        
+        emulator.addBreakpoint( regular );
+        try {
+            emulator.addBreakpoint( oneShot );
+            assertSame( regular , emulator.getBreakPoint( address ) );
+            
+            emulator.deleteBreakpoint( oneShot );
+            assertSame( regular , emulator.getBreakPoint( address ) );
+        } finally {
+            emulator.deleteBreakpoint( oneShot );
+            emulator.deleteBreakpoint( regular );
+        }
+        assertNull( emulator.getBreakPoint( address ) );
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+
+public class ScheduledEventTest extends AbstractHeadlessEmulatorTest
+{
+    private static final String PROGRAM = "       SET a,1\n"+
+                                          "       SET b,2\n"+
+                                          "loop:  ADD c,1\n"+
+                                          "       SET PC,loop\n";
+
+    private static final IScheduledEvent FAILING_EVENT = new IScheduledEvent() {
+
+        @Override
+        public void fire(IEmulator emulator, ICPU cpu, IMemory memory) {
+            throw new RuntimeException("Event failed");
+        }
+    };
+
+    private void assertFailingEventKeepsInstruction(Emulator emulator) 
+    {
+        emulator.loadMemory( compile( PROGRAM ) );
+        emulator.scheduleEvent( 1 , FAILING_EVENT ); // due right after the first instruction
+
+        emulator.start();
+        emulator.executeTimeSlice( 10 );
+
+        assertNotNull( emulator.getLastEmulationError() );
+        assertFalse( emulator.isRunning() );
+        assertEquals( 1 , emulator.getCPU().getRegisterValue( Register.A ) );
+        assertEquals( 0 , emulator.getCPU().getRegisterValue( Register.B ) );
+        assertEquals( 1 , emulator.getCPU().getPC().getWordAddressValue() );
+        assertEquals( 1 , emulator.getCPU().getCurrentCycleCount() );
+    }
+
+    public void testFailingEventDoesNotRollBackInstructionInBatchMode() throws Exception
+    {
+        assertFailingEventKeepsInstruction( createEmulator() );
+    }
+
+    public void testFailingEventDoesNotRollBackInstruction() throws Exception
+    {
+        final Emulator emulator = createEmulator();
+        emulator.setRecordExecutionHistory( true ); // disables batch execution
+        assertFailingEventKeepsInstruction( emulator );
+    }
+}
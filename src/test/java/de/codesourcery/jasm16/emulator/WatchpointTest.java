@@ -0,0 +1,122 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.AddressRange;
+import de.codesourcery.jasm16.Size;
+import de.codesourcery.jasm16.emulator.Watchpoint.Type;
+
+public class WatchpointTest extends AbstractHeadlessEmulatorTest
+{
+    private static final String PROGRAM = "       SET a,[0x1000]\n"+    // 0x00
+                                          "       SET [0x1001],1\n"+    // 0x02
+                                          "       SET [0x1002],0\n"+    // 0x04 , does not change the value
+                                          "       SET [0x1002],5\n"+    // 0x06
+                                          "halt:  SUB PC,1\n";         // 0x08
+
+    private Emulator emulator;
+    private final List<String> hits = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        emulator = createEmulator();
+        emulator.loadMemory( compile( PROGRAM ) );
+        emulator.addEmulationListener( new EmulationListener() 
+        {
+            @Override
+            public void onWatchpoint(IEmulator emulator, Watchpoint watchpoint, Address pc, Address address, int oldValue, int newValue) 
+            {
+                hits.add( watchpoint.getType()+" pc="+pc.getWordAddressValue()+" address="+address.getWordAddressValue()+
+                        " old="+oldValue+" new="+newValue );
+            }
+        });
+    }
+
+    private static Watchpoint watchpoint(int address,int sizeInWords,Type type) {
+        return new Watchpoint( new AddressRange( Address.wordAddress( address ) , Size.words( sizeInWords ) ) , type );
+    }
+
+    private void execute()
+    {
+        emulator.start();
+        emulator.executeTimeSlice( 100 );
+    }
+
+    public void testReadWatchpoint() throws Exception
+    {
+        emulator.getMemory().read( 0 ); // not reported , not executing instructions
+        emulator.addWatchpoint( watchpoint( 0x1000 , 1 , Type.READ ) );
+        emulator.getMemory().read( 0x1000 );
+        execute();
+
+        assertEquals( Collections.singletonList( "READ pc=0 address=4096 old=0 new=0" ) , hits );
+        assertFalse( emulator.isRunning() );
+        assertEquals( 2 , emulator.getCPU().getPC().getWordAddressValue() );
+        assertNull( emulator.getLastEmulationError() );
+    }
+
+    public void testWriteWatchpoint() throws Exception
+    {
+        emulator.addWatchpoint( watchpoint( 0x1001 , 2 , Type.WRITE ) );
+        execute();
+        assertEquals( Collections.singletonList( "WRITE pc=2 address=4097 old=0 new=1" ) , hits );
+        assertEquals( 4 , emulator.getCPU().getPC().getWordAddressValue() );
+
+        execute();
+        assertEquals( "WRITE pc=4 address=4098 old=0 new=0" , hits.get(1) );
+        execute();
+        assertEquals( "WRITE pc=6 address=4098 old=0 new=5" , hits.get(2) );
+        execute();
+        assertEquals( 3 , hits.size() );
+        assertTrue( emulator.isRunning() );
+    }
+
+    public void testChangeWatchpoint() throws Exception
+    {
+        emulator.addWatchpoint( watchpoint( 0x1002 , 1 , Type.CHANGE ) );
+        execute();
+        assertEquals( Collections.singletonList( "CHANGE pc=6 address=4098 old=0 new=5" ) , hits );
+        assertEquals( 8 , emulator.getCPU().getPC().getWordAddressValue() );
+    }
+
+    public void testSingleStep() throws Exception
+    {
+        emulator.addWatchpoint( watchpoint( 0x1001 , 1 , Type.WRITE ) );
+        emulator.executeOneInstruction();
+        assertTrue( hits.isEmpty() );
+        emulator.executeOneInstruction();
+        assertEquals( Collections.singletonList( "WRITE pc=2 address=4097 old=0 new=1" ) , hits );
+    }
+
+    public void testDeleteWatchpoint() throws Exception
+    {
+        final Watchpoint wp = watchpoint( 0x1000 , 3 , Type.WRITE );
+        emulator.addWatchpoint( wp );
+        assertEquals( Collections.singletonList( wp ) , emulator.getWatchpoints() );
+        emulator.deleteWatchpoint( wp );
+        assertTrue( emulator.getWatchpoints().isEmpty() );
+
+        execute();
+        assertTrue( hits.isEmpty() );
+        assertEquals( 5 , emulator.getMemory().read( 0x1002 ) );
+    }
+}
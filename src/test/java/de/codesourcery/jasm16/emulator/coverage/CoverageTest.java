@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.coverage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.emulator.AbstractHeadlessEmulatorTest;
+import de.codesourcery.jasm16.emulator.HeadlessRunner;
+import de.codesourcery.jasm16.emulator.HeadlessRunner.HaltReason;
+import de.codesourcery.jasm16.emulator.coverage.CoverageReport.LineCoverage;
+import de.codesourcery.jasm16.emulator.coverage.CoverageReport.UnitCoverage;
+
+public class CoverageTest extends AbstractHeadlessEmulatorTest
+{
+    private static final String PROGRAM = "       SET a,5\n"+       // 1
+                                          "       IFE a,5\n"+       // 2 , condition always satisfied
+                                          "       SET b,1\n"+       // 3
+                                          "       IFN a,5\n"+       // 4 , condition always fails
+                                          "       SET c,1\n"+       // 5 , never executed
+                                          "loop:  SUB a,1\n"+       // 6
+                                          "       IFN a,0\n"+       // 7 , both outcomes
+                                          "       SET PC,loop\n"+   // 8
+                                          "       IFE b,2\n"+       // 9 , condition always fails
+                                          "       SET PC,never\n"+  // 10 , never executed
+                                          "halt:  SUB PC,1\n"+      // 11
+                                          "never: SET x,1\n"+       // 12 , never executed
+                                          "data:  dat 1,2,3\n";     // 13 , no instruction
+
+    private CoverageData run(String source) throws Exception
+    {
+        final CoverageData coverage = new CoverageData();
+        final HeadlessRunner runner = new HeadlessRunner();
+        runner.setCoverageData( coverage );
+        assertEquals( HaltReason.SELF_LOOP , runner.run( Address.wordAddress( 0 ) , compileToBytes( source ) ).getHaltReason() );
+        return coverage;
+    }
+
+    public void testLineAndBranchCoverage() throws Exception
+    {
+        final CoverageData coverage = run( PROGRAM );
+        final CoverageReport report = new CoverageReport( coverage , debugInfo );
+
+        assertEquals( 1 , report.getUnits().size() );
+        final UnitCoverage unit = report.getUnits().get(0);
+
+        assertEquals( 12 , unit.getLineCount() );
+        assertEquals( 9 , unit.getExecutedLineCount() );
+        assertFalse( unit.getLine( 5 ).isExecuted() );
+        assertFalse( unit.getLine( 10 ).isExecuted() );
+        assertFalse( unit.getLine( 12 ).isExecuted() );
+        assertNull( "data must not count as code" , unit.getLine( 13 ) );
+
+        assertEquals( 8 , unit.getBranchCount() );
+        assertEquals( 5 , unit.getCoveredBranchCount() );
+        assertBranches( unit.getLine( 2 ) , 1 );
+        assertBranches( unit.getLine( 4 ) , 1 );
+        assertBranches( unit.getLine( 7 ) , 2 );
+        assertBranches( unit.getLine( 9 ) , 1 );
+        assertBranches( unit.getLine( 1 ) , 0 );
+    }
+
+    private static void assertBranches(LineCoverage line,int covered)
+    {
+        assertEquals( covered , line.getCoveredBranchCount() );
+        assertEquals( line.getLineNumber() == 1 ? 0 : 2 , line.getBranchCount() );
+    }
+
+    public void testLcov() throws Exception
+    {
+        final CoverageReport report = new CoverageReport( run( PROGRAM ) , debugInfo );
+        final StringWriter writer = new StringWriter();
+        report.writeLcov( writer , "test" );
+        final String lcov = writer.toString();
+
+        assertTrue( lcov , lcov.startsWith("TN:test\nSF:string\n") );
+        assertTrue( lcov , lcov.contains("BRDA:2,0,0,1\nBRDA:2,0,1,0\n") );
+        assertTrue( lcov , lcov.contains("BRDA:7,0,0,1\nBRDA:7,0,1,1\n") );
+        assertTrue( lcov , lcov.contains("BRF:8\nBRH:5\n") );
+        assertTrue( lcov , lcov.contains("DA:4,1\nDA:5,0\n") );
+        assertTrue( lcov , lcov.contains("LF:12\nLH:9\nend_of_record\n") );
+    }
+
+    public void testHtml() throws Exception
+    {
+        final CoverageReport report = new CoverageReport( run( PROGRAM ) , debugInfo );
+        final StringWriter writer = new StringWriter();
+        report.writeHtml( writer );
+        final String html = writer.toString();
+
+        assertTrue( html.contains("<pre class=\"miss\"><span class=\"lineno\">    5</span>         SET c,1</pre>") );
+        assertTrue( html.contains("<pre class=\"hit\"><span class=\"lineno\">    7</span>") );
+        assertTrue( html.contains("<pre class=\"partial\"><span class=\"lineno\">    2</span>") );
+        assertTrue( html.contains("<pre><span class=\"lineno\">   13</span>") );
+    }
+
+    public void testMergeAndPersistence() throws Exception
+    {
+        final CoverageData first = run( PROGRAM );
+        final CoverageData second = run( PROGRAM.replace( "SET a,5" , "SET a,4" ) );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.write( out );
+        final CoverageData merged = CoverageData.read( new ByteArrayInputStream( out.toByteArray() ) );
+        assertEquals( first.getExecutedInstructionCount() , merged.getExecutedInstructionCount() );
+        merged.merge( second );
+
+        // the second program takes the opposite branches of the IFE/IFN instructions on lines 2 and 4
+        final UnitCoverage unit = new CoverageReport( merged , debugInfo ).getUnits().get(0);
+        assertEquals( 2 , unit.getLine( 2 ).getCoveredBranchCount() );
+        assertEquals( 2 , unit.getLine( 4 ).getCoveredBranchCount() );
+        assertTrue( unit.getLine( 5 ).isExecuted() );
+        assertFalse( unit.getLine( 12 ).isExecuted() );
+    }
+
+    public void testReadingGarbageFails()
+    {
+        try {
+            CoverageData.read( new ByteArrayInputStream( new byte[] { 1,2,3,4,5,6 } ) );
+            fail("Should've failed");
+        } catch(IOException e) {
+            // ok
+        }
+    }
+}
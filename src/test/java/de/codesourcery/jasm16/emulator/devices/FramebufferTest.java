@@ -0,0 +1,108 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.StringWriter;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultVectorDisplay;
+
+public class FramebufferTest extends TestCase 
+{
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception 
+    {
+        directory = File.createTempFile("frames", "test");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception 
+    {
+        for ( File file : directory.listFiles() ) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static Framebuffer createFrame(long frameNumber,int... rgb) 
+    {
+        final Framebuffer result = new Framebuffer( rgb.length , 1 );
+        result.update( rgb , frameNumber );
+        return result;
+    }
+
+    public void testUpdateMakesPixelsOpaque() 
+    {
+        final Framebuffer frame = createFrame( 3 , 0x123456 , 0xff000000 );
+        assertEquals( 3 , frame.getFrameNumber() );
+        assertEquals( 0xff123456 , frame.getPixel( 0 , 0 ) );
+        assertEquals( 0xff000000 , frame.getPixel( 1 , 0 ) );
+    }
+
+    public void testHash() 
+    {
+        final Framebuffer frame = createFrame( 1 , 1 , 2 , 3 );
+        assertEquals( frame.hash() , createFrame( 2 , 1 , 2 , 3 ).hash() );
+        assertEquals( frame.hash() , frame.createCopy().hash() );
+        assertFalse( frame.hash() == createFrame( 1 , 1 , 3 , 2 ).hash() );
+    }
+
+    public void testFrameDumper() throws Exception 
+    {
+        final DefaultVectorDisplay display = new DefaultVectorDisplay();
+        final FrameDumper dumper = new FrameDumper( directory , 2 );
+        display.addFrameListener( dumper );
+
+        for ( int i = 0 ; i < 3 ; i++ ) {
+            display.renderFrame();
+        }
+        assertEquals( 3 , display.getFrameCount() );
+        assertNull( dumper.getError() );
+        assertEquals( 1 , directory.listFiles().length );
+
+        final BufferedImage image = ImageIO.read( dumper.getFile( display , 2 ) );
+        assertEquals( DefaultVectorDisplay.DISPLAY_WIDTH_PIXELS , image.getWidth() );
+        assertEquals( DefaultVectorDisplay.DISPLAY_HEIGHT_PIXELS , image.getHeight() );
+        assertEquals( 0xff000000 , image.getRGB( 0 , 0 ) );
+    }
+
+    public void testFrameHashWriter() 
+    {
+        final DefaultVectorDisplay display = new DefaultVectorDisplay();
+
+        // no consumers , no frames
+        display.renderFrame();
+        assertEquals( 0 , display.getFrameCount() );
+
+        final StringWriter out = new StringWriter();
+        display.addFrameListener( new FrameHashWriter( out ) );
+        display.renderFrame();
+        display.renderFrame();
+
+        final String[] lines = out.toString().split("\n");
+        assertEquals( 2 , lines.length );
+        assertTrue( lines[0] , lines[0].matches("SPED-3 1 [0-9a-f]{16}") );
+        assertEquals( lines[0].substring( lines[0].lastIndexOf(' ') ) , lines[1].substring( lines[1].lastIndexOf(' ') ) );
+    }
+}
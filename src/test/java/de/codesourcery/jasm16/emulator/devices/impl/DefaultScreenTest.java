@@ -0,0 +1,266 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices.impl;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JPanel;
+
+import junit.framework.TestCase;
+import de.codesourcery.jasm16.emulator.Emulator;
+import de.codesourcery.jasm16.emulator.ICPU;
+import de.codesourcery.jasm16.emulator.IEmulator;
+import de.codesourcery.jasm16.emulator.IEmulatorInvoker;
+import de.codesourcery.jasm16.emulator.devices.Framebuffer;
+import de.codesourcery.jasm16.emulator.devices.IFrameListener;
+import de.codesourcery.jasm16.emulator.devices.IFramebufferDevice;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+
+public class DefaultScreenTest extends TestCase 
+{
+    private static final int VIDEO_RAM = 0x8000;
+    private static final int FONT_RAM = 0x8180;
+
+    private static final int WIDTH = DefaultScreen.STANDARD_SCREEN_COLUMNS * DefaultScreen.GLYPH_WIDTH + 2 * DefaultScreen.BORDER_WIDTH;
+    private static final int HEIGHT = DefaultScreen.STANDARD_SCREEN_ROWS * DefaultScreen.GLYPH_HEIGHT + 2 * DefaultScreen.BORDER_HEIGHT;
+
+    private final List<Emulator> emulators = new ArrayList<Emulator>();
+
+    private final List<Rectangle> repaints = new ArrayList<Rectangle>();
+
+    private final JPanel peer = new JPanel() 
+    {
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) 
+        {
+            synchronized( repaints ) {
+                repaints.add( new Rectangle( x , y , width , height ) );
+            }
+        }
+    };
+
+    @Override
+    protected void tearDown() throws Exception 
+    {
+        for ( Emulator emulator : emulators ) {
+            emulator.dispose();
+        }
+    }
+
+    private DefaultScreen createScreen(JPanel peer) 
+    {
+        final Emulator emulator = new Emulator( false );
+        emulators.add( emulator );
+        final DefaultScreen screen = new DefaultScreen( true , true );
+        emulator.addDevice( screen );
+        if ( peer != null ) {
+            peer.setSize( WIDTH , HEIGHT );
+            screen.attach( peer );
+        }
+        return screen;
+    }
+
+    private void write(final int address,final int... values) 
+    {
+        for ( Emulator emulator : emulators ) 
+        {
+            emulator.doWithEmulator( new IEmulatorInvoker<Void>() {
+
+                @Override
+                public Void doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory) 
+                {
+                    for ( int i = 0 ; i < values.length ; i++ ) {
+                        memory.write( address + i , values[i] );
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static int countRenderThreads() 
+    {
+        int result = 0;
+        for ( Thread thread : Thread.getAllStackTraces().keySet() ) 
+        {
+            if ( thread.isAlive() && "LEM1802-renderer".equals( thread.getName() ) ) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public void testRenderThreadOnlyRunsWhileAttached() 
+    {
+        final int threadsBefore = countRenderThreads();
+
+        final DefaultScreen screen = createScreen( null );
+        assertEquals( threadsBefore , countRenderThreads() );
+
+        peer.setSize( WIDTH , HEIGHT );
+        screen.attach( peer );
+        assertEquals( threadsBefore + 1 , countRenderThreads() );
+
+        screen.detach();
+        assertEquals( threadsBefore , countRenderThreads() );
+    }
+
+    public void testIncrementalRenderingMatchesFullRendering() 
+    {
+        final DefaultScreen incremental = createScreen( peer );
+        incremental.renderScreen();
+
+        write( VIDEO_RAM , 0xf141 , 0xf142 , 0x2e43 );
+        incremental.renderScreen();
+
+        write( VIDEO_RAM + 100 , 0xf141 );
+        write( FONT_RAM + 0x41*2 , 0xffff , 0x0f0f ); // redefine 'A'
+        incremental.renderScreen();
+
+        write( VIDEO_RAM + 1 , 0x4f44 );
+        incremental.renderScreen();
+
+        // renders everything at once
+        final int[] contents = new int[ FONT_RAM + 256 - VIDEO_RAM ];
+        for ( int i = 0 ; i < contents.length ; i++ ) {
+            contents[i] = emulators.get(0).getMemory().read( VIDEO_RAM + i );
+        }
+        final DefaultScreen full = createScreen( new JPanel() );
+        write( VIDEO_RAM , contents );
+        full.renderScreen();
+
+        final BufferedImage expected = full.getScreenImage();
+        final BufferedImage actual = incremental.getScreenImage();
+        for ( int y = 0 ; y < HEIGHT ; y++ ) 
+        {
+            for ( int x = 0 ; x < WIDTH ; x++ ) {
+                assertEquals( "Pixel ("+x+","+y+")" , expected.getRGB( x , y ) , actual.getRGB( x , y ) );
+            }
+        }
+    }
+
+    public void testOnlyChangedCellsAreRepainted() 
+    {
+        final DefaultScreen screen = createScreen( peer );
+        screen.renderScreen();
+        synchronized( repaints ) {
+            repaints.clear();
+        }
+
+        // row 5 , columns 3 and 4
+        write( VIDEO_RAM + 5 * DefaultScreen.STANDARD_SCREEN_COLUMNS + 3 , 0xf141 , 0xf142 );
+        screen.renderScreen();
+
+        final int y0 = DefaultScreen.BORDER_HEIGHT + 5 * DefaultScreen.GLYPH_HEIGHT;
+        final int x0 = DefaultScreen.BORDER_WIDTH + 3 * DefaultScreen.GLYPH_WIDTH;
+        final Rectangle expected = new Rectangle( x0 - 1 , y0 - 1 , 2 * DefaultScreen.GLYPH_WIDTH + 2 , DefaultScreen.GLYPH_HEIGHT + 2 );
+        synchronized( repaints ) 
+        {
+            assertFalse( repaints.isEmpty() );
+            for ( Rectangle r : repaints ) {
+                assertTrue( r.toString() , expected.contains( r ) );
+            }
+        }
+    }
+
+    public void testHeadlessFrames() 
+    {
+        final DefaultScreen headless = createScreen( null );
+        write( VIDEO_RAM , 0xf141 , 0xf142 );
+
+        // nobody consumes frames
+        headless.renderScreen();
+        assertEquals( 0 , headless.getFrameCount() );
+
+        final List<Framebuffer> frames = new ArrayList<Framebuffer>();
+        headless.addFrameListener( new IFrameListener() {
+
+            @Override
+            public void frameRendered(IFramebufferDevice device, Framebuffer frame) 
+            {
+                synchronized( frames ) {
+                    frames.add( frame.createCopy() );
+                }
+            }
+        });
+        headless.renderScreen();
+
+        final DefaultScreen attached = createScreen( peer );
+        write( VIDEO_RAM , 0xf141 , 0xf142 );
+        attached.renderScreen();
+
+        final Framebuffer frame;
+        synchronized( frames ) 
+        {
+            assertFalse( frames.isEmpty() );
+            frame = frames.get( frames.size() - 1 );
+        }
+        assertEquals( headless.getFrameCount() , frame.getFrameNumber() );
+        assertEquals( WIDTH , frame.getWidth() );
+        assertEquals( HEIGHT , frame.getHeight() );
+
+        final BufferedImage expected = attached.getScreenImage();
+        for ( int y = 0 ; y < HEIGHT ; y++ ) 
+        {
+            for ( int x = 0 ; x < WIDTH ; x++ ) {
+                assertEquals( "Pixel ("+x+","+y+")" , 0xff000000 | expected.getRGB( x , y ) , frame.getPixel( x , y ) );
+            }
+        }
+    }
+
+    public void testFramesFollowEmulatedTime() 
+    {
+        final DefaultScreen screen = createScreen( null );
+        final Emulator emulator = emulators.get(0);
+        write( 0 , 0x8b83 ); // loop: SUB PC,1
+        write( VIDEO_RAM , 0xf1c1 ); // blinking 'A'
+
+        final List<Framebuffer> frames = new ArrayList<Framebuffer>();
+        screen.addFrameListener( new IFrameListener() {
+
+            @Override
+            public void frameRendered(IFramebufferDevice device, Framebuffer frame) {
+                frames.add( frame.createCopy() );
+            }
+        });
+
+        emulator.start();
+        while ( emulator.getCPU().getCurrentCycleCount() < 2 * DefaultScreen.FRAMES_PER_BLINK * DefaultScreen.CYCLES_PER_FRAME ) {
+            emulator.executeTimeSlice( 1000 );
+        }
+        emulator.stop();
+
+        // frame listeners get invoked on the emulation thread for each emulated frame
+        final long expectedFrames = emulator.getCPU().getCurrentCycleCount() / DefaultScreen.CYCLES_PER_FRAME;
+        assertEquals( expectedFrames , screen.getEmulatedFrameCount() );
+        assertEquals( expectedFrames , frames.size() );
+        assertEquals( 0 , screen.getSkippedFrameCount() );
+        for ( int i = 0 ; i < frames.size() ; i++ ) {
+            assertEquals( i + 1 , frames.get(i).getFrameNumber() );
+        }
+
+        // blink state toggles every FRAMES_PER_BLINK emulated frames
+        final int x = DefaultScreen.BORDER_WIDTH;
+        final int y = DefaultScreen.BORDER_HEIGHT;
+        final int visible = frames.get( 0 ).getPixel( x , y );
+        assertEquals( visible , frames.get( DefaultScreen.FRAMES_PER_BLINK - 2 ).getPixel( x , y ) );
+        assertFalse( visible == frames.get( DefaultScreen.FRAMES_PER_BLINK - 1 ).getPixel( x , y ) );
+        assertEquals( visible , frames.get( 2 * DefaultScreen.FRAMES_PER_BLINK - 1 ).getPixel( x , y ) );
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.devices.impl;
+
+import java.awt.Color;
+
+import junit.framework.TestCase;
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.emulator.Emulator;
+import de.codesourcery.jasm16.emulator.ICPU;
+import de.codesourcery.jasm16.emulator.IEmulator;
+import de.codesourcery.jasm16.emulator.IEmulatorInvoker;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultVectorDisplay.VertexRAM;
+import de.codesourcery.jasm16.emulator.memory.IMemory;
+import de.codesourcery.jasm16.utils.Matrix;
+
+public class DefaultVectorDisplayTest extends TestCase 
+{
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 10;
+
+    private Emulator emulator;
+
+    @Override
+    protected void tearDown() throws Exception 
+    {
+        if ( emulator != null ) {
+            emulator.dispose();
+        }
+    }
+
+    private static void assertPixels(int[] pixels,String expected) 
+    {
+        final StringBuilder actual = new StringBuilder();
+        for ( int y = 0 ; y < HEIGHT ; y++ ) 
+        {
+            for ( int x = 0 ; x < WIDTH ; x++ ) {
+                actual.append( pixels[ y * WIDTH + x ] != 0 ? 'X' : '.' );
+            }
+            actual.append('\n');
+        }
+        assertEquals( expected , actual.toString() );
+    }
+
+    public void testDrawLineClipsToImage() 
+    {
+        final int[] pixels = new int[ WIDTH * HEIGHT ];
+        DefaultVectorDisplay.drawLine( pixels , WIDTH , HEIGHT , -1000000 , 2 , Integer.MAX_VALUE , 2 , 1 );
+        DefaultVectorDisplay.drawLine( pixels , WIDTH , HEIGHT , -5 , -5 , 20 , 20 , 1 );
+        DefaultVectorDisplay.drawLine( pixels , WIDTH , HEIGHT , 7 , 6 , 7 , 6 , 1 );
+        // completely off-screen
+        DefaultVectorDisplay.drawLine( pixels , WIDTH , HEIGHT , 11 , -3 , 30 , 5 , 1 );
+        DefaultVectorDisplay.drawLine( pixels , WIDTH , HEIGHT , Integer.MIN_VALUE , Integer.MIN_VALUE , -1 , Integer.MAX_VALUE , 1 );
+
+        assertPixels( pixels , "X.........\n"+
+                               ".X........\n"+
+                               "XXXXXXXXXX\n"+
+                               "...X......\n"+
+                               "....X.....\n"+
+                               ".....X....\n"+
+                               "......XX..\n"+
+                               ".......X..\n"+
+                               "........X.\n"+
+                               ".........X\n");
+    }
+
+    private void write(final int address,final int value) 
+    {
+        emulator.doWithEmulator( new IEmulatorInvoker<Void>() {
+
+            @Override
+            public Void doWithEmulator(IEmulator emulator, ICPU cpu, IMemory memory) 
+            {
+                memory.write( address , value );
+                return null;
+            }
+        });
+    }
+
+    public void testVerticesAreDecodedOnWrite() 
+    {
+        emulator = new Emulator( false );
+        final VertexRAM ram = new VertexRAM( Address.wordAddress( 0x1000 ) , 2 );
+
+        final float[] identity = new float[ Matrix.SIZE * Matrix.SIZE ];
+        for ( int i = 0 ; i < Matrix.SIZE ; i++ ) {
+            identity[ i * Matrix.SIZE + i ] = 1;
+        }
+        final int[] x = new int[2];
+        final int[] y = new int[2];
+        final int[] rgb = new int[2];
+        assertEquals( "not mapped" , 0 , ram.project( identity , x , y , rgb ) );
+
+        ram.map( emulator );
+        write( 0x1000 , 0x8090 ); // x = 16 , y = 0
+        write( 0x1001 , 0x0100 ); // red
+        write( 0x1002 , 0x7080 ); // x = 0 , y = -16 
+        write( 0x1003 , 0x0700 ); // intense blue
+
+        assertEquals( 2 , ram.project( identity , x , y , rgb ) );
+        assertEquals( DefaultVectorDisplay.DISPLAY_WIDTH_PIXELS/2 + 32 , x[0] );
+        assertEquals( DefaultVectorDisplay.DISPLAY_HEIGHT_PIXELS/2 , y[0] );
+        assertEquals( Color.RED.darker().getRGB() , rgb[0] );
+        assertEquals( DefaultVectorDisplay.DISPLAY_WIDTH_PIXELS/2 , x[1] );
+        assertEquals( DefaultVectorDisplay.DISPLAY_HEIGHT_PIXELS/2 + 32 , y[1] );
+        assertEquals( Color.BLUE.getRGB() , rgb[1] );
+
+        write( 0x1002 , 0x9080 ); // y = 16
+        ram.project( identity , x , y , rgb );
+        assertEquals( DefaultVectorDisplay.DISPLAY_HEIGHT_PIXELS/2 - 32 , y[1] );
+        assertEquals( DefaultVectorDisplay.DISPLAY_WIDTH_PIXELS/2 + 32 , x[0] );
+    }
+}
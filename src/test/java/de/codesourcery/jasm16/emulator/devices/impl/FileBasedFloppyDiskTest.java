@@ -21,6 +21,8 @@ import java.io.IOException;
 import java.util.Random;
 
 import junit.framework.TestCase;
+import de.codesourcery.jasm16.Address;
+import de.codesourcery.jasm16.emulator.memory.MainMemory;
 import de.codesourcery.jasm16.utils.Misc;
 
 public class FileBasedFloppyDiskTest extends TestCase 
@@ -139,6 +141,53 @@ public class FileBasedFloppyDiskTest extends TestCase
         assertArraysEqual( diskContents , offsetOfLastSector , buffer , 0 , halfSectorSize );
     }    
     
+    public void testWritesAreCachedUntilFlush() throws IOException 
+    {
+        final int sector = 3;
+        final MainMemory source = new MainMemory(65536);
+        for ( int i = 0 ; i < FloppyDisk.WORDS_PER_SECTOR ; i++ ) {
+            source.write( 0x1000 + i , 0xbe00 + i );
+        }
+        disk.writeSector( sector , source , Address.wordAddress( 0x1000 ) );
+        assertEquals( 0 , tmpFile.length() );
+
+        disk.read( buffer , sector * BYTES_PER_SECTOR );
+        assertEquals( (byte) 0xbe , buffer[0] );
+        assertEquals( (byte) 0x01 , buffer[3] );
+
+        disk.flush();
+        assertEquals( ( sector + 1 ) * BYTES_PER_SECTOR , tmpFile.length() );
+
+        final MainMemory target = new MainMemory(65536);
+        new FileBasedFloppyDisk( tmpFile ).readSector( sector , target , Address.wordAddress( 0xfff0 ) );
+        for ( int i = 0 ; i < FloppyDisk.WORDS_PER_SECTOR ; i++ ) {
+            assertEquals( 0xbe00 + i , target.read( ( 0xfff0 + i ) & 0xffff ) );
+        }
+    }
+
+    public void testReadWithNegativeOffsetFails() throws IOException 
+    {
+        try {
+            disk.read( buffer , -1 );
+            fail("Should've failed");
+        } catch(IOException e) {
+            // ok
+        }
+    }
+
+    public void testWriteProtectedDiskRejectsWrites() throws IOException 
+    {
+        disk = new FileBasedFloppyDisk( tmpFile , true );
+        try {
+            disk.writeSector( 0 , new MainMemory(65536) , Address.wordAddress( 0 ) );
+            fail("Should've failed");
+        } catch(IOException e) {
+            // ok
+        }
+        disk.flush();
+        assertEquals( 0 , tmpFile.length() );
+    }
+
     private void assertArraysEqual(byte[] expected,int expectedOffset, byte[] actual, int actualOffset , int length) {
         
         for ( int i = 0  ;  i < length ; i++ ) 
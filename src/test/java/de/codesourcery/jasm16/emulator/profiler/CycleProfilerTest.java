@@ -0,0 +1,177 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.profiler;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import de.codesourcery.jasm16.emulator.AbstractHeadlessEmulatorTest;
+import de.codesourcery.jasm16.emulator.Emulator;
+import de.codesourcery.jasm16.emulator.profiler.CycleProfiler.Mode;
+
+public class CycleProfilerTest extends AbstractHeadlessEmulatorTest
+{
+    // like CLOCK_PROGRAM but the main loop calls a subroutine
+    private static final String PROGRAM = "       IAS handler\n"+
+                                          "       SET a,0\n"+
+                                          "       SET b,1\n"+
+                                          "       HWI 0\n"+
+                                          "       SET a,2\n"+
+                                          "       SET b,0x42\n"+
+                                          "       HWI 0\n"+
+                                          "loop:  JSR work\n"+
+                                          "       ADD [0x1001],1\n"+
+                                          "       SET PC,loop\n"+
+                                          "work:  SET i,10\n"+
+                                          "inner: SUB i,1\n"+
+                                          "       IFN i,0\n"+
+                                          "       SET PC,inner\n"+
+                                          "       SET PC,POP\n"+
+                                          "handler: ADD [0x1000],1\n"+
+                                          "       RFI 0\n";
+
+    private Emulator profile(CycleProfiler profiler,int instructions) throws Exception
+    {
+        final Emulator emulator = createEmulator();
+        emulator.loadMemory( compile( PROGRAM ) );
+
+        emulator.setProfiler( profiler );
+        run( emulator , instructions );
+        assertTrue( "Interrupt handler never invoked" , emulator.getMemory().read( 0x1000 ) > 0 );
+        return emulator;
+    }
+
+    private static CallTreeNode findChild(CallTreeNode node,int entryAddress,boolean interruptHandler)
+    {
+        for ( CallTreeNode child : node.getChildren() ) {
+            if ( child.getEntryAddress() == entryAddress && child.isInterruptHandler() == interruptHandler ) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    public void testExactProfile() throws Exception
+    {
+        final CycleProfiler profiler = new CycleProfiler();
+        final Emulator emulator = profile( profiler , 50000 );
+        final Profile profile = profiler.createProfile();
+
+        assertEquals( Mode.EXACT , profile.getMode() );
+        assertEquals( emulator.getCPU().getCurrentCycleCount() , profile.getTotalCycles() );
+
+        long sum = 0;
+        for ( int address = 0 ; address < 65536 ; address++ ) {
+            sum += profile.getCycles( address );
+        }
+        assertEquals( profile.getTotalCycles() , sum );
+
+        // JSR/SET PC,POP pairs
+        final CallTreeNode root = profile.getCallTree();
+        assertTrue( root.isRoot() );
+        assertEquals( profile.getTotalCycles() , root.getTotalCycles() );
+
+        final CallTreeNode work = findChild( root , getLabelAddress( "work" ) , false );
+        assertNotNull( work );
+        assertEquals( emulator.getMemory().read( 0x1001 ) , work.getInvocationCount() , 1 );
+        assertTrue( work.getTotalCycles() > root.getSelfCycles() );
+
+        // interrupts may hit the main loop as well as the subroutine
+        final int handlerAddress = getLabelAddress("handler");
+        long interrupts = 0;
+        for ( CallTreeNode node : new CallTreeNode[] { root , work } )
+        {
+            final CallTreeNode handler = findChild( node , handlerAddress , true );
+            if ( handler != null ) {
+                assertTrue( handler.getChildren().isEmpty() );
+                interrupts += handler.getInvocationCount();
+            }
+        }
+        assertEquals( emulator.getMemory().read( 0x1000 ) , interrupts , 1 );
+
+        // flat profiles
+        final List<Profile.Entry> byLabel = profile.getFlatProfileByLabel( debugInfo );
+        assertEquals( "inner" , byLabel.get(0).getName() );
+
+        final List<Profile.Entry> byLine = profile.getFlatProfileByLine( debugInfo );
+        long lineSum = 0;
+        for ( Profile.Entry entry : byLine ) {
+            assertFalse( entry.getName() , entry.getName().startsWith("<no source>") );
+            lineSum += entry.getCycles();
+        }
+        assertEquals( profile.getTotalCycles() , lineSum );
+    }
+
+    public void testCollapsedStacks() throws Exception
+    {
+        final CycleProfiler profiler = new CycleProfiler();
+        profile( profiler , 20000 );
+        final Profile profile = profiler.createProfile();
+
+        final StringWriter writer = new StringWriter();
+        profile.writeCollapsedStacks( writer , debugInfo );
+
+        long sum = 0;
+        boolean foundSubroutine = false;
+        boolean foundHandler = false;
+        for ( String line : writer.toString().split("\n") )
+        {
+            assertTrue( line , line.startsWith( Profile.ROOT_FRAME ) );
+            foundSubroutine |= line.startsWith( Profile.ROOT_FRAME+";work " );
+            foundHandler |= line.contains( ";"+Profile.INTERRUPT_HANDLER_PREFIX+"handler " );
+            sum += Long.parseLong( line.substring( line.lastIndexOf(' ')+1 ) );
+        }
+        assertTrue( foundSubroutine );
+        assertTrue( foundHandler );
+        assertEquals( profile.getTotalCycles() , sum );
+    }
+
+    public void testClear() throws Exception
+    {
+        final CycleProfiler profiler = new CycleProfiler();
+        profile( profiler , 1000 );
+        profiler.clear();
+
+        final Profile profile = profiler.createProfile();
+        assertEquals( 0 , profile.getTotalCycles() );
+        assertTrue( profile.getCallTree().getChildren().isEmpty() );
+        assertTrue( profile.getFlatProfileByLabel( debugInfo ).isEmpty() );
+    }
+
+    public void testSamplingProfile() throws Exception
+    {
+        final CycleProfiler profiler = new CycleProfiler( Mode.SAMPLING , 10 );
+        final Emulator emulator = profile( profiler , 50000 );
+        emulator.setProfiler( null );
+        final Profile profile = profiler.createProfile();
+
+        assertEquals( Mode.SAMPLING , profile.getMode() );
+        assertNull( profile.getCallTree() );
+
+        final long cycles = emulator.getCPU().getCurrentCycleCount();
+        assertTrue( profile.getTotalCycles() <= cycles );
+        assertTrue( profile.getTotalCycles() > cycles / 2 );
+
+        final List<Profile.Entry> byLabel = profile.getFlatProfileByLabel( debugInfo );
+        assertEquals( "inner" , byLabel.get(0).getName() );
+        try {
+            profile.writeCollapsedStacks( new StringWriter() , debugInfo );
+            fail("Should've failed");
+        } catch(IllegalStateException e) {
+            // ok
+        }
+    }
+}
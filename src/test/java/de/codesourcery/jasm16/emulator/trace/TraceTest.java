@@ -0,0 +1,218 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.jasm16.emulator.trace;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.codesourcery.jasm16.Register;
+import de.codesourcery.jasm16.emulator.AbstractHeadlessEmulatorTest;
+import de.codesourcery.jasm16.emulator.Emulator;
+import de.codesourcery.jasm16.emulator.devices.IDevice;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultClock;
+import de.codesourcery.jasm16.emulator.devices.impl.DefaultFloppyDrive;
+import de.codesourcery.jasm16.emulator.devices.impl.FileBasedFloppyDisk;
+import de.codesourcery.jasm16.emulator.devices.impl.FloppyDisk;
+import de.codesourcery.jasm16.emulator.memory.MemoryImage;
+
+public class TraceTest extends AbstractHeadlessEmulatorTest
+{
+    private final List<File> files = new ArrayList<File>();
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try {
+            for ( File file : files ) {
+                file.delete();
+            }
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    private Emulator trace(String source,int instructions,File file) throws Exception
+    {
+        return trace( source , instructions , file , new DefaultClock() );
+    }
+
+    private Emulator trace(String source,int instructions,File file,IDevice device) throws Exception
+    {
+        final Emulator emulator = createEmulator( device );
+        emulator.loadMemory( compile( source ) );
+
+        emulator.startTrace( file );
+        run( emulator , instructions );
+        emulator.stopTrace();
+        return emulator;
+    }
+
+    private File createTempFile() throws IOException
+    {
+        final File file = File.createTempFile( "trace" , ".bin" );
+        files.add( file );
+        return file;
+    }
+
+    public void testTraceReproducesFinalState() throws Exception
+    {
+        final File file = createTempFile();
+        final Emulator emulator = trace( CLOCK_PROGRAM , 20000 , file );
+
+        final MemoryImage image = compile( CLOCK_PROGRAM );
+        final int[] memory = new int[ 65536 ];
+        for ( int i = 0 ; i < memory.length ; i++ ) {
+            memory[i] = image.read( i );
+        }
+
+        final TraceRecord last = replay( file , memory , 20000 );
+        for ( Register r : new Register[] { Register.A , Register.B , Register.C , Register.X , Register.Y , Register.Z ,
+                Register.I , Register.J , Register.EX , Register.SP } )
+        {
+            assertEquals( r.toString() , emulator.getCPU().getRegisterValue( r ) , last.getRegisterValue( r ) );
+        }
+        assertEquals( emulator.getCPU().getCurrentCycleCount() , last.getCycleCount() );
+        assertSameMemory( emulator , memory );
+    }
+
+    public void testTraceRecordsFloppyReads() throws Exception
+    {
+        final int sector = 1;
+        final File image = createTempFile();
+        final byte[] data = new byte[ ( sector + 1 ) * FloppyDisk.WORDS_PER_SECTOR * 2 ];
+        for ( int i = 0 ; i < data.length ; i++ ) {
+            data[i] = (byte) ( i * 7 + 1 );
+        }
+        final FileOutputStream out = new FileOutputStream( image );
+        try {
+            out.write( data );
+        } finally {
+            out.close();
+        }
+
+        final String program = "       SET a,2\n"+
+                               "       SET x,"+sector+"\n"+
+                               "       SET y,0x2000\n"+
+                               "       HWI 0\n"+
+                               "loop:  SET PC,loop\n";
+
+        final DefaultFloppyDrive drive = new DefaultFloppyDrive( true );
+        drive.setDisk( new FileBasedFloppyDisk( image , true ) );
+
+        final File file = createTempFile();
+        final Emulator emulator = trace( program , 100 , file , drive );
+        final int offset = sector * FloppyDisk.WORDS_PER_SECTOR * 2;
+        assertEquals( ( data[ offset ] & 0xff ) << 8 | ( data[ offset + 1 ] & 0xff ) , emulator.getMemory().read( 0x2000 ) );
+
+        final MemoryImage compiled = compile( program );
+        final int[] memory = new int[ 65536 ];
+        for ( int i = 0 ; i < memory.length ; i++ ) {
+            memory[i] = compiled.read( i );
+        }
+        replay( file , memory , 100 );
+        assertSameMemory( emulator , memory );
+    }
+
+    /**
+     * Applies the memory writes recorded in a trace.
+     *
+     * @return the last record
+     */
+    private static TraceRecord replay(File file,int[] memory,long expectedRecordCount) throws IOException
+    {
+        final TraceReader reader = new TraceReader( file );
+        try
+        {
+            TraceRecord last = null;
+            long count = 0;
+            for ( TraceRecord record ; ( record = reader.next() ) != null ; count++ )
+            {
+                assertEquals( count , record.getIndex() );
+                assertEquals( memory[ record.getPC() ] , record.getInstructionWord( 0 ) );
+                for ( int i = 0 ; i < record.getMemoryWriteCount() ; i++ ) {
+                    memory[ record.getMemoryWriteAddress( i ) ] = record.getMemoryWriteValue( i );
+                }
+                last = record;
+            }
+            assertEquals( expectedRecordCount , count );
+            return last;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void assertSameMemory(Emulator emulator,int[] memory)
+    {
+        for ( int i = 0 ; i < 65536 ; i++ ) {
+            assertEquals( "Memory differs at "+i , emulator.getMemory().read( i ) , memory[i] );
+        }
+    }
+
+    public void testFilter() throws Exception
+    {
+        final File file = createTempFile();
+        final Emulator emulator = trace( CLOCK_PROGRAM , 20000 , file );
+
+        final ITraceFilter interruptHandler = new ITraceFilter() {
+
+            @Override
+            public boolean accept(TraceRecord record) {
+                return record.getPC() == CLOCK_PROGRAM_HANDLER_ADDRESS;
+            }
+        };
+
+        final TraceReader reader = new TraceReader( file );
+        try
+        {
+            int count = 0;
+            for ( TraceRecord record ; ( record = reader.next( interruptHandler ) ) != null ; count++ ) {
+                assertTrue( record.toString() , record.toString().contains("ADD [ 0x1000 ]") );
+            }
+            assertTrue( count > 0 );
+            assertEquals( emulator.getMemory().read( 0x1000 ) , count );
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testFindFirstDifference() throws Exception
+    {
+        final File original = createTempFile();
+        final File same = createTempFile();
+        final File changed = createTempFile();
+
+        trace( CLOCK_PROGRAM , 5000 , original );
+        trace( CLOCK_PROGRAM , 5000 , same );
+        trace( CLOCK_PROGRAM.replace( "ADD x,[0x1000]" , "ADD y,[0x1000]" ) , 5000 , changed );
+
+        assertEquals( -1 , TraceReader.findFirstDifference( new TraceReader( original ) , new TraceReader( same ) ) );
+        assertEquals( 8 , TraceReader.findFirstDifference( new TraceReader( original ) , new TraceReader( changed ) ) );
+    }
+
+    public void testReadingGarbageFails() throws Exception
+    {
+        try {
+            new TraceReader( new ByteArrayInputStream( new byte[] { 1,2,3,4,5,6,7,8 } ) );
+            fail("Should've failed");
+        } catch(IOException e) {
+            // ok
+        }
+    }
+}